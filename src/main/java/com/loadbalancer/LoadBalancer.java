@@ -1,10 +1,27 @@
 package com.loadbalancer;
 
 import com.loadbalancer.algorithm.*;
+import com.loadbalancer.cache.DiskCache;
+import com.loadbalancer.cache.RequestCoalescer;
+import com.loadbalancer.cache.ResponseCache;
+import com.loadbalancer.compression.ResponseCompressor;
 import com.loadbalancer.config.Config;
+import com.loadbalancer.health.CircuitBreaker;
 import com.loadbalancer.health.HealthChecker;
+import com.loadbalancer.health.OutlierDetector;
+import com.loadbalancer.proxy.BackendConnectionPool;
+import com.loadbalancer.proxy.BufferPool;
+import com.loadbalancer.proxy.ConcurrencyLimiter;
+import com.loadbalancer.proxy.HedgingPolicy;
+import com.loadbalancer.proxy.Http2BackendPool;
+import com.loadbalancer.proxy.RetryPolicy;
+import com.loadbalancer.proxy.SniRouter;
 import com.loadbalancer.server.Backend;
 import com.loadbalancer.server.Listener;
+import com.loadbalancer.server.QueueDelayController;
+import com.loadbalancer.server.TlsTerminator;
+import com.loadbalancer.util.Durations;
+import com.loadbalancer.util.LatencyHistogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -73,11 +90,22 @@ public class LoadBalancer {
             Backend backend = new Backend(
                     backendConfig.getHost(),
                     backendConfig.getPort(),
-                    backendConfig.getWeight());
+                    backendConfig.getWeight(),
+                    createConnectionPool(backendConfig),
+                    createHttp2Pool(backendConfig),
+                    backendConfig.getServerNames() != null ? backendConfig.getServerNames() : List.of());
+            // Give each backend its own circuit breaker if enabled
+            Config.CircuitBreakerConfig breaker = config.getCircuitBreaker();
+            if (breaker != null && breaker.isEnabled()) {
+                backend.setCircuitBreaker(new CircuitBreaker(backend.getAddress(), breaker.getWindowSize(),
+                        breaker.getMinimumCalls(), breaker.getFailureRateThreshold(),
+                        breaker.getSlowCallRateThreshold(), Durations.parseMillis(breaker.getSlowCallDuration()),
+                        Durations.parseMillis(breaker.getOpenDuration()), breaker.getHalfOpenCalls()));
+            }
             // Add to shared backends list
             backends.add(backend);
-            logger.info("Registered backend: {} (weight: {})",
-                    backend.getAddress(), backend.getWeight());
+            logger.info("Registered backend: {} (weight: {}, protocol: {})",
+                    backend.getAddress(), backend.getWeight(), backendConfig.getProtocol());
         }
 
         // Create the appropriate load balancing algorithm based on config
@@ -102,13 +130,19 @@ public class LoadBalancer {
 
         // Start the listener to accept client connections
         try {
-            // Create listener with server configuration including thread pool size
-            listener = new Listener(
-                    config.getServer().getHost(),
-                    config.getServer().getPort(),
-                    backends,
-                    algorithm,
-                    config.getServer().getThreadPoolSize());
+            // Create listener with server configuration (thread pool size, I/O model)
+            listener = new Listener(config.getServer(), backends, algorithm);
+
+            // Eject failing backends based on live traffic if enabled
+            Config.OutlierDetectionConfig outliers = config.getOutlierDetection();
+            if (outliers != null && outliers.isEnabled()) {
+                listener.setOutlierDetector(new OutlierDetector(backends,
+                        outliers.getConsecutiveFailures(), outliers.getErrorRate(), outliers.getMinRequests(),
+                        Durations.parseMillis(outliers.getWindow()),
+                        Durations.parseMillis(outliers.getBaseEjectionTime()),
+                        Durations.parseMillis(outliers.getMaxEjectionTime()),
+                        outliers.getMaxEjectionPercent()));
+            }
 
             // Mark as running
             running = true;
@@ -156,6 +190,22 @@ public class LoadBalancer {
             healthChecker.stop();
         }
 
+        // Flush the disk cache so the next start is warm
+        if (listener != null && listener.getResponseCache() != null) {
+            listener.getResponseCache().close();
+        }
+
+        // Close idle pooled backend connections
+        for (Backend backend : backends) {
+            backend.getConnectionPool().closeAll();
+            if (backend.getHttp2Pool() != null) {
+                backend.getHttp2Pool().closeAll();
+            }
+        }
+
+        // Report buffers never returned to the pool (only with leak detection on)
+        BufferPool.getDefault().reportLeaks();
+
         logger.info("Load balancer stopped");
     }
 
@@ -191,11 +241,142 @@ public class LoadBalancer {
         for (Backend backend : backends) {
             status.append(String.format("  %s - %s (connections: %d, weight: %d)\n",
                     backend.getAddress(),
-                    backend.isHealthy() ? "HEALTHY" : "UNHEALTHY",
+                    !backend.isHealthy() ? "UNHEALTHY" : backend.isEjected() ? "EJECTED" : "HEALTHY",
                     backend.getActiveConnections(),
                     backend.getWeight()));
+
+            // Show the circuit breaker state and what it saw
+            CircuitBreaker circuitBreaker = backend.getCircuitBreaker();
+            if (circuitBreaker != null) {
+                status.append(String.format("    circuit: %s, failure rate=%d%%, slow calls=%d%%, opened=%d, "
+                                + "refused=%d\n",
+                        circuitBreaker.getState(), circuitBreaker.getFailureRate(),
+                        circuitBreaker.getSlowCallRate(), circuitBreaker.getOpened(), circuitBreaker.getRefused()));
+            }
+
+            // Show connection pool reuse so operators can verify pooling works
+            BackendConnectionPool pool = backend.getConnectionPool();
+            status.append(String.format("    pool: idle=%d, hits=%d, misses=%d, discarded=%d\n",
+                    pool.getIdleCount(), pool.getHits(), pool.getMisses(), pool.getDiscarded()));
+
+            // Show multiplexing for HTTP/2 backends: many streams over few connections
+            Http2BackendPool http2Pool = backend.getHttp2Pool();
+            if (http2Pool != null) {
+                status.append(String.format("    http2: connections=%d, active streams=%d, streams=%d\n",
+                        http2Pool.getConnectionCount(), http2Pool.getActiveStreams(),
+                        http2Pool.getStreamsOpened()));
+            }
+        }
+
+        // Show how many TLS handshakes skipped the full key exchange
+        TlsTerminator tls = listener != null ? listener.getTlsTerminator() : null;
+        if (tls != null) {
+            status.append(String.format("\nTLS: handshakes=%d, resumed=%d, failed=%d, cached sessions=%d\n",
+                    tls.getHandshakes(), tls.getResumedHandshakes(), tls.getFailedHandshakes(),
+                    tls.getCachedSessions()));
+        }
+
+        // Show how much read load the response cache takes off the backends
+        ResponseCache cache = listener != null ? listener.getResponseCache() : null;
+        if (cache != null) {
+            status.append(String.format("\nCache: hit ratio=%.1f%% (hits=%d, misses=%d), entries=%d, "
+                            + "bytes=%d/%d, evictions=%d, rejected=%d\n",
+                    cache.getHitRatio() * 100, cache.getHits(), cache.getMisses(), cache.getEntryCount(),
+                    cache.getBytesUsed(), cache.getMaxBytes(), cache.getEvictions(), cache.getRejections()));
+            DiskCache disk = cache.getDiskTier();
+            if (disk != null) {
+                status.append(String.format("Disk cache: hits=%d, misses=%d, entries=%d, bytes=%d/%d, "
+                                + "evictions=%d, compactions=%d, rejected=%d\n",
+                        disk.getHits(), disk.getMisses(), disk.getEntryCount(), disk.getLiveBytes(),
+                        disk.getCapacity(), disk.getEvictions(), disk.getCompactions(), disk.getRejections()));
+            }
+        }
+
+        // Show how many backend requests coalescing saved
+        RequestCoalescer coalescer = listener != null ? listener.getRequestCoalescer() : null;
+        if (coalescer != null) {
+            status.append(String.format("\nCoalescing: saved backend requests=%d, leaders=%d, fallbacks=%d, "
+                            + "in flight=%d\n",
+                    coalescer.getCoalesced(), coalescer.getLeaders(), coalescer.getFallbacks(),
+                    coalescer.getInFlight()));
+        }
+
+        // Show the CPU cost of compression against the bandwidth it saved
+        ResponseCompressor compressor = listener != null ? listener.getResponseCompressor() : null;
+        if (compressor != null) {
+            status.append(String.format("\nCompression: responses=%d, bytes in=%d, out=%d, saved=%.1f%%, "
+                            + "cpu=%.2f ms/MB\n",
+                    compressor.getResponses(), compressor.getBytesIn(), compressor.getBytesOut(),
+                    compressor.getSavedRatio() * 100, compressor.getMillisPerMegabyte()));
+        }
+
+        // Show how often failed requests were retried and whether the budget held
+        RetryPolicy retryPolicy = listener != null ? listener.getRetryPolicy() : null;
+        if (retryPolicy != null) {
+            status.append(String.format("\nRetries: retried=%d, budget exhausted=%d, budget available=%.1f\n",
+                    retryPolicy.getRetries(), retryPolicy.getExhausted(), retryPolicy.getAvailable()));
+        }
+
+        // Show how often slow requests were hedged and how often the hedge answered first
+        HedgingPolicy hedgingPolicy = listener != null ? listener.getHedgingPolicy() : null;
+        if (hedgingPolicy != null) {
+            status.append(String.format("\nHedging: requests=%d, hedged=%d (%.1f%%), hedge wins=%d (%.1f%%), "
+                            + "budget exhausted=%d, delay=%.1f ms\n",
+                    hedgingPolicy.getRequests(), hedgingPolicy.getHedges(), hedgingPolicy.getHedgeRate() * 100,
+                    hedgingPolicy.getWins(), hedgingPolicy.getWinRate() * 100, hedgingPolicy.getExhausted(),
+                    hedgingPolicy.getDelayMillis()));
         }
 
+        // Show where the concurrency limit settled and how much load it shed
+        ConcurrencyLimiter limiter = listener != null ? listener.getConcurrencyLimiter() : null;
+        if (limiter != null) {
+            status.append(String.format("\nConcurrency limit: limit=%d, in flight=%d, no-load rtt=%.1f ms, admitted=%d, "
+                            + "rejected=%d, refused connections=%d\n",
+                    limiter.getLimit(), limiter.getInFlight(), limiter.getMinRttMillis(), limiter.getAdmitted(),
+                    limiter.getRejected(), listener.getRejectedConnections()));
+        }
+
+        // Show how long connections waited for a thread, as percentiles and a coarse histogram
+        QueueDelayController queueDelay = listener != null ? listener.getQueueDelay() : null;
+        if (queueDelay != null) {
+            LatencyHistogram sojourns = queueDelay.getSojourns();
+            status.append(String.format("\nQueue delay: connections=%d, p50=%.1f ms, p99=%.1f ms, overloaded=%s, "
+                            + "overloads=%d, shed=%d%s\n",
+                    queueDelay.getConnections(), Math.max(0, sojourns.percentileNanos(50, 1)) / 1e6,
+                    Math.max(0, sojourns.percentileNanos(99, 1)) / 1e6, queueDelay.isOverloaded() ? "yes" : "no",
+                    queueDelay.getOverloads(), queueDelay.getShed(),
+                    queueDelay.isShedding() ? "" : " (shedding disabled)"));
+            long below1 = sojourns.countAtOrBelow(1_000_000);
+            long below5 = sojourns.countAtOrBelow(5_000_000);
+            long below25 = sojourns.countAtOrBelow(25_000_000);
+            long below100 = sojourns.countAtOrBelow(100_000_000);
+            long below500 = sojourns.countAtOrBelow(500_000_000);
+            status.append(String.format("    <=1ms: %d, <=5ms: %d, <=25ms: %d, <=100ms: %d, <=500ms: %d, "
+                            + ">500ms: %d\n",
+                    below1, below5 - below1, below25 - below5, below100 - below25, below500 - below100,
+                    sojourns.getCount() - below500));
+        }
+
+        // Show how many backends live traffic took out of rotation
+        OutlierDetector outlierDetector = listener != null ? listener.getOutlierDetector() : null;
+        if (outlierDetector != null) {
+            status.append(String.format("\nOutlier detection: ejections=%d, ejected now=%d, skipped at limit=%d\n",
+                    outlierDetector.getEjections(), outlierDetector.getEjectedCount(), outlierDetector.getSkipped()));
+        }
+
+        // Show how tls-passthrough connections were routed
+        SniRouter sniRouter = listener != null ? listener.getSniRouter() : null;
+        if (sniRouter != null) {
+            status.append(String.format("\nSNI: routed=%d, default pool=%d, unrouted=%d\n",
+                    sniRouter.getRouted(), sniRouter.getDefaulted(), sniRouter.getUnrouted()));
+        }
+
+        // Show I/O buffer pool occupancy
+        BufferPool bufferPool = BufferPool.getDefault();
+        status.append(String.format("\nBuffer pool: pooled=%d, in use=%d, reused=%d, allocated=%d\n",
+                bufferPool.getPooledCount(), bufferPool.getInUseCount(),
+                bufferPool.getReusedCount(), bufferPool.getAllocatedCount()));
+
         return status.toString();
     }
 
@@ -206,6 +387,37 @@ public class LoadBalancer {
         return running;
     }
 
+    /*
+     * Creates the connection pool for a backend from the pool configuration.
+     * A disabled pool keeps no idle connections, so every request connects anew.
+     */
+    private BackendConnectionPool createConnectionPool(Config.BackendConfig backendConfig) {
+        Config.ConnectionPoolConfig poolConfig = config.getConnectionPool();
+        if (poolConfig == null) {
+            return new BackendConnectionPool(backendConfig.getHost(), backendConfig.getPort());
+        }
+        return new BackendConnectionPool(
+                backendConfig.getHost(),
+                backendConfig.getPort(),
+                poolConfig.isEnabled() ? poolConfig.getMaxIdle() : 0,
+                Durations.parseMillis(poolConfig.getMaxLifetime()),
+                Durations.parseMillis(poolConfig.getIdleTimeout()),
+                poolConfig.getMaxRequests(),
+                Durations.parseMillis(poolConfig.getValidateAfterInactivity()));
+    }
+
+    /*
+     * Creates the multiplexed connection pool for an h2c backend.
+     * HTTP/1.1 backends have none and use their BackendConnectionPool.
+     */
+    private Http2BackendPool createHttp2Pool(Config.BackendConfig backendConfig) {
+        if (!"h2c".equals(backendConfig.getProtocol())) {
+            return null;
+        }
+        return new Http2BackendPool(backendConfig.getHost(), backendConfig.getPort(),
+                backendConfig.getHttp2Connections());
+    }
+
     /*
      * Factory method to create the appropriate load balancing algorithm.
      */
@@ -0,0 +1,241 @@
+package com.loadbalancer.cache;
+
+import org.apache.hc.client5.http.utils.DateUtils;
+import org.apache.hc.core5.http.Header;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/*
+ * CachePolicy holds the HTTP caching rules (RFC 9111) applied by the shared
+ * response cache. Header lists are the lower-cased field lists produced for
+ * HTTP/2 translation, so names can be compared directly.
+ *
+ * Only responses with explicit freshness are stored; heuristic freshness
+ * (from Last-Modified) is not used, so an origin has to opt in with
+ * Cache-Control max-age / s-maxage or Expires.
+ */
+public final class CachePolicy {
+    // Status codes a shared cache may store (RFC 9110 "heuristically cacheable" codes)
+    private static final Set<Integer> CACHEABLE_STATUS = Set.of(
+            200, 203, 204, 300, 301, 308, 404, 405, 410, 414, 501);
+
+    private CachePolicy() {
+    }
+
+    /*
+     * Returns the cache key of a request: authority and target.
+     *
+     * @param requestHeaders Request fields including :authority and :path
+     */
+    public static String key(List<Header> requestHeaders) {
+        String authority = value(requestHeaders, ":authority");
+        String path = value(requestHeaders, ":path");
+        return (authority != null ? authority.toLowerCase(Locale.ROOT) : "") + (path != null ? path : "/");
+    }
+
+    /*
+     * Returns whether a GET or HEAD request may be answered from or stored in
+     * a shared cache. Requests with credentials are passed through, as are
+     * requests asking for no-store.
+     */
+    public static boolean isCacheableRequest(String method, List<Header> requestHeaders) {
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return false;
+        }
+        if (value(requestHeaders, "authorization") != null) {
+            return false;
+        }
+        String cacheControl = value(requestHeaders, "cache-control");
+        return directive(cacheControl, "no-store") == null;
+    }
+
+    /*
+     * Returns whether the client accepts a stored response without the cache
+     * revalidating it (no "no-cache", "max-age=0" or "Pragma: no-cache").
+     */
+    public static boolean acceptsStored(List<Header> requestHeaders) {
+        String cacheControl = value(requestHeaders, "cache-control");
+        if (cacheControl == null) {
+            String pragma = value(requestHeaders, "pragma");
+            return pragma == null || !pragma.toLowerCase(Locale.ROOT).contains("no-cache");
+        }
+        if (directive(cacheControl, "no-cache") != null) {
+            return false;
+        }
+        return seconds(directive(cacheControl, "max-age")) != 0;
+    }
+
+    /*
+     * Returns whether a method changes the target resource, so stored
+     * responses for it must be dropped.
+     */
+    public static boolean isUnsafe(String method) {
+        return !"GET".equals(method) && !"HEAD".equals(method) && !"OPTIONS".equals(method)
+                && !"TRACE".equals(method);
+    }
+
+    /*
+     * Computes how long a response stays fresh in a shared cache.
+     *
+     * @param status          Response status code
+     * @param responseHeaders Response fields
+     * @param now             Current time in milliseconds
+     * @return Remaining freshness in milliseconds; 0 or less if the response must not be stored
+     */
+    public static long freshnessLifetime(int status, List<Header> responseHeaders, long now) {
+        if (!CACHEABLE_STATUS.contains(status)) {
+            return 0;
+        }
+        String cacheControl = value(responseHeaders, "cache-control");
+        if (!isShareable(responseHeaders) || directive(cacheControl, "no-cache") != null) {
+            return 0;
+        }
+
+        long lifetime;
+        long sharedMaxAge = seconds(directive(cacheControl, "s-maxage"));
+        long maxAge = seconds(directive(cacheControl, "max-age"));
+        if (sharedMaxAge >= 0) {
+            lifetime = sharedMaxAge * 1000;
+        } else if (maxAge >= 0) {
+            lifetime = maxAge * 1000;
+        } else {
+            String expires = value(responseHeaders, "expires");
+            if (expires == null) {
+                return 0;
+            }
+            Instant expiresAt = DateUtils.parseStandardDate(expires);
+            if (expiresAt == null) {
+                // An invalid Expires means already expired
+                return 0;
+            }
+            String dateValue = value(responseHeaders, "date");
+            Instant date = dateValue != null ? DateUtils.parseStandardDate(dateValue) : null;
+            lifetime = expiresAt.toEpochMilli() - (date != null ? date.toEpochMilli() : now);
+        }
+        return lifetime - initialAge(responseHeaders) * 1000;
+    }
+
+    /*
+     * Returns whether a shared cache could hand the response to other clients
+     * without asking the origin again: it is shareable and either fresh for a
+     * while (s-maxage, max-age or Expires) or marked public without no-cache.
+     * A response that merely lacks "private" may still be personalized, so it
+     * does not qualify.
+     *
+     * @param status          Response status code
+     * @param responseHeaders Response fields
+     * @param now             Current time in milliseconds
+     */
+    public static boolean isExplicitlyShareable(int status, List<Header> responseHeaders, long now) {
+        if (freshnessLifetime(status, responseHeaders, now) > 0) {
+            return true;
+        }
+        String cacheControl = value(responseHeaders, "cache-control");
+        return CACHEABLE_STATUS.contains(status) && isShareable(responseHeaders)
+                && directive(cacheControl, "public") != null && directive(cacheControl, "no-cache") == null;
+    }
+
+    /*
+     * Returns whether a response may be given to other clients than the one
+     * that caused it: not private or no-store, no cookie being set, and not
+     * varying on "*".
+     */
+    public static boolean isShareable(List<Header> responseHeaders) {
+        String cacheControl = value(responseHeaders, "cache-control");
+        if (directive(cacheControl, "no-store") != null || directive(cacheControl, "private") != null) {
+            return false;
+        }
+        // Per-user responses are never shared
+        if (value(responseHeaders, "set-cookie") != null) {
+            return false;
+        }
+        String vary = value(responseHeaders, "vary");
+        return vary == null || !vary.contains("*");
+    }
+
+    /*
+     * Returns the Age the response already had when it arrived, in seconds.
+     */
+    static long initialAge(List<Header> responseHeaders) {
+        return Math.max(0, seconds(value(responseHeaders, "age")));
+    }
+
+    /*
+     * Returns the lower-cased field names listed in Vary.
+     */
+    static List<String> varyNames(List<Header> responseHeaders) {
+        List<String> names = new ArrayList<>();
+        for (Header header : responseHeaders) {
+            if (header.getName().equals("vary")) {
+                for (String name : header.getValue().split(",")) {
+                    String trimmed = name.trim().toLowerCase(Locale.ROOT);
+                    if (!trimmed.isEmpty()) {
+                        names.add(trimmed);
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    /*
+     * Returns the combined value of a field (repeated fields joined with ","),
+     * or null if it is absent.
+     */
+    public static String value(List<Header> headers, String name) {
+        String value = null;
+        for (Header header : headers) {
+            if (header.getName().equals(name)) {
+                value = value == null ? header.getValue() : value + ", " + header.getValue();
+            }
+        }
+        return value;
+    }
+
+    /*
+     * Finds a Cache-Control directive.
+     *
+     * @return The directive's argument (unquoted), "" if it has none, or null if absent
+     */
+    static String directive(String cacheControl, String name) {
+        if (cacheControl == null) {
+            return null;
+        }
+        for (String part : cacheControl.split(",")) {
+            String token = part.trim();
+            int equals = token.indexOf('=');
+            String directive = (equals < 0 ? token : token.substring(0, equals)).trim();
+            if (directive.equalsIgnoreCase(name)) {
+                if (equals < 0) {
+                    return "";
+                }
+                String argument = token.substring(equals + 1).trim();
+                if (argument.length() >= 2 && argument.startsWith("\"") && argument.endsWith("\"")) {
+                    argument = argument.substring(1, argument.length() - 1);
+                }
+                return argument;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Parses a delta-seconds value.
+     *
+     * @return Seconds, or -1 if absent or invalid
+     */
+    private static long seconds(String value) {
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
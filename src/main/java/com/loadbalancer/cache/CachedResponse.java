@@ -0,0 +1,144 @@
+package com.loadbalancer.cache;
+
+import org.apache.hc.core5.http.Header;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/*
+ * CachedResponse is one stored response: its fields (with :status, without
+ * connection-specific fields and Age), its complete body, and the values the
+ * request had for each field named in Vary. Instances are immutable and
+ * shared by every request they are served to.
+ *
+ * An entry may also carry the body in one content coding (such as gzip),
+ * so a hot response is compressed once rather than on every hit. Adding
+ * the encoded body creates a new instance (withEncodedBody).
+ */
+public final class CachedResponse {
+    // Approximate per-entry bookkeeping cost beyond fields and body
+    private static final int ENTRY_OVERHEAD = 128;
+
+    // Response fields including :status
+    private final List<Header> headers;
+
+    // Complete response body
+    private final byte[] body;
+
+    // Request field names from Vary and the values the storing request had (null if absent)
+    private final List<String> varyNames;
+    private final List<String> varyValues;
+
+    // Time the response was stored and when it goes stale (System.currentTimeMillis)
+    private final long storedAt;
+    private final long expiresAt;
+
+    // Age in seconds the response already had when it was stored
+    private final long initialAge;
+
+    // Content coding of the encoded body and the encoded body (both null if none)
+    private final String encoding;
+    private final byte[] encodedBody;
+
+    // Memory charged to the cache for this entry
+    private final int size;
+
+    /**
+     * Constructor captures a response for storing.
+     *
+     * @param responseHeaders Response fields including :status
+     * @param requestHeaders  Fields of the request the response answered
+     * @param body            Complete response body
+     * @param now             Current time in milliseconds
+     * @param lifetime        Freshness lifetime in milliseconds (from CachePolicy.freshnessLifetime)
+     */
+    public CachedResponse(List<Header> responseHeaders, List<Header> requestHeaders, byte[] body, long now,
+            long lifetime) {
+        List<Header> stored = new ArrayList<>(responseHeaders.size());
+        int headerBytes = 0;
+        for (Header header : responseHeaders) {
+            if (!header.getName().equals("age")) {
+                stored.add(header);
+                headerBytes += header.getName().length() + header.getValue().length() + 32;
+            }
+        }
+        this.headers = List.copyOf(stored);
+        this.body = body;
+        this.varyNames = CachePolicy.varyNames(responseHeaders);
+        this.varyValues = new ArrayList<>(varyNames.size());
+        for (String name : varyNames) {
+            varyValues.add(CachePolicy.value(requestHeaders, name));
+        }
+        this.storedAt = now;
+        this.expiresAt = now + lifetime;
+        this.initialAge = CachePolicy.initialAge(responseHeaders);
+        this.size = ENTRY_OVERHEAD + headerBytes + body.length;
+        this.encoding = null;
+        this.encodedBody = null;
+    }
+
+    private CachedResponse(CachedResponse response, String encoding, byte[] encodedBody) {
+        this.headers = response.headers;
+        this.body = response.body;
+        this.varyNames = response.varyNames;
+        this.varyValues = response.varyValues;
+        this.storedAt = response.storedAt;
+        this.expiresAt = response.expiresAt;
+        this.initialAge = response.initialAge;
+        this.encoding = encoding;
+        this.encodedBody = encodedBody;
+        this.size = response.size - (response.encodedBody != null ? response.encodedBody.length : 0)
+                + encodedBody.length;
+    }
+
+    /*
+     * Returns a copy of this entry that also holds the body in a content coding.
+     *
+     * @param encoding    Content coding, e.g. "gzip"
+     * @param encodedBody Body in that coding
+     */
+    public CachedResponse withEncodedBody(String encoding, byte[] encodedBody) {
+        return new CachedResponse(this, encoding, encodedBody);
+    }
+
+    // Body in the given content coding, or null if not stored
+    public byte[] getEncodedBody(String encoding) {
+        return encoding.equals(this.encoding) ? encodedBody : null;
+    }
+
+    // Response fields including :status
+    public List<Header> getHeaders() { return headers; }
+
+    // Complete response body
+    public byte[] getBody() { return body; }
+
+    // Memory charged to the cache for this entry
+    public int size() { return size; }
+
+    // Whether the response may still be served without revalidation
+    public boolean isFresh(long now) {
+        return now < expiresAt;
+    }
+
+    /*
+     * Returns the Age to send: the age on arrival plus the time spent in
+     * the cache, in seconds.
+     */
+    public long getAge(long now) {
+        return initialAge + (now - storedAt) / 1000;
+    }
+
+    /*
+     * Returns whether a request selects this response: every field named in
+     * Vary must have the value the storing request had.
+     */
+    public boolean matchesVary(List<Header> requestHeaders) {
+        for (int i = 0; i < varyNames.size(); i++) {
+            if (!Objects.equals(varyValues.get(i), CachePolicy.value(requestHeaders, varyNames.get(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,763 @@
+package com.loadbalancer.cache;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * DiskCache is the second tier of the response cache, for bodies too large
+ * to keep on the heap. Responses are appended to fixed-size segment files
+ * that stay memory-mapped, and hits hand out a read-only slice of the
+ * mapping so the body can be written to the client's channel without being
+ * copied onto the heap.
+ *
+ * The index is an open-addressing table of 32-byte slots (key hash, segment,
+ * offset, length, expiry) in a memory-mapped file, so it lives off-heap and
+ * survives a restart together with the segments: a restarted load balancer
+ * starts with a warm cache. Each record repeats its key, which is checked on
+ * every hit, so a hash collision or a torn write reads as a miss.
+ *
+ * Segments are written one at a time (the active segment). When it fills up
+ * the next free segment becomes active, and a free segment is made for the
+ * following rollover: the segment with the fewest live bytes is compacted
+ * (its live records are copied into the active segment) if at most half of
+ * it is live, otherwise the oldest segment is evicted whole. A segment still
+ * being read by a hit or written by a store is only reused once they finish.
+ *
+ * A single lock guards the index and segment state; body bytes are read
+ * and written outside it.
+ */
+public class DiskCache implements Closeable {
+    // Logger for disk cache events
+    private static final Logger logger = LoggerFactory.getLogger(DiskCache.class);
+
+    // Index file identification
+    private static final int INDEX_MAGIC = 0x4C424443;
+    private static final int INDEX_VERSION = 1;
+
+    // Index layout: file header, one 16-byte entry per segment, then the slots
+    private static final int INDEX_HEADER_SIZE = 64;
+    private static final int SEGMENT_ENTRY_SIZE = 16;
+    private static final int SLOT_SIZE = 32;
+
+    // Slot fields (offsets within a slot); hash 0 marks an empty slot
+    private static final int SLOT_HASH = 0;
+    private static final int SLOT_SEGMENT = 8;
+    private static final int SLOT_OFFSET = 12;
+    private static final int SLOT_LENGTH = 16;
+    private static final int SLOT_EXPIRES = 24;
+
+    // Record layout: magic, key/head/body lengths, stored time and initial age, then the bytes
+    private static final int RECORD_MAGIC = 0x52454331;
+    private static final int RECORD_HEADER_SIZE = 32;
+
+    // Compact a segment instead of evicting the oldest when at most this share of it is live
+    private static final double COMPACTION_RATIO = 0.5;
+
+    // Directory holding the index and segment files
+    private final Path directory;
+
+    // Segment size and smallest body stored on disk
+    private final int segmentSize;
+    private final int minEntrySize;
+
+    // Segments and the memory-mapped index
+    private final Segment[] segments;
+    private final MappedByteBuffer index;
+    private final int slotCount;
+    private final int slotsBase;
+
+    // Guards the index and every segment's state
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Segment being appended to, the last rollover sequence number, and indexed entries (guarded by lock)
+    private int activeSegment;
+    private long sequence;
+    private int entryCount;
+
+    // Hits, misses, entries evicted with their segment, segments compacted, and stores refused
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * Constructor opens the cache directory, reusing the index and segments
+     * of an earlier run if they were written with the same geometry.
+     *
+     * @param directory    Directory for the index and segment files
+     * @param maxBytes     Total size of all segments
+     * @param segmentSize  Size of one segment file (largest record)
+     * @param minEntrySize Smallest body stored on disk
+     * @throws IOException If the files cannot be created or mapped
+     */
+    public DiskCache(Path directory, long maxBytes, int segmentSize, int minEntrySize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.minEntrySize = minEntrySize;
+        int segmentCount = (int) Math.max(2, maxBytes / segmentSize);
+        // Room for every segment full of minimum-size entries at half load
+        long wanted = Math.max(1024, maxBytes / Math.max(minEntrySize, 1) * 2);
+        this.slotCount = (int) Math.min(1 << 24, Long.highestOneBit(wanted - 1) << 1);
+        this.slotsBase = INDEX_HEADER_SIZE + segmentCount * SEGMENT_ENTRY_SIZE;
+
+        Files.createDirectories(directory);
+        this.index = map(directory.resolve("index.dat"), slotsBase + (long) slotCount * SLOT_SIZE);
+        boolean warm = index.getInt(0) == INDEX_MAGIC && index.getInt(4) == INDEX_VERSION
+                && index.getInt(8) == slotCount && index.getInt(12) == segmentCount
+                && index.getInt(16) == segmentSize;
+        if (!warm) {
+            for (int i = 0; i < slotsBase + slotCount * SLOT_SIZE; i += 8) {
+                index.putLong(i, 0);
+            }
+            index.putInt(4, INDEX_VERSION);
+            index.putInt(8, slotCount);
+            index.putInt(12, segmentCount);
+            index.putInt(16, segmentSize);
+            index.putInt(0, INDEX_MAGIC);
+        }
+
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(i, map(directory.resolve("segment-" + i + ".dat"), segmentSize));
+            segments[i].writePosition = index.getInt(segmentEntry(i));
+            segments[i].sequence = index.getLong(segmentEntry(i) + 8);
+            if (segments[i].sequence > sequence) {
+                sequence = segments[i].sequence;
+                activeSegment = i;
+            }
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            int base = slotBase(slot);
+            if (index.getLong(base + SLOT_HASH) != 0) {
+                segments[index.getInt(base + SLOT_SEGMENT)].liveBytes += index.getInt(base + SLOT_LENGTH);
+                entryCount++;
+            }
+        }
+        logger.info("Disk cache in {}: {} segments of {} bytes, {} entries restored",
+                directory, segmentCount, segmentSize, entryCount);
+    }
+
+    /*
+     * Looks up a fresh response. The returned entry pins its segment and must
+     * be closed once the body has been written.
+     *
+     * @param key            Cache key (CachePolicy.key)
+     * @param requestHeaders Request fields, matched against the entry's Vary
+     * @return The entry, or null on a miss
+     */
+    public Entry get(String key, List<Header> requestHeaders) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(keyBytes);
+        long now = System.currentTimeMillis();
+        Segment segment;
+        int offset;
+        int length;
+        lock.lock();
+        try {
+            int slot = findSlot(hash);
+            if (slot < 0) {
+                misses.increment();
+                return null;
+            }
+            int base = slotBase(slot);
+            if (now >= index.getLong(base + SLOT_EXPIRES)) {
+                removeSlot(slot);
+                misses.increment();
+                return null;
+            }
+            segment = segments[index.getInt(base + SLOT_SEGMENT)];
+            offset = index.getInt(base + SLOT_OFFSET);
+            length = index.getInt(base + SLOT_LENGTH);
+            segment.pins++;
+        } finally {
+            lock.unlock();
+        }
+
+        Entry entry = null;
+        try {
+            entry = readRecord(segment, segment.map.slice(offset, length), keyBytes, requestHeaders);
+        } catch (RuntimeException e) {
+            logger.debug("Unreadable disk cache record for {}: {}", key, e.getMessage());
+        }
+        if (entry == null) {
+            unpin(segment);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry;
+    }
+
+    /*
+     * Reserves space for a response and returns a writer for its body. The
+     * entry becomes visible once the writer is committed.
+     *
+     * @param key             Cache key (CachePolicy.key)
+     * @param responseHeaders Response fields including :status
+     * @param requestHeaders  Fields of the request the response answered
+     * @param bodyLength      Body length from Content-Length
+     * @param now             Current time in milliseconds
+     * @param lifetime        Freshness lifetime in milliseconds
+     * @return A writer, or null if the response cannot be stored
+     */
+    public Writer startWrite(String key, List<Header> responseHeaders, List<Header> requestHeaders,
+            long bodyLength, long now, long lifetime) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] head = encodeHead(responseHeaders, requestHeaders);
+        long recordLength = RECORD_HEADER_SIZE + keyBytes.length + head.length + bodyLength;
+        if (recordLength > segmentSize) {
+            rejections.increment();
+            return null;
+        }
+        Segment segment;
+        int offset;
+        lock.lock();
+        try {
+            offset = allocate((int) recordLength);
+            if (offset < 0) {
+                rejections.increment();
+                return null;
+            }
+            segment = segments[activeSegment];
+            segment.pins++;
+        } finally {
+            lock.unlock();
+        }
+
+        ByteBuffer record = segment.map.slice(offset, (int) recordLength);
+        // The magic is written on commit, so an unfinished record never reads as valid
+        record.putInt(0);
+        record.putInt(keyBytes.length);
+        record.putInt(head.length);
+        record.putInt((int) bodyLength);
+        record.putLong(now);
+        record.putLong(CachePolicy.initialAge(responseHeaders));
+        record.put(keyBytes);
+        record.put(head);
+        return new Writer(hash(keyBytes), segment, offset, record, now + lifetime);
+    }
+
+    // Smallest body stored on disk
+    public int getMinEntrySize() { return minEntrySize; }
+
+    // Largest body that fits a segment
+    public int getMaxEntrySize() { return segmentSize - RECORD_HEADER_SIZE; }
+
+    // Total size of all segments
+    public long getCapacity() { return (long) segmentSize * segments.length; }
+
+    // Lookups answered from disk
+    public long getHits() { return hits.sum(); }
+
+    // Lookups not found on disk
+    public long getMisses() { return misses.sum(); }
+
+    // Entries dropped with an evicted segment
+    public long getEvictions() { return evictions.sum(); }
+
+    // Segments reclaimed by compaction
+    public long getCompactions() { return compactions.sum(); }
+
+    // Responses that could not be stored
+    public long getRejections() { return rejections.sum(); }
+
+    // Number of indexed entries
+    public int getEntryCount() {
+        lock.lock();
+        try {
+            return entryCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Bytes of live records in all segments
+    public long getLiveBytes() {
+        lock.lock();
+        try {
+            long live = 0;
+            for (Segment segment : segments) {
+                live += segment.liveBytes;
+            }
+            return live;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Flushes the index and segments to disk so the next start is warm.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            index.force();
+            for (Segment segment : segments) {
+                segment.map.force();
+            }
+            logger.info("Disk cache in {} flushed ({} entries)", directory, entryCount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Parses a record and checks it belongs to the key and matches the
+     * request's Vary fields.
+     *
+     * @return The entry, or null if the record does not answer the request
+     */
+    private Entry readRecord(Segment segment, ByteBuffer record, byte[] keyBytes, List<Header> requestHeaders) {
+        if (record.getInt() != RECORD_MAGIC) {
+            return null;
+        }
+        int keyLength = record.getInt();
+        int headLength = record.getInt();
+        int bodyLength = record.getInt();
+        long storedAt = record.getLong();
+        long initialAge = record.getLong();
+        if (keyLength != keyBytes.length) {
+            return null;
+        }
+        for (byte b : keyBytes) {
+            if (record.get() != b) {
+                return null;
+            }
+        }
+        byte[] head = new byte[headLength];
+        record.get(head);
+
+        // Response fields, an empty line, then the storing request's values for the Vary fields
+        List<Header> headers = new ArrayList<>();
+        String[] lines = new String(head, StandardCharsets.ISO_8859_1).split("\n", -1);
+        int line = 0;
+        for (; line < lines.length && !lines[line].isEmpty(); line++) {
+            int colon = lines[line].indexOf(':', 1);
+            headers.add(new BasicHeader(lines[line].substring(0, colon), lines[line].substring(colon + 2)));
+        }
+        for (line++; line < lines.length && !lines[line].isEmpty(); line++) {
+            int colon = lines[line].indexOf(':');
+            String name = colon < 0 ? lines[line] : lines[line].substring(0, colon);
+            String stored = colon < 0 ? null : lines[line].substring(colon + 2);
+            if (!Objects.equals(stored, CachePolicy.value(requestHeaders, name))) {
+                return null;
+            }
+        }
+        ByteBuffer body = record.slice(record.position(), bodyLength).asReadOnlyBuffer();
+        return new Entry(segment, headers, body, storedAt, initialAge);
+    }
+
+    /*
+     * Serializes the response fields (without Age) and the request values
+     * of the fields named in Vary.
+     */
+    private static byte[] encodeHead(List<Header> responseHeaders, List<Header> requestHeaders) {
+        StringBuilder head = new StringBuilder(256);
+        for (Header header : responseHeaders) {
+            if (!header.getName().equals("age")) {
+                head.append(header.getName()).append(": ").append(header.getValue()).append('\n');
+            }
+        }
+        head.append('\n');
+        for (String name : CachePolicy.varyNames(responseHeaders)) {
+            String value = CachePolicy.value(requestHeaders, name);
+            head.append(name);
+            if (value != null) {
+                head.append(": ").append(value);
+            }
+            head.append('\n');
+        }
+        return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /*
+     * Reserves space at the end of the active segment, rolling over to a
+     * free segment when it is full (lock held).
+     *
+     * @return Offset of the record in the active segment, or -1 if no segment is free
+     */
+    private int allocate(int length) {
+        Segment active = segments[activeSegment];
+        boolean rolledOver = false;
+        if (active.writePosition + length > segmentSize) {
+            Segment next = freeSegment();
+            if (next == null) {
+                reclaim();
+                next = freeSegment();
+            }
+            if (next == null) {
+                // Every other segment is still pinned by readers or writers
+                return -1;
+            }
+            next.sequence = ++sequence;
+            activeSegment = next.id;
+            active = next;
+            rolledOver = true;
+        }
+        int offset = active.writePosition;
+        active.writePosition += length;
+        persist(active);
+        // Make sure the next rollover finds a free segment too; compaction appends after the new record
+        if (rolledOver && freeSegment() == null) {
+            reclaim();
+        }
+        return offset;
+    }
+
+    /*
+     * Frees one sealed segment: compacts the sparsest one if little of it is
+     * live, otherwise evicts the oldest (lock held).
+     */
+    private void reclaim() {
+        Segment sparsest = null;
+        Segment oldest = null;
+        for (Segment segment : segments) {
+            if (segment.id == activeSegment || segment.retired || segment.writePosition == 0) {
+                continue;
+            }
+            if (sparsest == null || segment.liveBytes < sparsest.liveBytes) {
+                sparsest = segment;
+            }
+            if (oldest == null || segment.sequence < oldest.sequence) {
+                oldest = segment;
+            }
+        }
+        if (sparsest == null) {
+            return;
+        }
+        Segment active = segments[activeSegment];
+        if (sparsest.liveBytes <= segmentSize * COMPACTION_RATIO
+                && sparsest.liveBytes <= segmentSize - active.writePosition) {
+            compact(sparsest, active);
+        } else {
+            evict(oldest);
+        }
+    }
+
+    /*
+     * Copies the live records of a segment to the end of the active segment
+     * and retires it (lock held).
+     */
+    private void compact(Segment source, Segment target) {
+        for (int slot = 0; slot < slotCount; slot++) {
+            int base = slotBase(slot);
+            if (index.getLong(base + SLOT_HASH) == 0 || index.getInt(base + SLOT_SEGMENT) != source.id) {
+                continue;
+            }
+            int offset = index.getInt(base + SLOT_OFFSET);
+            int length = index.getInt(base + SLOT_LENGTH);
+            target.map.put(target.writePosition, source.map, offset, length);
+            index.putInt(base + SLOT_SEGMENT, target.id);
+            index.putInt(base + SLOT_OFFSET, target.writePosition);
+            target.writePosition += length;
+            target.liveBytes += length;
+        }
+        persist(target);
+        compactions.increment();
+        logger.debug("Compacted disk cache segment {} into segment {}", source.id, target.id);
+        retire(source);
+    }
+
+    /*
+     * Drops every entry of a segment and retires it (lock held).
+     */
+    private void evict(Segment segment) {
+        int slot = 0;
+        while (slot < slotCount) {
+            int base = slotBase(slot);
+            if (index.getLong(base + SLOT_HASH) != 0 && index.getInt(base + SLOT_SEGMENT) == segment.id) {
+                // Removing shifts a later entry into this slot, so look at it again
+                removeSlot(slot);
+                evictions.increment();
+            } else {
+                slot++;
+            }
+        }
+        logger.debug("Evicted disk cache segment {}", segment.id);
+        retire(segment);
+    }
+
+    /*
+     * Marks a segment for reuse once nothing reads or writes it (lock held).
+     */
+    private void retire(Segment segment) {
+        segment.retired = true;
+        if (segment.pins == 0) {
+            reset(segment);
+        }
+    }
+
+    private void reset(Segment segment) {
+        segment.retired = false;
+        segment.writePosition = 0;
+        segment.liveBytes = 0;
+        persist(segment);
+    }
+
+    /*
+     * Releases a segment pinned by an entry or writer.
+     */
+    private void unpin(Segment segment) {
+        lock.lock();
+        try {
+            segment.pins--;
+            if (segment.retired && segment.pins == 0) {
+                reset(segment);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Returns an empty segment other than the active one (lock held).
+     */
+    private Segment freeSegment() {
+        for (Segment segment : segments) {
+            if (segment.id != activeSegment && !segment.retired && segment.writePosition == 0) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Adds or replaces an index entry (lock held).
+     *
+     * @return false if the index is too full
+     */
+    private boolean insert(long hash, Segment segment, int offset, int length, long expiresAt) {
+        int slot = findSlot(hash);
+        if (slot >= 0) {
+            removeSlot(slot);
+        }
+        if (entryCount >= slotCount * 3 / 4) {
+            return false;
+        }
+        slot = (int) (hash ^ (hash >>> 32)) & (slotCount - 1);
+        while (index.getLong(slotBase(slot) + SLOT_HASH) != 0) {
+            slot = (slot + 1) & (slotCount - 1);
+        }
+        int base = slotBase(slot);
+        index.putInt(base + SLOT_SEGMENT, segment.id);
+        index.putInt(base + SLOT_OFFSET, offset);
+        index.putInt(base + SLOT_LENGTH, length);
+        index.putLong(base + SLOT_EXPIRES, expiresAt);
+        index.putLong(base + SLOT_HASH, hash);
+        segment.liveBytes += length;
+        entryCount++;
+        return true;
+    }
+
+    /*
+     * Finds the slot holding a hash (lock held).
+     *
+     * @return The slot, or -1 if absent
+     */
+    private int findSlot(long hash) {
+        int slot = (int) (hash ^ (hash >>> 32)) & (slotCount - 1);
+        long stored;
+        while ((stored = index.getLong(slotBase(slot) + SLOT_HASH)) != 0) {
+            if (stored == hash) {
+                return slot;
+            }
+            slot = (slot + 1) & (slotCount - 1);
+        }
+        return -1;
+    }
+
+    /*
+     * Empties a slot and shifts later entries of the probe sequence back so
+     * lookups need no tombstones (lock held).
+     */
+    private void removeSlot(int slot) {
+        int base = slotBase(slot);
+        segments[index.getInt(base + SLOT_SEGMENT)].liveBytes -= index.getInt(base + SLOT_LENGTH);
+        entryCount--;
+        int hole = slot;
+        int next = (hole + 1) & (slotCount - 1);
+        long hash;
+        while ((hash = index.getLong(slotBase(next) + SLOT_HASH)) != 0) {
+            int home = (int) (hash ^ (hash >>> 32)) & (slotCount - 1);
+            // Move the entry into the hole unless its home lies cyclically in (hole, next]
+            boolean stays = hole <= next ? (home > hole && home <= next) : (home > hole || home <= next);
+            if (!stays) {
+                index.put(slotBase(hole), index, slotBase(next), SLOT_SIZE);
+                hole = next;
+            }
+            next = (next + 1) & (slotCount - 1);
+        }
+        index.putLong(slotBase(hole) + SLOT_HASH, 0);
+    }
+
+    // Saves a segment's write position and sequence in the index (lock held)
+    private void persist(Segment segment) {
+        index.putInt(segmentEntry(segment.id), segment.writePosition);
+        index.putLong(segmentEntry(segment.id) + 8, segment.sequence);
+    }
+
+    private int slotBase(int slot) {
+        return slotsBase + slot * SLOT_SIZE;
+    }
+
+    private static int segmentEntry(int segment) {
+        return INDEX_HEADER_SIZE + segment * SEGMENT_ENTRY_SIZE;
+    }
+
+    /*
+     * FNV-1a over the key bytes; never 0, which marks an empty slot.
+     */
+    private static long hash(byte[] key) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : key) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /*
+     * One segment file and its state (guarded by the cache lock).
+     */
+    private static final class Segment {
+        final int id;
+        final MappedByteBuffer map;
+        // Bytes appended so far, bytes still referenced by the index, and rollover order
+        int writePosition;
+        long liveBytes;
+        long sequence;
+        // Entries and writers using the segment, and whether it is waiting for them to be reused
+        int pins;
+        boolean retired;
+
+        Segment(int id, MappedByteBuffer map) {
+            this.id = id;
+            this.map = map;
+        }
+    }
+
+    /*
+     * A stored response being served. The body is a read-only slice of the
+     * mapped segment; close() releases the segment.
+     */
+    public final class Entry implements Closeable {
+        private final Segment segment;
+        private final List<Header> headers;
+        private final ByteBuffer body;
+        private final long storedAt;
+        private final long initialAge;
+        private boolean closed;
+
+        private Entry(Segment segment, List<Header> headers, ByteBuffer body, long storedAt, long initialAge) {
+            this.segment = segment;
+            this.headers = headers;
+            this.body = body;
+            this.storedAt = storedAt;
+            this.initialAge = initialAge;
+        }
+
+        // Response fields including :status
+        public List<Header> getHeaders() { return headers; }
+
+        // Body bytes in the mapped segment
+        public ByteBuffer getBody() { return body; }
+
+        // Age to send, in seconds
+        public long getAge(long now) {
+            return initialAge + (now - storedAt) / 1000;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                unpin(segment);
+            }
+        }
+    }
+
+    /*
+     * Writes a response body into its reserved record. commit() publishes the
+     * entry; abort() (or a body of the wrong length) discards it.
+     */
+    public final class Writer implements Closeable {
+        private final long hash;
+        private final Segment segment;
+        private final int offset;
+        private final ByteBuffer record;
+        private final long expiresAt;
+        private boolean done;
+
+        private Writer(long hash, Segment segment, int offset, ByteBuffer record, long expiresAt) {
+            this.hash = hash;
+            this.segment = segment;
+            this.offset = offset;
+            this.record = record;
+            this.expiresAt = expiresAt;
+        }
+
+        // Appends body bytes
+        public void write(byte[] b, int off, int len) {
+            if (len > record.remaining()) {
+                throw new IllegalStateException("Body longer than its Content-Length");
+            }
+            record.put(b, off, len);
+        }
+
+        // Publishes the entry if the whole body was written
+        public void commit() {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (record.hasRemaining()) {
+                unpin(segment);
+                return;
+            }
+            record.putInt(0, RECORD_MAGIC);
+            lock.lock();
+            try {
+                if (!segment.retired && !insert(hash, segment, offset, record.capacity(), expiresAt)) {
+                    rejections.increment();
+                }
+            } finally {
+                lock.unlock();
+            }
+            unpin(segment);
+        }
+
+        // Discards the record unless it was committed
+        @Override
+        public void close() {
+            if (!done) {
+                done = true;
+                unpin(segment);
+            }
+        }
+    }
+}
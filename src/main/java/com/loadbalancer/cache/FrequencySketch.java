@@ -0,0 +1,94 @@
+package com.loadbalancer.cache;
+
+/*
+ * FrequencySketch estimates how often keys were requested recently, for the
+ * TinyLFU admission policy of ResponseCache. It is a count-min sketch of
+ * 4-bit counters: each key increments one counter in each of four rows and
+ * its estimate is the smallest of the four. Once the number of increments
+ * reaches ten times the width, every counter is halved, so old popularity
+ * fades and a key has to keep being requested to stay "frequent".
+ *
+ * Not thread-safe; each cache segment owns one and uses it under its lock.
+ */
+final class FrequencySketch {
+    // Seeds mixing the key hash differently for each row
+    private static final long[] SEEDS = {
+            0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+
+    // Mask clearing the top bit of every 4-bit counter after a shift (for halving)
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    // Counters, sixteen 4-bit counters per long; four rows share the table
+    private final long[] table;
+
+    // Table length minus one (length is a power of two)
+    private final int mask;
+
+    // Increments until the next halving, and the sample size that triggers it
+    private int additions;
+    private final int sampleSize;
+
+    /**
+     * Constructor sizes the sketch for about the given number of keys.
+     *
+     * @param expectedKeys Number of distinct keys the cache holds
+     */
+    FrequencySketch(int expectedKeys) {
+        int length = Integer.highestOneBit(Math.max(expectedKeys, 16) - 1) << 1;
+        this.table = new long[length];
+        this.mask = length - 1;
+        this.sampleSize = 10 * length;
+    }
+
+    /*
+     * Returns the estimated recent request count of a key (0 to 15).
+     */
+    int frequency(int hash) {
+        int frequency = Integer.MAX_VALUE;
+        for (int row = 0; row < 4; row++) {
+            long index = indexOf(hash, row);
+            int count = (int) ((table[(int) (index >>> 4)] >>> ((index & 15) << 2)) & 0xF);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /*
+     * Records a request for a key.
+     */
+    void increment(int hash) {
+        boolean added = false;
+        for (int row = 0; row < 4; row++) {
+            long index = indexOf(hash, row);
+            int slot = (int) (index >>> 4);
+            int shift = (int) ((index & 15) << 2);
+            if (((table[slot] >>> shift) & 0xF) < 15) {
+                table[slot] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /*
+     * Halves every counter.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    /*
+     * Returns the counter for a key in a row: the table slot in the upper
+     * bits and the counter within the slot in the lowest four bits.
+     */
+    private long indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h ^= h >>> 32;
+        return ((h & mask) << 4) | ((h >>> 28) & 15);
+    }
+}
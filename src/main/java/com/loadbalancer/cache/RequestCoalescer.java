@@ -0,0 +1,290 @@
+package com.loadbalancer.cache;
+
+import org.apache.hc.core5.http.Header;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * RequestCoalescer collapses identical concurrent GET requests into one
+ * backend request (single flight). The first request for a key leads a
+ * Flight and is forwarded as usual; requests for the same key arriving while
+ * it is in flight wait for it and are sent the same response, chunk by chunk
+ * as the leader relays it, instead of reaching a backend themselves.
+ *
+ * Only unconditional GETs without credentials or cookies under the
+ * configured path prefixes are coalesced, so one user's session never
+ * answers another's request. A response is shared only if a shared cache
+ * could store it (see CachePolicy.isExplicitlyShareable), its Vary fields
+ * match the waiter's request, and it has a Content-Length of at most the
+ * buffering limit. Otherwise, or if the leader fails before its response
+ * head, waiters forward their requests themselves.
+ */
+public class RequestCoalescer {
+    // Request fields that make the response depend on the client's own state
+    private static final List<String> CONDITIONAL_FIELDS = List.of(
+            "if-none-match", "if-modified-since", "if-match", "if-unmodified-since", "if-range", "range");
+
+    // Flights in progress by cache key
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    // Path prefixes whose requests are coalesced
+    private final List<String> pathPrefixes;
+
+    // Largest response body buffered for waiters
+    private final int maxBodySize;
+
+    // How long a waiter waits for the next part of the response, in milliseconds
+    private final long maxWait;
+
+    // Backend requests made by leaders, saved by waiters, and waiters that forwarded after all
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    /**
+     * Constructor creates a coalescer with no flights.
+     *
+     * @param pathPrefixes Path prefixes whose requests are coalesced
+     * @param maxBodySize  Largest response body shared with waiters
+     * @param maxWait      How long a waiter waits for the response, in milliseconds
+     */
+    public RequestCoalescer(List<String> pathPrefixes, int maxBodySize, long maxWait) {
+        this.pathPrefixes = List.copyOf(pathPrefixes);
+        this.maxBodySize = maxBodySize;
+        this.maxWait = maxWait;
+    }
+
+    /*
+     * Returns whether a request may share a response with identical
+     * concurrent requests.
+     *
+     * @param method         Request method
+     * @param requestHeaders Request fields including :path
+     */
+    public boolean appliesTo(String method, List<Header> requestHeaders) {
+        if (!"GET".equals(method) || !CachePolicy.isCacheableRequest(method, requestHeaders)) {
+            return false;
+        }
+        // A cookie may select a user's own response even if the backend does not say so
+        if (CachePolicy.value(requestHeaders, "cookie") != null) {
+            return false;
+        }
+        for (String name : CONDITIONAL_FIELDS) {
+            if (CachePolicy.value(requestHeaders, name) != null) {
+                return false;
+            }
+        }
+        String path = CachePolicy.value(requestHeaders, ":path");
+        for (String prefix : pathPrefixes) {
+            if (path != null && path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Joins the flight for a key, starting it if there is none. The leader
+     * must close the flight once its exchange is over.
+     *
+     * @param key            Cache key (CachePolicy.key)
+     * @param requestHeaders Request fields, kept by the leader for Vary checks
+     */
+    public Flight join(String key, List<Header> requestHeaders) {
+        Flight flight = new Flight(key, requestHeaders);
+        Flight existing = flights.putIfAbsent(key, flight);
+        if (existing == null) {
+            leaders.increment();
+            return flight;
+        }
+        return existing;
+    }
+
+    // Largest response body shared with waiters
+    public int getMaxBodySize() { return maxBodySize; }
+
+    // Requests forwarded by flight leaders
+    public long getLeaders() { return leaders.sum(); }
+
+    // Backend requests saved: waiters answered with a leader's response
+    public long getCoalesced() { return coalesced.sum(); }
+
+    // Waiters that forwarded their request after all
+    public long getFallbacks() { return fallbacks.sum(); }
+
+    // Number of flights in progress
+    public int getInFlight() { return flights.size(); }
+
+    /*
+     * One backend exchange shared by concurrent identical requests. The
+     * leader publishes the response head, appends the body as it relays it,
+     * and completes it; waiters read the head and then the chunks in order.
+     * The chunks are kept until the flight ends so late joiners get the whole
+     * body.
+     */
+    public final class Flight implements Closeable {
+        private final String key;
+        private final List<Header> leaderRequest;
+        private final Thread leader = Thread.currentThread();
+
+        // Guards the fields below; signalled whenever one changes
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+
+        // Shared response fields once published; set together with shared
+        private List<Header> headers;
+        private boolean shared;
+
+        // Body chunks relayed so far
+        private final List<byte[]> chunks = new ArrayList<>();
+
+        // Whether the body is complete, or the flight ended without a shareable response
+        private boolean complete;
+        private boolean ended;
+
+        private Flight(String key, List<Header> leaderRequest) {
+            this.key = key;
+            this.leaderRequest = leaderRequest;
+        }
+
+        // Whether the calling thread forwards the request for the others
+        public boolean isLeader() {
+            return Thread.currentThread() == leader;
+        }
+
+        /*
+         * Shares the response head with waiters (leader only).
+         *
+         * @param responseHeaders Response fields including :status
+         */
+        public void publish(List<Header> responseHeaders) {
+            lock.lock();
+            try {
+                headers = responseHeaders;
+                shared = true;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /*
+         * Hands waiters a copy of the next body bytes (leader only).
+         */
+        public void append(byte[] b, int off, int len) {
+            byte[] chunk = new byte[len];
+            System.arraycopy(b, off, chunk, 0, len);
+            lock.lock();
+            try {
+                chunks.add(chunk);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /*
+         * Marks the body as complete (leader only).
+         */
+        public void complete() {
+            lock.lock();
+            try {
+                complete = true;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /*
+         * Waits for the leader's response head.
+         *
+         * @param requestHeaders The waiter's request fields, matched against the response's Vary
+         * @return The response fields, or null if the waiter must forward its own request
+         */
+        public List<Header> awaitHead(List<Header> requestHeaders) throws InterruptedException {
+            lock.lock();
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(maxWait);
+                while (!shared && !ended && remaining > 0) {
+                    remaining = changed.awaitNanos(remaining);
+                }
+                if (shared && matchesVary(requestHeaders)) {
+                    coalesced.increment();
+                    return headers;
+                }
+            } finally {
+                lock.unlock();
+            }
+            fallbacks.increment();
+            return null;
+        }
+
+        /*
+         * Waits for a body chunk.
+         *
+         * @param index Number of chunks already read
+         * @return The chunk, or null once the body is complete
+         * @throws IOException If the leader's exchange failed or stalled
+         */
+        public byte[] awaitChunk(int index) throws IOException {
+            lock.lock();
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(maxWait);
+                while (index >= chunks.size() && !complete && !ended) {
+                    if (remaining <= 0) {
+                        throw new IOException("Timed out waiting for coalesced response");
+                    }
+                    remaining = changed.awaitNanos(remaining);
+                }
+                if (index < chunks.size()) {
+                    return chunks.get(index);
+                }
+                if (complete) {
+                    return null;
+                }
+                throw new IOException("Coalesced response failed");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for coalesced response", e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /*
+         * Ends the flight (leader only): new requests for the key start a
+         * flight of their own, and waiters still waiting for a head that was
+         * never published forward their own requests.
+         */
+        @Override
+        public void close() {
+            flights.remove(key, this);
+            lock.lock();
+            try {
+                ended = true;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean matchesVary(List<Header> requestHeaders) {
+            for (String name : CachePolicy.varyNames(headers)) {
+                if (!Objects.equals(CachePolicy.value(leaderRequest, name), CachePolicy.value(requestHeaders, name))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
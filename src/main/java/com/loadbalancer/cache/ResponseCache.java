@@ -0,0 +1,321 @@
+package com.loadbalancer.cache;
+
+import org.apache.hc.core5.http.Header;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * ResponseCache is the shared in-memory HTTP response cache of a listener.
+ *
+ * Entries are spread over independently locked segments by key hash, so
+ * concurrent requests for different resources rarely contend. Each segment
+ * holds an equal share of the byte budget and keeps its entries in access
+ * order.
+ *
+ * Admission follows TinyLFU: every lookup, hit or miss, is counted in the
+ * segment's FrequencySketch. When a new response needs room, it is compared
+ * against the least recently used entries and replaces them only if its key
+ * was requested more often recently. A response requested once (a
+ * "one-hit wonder") therefore cannot push out popular entries; stale entries
+ * are always evicted first.
+ *
+ * A key holds one variant: a response with Vary is served only to requests
+ * with the same values for the listed fields, and a response stored for
+ * other values replaces it.
+ *
+ * Bodies too large for memory can be kept in an optional DiskCache tier,
+ * which the proxy consults on a memory miss.
+ */
+public class ResponseCache implements Closeable {
+    // Segments selected by key hash
+    private final Segment[] segments;
+
+    // Segment count minus one (count is a power of two)
+    private final int segmentMask;
+
+    // Total byte budget and largest cacheable body
+    private final long maxBytes;
+    private final int maxEntrySize;
+
+    // Lookups answered and not answered, entries evicted for room, and responses refused admission
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    // Disk tier for large bodies (null if disabled)
+    private final DiskCache diskTier;
+
+    /**
+     * Constructor creates an empty in-memory cache.
+     *
+     * @param maxBytes     Total memory for cached responses
+     * @param maxEntrySize Largest response body that is cached
+     * @param segmentCount Number of segments (a power of two)
+     */
+    public ResponseCache(long maxBytes, int maxEntrySize, int segmentCount) {
+        this(maxBytes, maxEntrySize, segmentCount, null);
+    }
+
+    /**
+     * Constructor creates an empty cache with a disk tier.
+     *
+     * @param maxBytes     Total memory for cached responses
+     * @param maxEntrySize Largest response body that is cached
+     * @param segmentCount Number of segments (a power of two)
+     * @param diskTier     Disk tier for large bodies, or null
+     */
+    public ResponseCache(long maxBytes, int maxEntrySize, int segmentCount, DiskCache diskTier) {
+        this.diskTier = diskTier;
+        this.maxBytes = maxBytes;
+        this.maxEntrySize = maxEntrySize;
+        this.segments = new Segment[segmentCount];
+        this.segmentMask = segmentCount - 1;
+        long segmentBytes = maxBytes / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            // Size each sketch for entries of about 4KB
+            segments[i] = new Segment(segmentBytes, (int) Math.min(segmentBytes / 4096, 1 << 20));
+        }
+    }
+
+    /*
+     * Looks up a fresh response for a request.
+     *
+     * @param key            Cache key (CachePolicy.key)
+     * @param requestHeaders Request fields, matched against the entry's Vary
+     * @return The stored response, or null on a miss
+     */
+    public CachedResponse get(String key, List<Header> requestHeaders) {
+        int hash = key.hashCode();
+        Segment segment = segmentFor(hash);
+        long now = System.currentTimeMillis();
+        CachedResponse response;
+        segment.lock.lock();
+        try {
+            segment.sketch.increment(hash);
+            response = segment.entries.get(key);
+            if (response != null && !response.isFresh(now)) {
+                segment.remove(key);
+                response = null;
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+        if (response != null && !response.matchesVary(requestHeaders)) {
+            response = null;
+        }
+        if (response == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return response;
+    }
+
+    /*
+     * Offers a response for storing. It is admitted if it fits or if its key
+     * is requested more often than the entries it would displace.
+     *
+     * @param key      Cache key (CachePolicy.key)
+     * @param response Response to store
+     */
+    public void put(String key, CachedResponse response) {
+        int hash = key.hashCode();
+        Segment segment = segmentFor(hash);
+        if (response.size() > segment.capacity) {
+            rejections.increment();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        segment.lock.lock();
+        try {
+            // The key was just looked up, so reading its entry leaves the eviction order as it is
+            CachedResponse current = segment.entries.get(key);
+            long needed = segment.bytes - (current != null ? current.size() : 0) + response.size() - segment.capacity;
+
+            // Choose the victims before touching anything, so a refused response leaves the segment unchanged
+            List<String> victims = new ArrayList<>();
+            int frequency = segment.sketch.frequency(hash);
+            Iterator<Map.Entry<String, CachedResponse>> candidates = segment.entries.entrySet().iterator();
+            while (needed > 0 && candidates.hasNext()) {
+                Map.Entry<String, CachedResponse> candidate = candidates.next();
+                if (candidate.getKey().equals(key)) {
+                    continue; // Replaced anyway, its bytes are already counted as freed
+                }
+                if (candidate.getValue().isFresh(now)
+                        && segment.sketch.frequency(candidate.getKey().hashCode()) >= frequency) {
+                    rejections.increment();
+                    return;
+                }
+                victims.add(candidate.getKey());
+                needed -= candidate.getValue().size();
+            }
+
+            for (String victim : victims) {
+                segment.remove(victim);
+                evictions.increment();
+            }
+            segment.remove(key);
+            segment.entries.put(key, response);
+            segment.bytes += response.size();
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /*
+     * Replaces a stored response with an updated copy of itself (such as one
+     * holding a compressed body) without going through admission again. Least
+     * recently used entries make room if the copy is larger.
+     *
+     * @param key         Cache key (CachePolicy.key)
+     * @param expected    Response currently stored
+     * @param replacement Response to store instead
+     * @return false if the key no longer maps to the expected response
+     */
+    public boolean replace(String key, CachedResponse expected, CachedResponse replacement) {
+        Segment segment = segmentFor(key.hashCode());
+        segment.lock.lock();
+        try {
+            if (segment.entries.get(key) != expected) {
+                return false;
+            }
+            segment.entries.put(key, replacement);
+            segment.bytes += replacement.size() - expected.size();
+            // The replaced key was just accessed, so it is last in line for eviction
+            Iterator<Map.Entry<String, CachedResponse>> victims = segment.entries.entrySet().iterator();
+            while (segment.bytes > segment.capacity && victims.hasNext()) {
+                Map.Entry<String, CachedResponse> victim = victims.next();
+                victims.remove();
+                segment.bytes -= victim.getValue().size();
+                evictions.increment();
+            }
+            return true;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /*
+     * Drops the stored response for a key, after a request that may have
+     * changed the resource.
+     */
+    public void invalidate(String key) {
+        Segment segment = segmentFor(key.hashCode());
+        segment.lock.lock();
+        try {
+            segment.remove(key);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // Disk tier for large bodies (null if disabled)
+    public DiskCache getDiskTier() { return diskTier; }
+
+    // Largest response body that is cached
+    public int getMaxEntrySize() { return maxEntrySize; }
+
+    // Total byte budget
+    public long getMaxBytes() { return maxBytes; }
+
+    // Lookups answered from the cache
+    public long getHits() { return hits.sum(); }
+
+    // Lookups that went to a backend
+    public long getMisses() { return misses.sum(); }
+
+    // Fraction of lookups answered from the cache
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    // Entries evicted to make room
+    public long getEvictions() { return evictions.sum(); }
+
+    // Responses refused by the admission policy or too large for a segment
+    public long getRejections() { return rejections.sum(); }
+
+    // Memory held by cached responses
+    public long getBytesUsed() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                bytes += segment.bytes;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return bytes;
+    }
+
+    // Number of cached responses
+    public int getEntryCount() {
+        int count = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                count += segment.entries.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Flushes the disk tier, if any, so its entries survive a restart.
+     */
+    @Override
+    public void close() {
+        if (diskTier != null) {
+            diskTier.close();
+        }
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[(hash ^ (hash >>> 16)) & segmentMask];
+    }
+
+    /*
+     * One lock stripe: entries in access order (least recently used first),
+     * their total size, and the frequency sketch for admission.
+     */
+    private static final class Segment {
+        // Guards every field of the segment
+        final ReentrantLock lock = new ReentrantLock();
+
+        // Entries in access order
+        final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        // Recent request frequency of keys hashing to this segment
+        final FrequencySketch sketch;
+
+        // Byte budget and bytes in use
+        final long capacity;
+        long bytes;
+
+        Segment(long capacity, int expectedEntries) {
+            this.capacity = capacity;
+            this.sketch = new FrequencySketch(expectedEntries);
+        }
+
+        // Removes an entry if present (lock held)
+        void remove(String key) {
+            CachedResponse removed = entries.remove(key);
+            if (removed != null) {
+                bytes -= removed.size();
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.loadbalancer.compression;
+
+import com.loadbalancer.proxy.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * CompressingOutputStream compresses a response body on the fly and writes
+ * it to the client as HTTP/1.1 chunks, so a body of any length is sent
+ * without being buffered whole. Each chunk is at most one pooled buffer of
+ * compressed bytes.
+ *
+ * Compressed output is normally held back until the deflater has a full
+ * block, which is what makes compression effective. When the source the
+ * body is read from has nothing more available, the stream sync-flushes,
+ * so a client of a slowly produced response still sees each part as soon
+ * as the backend sends it.
+ *
+ * finish() writes the gzip trailer and the last chunk; close() releases the
+ * pooled deflater and buffer and must always be called, also after a
+ * failure.
+ */
+public final class CompressingOutputStream extends OutputStream {
+    // Size of the buffer collecting compressed bytes (one chunk)
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    // gzip member header: magic, deflate, no flags, no mtime, no extra flags, unknown OS
+    static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    // Terminating chunk of a chunked body without trailers
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    // Client stream the chunks are written to
+    private final OutputStream out;
+
+    // Compressor that owns the deflater pool and statistics
+    private final ResponseCompressor compressor;
+
+    // Deflater borrowed from the pool and its pool
+    private final DeflaterPool pool;
+    private final Deflater deflater;
+
+    // Checksum of the uncompressed bytes (gzip only)
+    private final CRC32 crc;
+
+    // Stream the body is read from, checked to decide when to flush (may be null)
+    private final InputStream source;
+
+    // Compressed bytes not yet written as a chunk
+    private final byte[] buffer;
+    private int pending;
+
+    // Uncompressed bytes in, compressed bytes out, and time spent deflating
+    private long bytesIn;
+    private long bytesOut;
+    private long nanos;
+
+    // Bytes taken since the last flush
+    private boolean unflushed;
+
+    // Whether finish() or close() ran
+    private boolean finished;
+    private boolean closed;
+
+    CompressingOutputStream(OutputStream out, ResponseCompressor compressor, DeflaterPool pool, boolean gzip,
+            InputStream source) {
+        this.out = out;
+        this.compressor = compressor;
+        this.pool = pool;
+        this.deflater = pool.acquire();
+        this.crc = gzip ? new CRC32() : null;
+        this.source = source;
+        this.buffer = BufferPool.getDefault().acquireArray(BUFFER_SIZE);
+        if (gzip) {
+            System.arraycopy(GZIP_HEADER, 0, buffer, 0, GZIP_HEADER.length);
+            pending = GZIP_HEADER.length;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        if (crc != null) {
+            crc.update(b, off, len);
+        }
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflateInto(Deflater.NO_FLUSH);
+        }
+        nanos += System.nanoTime() - start;
+        bytesIn += len;
+        unflushed = true;
+        // Nothing more to compress right now: send what the client can already use
+        if (source != null && source.available() == 0) {
+            flush();
+        }
+    }
+
+    /*
+     * Sync-flushes the deflater so every byte written so far can be
+     * decompressed by the client, and writes it out.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (unflushed) {
+            long start = System.nanoTime();
+            // A completely filled buffer means the deflater may have more to give
+            int space;
+            int produced;
+            do {
+                space = buffer.length - pending;
+                produced = deflater.deflate(buffer, pending, space, Deflater.SYNC_FLUSH);
+                pending += produced;
+                if (pending == buffer.length) {
+                    writeChunk();
+                }
+            } while (produced == space);
+            nanos += System.nanoTime() - start;
+            unflushed = false;
+        }
+        writeChunk();
+        out.flush();
+    }
+
+    /*
+     * Completes the compressed body: the rest of the deflate data, the gzip
+     * trailer and the terminating chunk.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        long start = System.nanoTime();
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflateInto(Deflater.NO_FLUSH);
+        }
+        nanos += System.nanoTime() - start;
+        if (crc != null) {
+            if (buffer.length - pending < 8) {
+                writeChunk();
+            }
+            writeIntLE((int) crc.getValue());
+            writeIntLE((int) bytesIn);
+        }
+        writeChunk();
+        out.write(LAST_CHUNK);
+    }
+
+    /*
+     * Returns the deflater and buffer to their pools and records the
+     * statistics. Does not close the client stream.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pool.release(deflater);
+        BufferPool.getDefault().release(buffer);
+        if (finished) {
+            compressor.record(bytesIn, bytesOut, nanos);
+        }
+    }
+
+    /*
+     * Runs the deflater once into the free part of the buffer, writing the
+     * buffer out as a chunk when it fills up.
+     */
+    private void deflateInto(int flush) throws IOException {
+        pending += deflater.deflate(buffer, pending, buffer.length - pending, flush);
+        if (pending == buffer.length) {
+            writeChunk();
+        }
+    }
+
+    private void writeIntLE(int value) {
+        buffer[pending++] = (byte) value;
+        buffer[pending++] = (byte) (value >>> 8);
+        buffer[pending++] = (byte) (value >>> 16);
+        buffer[pending++] = (byte) (value >>> 24);
+    }
+
+    /*
+     * Writes the pending compressed bytes as one chunk.
+     */
+    private void writeChunk() throws IOException {
+        if (pending == 0) {
+            return;
+        }
+        out.write((Integer.toHexString(pending) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(buffer, 0, pending);
+        out.write('\r');
+        out.write('\n');
+        bytesOut += pending;
+        pending = 0;
+    }
+}
@@ -0,0 +1,51 @@
+package com.loadbalancer.compression;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+
+/*
+ * DeflaterPool recycles Deflater instances of one format and level. A
+ * Deflater holds a few hundred kilobytes of native memory and is expensive
+ * to create, so creating one per response would cost more than compressing
+ * a small body. Released instances are reset and kept up to the pool's
+ * capacity; the rest are ended to free their native memory immediately.
+ */
+final class DeflaterPool {
+    // Idle deflaters ready for reuse
+    private final ArrayBlockingQueue<Deflater> idle;
+
+    // Compression level and whether to omit the zlib wrapper (gzip writes its own)
+    private final int level;
+    private final boolean nowrap;
+
+    /**
+     * Constructor creates an empty pool.
+     *
+     * @param capacity Maximum idle deflaters kept
+     * @param level    Compression level (1-9)
+     * @param nowrap   true for raw deflate data (gzip), false for the zlib format (deflate)
+     */
+    DeflaterPool(int capacity, int level, boolean nowrap) {
+        this.idle = new ArrayBlockingQueue<>(capacity);
+        this.level = level;
+        this.nowrap = nowrap;
+    }
+
+    /*
+     * Returns an idle deflater, or a new one if none is pooled.
+     */
+    Deflater acquire() {
+        Deflater deflater = idle.poll();
+        return deflater != null ? deflater : new Deflater(level, nowrap);
+    }
+
+    /*
+     * Resets a deflater and keeps it for reuse, or ends it if the pool is full.
+     */
+    void release(Deflater deflater) {
+        deflater.reset();
+        if (!idle.offer(deflater)) {
+            deflater.end();
+        }
+    }
+}
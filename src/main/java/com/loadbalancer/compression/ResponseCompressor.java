@@ -0,0 +1,289 @@
+package com.loadbalancer.compression;
+
+import com.loadbalancer.cache.CachePolicy;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.message.BasicHeader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * ResponseCompressor compresses responses for clients that accept gzip or
+ * deflate, so backends can send plain text and the load balancer spends
+ * the CPU to save the bandwidth to the client.
+ *
+ * A response is compressed when the client's Accept-Encoding allows it, its
+ * Content-Type is one of the configured types, it is not encoded already,
+ * Cache-Control does not forbid transformation (no-transform), and a known
+ * Content-Length is at least the minimum size. Compressed responses carry
+ * Vary: Accept-Encoding and a weak ETag, since the bytes differ from the
+ * backend's representation.
+ *
+ * Header lists are the lower-cased field lists produced for HTTP/2
+ * translation (see CachePolicy). Deflaters come from per-format pools.
+ */
+public class ResponseCompressor {
+    // Content codings offered, in order of preference
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    // Content types (without parameters) that are compressed
+    private final List<String> contentTypes;
+
+    // Smallest body with a known length that is compressed
+    private final int minSize;
+
+    // Deflater pools for gzip (raw deflate) and deflate (zlib format)
+    private final DeflaterPool gzipPool;
+    private final DeflaterPool deflatePool;
+
+    // Responses compressed, bytes before and after, and time spent compressing
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    /**
+     * Constructor creates a compressor with empty deflater pools.
+     *
+     * @param contentTypes Content types that are compressed
+     * @param minSize      Smallest body with a known length that is compressed
+     * @param level        Compression level (1-9)
+     * @param poolSize     Idle deflaters kept per format
+     */
+    public ResponseCompressor(List<String> contentTypes, int minSize, int level, int poolSize) {
+        List<String> types = new ArrayList<>(contentTypes.size());
+        for (String type : contentTypes) {
+            types.add(type.trim().toLowerCase(Locale.ROOT));
+        }
+        this.contentTypes = List.copyOf(types);
+        this.minSize = minSize;
+        this.gzipPool = new DeflaterPool(poolSize, level, true);
+        this.deflatePool = new DeflaterPool(poolSize, level, false);
+    }
+
+    /*
+     * Chooses the content coding for a client from its Accept-Encoding.
+     *
+     * @param requestHeaders Request fields
+     * @return GZIP, DEFLATE, or null if the client accepts neither
+     */
+    public String negotiate(List<Header> requestHeaders) {
+        String acceptEncoding = CachePolicy.value(requestHeaders, "accept-encoding");
+        if (acceptEncoding == null) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = quality;
+            } else if (coding.equals("deflate")) {
+                deflate = quality;
+            } else if (coding.equals("*")) {
+                any = quality;
+            }
+        }
+        // Codings not listed take the quality of "*", if present
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    /*
+     * Returns whether a response may be compressed.
+     *
+     * @param method          Request method
+     * @param responseHeaders Response fields including :status
+     */
+    public boolean isCompressible(String method, List<Header> responseHeaders) {
+        if ("HEAD".equals(method)) {
+            return false;
+        }
+        int status = status(responseHeaders);
+        if (status < 200 || status == 204 || status == 206 || status == 304) {
+            return false;
+        }
+        if (CachePolicy.value(responseHeaders, "content-encoding") != null
+                || CachePolicy.value(responseHeaders, "content-range") != null) {
+            return false;
+        }
+        String cacheControl = CachePolicy.value(responseHeaders, "cache-control");
+        if (cacheControl != null && cacheControl.toLowerCase(Locale.ROOT).contains("no-transform")) {
+            return false;
+        }
+        String contentLength = CachePolicy.value(responseHeaders, "content-length");
+        if (contentLength != null) {
+            try {
+                if (Long.parseLong(contentLength.trim()) < minSize) {
+                    return false;
+                }
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        String contentType = CachePolicy.value(responseHeaders, "content-type");
+        if (contentType == null) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        String type = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim()
+                .toLowerCase(Locale.ROOT);
+        return contentTypes.contains(type);
+    }
+
+    /*
+     * Rewrites response fields for the compressed representation.
+     *
+     * @param responseHeaders Response fields including :status
+     * @param encoding        GZIP or DEFLATE
+     * @param length          Compressed length, or -1 if the body is sent chunked
+     */
+    public List<Header> encodedHeaders(List<Header> responseHeaders, String encoding, long length) {
+        List<Header> headers = new ArrayList<>(responseHeaders.size() + 2);
+        boolean varies = false;
+        for (Header header : responseHeaders) {
+            String name = header.getName();
+            if (name.equals("etag") && !header.getValue().startsWith("W/")) {
+                // Same resource, different bytes: strong validators no longer apply
+                headers.add(new BasicHeader("etag", "W/" + header.getValue()));
+            } else if (!name.equals("content-length")) {
+                varies |= name.equals("vary") && header.getValue().toLowerCase(Locale.ROOT).contains("accept-encoding");
+                headers.add(header);
+            }
+        }
+        headers.add(new BasicHeader("content-encoding", encoding));
+        if (!varies) {
+            headers.add(new BasicHeader("vary", "accept-encoding"));
+        }
+        if (length >= 0) {
+            headers.add(new BasicHeader("content-length", String.valueOf(length)));
+        }
+        return headers;
+    }
+
+    /*
+     * Opens a stream compressing a body into HTTP/1.1 chunks.
+     *
+     * @param out      Client stream the chunks are written to
+     * @param encoding GZIP or DEFLATE
+     * @param source   Stream the body is read from, to flush whenever it has nothing ready (may be null)
+     */
+    public CompressingOutputStream open(OutputStream out, String encoding, InputStream source) {
+        boolean gzip = GZIP.equals(encoding);
+        return new CompressingOutputStream(out, this, gzip ? gzipPool : deflatePool, gzip, source);
+    }
+
+    /*
+     * Compresses a whole body in memory (for bodies that are cached).
+     *
+     * @param body     Body bytes
+     * @param encoding GZIP or DEFLATE
+     * @return The encoded body
+     */
+    public byte[] compress(byte[] body, String encoding) {
+        boolean gzip = GZIP.equals(encoding);
+        DeflaterPool pool = gzip ? gzipPool : deflatePool;
+        Deflater deflater = pool.acquire();
+        long start = System.nanoTime();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 3 + 64);
+            if (gzip) {
+                out.writeBytes(CompressingOutputStream.GZIP_HEADER);
+            }
+            deflater.setInput(body);
+            deflater.finish();
+            byte[] buffer = new byte[Math.min(64 * 1024, Math.max(512, body.length))];
+            while (!deflater.finished()) {
+                int produced = deflater.deflate(buffer);
+                out.write(buffer, 0, produced);
+            }
+            if (gzip) {
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                writeIntLE(out, (int) crc.getValue());
+                writeIntLE(out, body.length);
+            }
+            byte[] encoded = out.toByteArray();
+            record(body.length, encoded.length, System.nanoTime() - start);
+            return encoded;
+        } finally {
+            pool.release(deflater);
+        }
+    }
+
+    // Responses compressed
+    public long getResponses() { return responses.sum(); }
+
+    // Uncompressed bytes of compressed responses
+    public long getBytesIn() { return bytesIn.sum(); }
+
+    // Bytes sent after compression
+    public long getBytesOut() { return bytesOut.sum(); }
+
+    // Share of bandwidth saved (0 to 1)
+    public double getSavedRatio() {
+        long in = bytesIn.sum();
+        return in == 0 ? 0 : 1 - (double) bytesOut.sum() / in;
+    }
+
+    // Compression time in milliseconds per megabyte of uncompressed input
+    public double getMillisPerMegabyte() {
+        long in = bytesIn.sum();
+        return in == 0 ? 0 : nanos.sum() / 1e6 / (in / (1024.0 * 1024.0));
+    }
+
+    /*
+     * Adds one compressed response to the statistics.
+     */
+    void record(long in, long out, long elapsedNanos) {
+        responses.increment();
+        bytesIn.add(in);
+        bytesOut.add(out);
+        nanos.add(elapsedNanos);
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static int status(List<Header> headers) {
+        String status = CachePolicy.value(headers, ":status");
+        try {
+            return status != null ? Integer.parseInt(status) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.loadbalancer.config;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Config {
@@ -22,51 +23,1071 @@ public class Config {
     // Logging configuration
     private LoggingConfig logging;
 
+    // Backend connection pool configuration
+    @JsonProperty("connection_pool")
+    private ConnectionPoolConfig connectionPool = new ConnectionPoolConfig();
+
+    // Passive health checking from live traffic (maps from YAML's outlier_detection)
+    @JsonProperty("outlier_detection")
+    private OutlierDetectionConfig outlierDetection = new OutlierDetectionConfig();
+
+    // Per-backend circuit breakers (maps from YAML's circuit_breaker)
+    @JsonProperty("circuit_breaker")
+    private CircuitBreakerConfig circuitBreaker = new CircuitBreakerConfig();
+
+    /**
+     * Configuration for the load balancer server itself.
+     */
+    public static class ServerConfig {
+        // Port number the load balancer listens on
+        private int port;
+
+        // Host address to bind to (e.g., 0.0.0.0 for all interfaces)
+        private String host;
+
+        // Listener mode: "http" (parse and proxy HTTP/1.x) or "tcp" (relay raw
+        // bytes to a backend picked once per connection, no HTTP parsing) or
+        // "tls-passthrough" (like tcp, with the backend picked by the TLS server name)
+        private String mode = "http";
+
+        // Thread pool size for handling concurrent connections (default: 100)
+        @JsonProperty("thread_pool_size")
+        private int threadPoolSize = 100;
+
+        // Idle time before a persistent (keep-alive) client connection is closed
+        @JsonProperty("keep_alive_timeout")
+        private String keepAliveTimeout = "5s";
+
+        // Executor for ProxyHandler tasks in blocking mode: "fixed" (platform
+        // thread pool) or "virtual" (one virtual thread per connection, Java 21+)
+        private String executor = "fixed";
+
+        // I/O model for client connections: "blocking" (thread per connection)
+        // or "nio" (selector-based event loops)
+        @JsonProperty("io_model")
+        private String ioModel = "blocking";
+
+        // Number of event loops in nio mode (0 = one per available processor)
+        @JsonProperty("event_loops")
+        private int eventLoops = 0;
+
+        // Relay large fixed-length and read-to-EOF bodies channel-to-channel
+        // through direct buffers instead of copying via byte[] (blocking mode)
+        @JsonProperty("zero_copy")
+        private boolean zeroCopy = true;
+
+        // Idle time before an upgraded (WebSocket) or CONNECT tunnel, or a tcp
+        // mode connection, is closed
+        @JsonProperty("tunnel_idle_timeout")
+        private String tunnelIdleTimeout = "300s";
+
+        // HTTP/2 (h2c prior knowledge) settings for the http mode
+        private Http2Config http2 = new Http2Config();
+
+        // TLS termination settings (blocking I/O model only)
+        private TlsConfig tls = new TlsConfig();
+
+        // HTTP response cache settings (blocking I/O model only)
+        private CacheConfig cache = new CacheConfig();
+
+        // Coalescing of identical concurrent GETs (blocking I/O model only)
+        private CoalescingConfig coalescing = new CoalescingConfig();
+
+        // Response compression settings (blocking I/O model only)
+        private CompressionConfig compression = new CompressionConfig();
+
+        // Retries of failed backend requests (blocking I/O model only)
+        private RetryConfig retry = new RetryConfig();
+
+        // Hedging of slow idempotent requests (blocking I/O model only)
+        private HedgingConfig hedging = new HedgingConfig();
+
+        // Adaptive concurrency limit and load shedding (blocking I/O model only)
+        @JsonProperty("concurrency_limit")
+        private ConcurrencyLimitConfig concurrencyLimit = new ConcurrencyLimitConfig();
+
+        // Queue delay based shedding of connections waiting for a thread (fixed executor only)
+        @JsonProperty("queue_delay")
+        private QueueDelayConfig queueDelay = new QueueDelayConfig();
+
+        // Getter for port
+        public int getPort() {
+            return port;
+        }
+
+        // Setter for port (used by Jackson during deserialization)
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        // Getter for host
+        public String getHost() {
+            return host;
+        }
+
+        // Setter for host (used by Jackson during deserialization)
+        public void setHost(String host) {
+            this.host = host;
+        }
+
+        // Getter for listener mode
+        public String getMode() {
+            return mode;
+        }
+
+        // Setter for listener mode
+        public void setMode(String mode) {
+            this.mode = mode;
+        }
+
+        // Getter for thread pool size
+        public int getThreadPoolSize() {
+            return threadPoolSize;
+        }
+
+        // Setter for thread pool size
+        public void setThreadPoolSize(int threadPoolSize) {
+            this.threadPoolSize = threadPoolSize;
+        }
+
+        // Getter for keep-alive timeout
+        public String getKeepAliveTimeout() {
+            return keepAliveTimeout;
+        }
+
+        // Setter for keep-alive timeout
+        public void setKeepAliveTimeout(String keepAliveTimeout) {
+            this.keepAliveTimeout = keepAliveTimeout;
+        }
+
+        // Getter for executor type
+        public String getExecutor() {
+            return executor;
+        }
+
+        // Setter for executor type
+        public void setExecutor(String executor) {
+            this.executor = executor;
+        }
+
+        // Getter for I/O model
+        public String getIoModel() {
+            return ioModel;
+        }
+
+        // Setter for I/O model
+        public void setIoModel(String ioModel) {
+            this.ioModel = ioModel;
+        }
+
+        // Getter for event loop count
+        public int getEventLoops() {
+            return eventLoops;
+        }
+
+        // Setter for event loop count
+        public void setEventLoops(int eventLoops) {
+            this.eventLoops = eventLoops;
+        }
+
+        // Getter for zero-copy body relay flag
+        public boolean isZeroCopy() {
+            return zeroCopy;
+        }
+
+        // Setter for zero-copy body relay flag
+        public void setZeroCopy(boolean zeroCopy) {
+            this.zeroCopy = zeroCopy;
+        }
+
+        // Getter for tunnel idle timeout
+        public String getTunnelIdleTimeout() {
+            return tunnelIdleTimeout;
+        }
+
+        // Setter for tunnel idle timeout
+        public void setTunnelIdleTimeout(String tunnelIdleTimeout) {
+            this.tunnelIdleTimeout = tunnelIdleTimeout;
+        }
+
+        // Getter for HTTP/2 settings
+        public Http2Config getHttp2() {
+            return http2;
+        }
+
+        // Setter for HTTP/2 settings
+        public void setHttp2(Http2Config http2) {
+            this.http2 = http2;
+        }
+
+        // Getter for TLS settings
+        public TlsConfig getTls() {
+            return tls;
+        }
+
+        // Setter for TLS settings
+        public void setTls(TlsConfig tls) {
+            this.tls = tls;
+        }
+
+        // Getter for response cache settings
+        public CacheConfig getCache() {
+            return cache;
+        }
+
+        // Setter for response cache settings
+        public void setCache(CacheConfig cache) {
+            this.cache = cache;
+        }
+
+        // Getter for request coalescing settings
+        public CoalescingConfig getCoalescing() {
+            return coalescing;
+        }
+
+        // Setter for request coalescing settings
+        public void setCoalescing(CoalescingConfig coalescing) {
+            this.coalescing = coalescing;
+        }
+
+        // Getter for response compression settings
+        public CompressionConfig getCompression() {
+            return compression;
+        }
+
+        // Setter for response compression settings
+        public void setCompression(CompressionConfig compression) {
+            this.compression = compression;
+        }
+
+        // Getter for retry settings
+        public RetryConfig getRetry() {
+            return retry;
+        }
+
+        // Setter for retry settings
+        public void setRetry(RetryConfig retry) {
+            this.retry = retry;
+        }
+
+        // Getter for hedging settings
+        public HedgingConfig getHedging() {
+            return hedging;
+        }
+
+        // Setter for hedging settings
+        public void setHedging(HedgingConfig hedging) {
+            this.hedging = hedging;
+        }
+
+        // Getter for concurrency limit settings
+        public ConcurrencyLimitConfig getConcurrencyLimit() {
+            return concurrencyLimit;
+        }
+
+        // Setter for concurrency limit settings
+        public void setConcurrencyLimit(ConcurrencyLimitConfig concurrencyLimit) {
+            this.concurrencyLimit = concurrencyLimit;
+        }
+
+        // Getter for queue delay settings
+        public QueueDelayConfig getQueueDelay() {
+            return queueDelay;
+        }
+
+        // Setter for queue delay settings
+        public void setQueueDelay(QueueDelayConfig queueDelay) {
+            this.queueDelay = queueDelay;
+        }
+    }
+
+    /**
+     * Configuration for the HTTP/2 cleartext (h2c) frontend.
+     * Clients that open the connection with the HTTP/2 preface (prior
+     * knowledge) get multiplexed streams, each balanced independently onto
+     * HTTP/1.1 backend connections.
+     */
+    public static class Http2Config {
+        // Whether the HTTP/2 preface is accepted on http listeners
+        private boolean enabled = true;
+
+        // Maximum concurrent streams per client connection
+        @JsonProperty("max_concurrent_streams")
+        private int maxConcurrentStreams = 256;
+
+        // Initial flow-control window for each stream, in bytes
+        @JsonProperty("initial_window_size")
+        private int initialWindowSize = 65535;
+
+        // Getter for enabled flag
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        // Setter for enabled flag
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        // Getter for max concurrent streams
+        public int getMaxConcurrentStreams() {
+            return maxConcurrentStreams;
+        }
+
+        // Setter for max concurrent streams
+        public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+            this.maxConcurrentStreams = maxConcurrentStreams;
+        }
+
+        // Getter for initial window size
+        public int getInitialWindowSize() {
+            return initialWindowSize;
+        }
+
+        // Setter for initial window size
+        public void setInitialWindowSize(int initialWindowSize) {
+            this.initialWindowSize = initialWindowSize;
+        }
+    }
+
+
+    /**
+     * Configuration for the HTTP response cache.
+     * Cacheable GET responses (explicit freshness through Cache-Control or
+     * Expires) are kept in memory and served without contacting a backend
+     * until they go stale. Memory is bounded by max_size_mb; a TinyLFU
+     * admission policy keeps rarely requested responses from displacing
+     * popular ones.
+     */
+    public static class CacheConfig {
+        // Whether responses are cached
+        private boolean enabled = false;
+
+        // Total memory for cached responses, in megabytes
+        @JsonProperty("max_size_mb")
+        private int maxSizeMb = 64;
+
+        // Largest response body that is cached, in kilobytes
+        @JsonProperty("max_entry_size_kb")
+        private int maxEntrySizeKb = 1024;
+
+        // Number of independently locked segments (a power of two)
+        private int segments = 16;
+
+        // Disk tier for bodies too large to keep in memory
+        private DiskCacheConfig disk = new DiskCacheConfig();
+
+        // Getter for enabled flag
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        // Setter for enabled flag
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        // Getter for cache size in megabytes
+        public int getMaxSizeMb() {
+            return maxSizeMb;
+        }
+
+        // Setter for cache size in megabytes
+        public void setMaxSizeMb(int maxSizeMb) {
+            this.maxSizeMb = maxSizeMb;
+        }
+
+        // Getter for largest cached body in kilobytes
+        public int getMaxEntrySizeKb() {
+            return maxEntrySizeKb;
+        }
+
+        // Setter for largest cached body in kilobytes
+        public void setMaxEntrySizeKb(int maxEntrySizeKb) {
+            this.maxEntrySizeKb = maxEntrySizeKb;
+        }
+
+        // Getter for segment count
+        public int getSegments() {
+            return segments;
+        }
+
+        // Setter for segment count
+        public void setSegments(int segments) {
+            this.segments = segments;
+        }
+
+        // Getter for disk tier configuration
+        public DiskCacheConfig getDisk() {
+            return disk;
+        }
+
+        // Setter for disk tier configuration
+        public void setDisk(DiskCacheConfig disk) {
+            this.disk = disk;
+        }
+    }
+
+    /**
+     * Configuration for the disk tier of the response cache.
+     * Bodies of at least min_entry_size_kb are stored in memory-mapped
+     * segment files under the directory and served straight from the
+     * mapping. The index is kept in the same directory, so cached entries
+     * survive a restart.
+     */
+    public static class DiskCacheConfig {
+        // Whether large bodies are cached on disk
+        private boolean enabled = false;
+
+        // Directory for the index and segment files
+        private String directory = "cache";
+
+        // Total size of the segment files, in megabytes
+        @JsonProperty("max_size_mb")
+        private int maxSizeMb = 1024;
+
+        // Size of one segment file (and largest cached response), in megabytes
+        @JsonProperty("segment_size_mb")
+        private int segmentSizeMb = 64;
+
+        // Smallest body stored on disk rather than in memory, in kilobytes
+        @JsonProperty("min_entry_size_kb")
+        private int minEntrySizeKb = 64;
+
+        // Getter for enabled flag
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        // Setter for enabled flag
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        // Getter for cache directory
+        public String getDirectory() {
+            return directory;
+        }
+
+        // Setter for cache directory
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        // Getter for disk cache size in megabytes
+        public int getMaxSizeMb() {
+            return maxSizeMb;
+        }
+
+        // Setter for disk cache size in megabytes
+        public void setMaxSizeMb(int maxSizeMb) {
+            this.maxSizeMb = maxSizeMb;
+        }
+
+        // Getter for segment size in megabytes
+        public int getSegmentSizeMb() {
+            return segmentSizeMb;
+        }
+
+        // Setter for segment size in megabytes
+        public void setSegmentSizeMb(int segmentSizeMb) {
+            this.segmentSizeMb = segmentSizeMb;
+        }
+
+        // Getter for smallest disk-cached body in kilobytes
+        public int getMinEntrySizeKb() {
+            return minEntrySizeKb;
+        }
+
+        // Setter for smallest disk-cached body in kilobytes
+        public void setMinEntrySizeKb(int minEntrySizeKb) {
+            this.minEntrySizeKb = minEntrySizeKb;
+        }
+    }
+
+    /**
+     * Configuration for request coalescing (single flight).
+     * While a GET under one of the path prefixes is being forwarded,
+     * identical GETs wait for it and are sent the same response instead of
+     * reaching a backend, which keeps a hot resource from being fetched by
+     * many clients at once when its cached copy expires.
+     */
+    public static class CoalescingConfig {
+        // Whether identical concurrent GETs are coalesced
+        private boolean enabled = false;
+
+        // Path prefixes whose requests are coalesced
+        @JsonProperty("path_prefixes")
+        private List<String> pathPrefixes = new ArrayList<>(List.of("/"));
+
+        // Largest response body shared with waiting requests, in kilobytes
+        @JsonProperty("max_body_kb")
+        private int maxBodyKb = 1024;
+
+        // How long a waiting request waits for the shared response
+        @JsonProperty("max_wait")
+        private String maxWait = "30s";
+
+        // Getter for enabled flag
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        // Setter for enabled flag
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        // Getter for coalesced path prefixes
+        public List<String> getPathPrefixes() {
+            return pathPrefixes;
+        }
+
+        // Setter for coalesced path prefixes
+        public void setPathPrefixes(List<String> pathPrefixes) {
+            this.pathPrefixes = pathPrefixes;
+        }
+
+        // Getter for largest shared body in kilobytes
+        public int getMaxBodyKb() {
+            return maxBodyKb;
+        }
+
+        // Setter for largest shared body in kilobytes
+        public void setMaxBodyKb(int maxBodyKb) {
+            this.maxBodyKb = maxBodyKb;
+        }
+
+        // Getter for waiting time
+        public String getMaxWait() {
+            return maxWait;
+        }
+
+        // Setter for waiting time
+        public void setMaxWait(String maxWait) {
+            this.maxWait = maxWait;
+        }
+    }
+
+    /**
+     * Configuration for retrying failed backend requests.
+     * A request whose backend fails before any response reached the client
+     * is sent to another backend if it never reached the failed one or its
+     * method is idempotent. Retries draw from a budget shared by all requests
+     * so that an outage does not multiply the load on the remaining backends.
+     */
+    public static class RetryConfig {
+        // Whether failed requests are retried
+        private boolean enabled = true;
+
+        // Retries per request at most
+        @JsonProperty("max_retries")
+        private int maxRetries = 2;
+
+        // Retries allowed per forwarded request on average (0.1 = 10%)
+        @JsonProperty("budget_ratio")
+        private double budgetRatio = 0.1;
+
+        // Retries the budget can hold, allowed in a burst at low traffic
+        @JsonProperty("budget_burst")
+        private int budgetBurst = 10;
+
+        // Getter for enabled flag
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        // Setter for enabled flag
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        // Getter for retries per request
+        public int getMaxRetries() {
+            return maxRetries;
+        }
+
+        // Setter for retries per request
+        public void setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+        }
+
+        // Getter for retry budget ratio
+        public double getBudgetRatio() {
+            return budgetRatio;
+        }
+
+        // Setter for retry budget ratio
+        public void setBudgetRatio(double budgetRatio) {
+            this.budgetRatio = budgetRatio;
+        }
+
+        // Getter for retry budget burst
+        public int getBudgetBurst() {
+            return budgetBurst;
+        }
+
+        // Setter for retry budget burst
+        public void setBudgetBurst(int budgetBurst) {
+            this.budgetBurst = budgetBurst;
+        }
+    }
+
+    /**
+     * Configuration for request hedging.
+     * A GET, HEAD or OPTIONS request under one of the path prefixes that has
+     * not received response headers within the given percentile of recent
+     * response times is also sent to a second backend; the first response
+     * is used. Hedges are limited to a share of the requests by a budget.
+     */
+    public static class HedgingConfig {
+        // Whether slow requests are hedged
+        private boolean enabled = false;
+
+        // Path prefixes whose requests are hedged
+        @JsonProperty("path_prefixes")
+        private List<String> pathPrefixes = new ArrayList<>(List.of("/"));
+
+        // Percentile of recent times to response headers after which a hedge is sent
+        private double percentile = 95;
+
+        // Shortest wait before a hedge is sent
+        @JsonProperty("min_delay")
+        private String minDelay = "10ms";
+
+        // Hedges allowed per hedgeable request on average (0.05 = 5%)
+        @JsonProperty("budget_ratio")
+        private double budgetRatio = 0.05;
+
+        // Hedges the budget can hold, allowed in a burst at low traffic
+        @JsonProperty("budget_burst")
+        private int budgetBurst = 10;
+
+        // Getter for enabled flag
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        // Setter for enabled flag
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        // Getter for hedged path prefixes
+        public List<String> getPathPrefixes() {
+            return pathPrefixes;
+        }
+
+        // Setter for hedged path prefixes
+        public void setPathPrefixes(List<String> pathPrefixes) {
+            this.pathPrefixes = pathPrefixes;
+        }
+
+        // Getter for hedging percentile
+        public double getPercentile() {
+            return percentile;
+        }
+
+        // Setter for hedging percentile
+        public void setPercentile(double percentile) {
+            this.percentile = percentile;
+        }
+
+        // Getter for shortest hedging delay
+        public String getMinDelay() {
+            return minDelay;
+        }
+
+        // Setter for shortest hedging delay
+        public void setMinDelay(String minDelay) {
+            this.minDelay = minDelay;
+        }
+
+        // Getter for hedge budget ratio
+        public double getBudgetRatio() {
+            return budgetRatio;
+        }
+
+        // Setter for hedge budget ratio
+        public void setBudgetRatio(double budgetRatio) {
+            this.budgetRatio = budgetRatio;
+        }
+
+        // Getter for hedge budget burst
+        public int getBudgetBurst() {
+            return budgetBurst;
+        }
+
+        // Setter for hedge budget burst
+        public void setBudgetBurst(int budgetBurst) {
+            this.budgetBurst = budgetBurst;
+        }
+    }
+
+    /**
+     * Configuration for adaptive concurrency limiting.
+     * The number of requests forwarded at once follows the gradient between
+     * the no-load and the recent round-trip time of forwarded requests;
+     * requests over the limit are answered with 503 right away. Connections
+     * waiting for a handler thread are bounded as well, and connections over
+     * that bound are refused with 503.
+     */
+    public static class ConcurrencyLimitConfig {
+        // Whether the concurrency limit applies
+        private boolean enabled = false;
+
+        // Limit before any round-trip time was measured
+        @JsonProperty("initial_limit")
+        private int initialLimit = 20;
+
+        // Smallest limit
+        @JsonProperty("min_limit")
+        private int minLimit = 5;
+
+        // Largest limit
+        @JsonProperty("max_limit")
+        private int maxLimit = 1000;
+
+        // Rise of the recent round-trip time over the no-load one tolerated before the limit shrinks
+        private double tolerance = 1.5;
+
+        // Weight of a newly computed limit against the current one (0 to 1)
+        private double smoothing = 0.2;
+
+        // Accepted connections that may wait for a handler thread (fixed thread pool only)
+        @JsonProperty("max_queued_connections")
+        private int maxQueuedConnections = 100;
+
+        // Getter for enabled flag
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        // Setter for enabled flag
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        // Getter for initial limit
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        // Setter for initial limit
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        // Getter for smallest limit
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        // Setter for smallest limit
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        // Getter for largest limit
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        // Setter for largest limit
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        // Getter for round-trip time tolerance
+        public double getTolerance() {
+            return tolerance;
+        }
+
+        // Setter for round-trip time tolerance
+        public void setTolerance(double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+        // Getter for limit smoothing
+        public double getSmoothing() {
+            return smoothing;
+        }
+
+        // Setter for limit smoothing
+        public void setSmoothing(double smoothing) {
+            this.smoothing = smoothing;
+        }
+
+        // Getter for queued connection bound
+        public int getMaxQueuedConnections() {
+            return maxQueuedConnections;
+        }
+
+        // Setter for queued connection bound
+        public void setMaxQueuedConnections(int maxQueuedConnections) {
+            this.maxQueuedConnections = maxQueuedConnections;
+        }
+    }
+
+    /**
+     * Configuration for queue delay based shedding (CoDel).
+     * The time accepted connections wait for a thread of the fixed pool is
+     * always measured. With shedding enabled, once no connection waited less
+     * than the target for a whole interval, the newest connections are served
+     * first and those that waited more than twice the target get 503; at any
+     * other time, those that waited longer than the interval get 503.
+     */
+    public static class QueueDelayConfig {
+        // Whether stale connections are shed
+        private boolean enabled = false;
+
+        // Queue delay the pool should stay under (e.g., "5ms")
+        private String target = "5ms";
+
+        // Interval the smallest queue delay is judged over (e.g., "100ms")
+        private String interval = "100ms";
+
+        // Getter for enabled flag
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        // Setter for enabled flag
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        // Getter for target queue delay
+        public String getTarget() {
+            return target;
+        }
+
+        // Setter for target queue delay
+        public void setTarget(String target) {
+            this.target = target;
+        }
+
+        // Getter for judging interval
+        public String getInterval() {
+            return interval;
+        }
+
+        // Setter for judging interval
+        public void setInterval(String interval) {
+            this.interval = interval;
+        }
+    }
+
     /**
-     * Configuration for the load balancer server itself.
+     * Configuration for response compression.
+     * Responses of the listed content types are gzip- or deflate-encoded for
+     * clients that accept it and sent chunked as they stream in. Compressed
+     * copies of cached responses are kept with the entry, so hot content is
+     * compressed only once.
      */
-    public static class ServerConfig {
-        // Port number the load balancer listens on
-        private int port;
+    public static class CompressionConfig {
+        // Whether responses are compressed
+        private boolean enabled = false;
 
-        // Host address to bind to (e.g., 0.0.0.0 for all interfaces)
-        private String host;
+        // Deflate compression level (1 = fastest, 9 = smallest)
+        private int level = 6;
 
-        // Thread pool size for handling concurrent connections (default: 100)
-        @JsonProperty("thread_pool_size")
-        private int threadPoolSize = 100;
+        // Smallest body with a known length that is compressed, in bytes
+        @JsonProperty("min_size")
+        private int minSize = 1024;
 
-        // Getter for port
-        public int getPort() {
-            return port;
+        // Content types that are compressed
+        @JsonProperty("content_types")
+        private List<String> contentTypes = new ArrayList<>(List.of("text/html", "text/plain", "text/css",
+                "text/xml", "text/javascript", "application/javascript", "application/json", "application/xml",
+                "image/svg+xml"));
+
+        // Idle deflaters kept per format
+        @JsonProperty("deflater_pool_size")
+        private int deflaterPoolSize = 64;
+
+        // Getter for enabled flag
+        public boolean isEnabled() {
+            return enabled;
         }
 
-        // Setter for port (used by Jackson during deserialization)
-        public void setPort(int port) {
-            this.port = port;
+        // Setter for enabled flag
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
         }
 
-        // Getter for host
-        public String getHost() {
-            return host;
+        // Getter for compression level
+        public int getLevel() {
+            return level;
         }
 
-        // Setter for host (used by Jackson during deserialization)
-        public void setHost(String host) {
-            this.host = host;
+        // Setter for compression level
+        public void setLevel(int level) {
+            this.level = level;
         }
 
-        // Getter for thread pool size
-        public int getThreadPoolSize() {
-            return threadPoolSize;
+        // Getter for smallest compressed body in bytes
+        public int getMinSize() {
+            return minSize;
         }
 
-        // Setter for thread pool size
-        public void setThreadPoolSize(int threadPoolSize) {
-            this.threadPoolSize = threadPoolSize;
+        // Setter for smallest compressed body in bytes
+        public void setMinSize(int minSize) {
+            this.minSize = minSize;
+        }
+
+        // Getter for compressed content types
+        public List<String> getContentTypes() {
+            return contentTypes;
+        }
+
+        // Setter for compressed content types
+        public void setContentTypes(List<String> contentTypes) {
+            this.contentTypes = contentTypes;
+        }
+
+        // Getter for deflater pool size
+        public int getDeflaterPoolSize() {
+            return deflaterPoolSize;
+        }
+
+        // Setter for deflater pool size
+        public void setDeflaterPoolSize(int deflaterPoolSize) {
+            this.deflaterPoolSize = deflaterPoolSize;
         }
     }
 
+    /**
+     * Configuration for TLS termination on the listener.
+     * Clients connect with TLS and the load balancer forwards plaintext to
+     * the backends. Resumed handshakes skip the full key exchange: session
+     * IDs are kept in a bounded cache with a TTL, and session tickets are
+     * issued by the JDK (jdk.tls.server.enableSessionTicketExtension).
+     */
+    public static class TlsConfig {
+        // Whether the listener terminates TLS
+        private boolean enabled = false;
+
+        // Path to the keystore holding the server certificate and key
+        private String keystore;
+
+        // Password of the keystore
+        @JsonProperty("keystore_password")
+        private String keystorePassword;
+
+        // Keystore format ("PKCS12" or "JKS")
+        @JsonProperty("keystore_type")
+        private String keystoreType = "PKCS12";
+
+        // Password of the private key (defaults to the keystore password)
+        @JsonProperty("key_password")
+        private String keyPassword;
+
+        // Enabled protocol versions
+        private List<String> protocols = List.of("TLSv1.3", "TLSv1.2");
+
+        // Maximum number of sessions kept for resumption (0 = unlimited)
+        @JsonProperty("session_cache_size")
+        private int sessionCacheSize = 20000;
+
+        // How long a session can be resumed (e.g., "1h")
+        @JsonProperty("session_timeout")
+        private String sessionTimeout = "1h";
+
+        // Maximum time for a client to complete the handshake
+        @JsonProperty("handshake_timeout")
+        private String handshakeTimeout = "10s";
+
+        // Getter for enabled flag
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        // Setter for enabled flag
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        // Getter for keystore path
+        public String getKeystore() {
+            return keystore;
+        }
+
+        // Setter for keystore path
+        public void setKeystore(String keystore) {
+            this.keystore = keystore;
+        }
+
+        // Getter for keystore password
+        public String getKeystorePassword() {
+            return keystorePassword;
+        }
+
+        // Setter for keystore password
+        public void setKeystorePassword(String keystorePassword) {
+            this.keystorePassword = keystorePassword;
+        }
+
+        // Getter for keystore type
+        public String getKeystoreType() {
+            return keystoreType;
+        }
+
+        // Setter for keystore type
+        public void setKeystoreType(String keystoreType) {
+            this.keystoreType = keystoreType;
+        }
+
+        // Getter for key password
+        public String getKeyPassword() {
+            return keyPassword;
+        }
+
+        // Setter for key password
+        public void setKeyPassword(String keyPassword) {
+            this.keyPassword = keyPassword;
+        }
+
+        // Getter for protocol versions
+        public List<String> getProtocols() {
+            return protocols;
+        }
+
+        // Setter for protocol versions
+        public void setProtocols(List<String> protocols) {
+            this.protocols = protocols;
+        }
+
+        // Getter for session cache size
+        public int getSessionCacheSize() {
+            return sessionCacheSize;
+        }
+
+        // Setter for session cache size
+        public void setSessionCacheSize(int sessionCacheSize) {
+            this.sessionCacheSize = sessionCacheSize;
+        }
+
+        // Getter for session timeout
+        public String getSessionTimeout() {
+            return sessionTimeout;
+        }
+
+        // Setter for session timeout
+        public void setSessionTimeout(String sessionTimeout) {
+            this.sessionTimeout = sessionTimeout;
+        }
+
+        // Getter for handshake timeout
+        public String getHandshakeTimeout() {
+            return handshakeTimeout;
+        }
+
+        // Setter for handshake timeout
+        public void setHandshakeTimeout(String handshakeTimeout) {
+            this.handshakeTimeout = handshakeTimeout;
+        }
+    }
 
     /**
      * Configuration for a single backend server.
@@ -81,6 +1102,19 @@ public class Config {
         // Weight for weighted load balancing (higher = more traffic)
         private int weight = 1;
 
+        // Protocol spoken to the backend: "http1" (pooled HTTP/1.1 connections)
+        // or "h2c" (requests multiplexed as streams over a few HTTP/2 connections)
+        private String protocol = "http1";
+
+        // Maximum multiplexed connections to an h2c backend
+        @JsonProperty("http2_connections")
+        private int http2Connections = 2;
+
+        // TLS server names (SNI) routed to this backend in tls-passthrough mode,
+        // e.g. "api.example.com" or "*.example.com"; empty for the default pool
+        @JsonProperty("server_names")
+        private List<String> serverNames = new ArrayList<>();
+
         // Getter for host
         public String getHost() {
             return host;
@@ -110,6 +1144,36 @@ public class Config {
         public void setWeight(int weight) {
             this.weight = weight;
         }
+
+        // Getter for protocol
+        public String getProtocol() {
+            return protocol;
+        }
+
+        // Setter for protocol
+        public void setProtocol(String protocol) {
+            this.protocol = protocol;
+        }
+
+        // Getter for HTTP/2 connection limit
+        public int getHttp2Connections() {
+            return http2Connections;
+        }
+
+        // Setter for HTTP/2 connection limit
+        public void setHttp2Connections(int http2Connections) {
+            this.http2Connections = http2Connections;
+        }
+
+        // Getter for TLS server names
+        public List<String> getServerNames() {
+            return serverNames;
+        }
+
+        // Setter for TLS server names
+        public void setServerNames(List<String> serverNames) {
+            this.serverNames = serverNames;
+        }
     }
 
 
@@ -194,6 +1258,327 @@ public class Config {
     }
 
 
+    /**
+     * Configuration for outlier detection (passive health checking).
+     * Backends that fail live requests (connect errors, timeouts, 5xx
+     * responses) in a row or at a high rate are ejected from rotation for a
+     * while, without waiting for the health checker's probes.
+     */
+    public static class OutlierDetectionConfig {
+        // Whether backends are ejected based on live traffic
+        private boolean enabled = false;
+
+        // Failures in a row that eject a backend
+        @JsonProperty("consecutive_failures")
+        private int consecutiveFailures = 5;
+
+        // Failure rate over the window that ejects a backend (0.5 = 50%)
+        @JsonProperty("error_rate")
+        private double errorRate = 0.5;
+
+        // Requests in the window needed before the failure rate is judged
+        @JsonProperty("min_requests")
+        private int minRequests = 20;
+
+        // Length of the sliding window of request outcomes (e.g., "10s")
+        private String window = "10s";
+
+        // Length of a first ejection; each repeated ejection lasts this much longer
+        @JsonProperty("base_ejection_time")
+        private String baseEjectionTime = "30s";
+
+        // Longest ejection
+        @JsonProperty("max_ejection_time")
+        private String maxEjectionTime = "5m";
+
+        // Largest share of the backends ejected at once, in percent
+        @JsonProperty("max_ejection_percent")
+        private int maxEjectionPercent = 50;
+
+        // Getter for enabled flag
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        // Setter for enabled flag
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        // Getter for consecutive failure threshold
+        public int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        // Setter for consecutive failure threshold
+        public void setConsecutiveFailures(int consecutiveFailures) {
+            this.consecutiveFailures = consecutiveFailures;
+        }
+
+        // Getter for failure rate threshold
+        public double getErrorRate() {
+            return errorRate;
+        }
+
+        // Setter for failure rate threshold
+        public void setErrorRate(double errorRate) {
+            this.errorRate = errorRate;
+        }
+
+        // Getter for requests needed to judge the failure rate
+        public int getMinRequests() {
+            return minRequests;
+        }
+
+        // Setter for requests needed to judge the failure rate
+        public void setMinRequests(int minRequests) {
+            this.minRequests = minRequests;
+        }
+
+        // Getter for window length
+        public String getWindow() {
+            return window;
+        }
+
+        // Setter for window length
+        public void setWindow(String window) {
+            this.window = window;
+        }
+
+        // Getter for first ejection length
+        public String getBaseEjectionTime() {
+            return baseEjectionTime;
+        }
+
+        // Setter for first ejection length
+        public void setBaseEjectionTime(String baseEjectionTime) {
+            this.baseEjectionTime = baseEjectionTime;
+        }
+
+        // Getter for longest ejection
+        public String getMaxEjectionTime() {
+            return maxEjectionTime;
+        }
+
+        // Setter for longest ejection
+        public void setMaxEjectionTime(String maxEjectionTime) {
+            this.maxEjectionTime = maxEjectionTime;
+        }
+
+        // Getter for ejection limit in percent
+        public int getMaxEjectionPercent() {
+            return maxEjectionPercent;
+        }
+
+        // Setter for ejection limit in percent
+        public void setMaxEjectionPercent(int maxEjectionPercent) {
+            this.maxEjectionPercent = maxEjectionPercent;
+        }
+    }
+
+    /**
+     * Configuration for the circuit breaker of each backend.
+     * A breaker opens when the share of failed or slow requests among the
+     * last calls reaches its threshold; while open the backend receives no
+     * traffic. After the open duration a few trial requests decide whether
+     * it closes again.
+     */
+    public static class CircuitBreakerConfig {
+        // Whether backends have circuit breakers
+        private boolean enabled = false;
+
+        // Number of recent calls the rates are computed over
+        @JsonProperty("window_size")
+        private int windowSize = 100;
+
+        // Calls recorded before the rates are judged
+        @JsonProperty("minimum_calls")
+        private int minimumCalls = 20;
+
+        // Share of failed calls (connect errors, timeouts, 5xx) that opens the breaker, in percent
+        @JsonProperty("failure_rate_threshold")
+        private int failureRateThreshold = 50;
+
+        // Share of slow calls that opens the breaker, in percent
+        @JsonProperty("slow_call_rate_threshold")
+        private int slowCallRateThreshold = 80;
+
+        // Calls whose response headers take longer are slow (e.g., "2s")
+        @JsonProperty("slow_call_duration")
+        private String slowCallDuration = "2s";
+
+        // How long an open breaker keeps the backend out of rotation
+        @JsonProperty("open_duration")
+        private String openDuration = "30s";
+
+        // Trial calls admitted while half-open
+        @JsonProperty("half_open_calls")
+        private int halfOpenCalls = 5;
+
+        // Getter for enabled flag
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        // Setter for enabled flag
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        // Getter for window size
+        public int getWindowSize() {
+            return windowSize;
+        }
+
+        // Setter for window size
+        public void setWindowSize(int windowSize) {
+            this.windowSize = windowSize;
+        }
+
+        // Getter for minimum calls
+        public int getMinimumCalls() {
+            return minimumCalls;
+        }
+
+        // Setter for minimum calls
+        public void setMinimumCalls(int minimumCalls) {
+            this.minimumCalls = minimumCalls;
+        }
+
+        // Getter for failure rate threshold
+        public int getFailureRateThreshold() {
+            return failureRateThreshold;
+        }
+
+        // Setter for failure rate threshold
+        public void setFailureRateThreshold(int failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+        }
+
+        // Getter for slow call rate threshold
+        public int getSlowCallRateThreshold() {
+            return slowCallRateThreshold;
+        }
+
+        // Setter for slow call rate threshold
+        public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+        }
+
+        // Getter for slow call duration
+        public String getSlowCallDuration() {
+            return slowCallDuration;
+        }
+
+        // Setter for slow call duration
+        public void setSlowCallDuration(String slowCallDuration) {
+            this.slowCallDuration = slowCallDuration;
+        }
+
+        // Getter for open duration
+        public String getOpenDuration() {
+            return openDuration;
+        }
+
+        // Setter for open duration
+        public void setOpenDuration(String openDuration) {
+            this.openDuration = openDuration;
+        }
+
+        // Getter for half-open trial calls
+        public int getHalfOpenCalls() {
+            return halfOpenCalls;
+        }
+
+        // Setter for half-open trial calls
+        public void setHalfOpenCalls(int halfOpenCalls) {
+            this.halfOpenCalls = halfOpenCalls;
+        }
+    }
+
+    /**
+     * Configuration for pooled persistent connections to backends.
+     */
+    public static class ConnectionPoolConfig {
+        // Whether idle backend connections are kept for reuse
+        private boolean enabled = true;
+
+        // Maximum idle connections kept per backend
+        @JsonProperty("max_idle")
+        private int maxIdle = 32;
+
+        // Maximum age of a backend connection (e.g., "60s")
+        @JsonProperty("max_lifetime")
+        private String maxLifetime = "60s";
+
+        // Maximum time a connection may sit idle in the pool (e.g., "30s")
+        @JsonProperty("idle_timeout")
+        private String idleTimeout = "30s";
+
+        // Maximum number of requests sent over one connection
+        @JsonProperty("max_requests")
+        private int maxRequests = 1000;
+
+        // Idle time after which a pooled connection is probed before reuse
+        @JsonProperty("validate_after_inactivity")
+        private String validateAfterInactivity = "2s";
+
+        // Check if connection pooling is enabled
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        // Get maximum idle connections per backend
+        public int getMaxIdle() {
+            return maxIdle;
+        }
+
+        public void setMaxIdle(int maxIdle) {
+            this.maxIdle = maxIdle;
+        }
+
+        // Get maximum connection lifetime
+        public String getMaxLifetime() {
+            return maxLifetime;
+        }
+
+        public void setMaxLifetime(String maxLifetime) {
+            this.maxLifetime = maxLifetime;
+        }
+
+        // Get idle timeout
+        public String getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(String idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+
+        // Get maximum requests per connection
+        public int getMaxRequests() {
+            return maxRequests;
+        }
+
+        public void setMaxRequests(int maxRequests) {
+            this.maxRequests = maxRequests;
+        }
+
+        // Get validate-after-inactivity interval
+        public String getValidateAfterInactivity() {
+            return validateAfterInactivity;
+        }
+
+        public void setValidateAfterInactivity(String validateAfterInactivity) {
+            this.validateAfterInactivity = validateAfterInactivity;
+        }
+    }
+
+
         /**
      * Configuration for logging behavior.
      */
@@ -258,6 +1643,30 @@ public class Config {
         this.healthCheck = healthCheck;
     }
 
+    public ConnectionPoolConfig getConnectionPool() {
+        return connectionPool;
+    }
+
+    public void setConnectionPool(ConnectionPoolConfig connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    public OutlierDetectionConfig getOutlierDetection() {
+        return outlierDetection;
+    }
+
+    public void setOutlierDetection(OutlierDetectionConfig outlierDetection) {
+        this.outlierDetection = outlierDetection;
+    }
+
+    public CircuitBreakerConfig getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(CircuitBreakerConfig circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
     public LoggingConfig getLogging() {
         return logging;
     }
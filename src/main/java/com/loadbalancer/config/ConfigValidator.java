@@ -1,5 +1,7 @@
 package com.loadbalancer.config;
 
+import com.loadbalancer.util.Durations;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,6 +30,246 @@ public class ConfigValidator {
             if (config.getServer().getHost() == null || config.getServer().getHost().isEmpty()) {
                 errors.add("Server host is required");
             }
+            // Check if mode is one of the supported listener modes
+            String mode = config.getServer().getMode();
+            if (mode != null && !mode.matches("http|tcp|tls-passthrough")) {
+                errors.add("Invalid server mode: " + mode);
+            }
+            // Check if executor is one of the supported executors
+            String executor = config.getServer().getExecutor();
+            if (executor != null && !executor.matches("fixed|virtual")) {
+                errors.add("Invalid server executor: " + executor);
+            }
+            // Check if keep-alive timeout is a valid duration
+            if (!isValidDuration(config.getServer().getKeepAliveTimeout())) {
+                errors.add("Invalid server keep_alive_timeout: " + config.getServer().getKeepAliveTimeout());
+            }
+            // Check if tunnel idle timeout is a valid duration
+            if (!isValidDuration(config.getServer().getTunnelIdleTimeout())) {
+                errors.add("Invalid server tunnel_idle_timeout: " + config.getServer().getTunnelIdleTimeout());
+            }
+            // Check HTTP/2 stream limits
+            Config.Http2Config http2 = config.getServer().getHttp2();
+            if (http2 != null) {
+                if (http2.getMaxConcurrentStreams() < 1) {
+                    errors.add("Server http2 max_concurrent_streams must be at least 1");
+                }
+                if (http2.getInitialWindowSize() < 1) {
+                    errors.add("Server http2 initial_window_size must be between 1 and 2147483647");
+                }
+            }
+            // Check TLS settings when the listener terminates TLS
+            Config.TlsConfig tls = config.getServer().getTls();
+            if (tls != null && tls.isEnabled()) {
+                if (tls.getKeystore() == null || tls.getKeystore().isEmpty()) {
+                    errors.add("Server tls keystore is required when tls is enabled");
+                }
+                if (tls.getKeystoreType() != null && !tls.getKeystoreType().matches("(?i)PKCS12|JKS")) {
+                    errors.add("Invalid server tls keystore_type: " + tls.getKeystoreType());
+                }
+                if (tls.getProtocols() == null || tls.getProtocols().isEmpty()) {
+                    errors.add("Server tls protocols must not be empty");
+                }
+                if (tls.getSessionCacheSize() < 0) {
+                    errors.add("Server tls session_cache_size must not be negative");
+                }
+                if (!isValidDuration(tls.getSessionTimeout())) {
+                    errors.add("Invalid server tls session_timeout: " + tls.getSessionTimeout());
+                }
+                if (!isValidDuration(tls.getHandshakeTimeout())) {
+                    errors.add("Invalid server tls handshake_timeout: " + tls.getHandshakeTimeout());
+                }
+                // The event loops relay plaintext channels only
+                if ("nio".equals(config.getServer().getIoModel())) {
+                    errors.add("Server tls requires io_model blocking");
+                }
+            }
+            // Check response cache bounds when caching is enabled
+            Config.CacheConfig cache = config.getServer().getCache();
+            if (cache != null && cache.isEnabled()) {
+                if (cache.getMaxSizeMb() < 1) {
+                    errors.add("Server cache max_size_mb must be at least 1");
+                }
+                if (cache.getMaxEntrySizeKb() < 1) {
+                    errors.add("Server cache max_entry_size_kb must be at least 1");
+                }
+                if (cache.getSegments() < 1 || cache.getSegments() > 256 || Integer.bitCount(cache.getSegments()) != 1) {
+                    errors.add("Server cache segments must be a power of two between 1 and 256");
+                }
+                // The event loops do not consult the cache
+                if ("nio".equals(config.getServer().getIoModel())) {
+                    errors.add("Server cache requires io_model blocking");
+                }
+            }
+            // Check the disk tier; it extends the memory cache and cannot run without it
+            Config.DiskCacheConfig disk = cache != null ? cache.getDisk() : null;
+            if (disk != null && disk.isEnabled()) {
+                if (!cache.isEnabled()) {
+                    errors.add("Server cache disk tier requires the cache to be enabled");
+                }
+                if (disk.getDirectory() == null || disk.getDirectory().isBlank()) {
+                    errors.add("Server cache disk directory is required");
+                }
+                if (disk.getSegmentSizeMb() < 1 || disk.getSegmentSizeMb() > 1024) {
+                    errors.add("Server cache disk segment_size_mb must be between 1 and 1024");
+                } else if ((long) disk.getMaxSizeMb() < 2L * disk.getSegmentSizeMb()) {
+                    errors.add("Server cache disk max_size_mb must be at least twice segment_size_mb");
+                }
+                if (disk.getMinEntrySizeKb() < 1) {
+                    errors.add("Server cache disk min_entry_size_kb must be at least 1");
+                }
+            }
+            // Check request coalescing settings
+            Config.CoalescingConfig coalescing = config.getServer().getCoalescing();
+            if (coalescing != null && coalescing.isEnabled()) {
+                if (coalescing.getPathPrefixes() == null || coalescing.getPathPrefixes().isEmpty()) {
+                    errors.add("Server coalescing path_prefixes must not be empty");
+                } else {
+                    for (String prefix : coalescing.getPathPrefixes()) {
+                        if (prefix == null || !prefix.startsWith("/")) {
+                            errors.add("Invalid server coalescing path prefix: " + prefix);
+                        }
+                    }
+                }
+                if (coalescing.getMaxBodyKb() < 1) {
+                    errors.add("Server coalescing max_body_kb must be at least 1");
+                }
+                if (!isValidDuration(coalescing.getMaxWait())) {
+                    errors.add("Invalid server coalescing max_wait: " + coalescing.getMaxWait());
+                }
+                // The event loops do not coalesce requests
+                if ("nio".equals(config.getServer().getIoModel())) {
+                    errors.add("Server coalescing requires io_model blocking");
+                }
+            }
+            // Check response compression settings
+            Config.CompressionConfig compression = config.getServer().getCompression();
+            if (compression != null && compression.isEnabled()) {
+                if (compression.getLevel() < 1 || compression.getLevel() > 9) {
+                    errors.add("Server compression level must be between 1 and 9");
+                }
+                if (compression.getMinSize() < 0) {
+                    errors.add("Server compression min_size must not be negative");
+                }
+                if (compression.getContentTypes() == null || compression.getContentTypes().isEmpty()) {
+                    errors.add("Server compression content_types must not be empty");
+                }
+                if (compression.getDeflaterPoolSize() < 1) {
+                    errors.add("Server compression deflater_pool_size must be at least 1");
+                }
+                // The event loops only relay bytes
+                if ("nio".equals(config.getServer().getIoModel())) {
+                    errors.add("Server compression requires io_model blocking");
+                }
+            }
+            // Check retry settings
+            Config.RetryConfig retry = config.getServer().getRetry();
+            if (retry != null && retry.isEnabled()) {
+                if (retry.getMaxRetries() < 1) {
+                    errors.add("Server retry max_retries must be at least 1");
+                }
+                if (retry.getBudgetRatio() <= 0 || retry.getBudgetRatio() > 1) {
+                    errors.add("Server retry budget_ratio must be greater than 0 and at most 1");
+                }
+                if (retry.getBudgetBurst() < 1) {
+                    errors.add("Server retry budget_burst must be at least 1");
+                }
+            }
+            // Check hedging settings
+            Config.HedgingConfig hedging = config.getServer().getHedging();
+            if (hedging != null && hedging.isEnabled()) {
+                if (hedging.getPathPrefixes() == null || hedging.getPathPrefixes().isEmpty()) {
+                    errors.add("Server hedging path_prefixes must not be empty");
+                } else {
+                    for (String prefix : hedging.getPathPrefixes()) {
+                        if (prefix == null || !prefix.startsWith("/")) {
+                            errors.add("Invalid server hedging path prefix: " + prefix);
+                        }
+                    }
+                }
+                if (hedging.getPercentile() <= 0 || hedging.getPercentile() >= 100) {
+                    errors.add("Server hedging percentile must be between 0 and 100");
+                }
+                if (!isValidDuration(hedging.getMinDelay())) {
+                    errors.add("Invalid server hedging min_delay: " + hedging.getMinDelay());
+                }
+                if (hedging.getBudgetRatio() <= 0 || hedging.getBudgetRatio() > 1) {
+                    errors.add("Server hedging budget_ratio must be greater than 0 and at most 1");
+                }
+                if (hedging.getBudgetBurst() < 1) {
+                    errors.add("Server hedging budget_burst must be at least 1");
+                }
+                // The event loops relay each request to one backend
+                if ("nio".equals(config.getServer().getIoModel())) {
+                    errors.add("Server hedging requires io_model blocking");
+                }
+            }
+            // Check concurrency limit settings
+            Config.ConcurrencyLimitConfig concurrencyLimit = config.getServer().getConcurrencyLimit();
+            if (concurrencyLimit != null && concurrencyLimit.isEnabled()) {
+                if (concurrencyLimit.getMinLimit() < 1) {
+                    errors.add("Server concurrency_limit min_limit must be at least 1");
+                }
+                if (concurrencyLimit.getMaxLimit() < concurrencyLimit.getMinLimit()) {
+                    errors.add("Server concurrency_limit max_limit must be at least min_limit");
+                }
+                if (concurrencyLimit.getInitialLimit() < concurrencyLimit.getMinLimit()
+                        || concurrencyLimit.getInitialLimit() > concurrencyLimit.getMaxLimit()) {
+                    errors.add("Server concurrency_limit initial_limit must be between min_limit and max_limit");
+                }
+                if (concurrencyLimit.getTolerance() < 1) {
+                    errors.add("Server concurrency_limit tolerance must be at least 1");
+                }
+                if (concurrencyLimit.getSmoothing() <= 0 || concurrencyLimit.getSmoothing() > 1) {
+                    errors.add("Server concurrency_limit smoothing must be greater than 0 and at most 1");
+                }
+                if (concurrencyLimit.getMaxQueuedConnections() < 1) {
+                    errors.add("Server concurrency_limit max_queued_connections must be at least 1");
+                }
+                // The event loops do not parse requests, so there is nothing to count
+                if ("nio".equals(config.getServer().getIoModel())) {
+                    errors.add("Server concurrency_limit requires io_model blocking");
+                }
+            }
+            // Check queue delay settings
+            Config.QueueDelayConfig queueDelay = config.getServer().getQueueDelay();
+            if (queueDelay != null && queueDelay.isEnabled()) {
+                boolean validTarget = isValidDuration(queueDelay.getTarget());
+                boolean validInterval = isValidDuration(queueDelay.getInterval());
+                if (!validTarget) {
+                    errors.add("Invalid server queue_delay target: " + queueDelay.getTarget());
+                }
+                if (!validInterval) {
+                    errors.add("Invalid server queue_delay interval: " + queueDelay.getInterval());
+                }
+                if (validTarget && validInterval && Durations.parseMillis(queueDelay.getTarget())
+                        >= Durations.parseMillis(queueDelay.getInterval())) {
+                    errors.add("Server queue_delay target must be shorter than its interval");
+                }
+                // Only the fixed thread pool queues connections
+                if ("nio".equals(config.getServer().getIoModel())
+                        || "virtual".equals(config.getServer().getExecutor())) {
+                    errors.add("Server queue_delay requires io_model blocking and executor fixed");
+                }
+            }
+            // Passthrough leaves TLS to the backends and routes on the ClientHello in blocking mode
+            if ("tls-passthrough".equals(mode)) {
+                if (tls != null && tls.isEnabled()) {
+                    errors.add("Server tls cannot be enabled in tls-passthrough mode");
+                }
+                if ("nio".equals(config.getServer().getIoModel())) {
+                    errors.add("Server mode tls-passthrough requires io_model blocking");
+                }
+            }
+            // Check if I/O model is one of the supported models
+            String ioModel = config.getServer().getIoModel();
+            if (ioModel != null && !ioModel.matches("blocking|nio")) {
+                errors.add("Invalid server io_model: " + ioModel);
+            }
+            // Event loop count cannot be negative (0 = one per core)
+            if (config.getServer().getEventLoops() < 0) {
+                errors.add("Server event_loops must not be negative");
+            }
         }
 
         // Validate backends configuration
@@ -52,6 +294,103 @@ public class ConfigValidator {
                 if (backend.getWeight() < 1) {
                     errors.add("Backend " + i + ": weight must be at least 1");
                 }
+
+                // Check if protocol is one of the supported backend protocols
+                String protocol = backend.getProtocol();
+                if (protocol != null && !protocol.matches("http1|h2c")) {
+                    errors.add("Backend " + i + ": invalid protocol: " + protocol);
+                }
+                // Check server names: host names, optionally with a leading "*." wildcard
+                if (backend.getServerNames() != null) {
+                    for (String name : backend.getServerNames()) {
+                        if (name == null || !name.matches("(\\*\\.)?[A-Za-z0-9_-]+(\\.[A-Za-z0-9_-]+)*")) {
+                            errors.add("Backend " + i + ": invalid server name: " + name);
+                        }
+                    }
+                }
+                if ("h2c".equals(protocol)) {
+                    if (backend.getHttp2Connections() < 1) {
+                        errors.add("Backend " + i + ": http2_connections must be at least 1");
+                    }
+                    // The event loops only speak HTTP/1.1 to backends
+                    if (config.getServer() != null && "nio".equals(config.getServer().getIoModel())
+                            && !"tcp".equals(config.getServer().getMode())) {
+                        errors.add("Backend " + i + ": protocol h2c requires server io_model blocking");
+                    }
+                }
+            }
+        }
+
+        // Validate connection pool configuration
+        Config.ConnectionPoolConfig pool = config.getConnectionPool();
+        if (pool != null) {
+            if (pool.getMaxIdle() < 0) {
+                errors.add("connection_pool max_idle must not be negative");
+            }
+            if (pool.getMaxRequests() < 1) {
+                errors.add("connection_pool max_requests must be at least 1");
+            }
+            if (!isValidDuration(pool.getMaxLifetime())) {
+                errors.add("Invalid connection_pool max_lifetime: " + pool.getMaxLifetime());
+            }
+            if (!isValidDuration(pool.getIdleTimeout())) {
+                errors.add("Invalid connection_pool idle_timeout: " + pool.getIdleTimeout());
+            }
+            if (!isValidDuration(pool.getValidateAfterInactivity())) {
+                errors.add("Invalid connection_pool validate_after_inactivity: "
+                        + pool.getValidateAfterInactivity());
+            }
+        }
+
+        // Validate outlier detection configuration
+        Config.OutlierDetectionConfig outliers = config.getOutlierDetection();
+        if (outliers != null && outliers.isEnabled()) {
+            if (outliers.getConsecutiveFailures() < 1) {
+                errors.add("outlier_detection consecutive_failures must be at least 1");
+            }
+            if (outliers.getErrorRate() <= 0 || outliers.getErrorRate() > 1) {
+                errors.add("outlier_detection error_rate must be greater than 0 and at most 1");
+            }
+            if (outliers.getMinRequests() < 1) {
+                errors.add("outlier_detection min_requests must be at least 1");
+            }
+            if (!isValidDuration(outliers.getWindow())) {
+                errors.add("Invalid outlier_detection window: " + outliers.getWindow());
+            }
+            if (!isValidDuration(outliers.getBaseEjectionTime())) {
+                errors.add("Invalid outlier_detection base_ejection_time: " + outliers.getBaseEjectionTime());
+            }
+            if (!isValidDuration(outliers.getMaxEjectionTime())) {
+                errors.add("Invalid outlier_detection max_ejection_time: " + outliers.getMaxEjectionTime());
+            }
+            if (outliers.getMaxEjectionPercent() < 1 || outliers.getMaxEjectionPercent() > 100) {
+                errors.add("outlier_detection max_ejection_percent must be between 1 and 100");
+            }
+        }
+
+        // Validate circuit breaker configuration
+        Config.CircuitBreakerConfig breaker = config.getCircuitBreaker();
+        if (breaker != null && breaker.isEnabled()) {
+            if (breaker.getWindowSize() < 1) {
+                errors.add("circuit_breaker window_size must be at least 1");
+            }
+            if (breaker.getMinimumCalls() < 1) {
+                errors.add("circuit_breaker minimum_calls must be at least 1");
+            }
+            if (breaker.getFailureRateThreshold() < 1 || breaker.getFailureRateThreshold() > 100) {
+                errors.add("circuit_breaker failure_rate_threshold must be between 1 and 100");
+            }
+            if (breaker.getSlowCallRateThreshold() < 1 || breaker.getSlowCallRateThreshold() > 100) {
+                errors.add("circuit_breaker slow_call_rate_threshold must be between 1 and 100");
+            }
+            if (!isValidDuration(breaker.getSlowCallDuration())) {
+                errors.add("Invalid circuit_breaker slow_call_duration: " + breaker.getSlowCallDuration());
+            }
+            if (!isValidDuration(breaker.getOpenDuration())) {
+                errors.add("Invalid circuit_breaker open_duration: " + breaker.getOpenDuration());
+            }
+            if (breaker.getHalfOpenCalls() < 1) {
+                errors.add("circuit_breaker half_open_calls must be at least 1");
             }
         }
 
@@ -64,4 +403,18 @@ public class ConfigValidator {
         // Return all collected errors
         return errors;
     }
+
+    /*
+     * Checks whether a duration string such as "5s" or "250ms" can be parsed.
+     */
+    private boolean isValidDuration(String duration) {
+        if (duration == null) {
+            return false;
+        }
+        try {
+            return Durations.parseMillis(duration) >= 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
 }
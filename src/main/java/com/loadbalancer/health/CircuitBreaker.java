@@ -0,0 +1,314 @@
+package com.loadbalancer.health;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Closed/open/half-open circuit breaker for one backend.
+ *
+ * While CLOSED, the outcomes of the last calls are kept in a ring buffer;
+ * once enough calls are recorded and the share of failures or of slow
+ * calls reaches its threshold, the breaker OPENs and the backend receives
+ * no requests. After the open duration it becomes HALF_OPEN and admits a
+ * few trial requests: if they stay under the thresholds it CLOSEs again,
+ * otherwise it opens for another period.
+ *
+ * Everything is lock-free except starting a trial, which happens once per
+ * open period. Selecting a backend only reads the state while the breaker
+ * is closed, so an algorithm can filter on it at no real cost.
+ *
+ * A permit names the trial it was taken in, so only the outcomes of trial
+ * requests decide a half-open breaker; requests admitted while closed that
+ * complete during a trial, and trials abandoned for a newer one, are ignored.
+ * A trial request that ends without an outcome gives its permit back.
+ */
+public class CircuitBreaker {
+    // Logger for state changes
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /*
+     * Breaker states.
+     */
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    // Permit of a request admitted while closed, and the answer when the breaker refuses a request
+    public static final long NOT_TRIAL = 0;
+    public static final long REFUSED = -1;
+
+    // Ring buffer slot bits: slot holds an outcome, the call failed, the call was slow
+    private static final int RECORDED = 1;
+    private static final int FAILED = 2;
+    private static final int SLOW = 4;
+
+    // Address of the backend, for log messages
+    private final String name;
+
+    // Calls recorded, calls needed before the rates count, and rate thresholds in percent
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+
+    // Calls that take longer are slow, in nanoseconds
+    private final long slowCallNanos;
+
+    // How long the breaker stays open, in milliseconds
+    private final long openMillis;
+
+    // Trial calls admitted while half-open
+    private final int halfOpenCalls;
+
+    // Current state, and when the state last changed (System.currentTimeMillis)
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private volatile long stateSince = System.currentTimeMillis();
+
+    // Outcomes of the last calls while closed, the next slot, and the counts over the buffer
+    private final AtomicIntegerArray ring;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicInteger recorded = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger slowCalls = new AtomicInteger();
+
+    // While half-open: the current trial, trial permits left, and trial results, failures and slow calls so far
+    private final AtomicLong trial = new AtomicLong(NOT_TRIAL);
+    private final AtomicInteger permits = new AtomicInteger();
+    private final AtomicInteger trials = new AtomicInteger();
+    private final AtomicInteger trialFailures = new AtomicInteger();
+    private final AtomicInteger trialSlowCalls = new AtomicInteger();
+
+    // Times the breaker opened, and requests refused while it was not closed
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+
+    /**
+     * Constructor creates a closed breaker.
+     *
+     * @param name                  Backend address, for log messages
+     * @param windowSize            Calls kept in the ring buffer
+     * @param minimumCalls          Calls recorded before the rates are judged
+     * @param failureRateThreshold  Share of failed calls that opens the breaker, in percent
+     * @param slowCallRateThreshold Share of slow calls that opens the breaker, in percent
+     * @param slowCallMillis        Calls slower than this are slow, in milliseconds
+     * @param openMillis            How long the breaker stays open, in milliseconds
+     * @param halfOpenCalls         Trial calls admitted while half-open
+     */
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, int failureRateThreshold,
+            int slowCallRateThreshold, long slowCallMillis, long openMillis, int halfOpenCalls) {
+        this.name = name;
+        this.windowSize = windowSize;
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = slowCallMillis * 1_000_000;
+        this.openMillis = openMillis;
+        this.halfOpenCalls = halfOpenCalls;
+        this.ring = new AtomicIntegerArray(windowSize);
+    }
+
+    /*
+     * Returns whether the backend may be selected: closed, or due for or
+     * in a half-open trial with permits left. Does not take a permit.
+     */
+    public boolean allowsSelection() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN) {
+            return System.currentTimeMillis() - stateSince >= openMillis;
+        }
+        // Trials that never reported (abandoned requests) must not keep the backend out forever
+        return permits.get() > 0 || System.currentTimeMillis() - stateSince >= openMillis;
+    }
+
+    /*
+     * Takes permission to send a request to the backend once selected.
+     * An open breaker whose open duration has passed turns half-open here.
+     *
+     * @return Permit to pass to record: the trial it belongs to, NOT_TRIAL
+     *         while closed, or REFUSED if the breaker refuses the request
+     */
+    public long tryAcquirePermission() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return NOT_TRIAL;
+        }
+        long now = System.currentTimeMillis();
+        if (current == State.OPEN) {
+            if (now - stateSince < openMillis) {
+                refused.increment();
+                return REFUSED;
+            }
+            // One caller starts the trial; the others take their permits from it
+            beginTrial(State.OPEN);
+        } else if (permits.get() <= 0 && now - stateSince >= openMillis) {
+            // Stale half-open trial: start a new one
+            beginTrial(State.HALF_OPEN);
+        }
+        if (permits.getAndDecrement() > 0) {
+            return trial.get();
+        }
+        permits.incrementAndGet();
+        refused.increment();
+        return REFUSED;
+    }
+
+    /*
+     * Records the outcome of a request sent to the backend.
+     *
+     * @param permit       Permit the request was sent with
+     * @param failed       Whether the request failed
+     * @param elapsedNanos Time until the response head (or failure)
+     */
+    public void record(long permit, boolean failed, long elapsedNanos) {
+        boolean slow = elapsedNanos >= slowCallNanos;
+        State current = state.get();
+        if (current == State.CLOSED) {
+            recordClosed(failed, slow);
+        } else if (current == State.HALF_OPEN && permit != NOT_TRIAL && permit == trial.get()) {
+            recordTrial(failed, slow);
+        }
+        // Outcomes of requests admitted before the breaker opened, or in an earlier trial, are ignored
+    }
+
+    /*
+     * Gives back a permit whose request ended without an outcome (the client
+     * went away, or another attempt answered first), so the trial does not
+     * wait for it until it goes stale.
+     *
+     * @param permit Permit the request was sent with
+     */
+    public void releasePermission(long permit) {
+        if (permit != NOT_TRIAL && permit == trial.get() && state.get() == State.HALF_OPEN) {
+            permits.incrementAndGet();
+        }
+    }
+
+    // Current state
+    public State getState() { return state.get(); }
+
+    // Times the breaker opened
+    public long getOpened() { return opened.sum(); }
+
+    // Requests refused while the breaker was open or out of trial permits
+    public long getRefused() { return refused.sum(); }
+
+    // Share of failed calls in the window, in percent
+    public int getFailureRate() {
+        int total = recorded.get();
+        return total == 0 ? 0 : failures.get() * 100 / total;
+    }
+
+    // Share of slow calls in the window, in percent
+    public int getSlowCallRate() {
+        int total = recorded.get();
+        return total == 0 ? 0 : slowCalls.get() * 100 / total;
+    }
+
+    private void recordClosed(boolean failed, boolean slow) {
+        int outcome = RECORDED | (failed ? FAILED : 0) | (slow ? SLOW : 0);
+        int slot = (int) (next.getAndIncrement() % windowSize);
+        int previous = ring.getAndSet(slot, outcome);
+        if ((previous & RECORDED) == 0) {
+            recorded.incrementAndGet();
+        }
+        int failureDelta = (failed ? 1 : 0) - ((previous & FAILED) != 0 ? 1 : 0);
+        int slowDelta = (slow ? 1 : 0) - ((previous & SLOW) != 0 ? 1 : 0);
+        int failedCalls = failureDelta == 0 ? failures.get() : failures.addAndGet(failureDelta);
+        int slowCount = slowDelta == 0 ? slowCalls.get() : slowCalls.addAndGet(slowDelta);
+        int total = recorded.get();
+        if (total < minimumCalls) {
+            return;
+        }
+        if (failedCalls * 100 >= failureRateThreshold * total || slowCount * 100 >= slowCallRateThreshold * total) {
+            if (transition(State.CLOSED, State.OPEN)) {
+                logger.error("Circuit breaker for {} opened: failure rate {}%, slow call rate {}% over {} calls",
+                        name, failedCalls * 100 / total, slowCount * 100 / total, total);
+            }
+        }
+    }
+
+    private void recordTrial(boolean failed, boolean slow) {
+        if (failed) {
+            trialFailures.incrementAndGet();
+        }
+        if (slow) {
+            trialSlowCalls.incrementAndGet();
+        }
+        if (trials.incrementAndGet() != halfOpenCalls) {
+            return;
+        }
+        // The last trial decides
+        int failedTrials = trialFailures.get();
+        int slowTrials = trialSlowCalls.get();
+        if (failedTrials * 100 >= failureRateThreshold * halfOpenCalls
+                || slowTrials * 100 >= slowCallRateThreshold * halfOpenCalls) {
+            if (transition(State.HALF_OPEN, State.OPEN)) {
+                logger.error("Circuit breaker for {} reopened: {} of {} trial calls failed, {} slow",
+                        name, failedTrials, halfOpenCalls, slowTrials);
+            }
+        } else if (transition(State.HALF_OPEN, State.CLOSED)) {
+            logger.info("Circuit breaker for {} closed after {} successful trial calls", name, halfOpenCalls);
+        }
+    }
+
+    /*
+     * Changes the state if it is still the expected one, resetting the
+     * counters the new state starts from.
+     */
+    private boolean transition(State from, State to) {
+        if (!state.compareAndSet(from, to)) {
+            return false;
+        }
+        stateSince = System.currentTimeMillis();
+        if (to == State.OPEN) {
+            opened.increment();
+        } else {
+            clearWindow();
+        }
+        return true;
+    }
+
+    /*
+     * Starts a trial once the breaker has been open, or its last trial
+     * stale, for the open duration. The trial is set up completely before
+     * HALF_OPEN is published, so no caller sees the new state with the
+     * permits and start time of the previous one, and the lock keeps two
+     * callers from both starting a trial.
+     *
+     * @param from State the caller saw: OPEN, or HALF_OPEN for a stale trial
+     */
+    private synchronized void beginTrial(State from) {
+        if (state.get() != from || System.currentTimeMillis() - stateSince < openMillis
+                || (from == State.HALF_OPEN && permits.get() > 0)) {
+            // Another caller started the trial first
+            return;
+        }
+        trial.incrementAndGet();
+        trials.set(0);
+        trialFailures.set(0);
+        trialSlowCalls.set(0);
+        permits.set(halfOpenCalls);
+        stateSince = System.currentTimeMillis();
+        if (from == State.OPEN) {
+            state.set(State.HALF_OPEN);
+            logger.info("Circuit breaker for {} half-open: admitting {} trial calls", name, halfOpenCalls);
+        }
+    }
+
+    private void clearWindow() {
+        for (int i = 0; i < windowSize; i++) {
+            ring.set(i, 0);
+        }
+        next.set(0);
+        recorded.set(0);
+        failures.set(0);
+        slowCalls.set(0);
+    }
+}
@@ -0,0 +1,112 @@
+package com.loadbalancer.health;
+
+import java.util.Arrays;
+
+/*
+ * Sliding-window record of one backend's recent request outcomes, kept by
+ * the OutlierDetector. The window is split into buckets of equal length;
+ * a bucket is cleared when the window has moved past it, so the counts
+ * cover roughly the last window of traffic. Consecutive failures are
+ * counted separately, across bucket boundaries.
+ */
+final class ErrorTracker {
+    // Buckets the window is divided into
+    private static final int BUCKETS = 10;
+
+    // Length of a bucket in milliseconds
+    private final long bucketMillis;
+
+    // Per bucket: the bucket's time slot and its requests and failures
+    private final long[] slots = new long[BUCKETS];
+    private final int[] requests = new int[BUCKETS];
+    private final int[] failures = new int[BUCKETS];
+
+    // Failures since the last success
+    private int consecutiveFailures;
+
+    // Times the backend was ejected, and when its last ejection ended
+    private int ejections;
+    private long lastEjectionEnd;
+
+    /**
+     * Constructor creates an empty window.
+     *
+     * @param windowMillis Length of the window in milliseconds
+     */
+    ErrorTracker(long windowMillis) {
+        this.bucketMillis = Math.max(1, windowMillis / BUCKETS);
+    }
+
+    /*
+     * Records one request outcome.
+     *
+     * @param failed Whether the request failed
+     * @param now    Current time (System.currentTimeMillis)
+     * @return Failures since the last success
+     */
+    synchronized int record(boolean failed, long now) {
+        long slot = now / bucketMillis;
+        int index = (int) (slot % BUCKETS);
+        if (slots[index] != slot) {
+            slots[index] = slot;
+            requests[index] = 0;
+            failures[index] = 0;
+        }
+        requests[index]++;
+        if (failed) {
+            failures[index]++;
+            consecutiveFailures++;
+        } else {
+            consecutiveFailures = 0;
+        }
+        return consecutiveFailures;
+    }
+
+    /*
+     * Returns whether the failure rate in the window reached a threshold.
+     *
+     * @param now         Current time (System.currentTimeMillis)
+     * @param minRequests Fewest requests in the window for the rate to count
+     * @param rate        Failure rate threshold (0 to 1)
+     */
+    synchronized boolean exceedsErrorRate(long now, int minRequests, double rate) {
+        int total = sum(requests, now);
+        return total >= minRequests && sum(failures, now) >= rate * total;
+    }
+
+    /*
+     * Starts an ejection and returns its length. Each ejection in a row lasts
+     * one base time longer than the one before, up to the maximum; a backend
+     * that stayed in rotation for the maximum time since its last ejection
+     * starts again from the base time. The window is cleared so the backend
+     * returns with a clean record.
+     *
+     * @param now        Current time (System.currentTimeMillis)
+     * @param baseMillis Length of a first ejection
+     * @param maxMillis  Longest ejection
+     */
+    synchronized long eject(long now, long baseMillis, long maxMillis) {
+        if (ejections > 0 && now - lastEjectionEnd >= maxMillis) {
+            ejections = 0;
+        }
+        ejections++;
+        long duration = Math.min(maxMillis, baseMillis * ejections);
+        lastEjectionEnd = now + duration;
+        consecutiveFailures = 0;
+        Arrays.fill(slots, 0);
+        Arrays.fill(requests, 0);
+        Arrays.fill(failures, 0);
+        return duration;
+    }
+
+    private int sum(int[] counts, long now) {
+        long oldest = now / bucketMillis - BUCKETS + 1;
+        int total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (slots[i] >= oldest) {
+                total += counts[i];
+            }
+        }
+        return total;
+    }
+}
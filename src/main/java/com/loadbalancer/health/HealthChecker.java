@@ -101,6 +101,11 @@ public class HealthChecker {
         // Record start time to measure response time
         long startTime = System.currentTimeMillis();
 
+        // h2c backends may not speak HTTP/1.1; check them over their own connections
+        if (backend.getHttp2Pool() != null) {
+            return checkHttp2Backend(backend, startTime);
+        }
+
         try {
             // Create HTTP GET request
             HttpGet request = new HttpGet(url);
@@ -131,6 +136,24 @@ public class HealthChecker {
         }
     }
 
+    /*
+     * Performs a health check on an h2c backend as a stream on its
+     * multiplexed connections.
+     */
+    private HealthCheckResult checkHttp2Backend(Backend backend, long startTime) {
+        try {
+            int statusCode = backend.getHttp2Pool().get(healthCheckPath);
+            long responseTime = System.currentTimeMillis() - startTime;
+            if (statusCode == 200) {
+                return new HealthCheckResult(true, responseTime, "OK");
+            }
+            return new HealthCheckResult(false, responseTime, "Status: " + statusCode);
+        } catch (Exception e) {
+            long responseTime = System.currentTimeMillis() - startTime;
+            return new HealthCheckResult(false, responseTime, e.getMessage());
+        }
+    }
+
     /*
      * Updates a backend's health status based on the health check result.
      * Uses thresholds to prevent flapping (rapid status changes).
@@ -0,0 +1,149 @@
+package com.loadbalancer.health;
+
+import com.loadbalancer.server.Backend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Passive health checking: learns about failing backends from live traffic
+ * instead of waiting for the periodic probes of the HealthChecker.
+ *
+ * The proxy reports the outcome of every backend request. Connect errors,
+ * timeouts and 5xx responses are failures. A backend is ejected (taken out
+ * of rotation for a while) when it fails a number of requests in a row, or
+ * when the failure rate over the sliding window reaches the threshold with
+ * enough requests to judge. Each repeated ejection lasts longer, up to a
+ * maximum. At most a share of the backends is ejected at once, and never
+ * all of them, so a fault common to every backend does not empty the pool.
+ */
+public class OutlierDetector {
+    // Logger for ejections
+    private static final Logger logger = LoggerFactory.getLogger(OutlierDetector.class);
+
+    // Backends that may be ejected (shared reference with the load balancer)
+    private final List<Backend> backends;
+
+    // Recent outcomes per backend
+    private final Map<Backend, ErrorTracker> trackers = new ConcurrentHashMap<>();
+
+    // Failures in a row that eject a backend
+    private final int consecutiveFailures;
+
+    // Failure rate over the window that ejects a backend, and requests needed to judge it
+    private final double errorRate;
+    private final int minRequests;
+
+    // Length of the sliding window in milliseconds
+    private final long windowMillis;
+
+    // Length of a first ejection and the longest ejection, in milliseconds
+    private final long baseEjectionMillis;
+    private final long maxEjectionMillis;
+
+    // Largest share of the backends ejected at once, in percent
+    private final int maxEjectionPercent;
+
+    // Ejections, and ejections skipped because too many backends were out
+    private final LongAdder ejections = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * Constructor creates a detector with empty windows.
+     *
+     * @param backends            Backends that may be ejected
+     * @param consecutiveFailures Failures in a row that eject a backend
+     * @param errorRate           Failure rate over the window that ejects a backend (0 to 1)
+     * @param minRequests         Requests in the window needed to judge the failure rate
+     * @param windowMillis        Length of the sliding window in milliseconds
+     * @param baseEjectionMillis  Length of a first ejection in milliseconds
+     * @param maxEjectionMillis   Longest ejection in milliseconds
+     * @param maxEjectionPercent  Largest share of the backends ejected at once, in percent
+     */
+    public OutlierDetector(List<Backend> backends, int consecutiveFailures, double errorRate, int minRequests,
+            long windowMillis, long baseEjectionMillis, long maxEjectionMillis, int maxEjectionPercent) {
+        this.backends = backends;
+        this.consecutiveFailures = consecutiveFailures;
+        this.errorRate = errorRate;
+        this.minRequests = minRequests;
+        this.windowMillis = windowMillis;
+        this.baseEjectionMillis = baseEjectionMillis;
+        this.maxEjectionMillis = maxEjectionMillis;
+        this.maxEjectionPercent = maxEjectionPercent;
+    }
+
+    /*
+     * Records a request that got a response.
+     *
+     * @param backend    Backend that answered
+     * @param statusCode Final response status; 5xx counts as a failure
+     */
+    public void recordResponse(Backend backend, int statusCode) {
+        record(backend, statusCode >= 500 && statusCode < 600);
+    }
+
+    /*
+     * Records a request that failed without a response (connect error,
+     * timeout, connection closed).
+     */
+    public void recordFailure(Backend backend) {
+        record(backend, true);
+    }
+
+    // Backends ejected so far
+    public long getEjections() { return ejections.sum(); }
+
+    // Ejections skipped because the ejection limit was reached
+    public long getSkipped() { return skipped.sum(); }
+
+    // Number of backends currently ejected
+    public int getEjectedCount() {
+        int count = 0;
+        for (Backend backend : backends) {
+            if (backend.isEjected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void record(Backend backend, boolean failed) {
+        long now = System.currentTimeMillis();
+        ErrorTracker tracker = trackers.computeIfAbsent(backend, b -> new ErrorTracker(windowMillis));
+        int failures = tracker.record(failed, now);
+        if (!failed || backend.isEjected()) {
+            return;
+        }
+        if (failures >= consecutiveFailures) {
+            eject(backend, tracker, now, failures + " consecutive failures");
+        } else if (tracker.exceedsErrorRate(now, minRequests, errorRate)) {
+            eject(backend, tracker, now, "failure rate over " + Math.round(errorRate * 100) + "%");
+        }
+    }
+
+    /*
+     * Ejects a backend unless that would take out more than the allowed
+     * share of the backends, or the last one still in rotation.
+     */
+    private synchronized void eject(Backend backend, ErrorTracker tracker, long now, String reason) {
+        if (backend.isEjected()) {
+            return;
+        }
+        int total = backends.size();
+        int limit = Math.min(total - 1, Math.max(1, total * maxEjectionPercent / 100));
+        if (getEjectedCount() >= limit) {
+            skipped.increment();
+            logger.debug("Backend {} not ejected ({}): ejection limit of {} backends reached",
+                    backend.getAddress(), reason, limit);
+            return;
+        }
+        long duration = tracker.eject(now, baseEjectionMillis, maxEjectionMillis);
+        backend.eject(now + duration);
+        ejections.increment();
+        logger.error("Backend {} ejected for {} ms after {}", backend.getAddress(), duration, reason);
+    }
+}
@@ -0,0 +1,182 @@
+package com.loadbalancer.proxy;
+
+import com.loadbalancer.server.Backend;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/*
+ * BackendAttempt is one try at sending a request head to a backend and
+ * reading its response head. Attempts of a hedged request run on relay
+ * threads and share a lock, so the handler can wait for whichever answers
+ * first; the one that loses is cancelled by closing its socket, which also
+ * interrupts a blocked read. A cancelled attempt closes its connection
+ * itself once it has stopped using it.
+ *
+ * An attempt that runs on the handler thread (no hedging) only serves as
+ * the holder of the connection and response.
+ */
+final class BackendAttempt {
+    // Backend the attempt is sent to
+    private final Backend backend;
+
+    // Lock shared by the attempts of one request; notified when an attempt completes
+    private final Object race;
+
+    // Time the attempt started (System.nanoTime)
+    private final long startedAt = System.nanoTime();
+
+    // Connection in use, response head once read, and failure; guarded by race
+    private PooledConnection connection;
+    private HttpHeaderInfo response;
+    private BackendFailureException failure;
+    private long completedAt;
+    private boolean done;
+    private boolean cancelled;
+
+    /**
+     * Constructor creates an attempt run on the handler thread.
+     *
+     * @param backend Backend the attempt is sent to
+     */
+    BackendAttempt(Backend backend) {
+        this.backend = backend;
+        this.race = this;
+    }
+
+    /**
+     * Constructor creates an attempt that has not started yet.
+     *
+     * @param backend Backend the attempt is sent to
+     * @param race    Lock shared with the other attempts of the request
+     */
+    BackendAttempt(Backend backend, Object race) {
+        this.backend = backend;
+        this.race = race;
+    }
+
+    /*
+     * Runs the exchange on a relay thread; the outcome is published under
+     * the race lock.
+     *
+     * @param executor Executor the exchange runs on
+     * @param exchange Sends the request head and returns the response head
+     */
+    void start(ExecutorService executor, Callable<HttpHeaderInfo> exchange) {
+        executor.execute(() -> {
+            HttpHeaderInfo head = null;
+            BackendFailureException error = null;
+            try {
+                head = exchange.call();
+            } catch (BackendFailureException e) {
+                error = e;
+            } catch (Exception e) {
+                error = new BackendFailureException("Request to " + backend.getAddress() + " failed",
+                        e instanceof IOException ? (IOException) e : new IOException(e), true);
+            }
+            boolean discard;
+            synchronized (race) {
+                response = head;
+                failure = error;
+                completedAt = System.nanoTime();
+                done = true;
+                discard = cancelled && head != null;
+                race.notifyAll();
+            }
+            if (discard) {
+                // Lost the race after all: the unread response leaves the connection unusable
+                connection.close();
+            }
+        });
+    }
+
+    /*
+     * Records the connection the exchange uses, so a cancel can close it.
+     *
+     * @return false if the attempt was cancelled; the caller closes the connection
+     */
+    boolean attach(PooledConnection connection) {
+        synchronized (race) {
+            if (cancelled) {
+                return false;
+            }
+            this.connection = connection;
+            return true;
+        }
+    }
+
+    /*
+     * Stops a losing attempt. A completed attempt's connection is closed
+     * here; a running one has its socket closed and closes the connection
+     * when its exchange fails.
+     */
+    void cancel() {
+        PooledConnection toClose;
+        boolean completed;
+        synchronized (race) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toClose = connection;
+            completed = done;
+        }
+        if (toClose == null) {
+            return;
+        }
+        if (completed) {
+            toClose.close();
+        } else {
+            try {
+                toClose.getSocket().close();
+            } catch (IOException e) {
+                // The exchange fails either way
+            }
+        }
+    }
+
+    // Backend the attempt is sent to
+    Backend getBackend() { return backend; }
+
+    // Connection that carried the exchange
+    PooledConnection getConnection() {
+        synchronized (race) {
+            return connection;
+        }
+    }
+
+    // Response head, or null if the attempt has not completed or failed
+    HttpHeaderInfo getResponse() {
+        synchronized (race) {
+            return response;
+        }
+    }
+
+    // Failure, or null if the attempt has not completed or succeeded
+    BackendFailureException getFailure() {
+        synchronized (race) {
+            return failure;
+        }
+    }
+
+    // Whether the attempt completed, successfully or not (call with the race lock held)
+    boolean isDone() { return done; }
+
+    // Time the attempt started (System.nanoTime)
+    long getStartedAt() { return startedAt; }
+
+    // Time the response head was read or the attempt failed (System.nanoTime)
+    long getCompletedAt() {
+        synchronized (race) {
+            return completedAt;
+        }
+    }
+
+    // Time from the start of the attempt to its response head in nanoseconds
+    long getElapsedNanos() {
+        synchronized (race) {
+            return completedAt - startedAt;
+        }
+    }
+}
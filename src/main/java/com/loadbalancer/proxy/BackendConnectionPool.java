@@ -0,0 +1,268 @@
+package com.loadbalancer.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * BackendConnectionPool keeps idle persistent connections to one backend so
+ * requests can reuse them instead of opening a new socket each time.
+ * Idle connections live in a lock-free deque used as a stack: the most
+ * recently returned (warmest) connection is handed out first, and the oldest
+ * ones drift to the tail where they expire.
+ *
+ * A connection is discarded instead of reused when:
+ * 1. It has been open longer than maxLifetime
+ * 2. It sat idle longer than idleTimeout
+ * 3. It has already carried maxRequests requests
+ * 4. A liveness probe shows the backend closed it (only probed after it was
+ *    idle for validateAfterInactivity, so busy connections pay nothing)
+ */
+public class BackendConnectionPool {
+    // Logger for pool events
+    private static final Logger logger = LoggerFactory.getLogger(BackendConnectionPool.class);
+
+    // Connection timeout in milliseconds (for connecting to backend)
+    private static final int CONNECTION_TIMEOUT = 3000;
+
+    // Read timeout in milliseconds (for reading from backend)
+    private static final int READ_TIMEOUT = 30000;
+
+    // How long the liveness probe waits for the backend to report a close
+    private static final int PROBE_TIMEOUT = 1;
+
+    // Buffer size for the connection's input stream (8KB)
+    private static final int BUFFER_SIZE = 8192;
+
+    // Default limits used when no pool configuration is given
+    public static final int DEFAULT_MAX_IDLE = 32;
+    public static final long DEFAULT_MAX_LIFETIME = 60_000;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30_000;
+    public static final int DEFAULT_MAX_REQUESTS = 1000;
+    public static final long DEFAULT_VALIDATE_AFTER_INACTIVITY = 2_000;
+
+    // Backend address
+    private final String host;
+    private final int port;
+
+    // Maximum number of idle connections kept (0 disables pooling)
+    private final int maxIdle;
+
+    // Maximum age of a connection in milliseconds
+    private final long maxLifetime;
+
+    // Maximum idle time of a pooled connection in milliseconds
+    private final long idleTimeout;
+
+    // Maximum number of requests sent over one connection
+    private final int maxRequests;
+
+    // Idle time after which a connection is probed before reuse
+    private final long validateAfterInactivity;
+
+    // Idle connections, most recently used first
+    private final ConcurrentLinkedDeque<PooledConnection> idle;
+
+    // Number of connections in the idle deque (deque size() is O(n))
+    private final AtomicInteger idleCount;
+
+    // Requests served by an idle connection
+    private final LongAdder hits;
+
+    // Requests that had to open a new connection
+    private final LongAdder misses;
+
+    // Idle connections discarded because they expired or went stale
+    private final LongAdder discarded;
+
+    /**
+     * Constructor creates a pool with default limits.
+     */
+    public BackendConnectionPool(String host, int port) {
+        this(host, port, DEFAULT_MAX_IDLE, DEFAULT_MAX_LIFETIME, DEFAULT_IDLE_TIMEOUT,
+                DEFAULT_MAX_REQUESTS, DEFAULT_VALIDATE_AFTER_INACTIVITY);
+    }
+
+    /**
+     * Constructor creates a pool with explicit limits.
+     *
+     * @param host                    Backend host
+     * @param port                    Backend port
+     * @param maxIdle                 Maximum idle connections kept (0 disables pooling)
+     * @param maxLifetime             Maximum connection age in milliseconds
+     * @param idleTimeout             Maximum idle time in milliseconds
+     * @param maxRequests             Maximum requests per connection
+     * @param validateAfterInactivity Idle time in milliseconds after which a connection is probed
+     */
+    public BackendConnectionPool(String host, int port, int maxIdle, long maxLifetime, long idleTimeout,
+            int maxRequests, long validateAfterInactivity) {
+        this.host = host;
+        this.port = port;
+        this.maxIdle = maxIdle;
+        this.maxLifetime = maxLifetime;
+        this.idleTimeout = idleTimeout;
+        this.maxRequests = maxRequests;
+        this.validateAfterInactivity = validateAfterInactivity;
+        this.idle = new ConcurrentLinkedDeque<>();
+        this.idleCount = new AtomicInteger(0);
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.discarded = new LongAdder();
+    }
+
+    /*
+     * Returns a connection for one request: an idle pooled connection if a
+     * usable one exists, otherwise a newly opened one.
+     *
+     * @throws IOException If a new connection cannot be opened
+     */
+    public PooledConnection acquire() throws IOException {
+        long now = System.currentTimeMillis();
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            if (isUsable(connection, now)) {
+                hits.increment();
+                connection.markUsed();
+                return connection;
+            }
+            discarded.increment();
+            connection.close();
+        }
+        misses.increment();
+        return connect();
+    }
+
+    /*
+     * Opens a new connection to the backend, bypassing the idle connections.
+     * Used for the first attempt on a miss and to retry after a stale reuse.
+     *
+     * @throws IOException If the connection cannot be opened
+     */
+    public PooledConnection connect() throws IOException {
+        // Channel-backed so large bodies can be relayed through ChannelRelay
+        Socket socket = SocketChannel.open().socket();
+        try {
+            // Connect with timeout to prevent hanging on unresponsive backends
+            socket.connect(new InetSocketAddress(host, port), CONNECTION_TIMEOUT);
+            // Set read timeout for backend responses
+            socket.setSoTimeout(READ_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            PooledConnection connection = new PooledConnection(socket, BUFFER_SIZE);
+            connection.markUsed();
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /*
+     * Returns a connection after a request.
+     * Connections that cannot carry another request are closed instead.
+     *
+     * @param connection Connection obtained from acquire() or connect()
+     * @param reusable   Whether the exchange left the connection in a clean, persistent state
+     */
+    public void release(PooledConnection connection, boolean reusable) {
+        long now = System.currentTimeMillis();
+        if (!reusable
+                || connection.getRequestCount() >= maxRequests
+                || now - connection.getCreatedAt() >= maxLifetime) {
+            connection.close();
+            return;
+        }
+        // Reserve an idle slot; close the connection if the pool is full
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            connection.close();
+            return;
+        }
+        connection.markIdle(now);
+        idle.offerFirst(connection);
+
+        // Expire connections that aged out at the cold end of the stack
+        PooledConnection oldest = idle.peekLast();
+        if (oldest != null && now - oldest.getLastUsedAt() > idleTimeout && idle.removeLastOccurrence(oldest)) {
+            idleCount.decrementAndGet();
+            discarded.increment();
+            oldest.close();
+        }
+    }
+
+    /*
+     * Closes every idle connection. Checked-out connections are closed by
+     * their handlers when released.
+     */
+    public void closeAll() {
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            connection.close();
+        }
+    }
+
+    // Requests served by a pooled connection
+    public long getHits() { return hits.sum(); }
+
+    // Requests that opened a new connection
+    public long getMisses() { return misses.sum(); }
+
+    // Pooled connections discarded as expired or stale
+    public long getDiscarded() { return discarded.sum(); }
+
+    // Number of idle connections currently pooled
+    public int getIdleCount() { return Math.max(idleCount.get(), 0); }
+
+    /*
+     * Checks limits and, for connections idle long enough, probes liveness.
+     */
+    private boolean isUsable(PooledConnection connection, long now) {
+        if (connection.getSocket().isClosed()
+                || connection.getRequestCount() >= maxRequests
+                || now - connection.getCreatedAt() >= maxLifetime
+                || now - connection.getLastUsedAt() >= idleTimeout) {
+            return false;
+        }
+        if (now - connection.getLastUsedAt() < validateAfterInactivity) {
+            return true;
+        }
+        return isAlive(connection);
+    }
+
+    /*
+     * Probes an idle connection with a very short read.
+     * A timeout means the backend is still holding the connection open; EOF
+     * means it closed it; any data means the stream is out of sync, so the
+     * connection is discarded either way.
+     */
+    private boolean isAlive(PooledConnection connection) {
+        HttpInputStream input = connection.getInputStream();
+        Socket socket = connection.getSocket();
+        try {
+            if (input.available() > 0) {
+                return false;
+            }
+            socket.setSoTimeout(PROBE_TIMEOUT);
+            try {
+                input.read();
+                return false;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                socket.setSoTimeout(READ_TIMEOUT);
+            }
+        } catch (IOException e) {
+            logger.debug("Pooled connection to {}:{} is stale: {}", host, port, e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.loadbalancer.proxy;
+
+import java.io.IOException;
+
+/*
+ * A backend exchange that failed before any part of the response was sent
+ * to the client, so the request can still be answered by another backend
+ * or with an error response.
+ */
+class BackendFailureException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    // Whether the request may have reached the backend
+    private final boolean requestSent;
+
+    // Whether part of the request body was taken from the client, so the request cannot be sent again
+    private final boolean bodyConsumed;
+
+    BackendFailureException(String message, IOException cause, boolean requestSent) {
+        this(message, cause, requestSent, false);
+    }
+
+    BackendFailureException(String message, IOException cause, boolean requestSent, boolean bodyConsumed) {
+        super(message + ": " + cause.getMessage(), cause);
+        this.requestSent = requestSent;
+        this.bodyConsumed = bodyConsumed;
+    }
+
+    boolean isRequestSent() {
+        return requestSent;
+    }
+
+    boolean isBodyConsumed() {
+        return bodyConsumed;
+    }
+}
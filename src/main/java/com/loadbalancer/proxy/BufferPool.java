@@ -0,0 +1,346 @@
+package com.loadbalancer.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * BufferPool recycles the I/O buffers used to proxy requests so a proxied
+ * request allocates (almost) nothing.
+ * Buffers come in power-of-two size classes from 4KB to 64KB, either as heap
+ * byte[] (blocking streams) or direct ByteBuffers (NIO channels).
+ *
+ * Each size class has a bounded global arena (a lock-free queue) with a small
+ * per-thread cache in front of it, so the common acquire/release pair on one
+ * thread touches no shared state. Virtual threads skip the thread cache since
+ * they are short-lived and too numerous for per-thread caching to pay off.
+ *
+ * The pool always knows which of its buffers are handed out, so a buffer
+ * released twice (or one it never handed out) is refused and logged instead
+ * of being pooled twice and later given to two users at once.
+ *
+ * Leak detection is enabled with -Dloadbalancer.bufferpool.leakDetection=true
+ * (intended for tests): every outstanding buffer also remembers where it was
+ * acquired, and reportLeaks() logs the ones never released.
+ */
+public class BufferPool {
+    // Logger for pool events
+    private static final Logger logger = LoggerFactory.getLogger(BufferPool.class);
+
+    // Smallest and largest pooled sizes (powers of two)
+    private static final int MIN_SIZE = 4 * 1024;
+    private static final int MAX_SIZE = 64 * 1024;
+
+    // Number of size classes between MIN_SIZE and MAX_SIZE
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE / MIN_SIZE) + 1;
+
+    // Buffers kept per size class in each thread's cache
+    private static final int THREAD_CACHE_SIZE = 4;
+
+    // Buffers kept per size class in the global arena
+    private static final int DEFAULT_ARENA_SIZE = 1024;
+
+    // Shared pool used by all proxy handlers and event loops
+    private static final BufferPool DEFAULT = new BufferPool(DEFAULT_ARENA_SIZE,
+            Boolean.getBoolean("loadbalancer.bufferpool.leakDetection"));
+
+    // Stands in for the acquisition stack when leak detection is off
+    private static final Throwable NOT_RECORDED = new Throwable("Acquisition stack not recorded");
+
+    // Thread.isVirtual() on Java 21+, null on older JVMs
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+    // Heap and direct arenas
+    private final Arena<byte[]> heap;
+    private final Arena<ByteBuffer> direct;
+
+    // Whether acquisition stacks are recorded for leak detection
+    private final boolean leakDetection;
+
+    // Pooled-size buffers handed out and not yet released, with where they were acquired
+    private final Map<IdentityKey, Throwable> outstanding = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor creates a pool.
+     *
+     * @param arenaSize     Maximum buffers kept per size class in each global arena
+     * @param leakDetection Whether to track outstanding buffers
+     */
+    public BufferPool(int arenaSize, boolean leakDetection) {
+        this.heap = new Arena<>(arenaSize);
+        this.direct = new Arena<>(arenaSize);
+        this.leakDetection = leakDetection;
+    }
+
+    // Shared pool instance
+    public static BufferPool getDefault() { return DEFAULT; }
+
+    /*
+     * Acquires a heap buffer of at least the given size.
+     * Sizes above the largest class are allocated and never pooled.
+     */
+    public byte[] acquireArray(int minSize) {
+        int sizeClass = sizeClass(minSize);
+        if (sizeClass < 0) {
+            return new byte[minSize];
+        }
+        byte[] array = heap.poll(sizeClass);
+        if (array == null) {
+            array = new byte[MIN_SIZE << sizeClass];
+        }
+        track(array);
+        return array;
+    }
+
+    /*
+     * Returns a heap buffer obtained from acquireArray(). A buffer that is
+     * not currently handed out (a second release) is refused and logged.
+     */
+    public void release(byte[] array) {
+        int sizeClass = exactSizeClass(array.length);
+        if (sizeClass < 0 || !untrack(array)) {
+            return;
+        }
+        heap.offer(sizeClass, array);
+    }
+
+    /*
+     * Acquires a cleared direct buffer of at least the given size.
+     * Sizes above the largest class are allocated and never pooled.
+     */
+    public ByteBuffer acquireDirect(int minSize) {
+        int sizeClass = sizeClass(minSize);
+        if (sizeClass < 0) {
+            return ByteBuffer.allocateDirect(minSize);
+        }
+        ByteBuffer buffer = direct.poll(sizeClass);
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(MIN_SIZE << sizeClass);
+        }
+        buffer.clear();
+        track(buffer);
+        return buffer;
+    }
+
+    /*
+     * Returns a direct buffer obtained from acquireDirect(). A buffer that is
+     * not currently handed out (a second release) is refused and logged.
+     */
+    public void release(ByteBuffer buffer) {
+        int sizeClass = exactSizeClass(buffer.capacity());
+        if (!buffer.isDirect() || sizeClass < 0 || !untrack(buffer)) {
+            return;
+        }
+        direct.offer(sizeClass, buffer);
+    }
+
+    // Buffers currently kept in the global arenas
+    public int getPooledCount() { return heap.pooled() + direct.pooled(); }
+
+    // Buffers handed out and not yet returned
+    public long getInUseCount() { return heap.inUse() + direct.inUse(); }
+
+    // Buffers that had to be allocated because the pool was empty
+    public long getAllocatedCount() { return heap.allocated.sum() + direct.allocated.sum(); }
+
+    // Buffers served from a thread cache or arena
+    public long getReusedCount() { return heap.reused.sum() + direct.reused.sum(); }
+
+    /*
+     * Logs every outstanding buffer with the stack that acquired it.
+     * Only meaningful with leak detection enabled.
+     *
+     * @return Number of outstanding buffers
+     */
+    public int reportLeaks() {
+        if (!leakDetection) {
+            return 0;
+        }
+        for (Throwable acquiredAt : outstanding.values()) {
+            logger.error("Buffer was acquired but never released", acquiredAt);
+        }
+        return outstanding.size();
+    }
+
+    /*
+     * Records that a buffer is handed out, with its acquisition stack when
+     * leak detection is on.
+     */
+    private void track(Object buffer) {
+        Throwable acquiredAt = leakDetection ? new Throwable("Buffer acquired here") : NOT_RECORDED;
+        outstanding.put(new IdentityKey(buffer), acquiredAt);
+    }
+
+    /*
+     * Records that a buffer came back.
+     *
+     * @return false if the buffer was not handed out (double release)
+     */
+    private boolean untrack(Object buffer) {
+        if (outstanding.remove(new IdentityKey(buffer)) == null) {
+            logger.error("Buffer released twice or not acquired from this pool",
+                    new Throwable("Released here"));
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Smallest size class that fits minSize, or -1 if it is too large to pool.
+     */
+    private static int sizeClass(int minSize) {
+        if (minSize > MAX_SIZE) {
+            return -1;
+        }
+        int size = Math.max(MIN_SIZE, Integer.highestOneBit(minSize - 1) << 1);
+        return Integer.numberOfTrailingZeros(size / MIN_SIZE);
+    }
+
+    /*
+     * Size class of a buffer that exactly matches one, or -1.
+     */
+    private static int exactSizeClass(int size) {
+        if (size < MIN_SIZE || size > MAX_SIZE || Integer.bitCount(size) != 1) {
+            return -1;
+        }
+        return Integer.numberOfTrailingZeros(size / MIN_SIZE);
+    }
+
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup()
+                    .findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static boolean isVirtualThread() {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /*
+     * Per-type storage: a thread cache and a bounded global queue per size class.
+     */
+    private static final class Arena<T> {
+        private final int capacity;
+        private final Queue<T>[] global;
+        private final AtomicInteger[] globalCount;
+        private final ThreadLocal<ArrayDeque<T>[]> threadCache;
+        private final LongAdder acquired = new LongAdder();
+        private final LongAdder released = new LongAdder();
+        private final LongAdder allocated = new LongAdder();
+        private final LongAdder reused = new LongAdder();
+
+        @SuppressWarnings("unchecked")
+        Arena(int capacity) {
+            this.capacity = capacity;
+            this.global = (Queue<T>[]) new Queue<?>[SIZE_CLASSES];
+            this.globalCount = new AtomicInteger[SIZE_CLASSES];
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                global[i] = new ConcurrentLinkedQueue<>();
+                globalCount[i] = new AtomicInteger();
+            }
+            this.threadCache = ThreadLocal.withInitial(() -> {
+                ArrayDeque<T>[] cache = (ArrayDeque<T>[]) new ArrayDeque<?>[SIZE_CLASSES];
+                for (int i = 0; i < SIZE_CLASSES; i++) {
+                    cache[i] = new ArrayDeque<>(THREAD_CACHE_SIZE);
+                }
+                return cache;
+            });
+        }
+
+        /*
+         * Takes a buffer from the thread cache, then the arena; null if both are empty.
+         */
+        T poll(int sizeClass) {
+            acquired.increment();
+            T item = null;
+            if (!isVirtualThread()) {
+                item = threadCache.get()[sizeClass].pollFirst();
+            }
+            if (item == null) {
+                item = global[sizeClass].poll();
+                if (item != null) {
+                    globalCount[sizeClass].decrementAndGet();
+                }
+            }
+            if (item == null) {
+                allocated.increment();
+            } else {
+                reused.increment();
+            }
+            return item;
+        }
+
+        /*
+         * Returns a buffer to the thread cache, then the arena; drops it if both are full.
+         */
+        void offer(int sizeClass, T item) {
+            released.increment();
+            if (!isVirtualThread()) {
+                ArrayDeque<T> cache = threadCache.get()[sizeClass];
+                if (cache.size() < THREAD_CACHE_SIZE) {
+                    cache.addFirst(item);
+                    return;
+                }
+            }
+            if (globalCount[sizeClass].incrementAndGet() <= capacity) {
+                global[sizeClass].offer(item);
+            } else {
+                globalCount[sizeClass].decrementAndGet();
+            }
+        }
+
+        int pooled() {
+            int total = 0;
+            for (AtomicInteger count : globalCount) {
+                total += count.get();
+            }
+            return total;
+        }
+
+        long inUse() {
+            return acquired.sum() - released.sum();
+        }
+    }
+
+    /*
+     * Map key comparing buffers by identity (ByteBuffer.equals compares contents).
+     */
+    private static final class IdentityKey {
+        private final Object target;
+
+        IdentityKey(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof IdentityKey && ((IdentityKey) other).target == target;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(target);
+        }
+    }
+}
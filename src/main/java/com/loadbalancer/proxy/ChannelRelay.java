@@ -0,0 +1,109 @@
+package com.loadbalancer.proxy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/*
+ * ChannelRelay moves a message body directly between two socket channels
+ * through a pooled direct buffer, so the bytes never pass through a Java
+ * heap array. The stream path copies every byte twice more (kernel to a
+ * temporary direct buffer to byte[] and back again on write).
+ *
+ * The JDK has no socket-to-socket transferTo, so this is the closest to
+ * zero-copy available without a file in between. It pays off for large
+ * bodies; small ones stay on the stream path.
+ *
+ * Both channels are switched to non-blocking mode for the duration of the
+ * relay so read timeouts can be enforced with a selector, then restored to
+ * blocking mode for the socket streams.
+ */
+final class ChannelRelay {
+    // Size of the direct transfer buffer (largest pooled class)
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ChannelRelay() {
+    }
+
+    /*
+     * Relays bytes from source to target.
+     *
+     * @param source    Channel to read from (blocking, no buffered bytes pending)
+     * @param target    Channel to write to (blocking)
+     * @param length    Number of bytes to relay, or -1 to relay until end of stream
+     * @param timeoutMs Maximum time to wait for either channel (0 = no limit)
+     * @return Number of bytes relayed
+     * @throws IOException If either side fails, times out, or the source ends early
+     */
+    static long transfer(SocketChannel source, SocketChannel target, long length, int timeoutMs)
+            throws IOException {
+        BufferPool bufferPool = BufferPool.getDefault();
+        ByteBuffer buffer = bufferPool.acquireDirect(BUFFER_SIZE);
+        Selector selector = Selector.open();
+        try {
+            source.configureBlocking(false);
+            target.configureBlocking(false);
+            SelectionKey sourceKey = source.register(selector, 0);
+            SelectionKey targetKey = target.register(selector, 0);
+
+            long transferred = 0;
+            while (length < 0 || transferred < length) {
+                buffer.clear();
+                if (length >= 0) {
+                    buffer.limit((int) Math.min(buffer.capacity(), length - transferred));
+                }
+                int n = source.read(buffer);
+                if (n == 0) {
+                    await(selector, sourceKey, SelectionKey.OP_READ, timeoutMs);
+                    continue;
+                }
+                if (n < 0) {
+                    if (length < 0) {
+                        break;
+                    }
+                    throw new EOFException("Connection closed before end of body");
+                }
+
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    if (target.write(buffer) == 0) {
+                        await(selector, targetKey, SelectionKey.OP_WRITE, timeoutMs);
+                    }
+                }
+                transferred += n;
+            }
+            return transferred;
+        } finally {
+            // Closing the selector deregisters both channels so blocking mode can be restored
+            selector.close();
+            restoreBlocking(source);
+            restoreBlocking(target);
+            bufferPool.release(buffer);
+        }
+    }
+
+    /*
+     * Waits until the key's channel is ready for the given operation.
+     */
+    private static void await(Selector selector, SelectionKey key, int op, int timeoutMs) throws IOException {
+        key.interestOps(op);
+        try {
+            if (selector.select(timeoutMs) == 0) {
+                throw new SocketTimeoutException("Relay timed out after " + timeoutMs + "ms");
+            }
+        } finally {
+            selector.selectedKeys().clear();
+            key.interestOps(0);
+        }
+    }
+
+    private static void restoreBlocking(SocketChannel channel) throws IOException {
+        if (channel.isOpen()) {
+            channel.configureBlocking(true);
+        }
+    }
+}
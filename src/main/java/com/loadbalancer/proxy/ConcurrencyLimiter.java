@@ -0,0 +1,204 @@
+package com.loadbalancer.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Adaptive limit on the requests a listener forwards at once, so overload
+ * is shed at the door instead of queueing until everything times out.
+ *
+ * The limit follows the gradient between the no-load round-trip time of
+ * forwarded requests (the lowest window average seen) and the recent one.
+ * While the backends keep up, recent RTTs stay near the no-load RTT and the
+ * limit grows by about its square root per sample window, probing for more
+ * capacity. Once requests start queueing in the backends the recent RTT
+ * rises, the gradient drops below one, and the limit shrinks in proportion.
+ * The tolerance lets the RTT rise somewhat before the limit reacts, and the
+ * limit only grows while at least half of it is in use, so an idle period
+ * does not inflate it.
+ *
+ * Under sustained load the no-load RTT cannot be observed directly, and an
+ * average that followed the recent RTT would drift up with the queueing it
+ * is meant to detect. Instead the limit is periodically halved and the
+ * no-load RTT measured afresh, so it also follows backends that became
+ * slower for good.
+ *
+ * Admission is a compare-and-set on the in-flight count; the limit itself
+ * is recomputed once per sample window.
+ */
+public class ConcurrencyLimiter {
+    // Logger for limit changes
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    // Length of a sample window in nanoseconds
+    private static final long WINDOW_NANOS = 100_000_000;
+
+    // Windows between two measurements of the no-load RTT (30 seconds)
+    private static final int PROBE_WINDOWS = 300;
+
+    // Lowest gradient applied in one window, so one slow window cannot collapse the limit
+    private static final double MIN_GRADIENT = 0.5;
+
+    // Smallest and largest limit
+    private final int minLimit;
+    private final int maxLimit;
+
+    // Rise of the recent RTT over the no-load RTT tolerated before the limit shrinks
+    private final double tolerance;
+
+    // Weight of a newly computed limit against the current one (0 to 1)
+    private final double smoothing;
+
+    // Current limit; only changed under the lock, read without it
+    private volatile double limit;
+
+    // Requests admitted and not yet released
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // Current window: start (System.nanoTime), RTT sum and samples, most requests in flight; guarded by this
+    private long windowStart = System.nanoTime();
+    private long windowRttSum;
+    private int windowSamples;
+    private int windowMaxInFlight;
+
+    // Lowest window RTT since the last probe in nanoseconds, or 0 before a window closed; guarded by this
+    private double minRtt;
+
+    // Windows until the next probe; guarded by this
+    private int windowsToProbe = PROBE_WINDOWS;
+
+    // Requests admitted and requests rejected
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Constructor creates a limiter starting at the initial limit.
+     *
+     * @param initialLimit Limit before any RTT was measured
+     * @param minLimit     Smallest limit
+     * @param maxLimit     Largest limit
+     * @param tolerance    Rise of the recent RTT over the no-load RTT tolerated (e.g. 1.5)
+     * @param smoothing    Weight of a newly computed limit (e.g. 0.2)
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+    }
+
+    /*
+     * Admits a request if fewer than the limit are in flight. An admitted
+     * request must be released exactly once.
+     *
+     * @return false if the request should be rejected
+     */
+    public boolean tryAcquire() {
+        int max = (int) limit;
+        while (true) {
+            int current = inFlight.get();
+            if (current >= max) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                admitted.increment();
+                return true;
+            }
+        }
+    }
+
+    /*
+     * Releases an admitted request and records its round-trip time.
+     *
+     * @param rttNanos Time from admission until the response head arrived
+     */
+    public void release(long rttNanos) {
+        release(rttNanos, System.nanoTime());
+    }
+
+    /*
+     * Releases an admitted request and records its round-trip time as of
+     * the given time (System.nanoTime).
+     */
+    void release(long rttNanos, long now) {
+        int current = inFlight.getAndDecrement();
+        sample(rttNanos, current, now);
+    }
+
+    /*
+     * Releases an admitted request without a round-trip time, for requests
+     * that got no response head or became a tunnel whose lifetime says
+     * nothing about the backends' load.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    // Current limit
+    public int getLimit() { return (int) limit; }
+
+    // Requests in flight
+    public int getInFlight() { return inFlight.get(); }
+
+    // Requests admitted
+    public long getAdmitted() { return admitted.sum(); }
+
+    // Requests rejected because the limit was reached
+    public long getRejected() { return rejected.sum(); }
+
+    // No-load RTT in milliseconds, or 0 before a sample window closed
+    public synchronized double getMinRttMillis() { return minRtt / 1e6; }
+
+    private synchronized void sample(long rttNanos, int current, long now) {
+        windowRttSum += rttNanos;
+        windowSamples++;
+        windowMaxInFlight = Math.max(windowMaxInFlight, current);
+        if (now - windowStart < WINDOW_NANOS) {
+            return;
+        }
+        double shortRtt = (double) windowRttSum / windowSamples;
+        int maxInFlight = windowMaxInFlight;
+        windowStart = now;
+        windowRttSum = 0;
+        windowSamples = 0;
+        windowMaxInFlight = 0;
+        update(shortRtt, maxInFlight);
+    }
+
+    /*
+     * Computes the limit for the next window from the RTT of the one that
+     * just closed.
+     */
+    private void update(double shortRtt, int maxInFlight) {
+        double current = limit;
+        if (--windowsToProbe <= 0) {
+            // Drain the backend queues so the next windows show the no-load RTT again
+            windowsToProbe = PROBE_WINDOWS;
+            minRtt = 0;
+            limit = Math.max(minLimit, current / 2);
+            logger.debug("Concurrency limit {} -> {} to measure the no-load RTT", (int) current, (int) limit);
+            return;
+        }
+        if (minRtt == 0 || shortRtt < minRtt) {
+            minRtt = shortRtt;
+        }
+        // Demand did not reach the limit: there is nothing to learn about a larger one
+        if (maxInFlight < current / 2) {
+            return;
+        }
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, tolerance * minRtt / shortRtt));
+        double target = current * gradient + Math.sqrt(current);
+        double next = current * (1 - smoothing) + target * smoothing;
+        next = Math.max(minLimit, Math.min(maxLimit, next));
+        if ((int) next != (int) current) {
+            logger.debug("Concurrency limit {} -> {} (rtt {} ms, no-load {} ms)", (int) current, (int) next,
+                    String.format("%.1f", shortRtt / 1e6), String.format("%.1f", minRtt / 1e6));
+        }
+        limit = next;
+    }
+}
@@ -0,0 +1,169 @@
+package com.loadbalancer.proxy;
+
+import com.loadbalancer.util.LatencyHistogram;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * HedgingPolicy decides when a request is sent a second time to another
+ * backend because the first has been slow to answer (a hedged request).
+ *
+ * Only idempotent requests without a body under the configured path
+ * prefixes are hedged. The hedge is sent once the first backend has not
+ * produced response headers within a percentile (e.g. p95) of the recent
+ * time to response headers of those requests, so only the slow tail is
+ * hedged. Hedges draw from a budget that every eligible request pays into,
+ * so hedging adds at most the budget ratio to the backend load even when
+ * every backend is slow.
+ */
+public class HedgingPolicy {
+    // Methods that may be sent twice
+    private static final Set<String> HEDGEABLE_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+
+    // Samples needed before the percentile is trusted
+    private static final long MIN_SAMPLES = 100;
+
+    // Length of a latency window in milliseconds
+    private static final long WINDOW_MILLIS = 30_000;
+
+    // How long a computed delay is reused, in nanoseconds
+    private static final long DELAY_REFRESH_NANOS = 100_000_000;
+
+    // Path prefixes whose requests are hedged
+    private final List<String> pathPrefixes;
+
+    // Percentile of the time to response headers after which a hedge is sent
+    private final double percentile;
+
+    // Shortest delay before a hedge, in nanoseconds
+    private final long minDelayNanos;
+
+    // Budget shared by all hedges
+    private final RequestBudget budget;
+
+    // Recent times to response headers of hedgeable requests
+    private final LatencyHistogram latencies = new LatencyHistogram(WINDOW_MILLIS);
+
+    // Current delay and when it was computed (System.nanoTime)
+    private volatile long delayNanos = -1;
+    private volatile long delayComputedAt = System.nanoTime() - DELAY_REFRESH_NANOS;
+
+    // Hedgeable requests, hedges sent, hedges that answered first, and hedges refused by the budget
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder wins = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    /**
+     * Constructor creates a policy with no latency samples yet.
+     *
+     * @param pathPrefixes   Path prefixes whose requests are hedged
+     * @param percentile     Percentile of the time to response headers that triggers a hedge
+     * @param minDelayMillis Shortest delay before a hedge, in milliseconds
+     * @param budgetRatio    Hedges allowed per hedgeable request on average (e.g. 0.05 for 5%)
+     * @param burst          Hedges the budget holds at most
+     */
+    public HedgingPolicy(List<String> pathPrefixes, double percentile, long minDelayMillis, double budgetRatio,
+            int burst) {
+        this.pathPrefixes = List.copyOf(pathPrefixes);
+        this.percentile = percentile;
+        this.minDelayNanos = minDelayMillis * 1_000_000;
+        this.budget = new RequestBudget(budgetRatio, burst);
+    }
+
+    /*
+     * Returns whether a request may be hedged.
+     *
+     * @param method  Request method
+     * @param path    Request target
+     * @param hasBody Whether the request has a body
+     */
+    public boolean appliesTo(String method, String path, boolean hasBody) {
+        if (hasBody || !HEDGEABLE_METHODS.contains(method) || path == null) {
+            return false;
+        }
+        for (String prefix : pathPrefixes) {
+            if (path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Counts a hedgeable request and adds its share to the budget.
+     *
+     * @return How long to wait for response headers before hedging, in
+     *         nanoseconds, or -1 while there are too few samples
+     */
+    long startRequest() {
+        requests.increment();
+        budget.deposit();
+        long now = System.nanoTime();
+        if (now - delayComputedAt >= DELAY_REFRESH_NANOS) {
+            long p = latencies.percentileNanos(percentile, MIN_SAMPLES);
+            delayNanos = p < 0 ? -1 : Math.max(minDelayNanos, p);
+            delayComputedAt = now;
+        }
+        return delayNanos;
+    }
+
+    /*
+     * Takes a hedge from the budget.
+     *
+     * @return false if the budget is empty
+     */
+    boolean tryHedge() {
+        if (!budget.tryWithdraw()) {
+            exhausted.increment();
+            return false;
+        }
+        hedges.increment();
+        return true;
+    }
+
+    /*
+     * Records the time to response headers of a hedgeable request.
+     *
+     * @param nanos    Time from sending the first attempt to the first response headers
+     * @param hedgeWon Whether a hedge answered first
+     */
+    void recordResponse(long nanos, boolean hedgeWon) {
+        latencies.record(nanos);
+        if (hedgeWon) {
+            wins.increment();
+        }
+    }
+
+    // Hedgeable requests forwarded
+    public long getRequests() { return requests.sum(); }
+
+    // Hedges sent to a second backend
+    public long getHedges() { return hedges.sum(); }
+
+    // Hedges that answered before the first backend
+    public long getWins() { return wins.sum(); }
+
+    // Hedges refused because the budget was empty
+    public long getExhausted() { return exhausted.sum(); }
+
+    // Share of hedgeable requests that were hedged (0 to 1)
+    public double getHedgeRate() {
+        long total = requests.sum();
+        return total == 0 ? 0 : (double) hedges.sum() / total;
+    }
+
+    // Share of hedges that answered first (0 to 1)
+    public double getWinRate() {
+        long sent = hedges.sum();
+        return sent == 0 ? 0 : (double) wins.sum() / sent;
+    }
+
+    // Current delay before a hedge in milliseconds, or -1 while too few samples
+    public double getDelayMillis() {
+        long delay = delayNanos;
+        return delay < 0 ? -1 : delay / 1e6;
+    }
+}
@@ -0,0 +1,225 @@
+package com.loadbalancer.proxy;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Http2BackendPool keeps a few multiplexed HTTP/2 connections to one backend
+ * that speaks h2c. Each request becomes a stream on the first connection
+ * with a free slot under the backend's SETTINGS_MAX_CONCURRENT_STREAMS; a
+ * new connection is opened only when all are full, up to maxConnections.
+ * When every slot of every connection is taken, callers wait for a stream
+ * to finish.
+ *
+ * Compared with BackendConnectionPool a handful of sockets carry all the
+ * concurrent requests to the backend, instead of one socket per request.
+ */
+public class Http2BackendPool {
+    // Logger for pool events
+    private static final Logger logger = LoggerFactory.getLogger(Http2BackendPool.class);
+
+    // Connection timeout in milliseconds (for connecting to backend)
+    private static final int CONNECTION_TIMEOUT = 3000;
+
+    // Read timeout in milliseconds (for waiting on backend responses)
+    private static final int READ_TIMEOUT = 30000;
+
+    // How long a request waits for a free stream slot before failing
+    private static final int ACQUIRE_TIMEOUT = 3000;
+
+    // Default number of connections per backend
+    public static final int DEFAULT_MAX_CONNECTIONS = 2;
+
+    // Backend address
+    private final String host;
+    private final int port;
+
+    // Maximum number of connections to the backend
+    private final int maxConnections;
+
+    // Open connections, in the order streams are tried on them
+    private final List<Http2ClientConnection> connections = new CopyOnWriteArrayList<>();
+
+    // Connections being opened, and a counter bumped whenever a slot may have freed (guarded by this)
+    private int connecting;
+    private long releases;
+
+    // Streams opened and connections opened over the pool's lifetime
+    private final LongAdder streamsOpened = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+
+    /**
+     * Constructor creates a pool with the default connection limit.
+     */
+    public Http2BackendPool(String host, int port) {
+        this(host, port, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Constructor creates a pool.
+     *
+     * @param host           Backend host
+     * @param port           Backend port
+     * @param maxConnections Maximum number of multiplexed connections
+     */
+    public Http2BackendPool(String host, int port, int maxConnections) {
+        this.host = host;
+        this.port = port;
+        this.maxConnections = maxConnections;
+    }
+
+    /*
+     * Opens a stream for one request, waiting for a free slot if every
+     * connection is at the backend's stream limit.
+     *
+     * @throws IOException If no connection can be opened or no slot frees up in time
+     */
+    Http2ClientStream openStream() throws IOException {
+        long deadline = System.currentTimeMillis() + ACQUIRE_TIMEOUT;
+        while (true) {
+            long seen;
+            synchronized (this) {
+                seen = releases;
+            }
+            for (Http2ClientConnection connection : connections) {
+                Http2ClientStream stream = connection.tryOpenStream(READ_TIMEOUT);
+                if (stream != null) {
+                    streamsOpened.increment();
+                    return stream;
+                }
+            }
+
+            synchronized (this) {
+                if (usableConnections() + connecting < maxConnections) {
+                    connecting++;
+                } else {
+                    // Wait unless a slot freed while the connections were scanned
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new IOException("No HTTP/2 stream available to " + getAddress());
+                    }
+                    if (releases == seen) {
+                        try {
+                            wait(remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted waiting for an HTTP/2 stream");
+                        }
+                    }
+                    continue;
+                }
+            }
+
+            try {
+                connections.add(Http2ClientConnection.open(this, host, port, CONNECTION_TIMEOUT));
+                connectionsOpened.increment();
+                logger.debug("Opened HTTP/2 connection to {}", getAddress());
+            } finally {
+                synchronized (this) {
+                    connecting--;
+                    releases++;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /*
+     * Sends a GET without body and returns the response status, discarding
+     * the body. Used by health checks of h2c backends.
+     *
+     * @param path Request path
+     * @throws IOException If the request fails
+     */
+    public int get(String path) throws IOException {
+        Http2ClientStream stream = openStream();
+        try {
+            stream.start(List.<Header>of(
+                    new BasicHeader(":method", "GET"),
+                    new BasicHeader(":scheme", "http"),
+                    new BasicHeader(":authority", getAddress()),
+                    new BasicHeader(":path", path)), true);
+            int status;
+            do {
+                status = Http2Messages.status(stream.readHeaders());
+            } while (status >= 100 && status < 200);
+            byte[] discard = new byte[1024];
+            while (stream.read(discard, 0, discard.length) != -1) {
+                // Drain so the stream ends cleanly
+            }
+            return status;
+        } finally {
+            stream.close();
+        }
+    }
+
+    /*
+     * Closes every connection. Streams still open on them fail.
+     */
+    public void closeAll() {
+        for (Http2ClientConnection connection : connections) {
+            connection.shutdown();
+        }
+    }
+
+    // Backend address as host:port
+    String getAddress() { return host + ":" + port; }
+
+    // Number of open connections
+    public int getConnectionCount() { return connections.size(); }
+
+    // Number of streams currently in flight over all connections
+    public int getActiveStreams() {
+        int active = 0;
+        for (Http2ClientConnection connection : connections) {
+            active += connection.getActiveStreams();
+        }
+        return active;
+    }
+
+    // Streams opened over the pool's lifetime
+    public long getStreamsOpened() { return streamsOpened.sum(); }
+
+    // Connections opened over the pool's lifetime
+    public long getConnectionsOpened() { return connectionsOpened.sum(); }
+
+    /*
+     * Counts connections that can still open streams; retired ones are only
+     * draining and do not count against the limit.
+     */
+    private int usableConnections() {
+        int usable = 0;
+        for (Http2ClientConnection connection : connections) {
+            if (!connection.isRetired()) {
+                usable++;
+            }
+        }
+        return usable;
+    }
+
+    /*
+     * Called when a stream slot may have become free.
+     */
+    synchronized void streamReleased() {
+        releases++;
+        notifyAll();
+    }
+
+    /*
+     * Called by a connection once it is closed.
+     */
+    void connectionClosed(Http2ClientConnection connection) {
+        if (connections.remove(connection)) {
+            logger.debug("HTTP/2 connection to {} closed", getAddress());
+        }
+        streamReleased();
+    }
+}
@@ -0,0 +1,686 @@
+package com.loadbalancer.proxy;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http2.hpack.HPackDecoder;
+import org.apache.hc.core5.http2.hpack.HPackEncoder;
+import org.apache.hc.core5.http2.hpack.HPackException;
+import org.apache.hc.core5.util.ByteArrayBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.loadbalancer.proxy.Http2Connection.*;
+
+/*
+ * Http2ClientConnection is one multiplexed HTTP/2 cleartext connection to a
+ * backend (h2c with prior knowledge). Handler threads open streams on it
+ * concurrently, up to the backend's SETTINGS_MAX_CONCURRENT_STREAMS, while a
+ * reader on the relay executor dispatches incoming frames to the streams.
+ *
+ * Stream ids are assigned when the request HEADERS are written, under the
+ * write lock, so they reach the wire in increasing order. Flow control works
+ * as in Http2Connection: response DATA is credited back as the handler
+ * consumes it, request DATA waits for the backend's windows.
+ */
+class Http2ClientConnection implements Runnable {
+    // Logger for upstream HTTP/2 events
+    private static final Logger logger = LoggerFactory.getLogger(Http2ClientConnection.class);
+
+    // Client connection preface
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    // Stream limit assumed when the backend announces none (RFC 9113 recommends at least 100)
+    private static final int DEFAULT_MAX_CONCURRENT_STREAMS = 100;
+
+    // Receive windows advertised to the backend, per stream and for the connection
+    private static final int STREAM_WINDOW_SIZE = 1024 * 1024;
+    private static final int CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+
+    // Pool this connection belongs to
+    private final Http2BackendPool pool;
+
+    // Socket connected to the backend
+    private final Socket socket;
+
+    // Buffered backend input (reader thread only) and output (guarded by writeLock)
+    private final InputStream in;
+    private final OutputStream out;
+
+    // Header block decoder (reader thread only) and encoder (guarded by writeLock)
+    private final HPackDecoder decoder = new HPackDecoder(StandardCharsets.ISO_8859_1);
+    private final HPackEncoder encoder = new HPackEncoder(StandardCharsets.ISO_8859_1);
+
+    // Lock serialising frame writes
+    private final Object writeLock = new Object();
+
+    // Open streams by id
+    private final Map<Integer, Http2ClientStream> streams = new ConcurrentHashMap<>();
+
+    // Scratch frame header for reads (reader thread) and writes (under writeLock)
+    private final byte[] readHeader = new byte[9];
+    private final byte[] writeHeader = new byte[9];
+
+    // Next stream id to assign (guarded by writeLock)
+    private int nextStreamId = 1;
+
+    // Stream slots in use and the backend's limit (guarded by this)
+    private int activeStreams;
+    private int maxConcurrentStreams = DEFAULT_MAX_CONCURRENT_STREAMS;
+
+    // Peer settings and the connection send window (guarded by this)
+    private long connectionSendWindow = DEFAULT_WINDOW_SIZE;
+    private int peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+    private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+    // Set once no new streams may be opened (GOAWAY received or ids exhausted), or the connection closed
+    private volatile boolean goingAway;
+    private volatile boolean closed;
+
+    private Http2ClientConnection(Http2BackendPool pool, Socket socket) throws IOException {
+        this.pool = pool;
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream(), DEFAULT_MAX_FRAME_SIZE + 9);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), DEFAULT_MAX_FRAME_SIZE + 9);
+    }
+
+    /*
+     * Connects to the backend, exchanges the preface and SETTINGS, and starts
+     * the reader. The backend's SETTINGS are applied before the connection is
+     * returned, so its stream limit is known before the first stream opens.
+     *
+     * @throws IOException If the backend cannot be reached or does not speak HTTP/2
+     */
+    static Http2ClientConnection open(Http2BackendPool pool, String host, int port, int connectTimeout)
+            throws IOException {
+        Socket socket = SocketChannel.open().socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(connectTimeout);
+            Http2ClientConnection connection = new Http2ClientConnection(pool, socket);
+            connection.writePreface();
+            if (connection.readFrameHeader() < 0 || connection.readHeader[3] != SETTINGS) {
+                throw new IOException("Backend " + host + ":" + port + " did not answer with HTTP/2 SETTINGS");
+            }
+            connection.readFrame(connection.frameLength());
+            // Idle multiplexed connections stay open until the backend or the pool closes them
+            socket.setSoTimeout(0);
+            try {
+                ProxyHandler.RELAY_EXECUTOR.execute(connection);
+            } catch (RejectedExecutionException e) {
+                throw new IOException("No relay thread available to read from " + host + ":" + port, e);
+            }
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // Whether the connection is closed
+    boolean isClosed() { return closed; }
+
+    // Whether the connection can no longer open streams
+    boolean isRetired() { return goingAway || closed; }
+
+    // Number of stream slots in use
+    synchronized int getActiveStreams() { return activeStreams; }
+
+    /*
+     * Reserves a stream slot if the backend's limit allows one more.
+     *
+     * @return A new stream, or null if the connection is full or retired
+     */
+    synchronized Http2ClientStream tryOpenStream(int readTimeout) {
+        if (goingAway || closed || activeStreams >= maxConcurrentStreams) {
+            return null;
+        }
+        activeStreams++;
+        return new Http2ClientStream(this, STREAM_WINDOW_SIZE, readTimeout);
+    }
+
+    /*
+     * Reads frames until the connection closes.
+     */
+    @Override
+    public void run() {
+        IOException failure = null;
+        try {
+            int length;
+            while ((length = readFrameHeader()) >= 0) {
+                readFrame(length);
+            }
+        } catch (Http2Exception e) {
+            logger.debug("HTTP/2 backend connection error {}: {}", e.getErrorCode(), e.getMessage());
+            goAway(e.getErrorCode());
+            failure = e;
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            close(failure != null ? failure : new EOFException("Backend closed the HTTP/2 connection"));
+        }
+    }
+
+    /*
+     * Reads the payload of one frame and dispatches it by type.
+     */
+    private void readFrame(int length) throws IOException {
+        int type = readHeader[3] & 0xFF;
+        int flags = readHeader[4] & 0xFF;
+        int streamId = readInt(readHeader, 5) & 0x7FFFFFFF;
+        if (length > DEFAULT_MAX_FRAME_SIZE) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Frame of " + length + " bytes exceeds SETTINGS_MAX_FRAME_SIZE");
+        }
+        byte[] payload = new byte[length];
+        readFully(payload, 0, length);
+
+        switch (type) {
+            case DATA:
+                onData(streamId, flags, payload);
+                break;
+            case HEADERS:
+                onHeaders(streamId, flags, payload);
+                break;
+            case RST_STREAM:
+                onResetStream(streamId, payload);
+                break;
+            case SETTINGS:
+                onSettings(streamId, flags, payload);
+                break;
+            case PING:
+                if (streamId != 0 || payload.length != 8) {
+                    throw new Http2Exception(PROTOCOL_ERROR, "Invalid PING");
+                }
+                if ((flags & FLAG_ACK) == 0) {
+                    writeFrame(PING, FLAG_ACK, 0, payload, 0, payload.length);
+                }
+                break;
+            case GOAWAY:
+                onGoAway(payload);
+                break;
+            case WINDOW_UPDATE:
+                onWindowUpdate(streamId, payload);
+                break;
+            case PUSH_PROMISE:
+            case CONTINUATION:
+                throw new Http2Exception(PROTOCOL_ERROR, "Unexpected frame type " + type);
+            default:
+                // PRIORITY and unknown frame types are ignored
+                break;
+        }
+    }
+
+    private void onData(int streamId, int flags, byte[] payload) throws IOException {
+        if (streamId == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        int start = 0;
+        int end = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            int padding = payload.length > 0 ? payload[0] & 0xFF : -1;
+            start = 1;
+            end -= padding;
+            if (padding < 0 || end < start) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Invalid padding");
+            }
+        }
+
+        Http2ClientStream stream = streams.get(streamId);
+        if (stream == null) {
+            // Data for a stream we already gave up on still counts against the connection window
+            writeWindowUpdate(0, payload.length);
+            return;
+        }
+        if (!stream.consumeReceiveWindow(payload.length)) {
+            writeWindowUpdate(0, payload.length);
+            stream.fail(new IOException("Backend overran the stream window"));
+            writeResetStream(streamId, FLOW_CONTROL_ERROR);
+            return;
+        }
+        // Padding is never handed to the stream, so credit it back right away
+        int padding = payload.length - (end - start);
+        if (padding > 0) {
+            releaseReceiveWindow(stream, padding);
+        }
+        byte[] data = start == 0 && end == payload.length
+                ? payload
+                : Arrays.copyOfRange(payload, start, end);
+        stream.receiveData(data, (flags & FLAG_END_STREAM) != 0);
+    }
+
+    private void onHeaders(int streamId, int flags, byte[] payload) throws IOException {
+        if (streamId == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, "HEADERS on stream 0");
+        }
+        int start = 0;
+        int end = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            int padding = payload.length > 0 ? payload[0] & 0xFF : -1;
+            start = 1;
+            end -= padding;
+            if (padding < 0) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Invalid padding");
+            }
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            start += 5;
+        }
+        if (end < start) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid HEADERS frame");
+        }
+
+        // Collect CONTINUATION frames until the header block is complete
+        ByteArrayOutputStream block = new ByteArrayOutputStream(end - start);
+        block.write(payload, start, end - start);
+        boolean endHeaders = (flags & FLAG_END_HEADERS) != 0;
+        while (!endHeaders) {
+            int length = readFrameHeader();
+            if (length < 0) {
+                throw new EOFException("Connection closed inside a header block");
+            }
+            if ((readHeader[3] & 0xFF) != CONTINUATION || (readInt(readHeader, 5) & 0x7FFFFFFF) != streamId) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Expected CONTINUATION");
+            }
+            if (length > DEFAULT_MAX_FRAME_SIZE || block.size() + length > HttpInputStream.MAX_HEADER_SIZE) {
+                throw new Http2Exception(FRAME_SIZE_ERROR, "Header block too large");
+            }
+            byte[] continuation = new byte[length];
+            readFully(continuation, 0, length);
+            block.write(continuation, 0, length);
+            endHeaders = (readHeader[4] & FLAG_END_HEADERS) != 0;
+        }
+
+        // Always decode so the dynamic table stays in sync, even for abandoned streams
+        List<Header> headers;
+        try {
+            headers = decoder.decodeHeaders(ByteBuffer.wrap(block.toByteArray()));
+        } catch (HPackException e) {
+            throw new Http2Exception(COMPRESSION_ERROR, e.getMessage());
+        }
+        Http2ClientStream stream = streams.get(streamId);
+        if (stream != null) {
+            stream.receiveHeaders(headers, (flags & FLAG_END_STREAM) != 0);
+        }
+    }
+
+    private void onResetStream(int streamId, byte[] payload) throws IOException {
+        if (streamId == 0 || payload.length != 4) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid RST_STREAM");
+        }
+        Http2ClientStream stream = streams.get(streamId);
+        if (stream != null) {
+            stream.reset(readInt(payload, 0));
+        }
+    }
+
+    private void onSettings(int streamId, int flags, byte[] payload) throws IOException {
+        if (streamId != 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, "SETTINGS on stream " + streamId);
+        }
+        if ((flags & FLAG_ACK) != 0) {
+            return;
+        }
+        if (payload.length % 6 != 0) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid SETTINGS length");
+        }
+        for (int i = 0; i < payload.length; i += 6) {
+            int id = ((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF);
+            int value = readInt(payload, i + 2);
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    synchronized (writeLock) {
+                        encoder.setMaxTableSize(Math.min(value & 0x7FFFFFFF, 4096));
+                    }
+                    break;
+                case SETTINGS_MAX_CONCURRENT_STREAMS:
+                    synchronized (this) {
+                        // Values above 2^31-1 mean effectively unlimited
+                        maxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value < 0) {
+                        throw new Http2Exception(FLOW_CONTROL_ERROR, "Initial window size too large");
+                    }
+                    synchronized (this) {
+                        // Changing the initial window shifts every open stream's window
+                        int delta = value - peerInitialWindowSize;
+                        peerInitialWindowSize = value;
+                        for (Http2ClientStream stream : streams.values()) {
+                            stream.sendWindow += delta;
+                        }
+                        notifyAll();
+                    }
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xFFFFFF) {
+                        throw new Http2Exception(PROTOCOL_ERROR, "Invalid max frame size");
+                    }
+                    synchronized (this) {
+                        // Our output buffer is sized for the default, larger frames gain nothing
+                        peerMaxFrameSize = Math.min(value, DEFAULT_MAX_FRAME_SIZE);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        writeFrame(SETTINGS, FLAG_ACK, 0, new byte[0], 0, 0);
+        // A raised stream limit may let waiting handlers in
+        pool.streamReleased();
+    }
+
+    private void onGoAway(byte[] payload) throws IOException {
+        if (payload.length < 8) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid GOAWAY");
+        }
+        int lastStreamId = readInt(payload, 0) & 0x7FFFFFFF;
+        logger.debug("Backend {} sent GOAWAY (last stream {}, error {})",
+                pool.getAddress(), lastStreamId, readInt(payload, 4));
+        goingAway = true;
+        // Streams above the last id were never processed by the backend
+        for (Http2ClientStream stream : streams.values()) {
+            if (stream.getId() > lastStreamId) {
+                stream.fail(new IOException("Stream refused by backend GOAWAY"));
+            }
+        }
+        closeIfDrained();
+    }
+
+    private void onWindowUpdate(int streamId, byte[] payload) throws IOException {
+        if (payload.length != 4) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE");
+        }
+        int increment = readInt(payload, 0) & 0x7FFFFFFF;
+        if (streamId == 0) {
+            if (increment == 0) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Zero window increment");
+            }
+            synchronized (this) {
+                connectionSendWindow += increment;
+                if (connectionSendWindow > MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+                notifyAll();
+            }
+            return;
+        }
+        Http2ClientStream stream = streams.get(streamId);
+        if (stream == null) {
+            return;
+        }
+        boolean overflow;
+        synchronized (this) {
+            stream.sendWindow += increment;
+            overflow = increment == 0 || stream.sendWindow > MAX_WINDOW_SIZE;
+            notifyAll();
+        }
+        if (overflow) {
+            stream.fail(new IOException("Invalid stream window update"));
+            writeResetStream(streamId, increment == 0 ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR);
+        }
+    }
+
+    /*
+     * Assigns the stream its id and writes the request header block, split
+     * into HEADERS and CONTINUATION frames as needed.
+     */
+    void startStream(Http2ClientStream stream, List<Header> headers, boolean endStream) throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                throw new IOException("HTTP/2 connection to " + pool.getAddress() + " is closed");
+            }
+            int streamId = nextStreamId;
+            nextStreamId += 2;
+            if (nextStreamId < 0) {
+                // Stream ids are exhausted; let the open streams finish and connect anew
+                goingAway = true;
+            }
+            synchronized (this) {
+                stream.sendWindow = peerInitialWindowSize;
+            }
+            stream.setId(streamId);
+            streams.put(streamId, stream);
+
+            ByteArrayBuffer block = new ByteArrayBuffer(256);
+            encoder.encodeHeaders(block, headers, true);
+            int maxFrame;
+            synchronized (this) {
+                maxFrame = peerMaxFrameSize;
+            }
+            int offset = 0;
+            int type = HEADERS;
+            int flags = endStream ? FLAG_END_STREAM : 0;
+            do {
+                int length = Math.min(maxFrame, block.length() - offset);
+                boolean last = offset + length == block.length();
+                writeFrameLocked(type, flags | (last ? FLAG_END_HEADERS : 0), streamId,
+                        block.array(), offset, length);
+                offset += length;
+                type = CONTINUATION;
+                flags = 0;
+            } while (offset < block.length());
+            out.flush();
+        }
+    }
+
+    /*
+     * Waits until the stream may send at least one byte and reserves up to
+     * the wanted amount from both the stream and the connection window.
+     *
+     * @return Number of bytes that may be sent now (at most one frame)
+     * @throws IOException If the stream is reset or the connection closes meanwhile
+     */
+    int reserveSendWindow(Http2ClientStream stream, int wanted) throws IOException {
+        synchronized (this) {
+            while (!closed && !stream.isFailed() && (connectionSendWindow <= 0 || stream.sendWindow <= 0)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for flow-control window");
+                }
+            }
+            if (closed || stream.isFailed()) {
+                throw new IOException("Stream " + stream.getId() + " to " + pool.getAddress() + " was closed");
+            }
+            int n = (int) Math.min(Math.min(wanted, peerMaxFrameSize),
+                    Math.min(connectionSendWindow, stream.sendWindow));
+            connectionSendWindow -= n;
+            stream.sendWindow -= n;
+            return n;
+        }
+    }
+
+    /*
+     * Credits consumed response body bytes back to the backend.
+     */
+    void releaseReceiveWindow(Http2ClientStream stream, int bytes) throws IOException {
+        if (bytes <= 0 || closed) {
+            return;
+        }
+        writeWindowUpdate(0, bytes);
+        if (!stream.isRemoteClosed()) {
+            stream.creditReceiveWindow(bytes);
+            writeWindowUpdate(stream.getId(), bytes);
+        }
+    }
+
+    /*
+     * Called by a stream's handler when it is done with the stream; frees
+     * its slot for the next request.
+     */
+    void streamClosed(Http2ClientStream stream) {
+        if (stream.getId() != 0) {
+            streams.remove(stream.getId());
+        }
+        synchronized (this) {
+            activeStreams--;
+        }
+        pool.streamReleased();
+        closeIfDrained();
+    }
+
+    /*
+     * Writes one DATA frame. The caller must have reserved the send window.
+     */
+    void writeData(int streamId, byte[] data, int offset, int length, boolean endStream) throws IOException {
+        writeFrame(DATA, endStream ? FLAG_END_STREAM : 0, streamId, data, offset, length);
+    }
+
+    void writeResetStream(int streamId, int errorCode) throws IOException {
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, errorCode);
+        writeFrame(RST_STREAM, 0, streamId, payload, 0, 4);
+    }
+
+    /*
+     * Closes the connection with GOAWAY. Streams still open fail.
+     */
+    void shutdown() {
+        goAway(NO_ERROR);
+        close(new IOException("HTTP/2 connection to " + pool.getAddress() + " was shut down"));
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, increment);
+        writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+    }
+
+    /*
+     * Sends the preface, our SETTINGS and opens the connection receive window.
+     */
+    private void writePreface() throws IOException {
+        byte[] settings = new byte[12];
+        writeSetting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+        writeSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE);
+        synchronized (writeLock) {
+            out.write(PREFACE);
+            writeFrameLocked(SETTINGS, 0, 0, settings, 0, settings.length);
+        }
+        writeWindowUpdate(0, CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+    }
+
+    /*
+     * Sends GOAWAY. Best effort.
+     */
+    private void goAway(int errorCode) {
+        goingAway = true;
+        byte[] payload = new byte[8];
+        writeInt(payload, 4, errorCode);
+        try {
+            writeFrame(GOAWAY, 0, 0, payload, 0, payload.length);
+        } catch (IOException e) {
+            logger.debug("Error sending GOAWAY: {}", e.getMessage());
+        }
+    }
+
+    /*
+     * Closes a retired connection once its last stream is done.
+     */
+    private void closeIfDrained() {
+        boolean drained;
+        synchronized (this) {
+            drained = goingAway && activeStreams == 0;
+        }
+        if (drained) {
+            close(new IOException("HTTP/2 connection to " + pool.getAddress() + " was retired"));
+        }
+    }
+
+    /*
+     * Marks the connection closed, fails every open stream and removes the
+     * connection from its pool.
+     */
+    private void close(IOException cause) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        for (Http2ClientStream stream : streams.values()) {
+            stream.fail(cause);
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing useful to do; the connection is being discarded
+        }
+        pool.connectionClosed(this);
+    }
+
+    synchronized void wakeWriters() {
+        notifyAll();
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length)
+            throws IOException {
+        synchronized (writeLock) {
+            writeFrameLocked(type, flags, streamId, payload, offset, length);
+            out.flush();
+        }
+    }
+
+    private void writeFrameLocked(int type, int flags, int streamId, byte[] payload, int offset, int length)
+            throws IOException {
+        writeHeader[0] = (byte) (length >>> 16);
+        writeHeader[1] = (byte) (length >>> 8);
+        writeHeader[2] = (byte) length;
+        writeHeader[3] = (byte) type;
+        writeHeader[4] = (byte) flags;
+        writeInt(writeHeader, 5, streamId);
+        out.write(writeHeader, 0, 9);
+        out.write(payload, offset, length);
+    }
+
+    /*
+     * Reads the next 9-byte frame header into readHeader.
+     *
+     * @return Payload length, or -1 at a clean end of stream
+     */
+    private int readFrameHeader() throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return -1;
+        }
+        readHeader[0] = (byte) first;
+        readFully(readHeader, 1, 8);
+        return frameLength();
+    }
+
+    private int frameLength() {
+        return ((readHeader[0] & 0xFF) << 16) | ((readHeader[1] & 0xFF) << 8) | (readHeader[2] & 0xFF);
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                throw new EOFException("Connection closed inside a frame");
+            }
+            off += n;
+            len -= n;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.loadbalancer.proxy;
+
+import org.apache.hc.core5.http.Header;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Http2ClientStream is one request/response exchange on a multiplexed
+ * backend connection, used by a single handler thread (plus an upload
+ * thread for the request body). The connection's reader queues the
+ * response header blocks and DATA in arrival order; the handler takes them
+ * with readHeaders() and read(). close() must always be called to free the
+ * stream's slot on the connection.
+ */
+class Http2ClientStream {
+    // Queue marker for the end of the response
+    private static final Object END_OF_STREAM = new Object();
+
+    // Connection this stream belongs to
+    private final Http2ClientConnection connection;
+
+    // Response header blocks (List<Header>), DATA (byte[]), a failure (IOException) or END_OF_STREAM
+    private final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+
+    // Bytes the backend may still send on this stream
+    private final AtomicInteger receiveWindow;
+
+    // Time in milliseconds to wait for the backend before failing a read
+    private final int readTimeout;
+
+    // Stream identifier, assigned when the request HEADERS are written
+    private volatile int id;
+
+    // Bytes we may still send on this stream (guarded by the connection's monitor)
+    long sendWindow;
+
+    // Whether END_STREAM was sent and received
+    private volatile boolean localClosed;
+    private volatile boolean remoteClosed;
+
+    // Set when the stream was reset by either side or its connection closed
+    private volatile boolean failed;
+
+    // DATA chunk being read and the read position in it (handler thread only)
+    private byte[] current;
+    private int position;
+    private boolean ended;
+
+    /**
+     * Constructor creates a stream; the connection reserved its slot.
+     *
+     * @param connection    Connection the stream belongs to
+     * @param receiveWindow Initial receive window (our initial window size)
+     * @param readTimeout   Read timeout in milliseconds
+     */
+    Http2ClientStream(Http2ClientConnection connection, int receiveWindow, int readTimeout) {
+        this.connection = connection;
+        this.receiveWindow = new AtomicInteger(receiveWindow);
+        this.readTimeout = readTimeout;
+    }
+
+    // Stream identifier (0 until the request HEADERS are written)
+    int getId() { return id; }
+
+    void setId(int id) { this.id = id; }
+
+    // Whether the stream was reset or its connection closed
+    boolean isFailed() { return failed; }
+
+    // Whether the backend ended its side of the stream
+    boolean isRemoteClosed() { return remoteClosed; }
+
+    /*
+     * Sends the request header block.
+     *
+     * @param headers   Request fields including pseudo-headers
+     * @param endStream Whether the request has no body
+     */
+    void start(List<Header> headers, boolean endStream) throws IOException {
+        connection.startStream(this, headers, endStream);
+        localClosed = endStream;
+    }
+
+    /*
+     * Sends request body bytes as DATA frames, waiting for flow-control
+     * window as needed.
+     */
+    void write(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            int allowed = connection.reserveSendWindow(this, end - offset);
+            connection.writeData(id, data, offset, allowed, false);
+            offset += allowed;
+        }
+    }
+
+    /*
+     * Ends the request body.
+     */
+    void end() throws IOException {
+        if (failed) {
+            throw new IOException("Stream " + id + " was closed");
+        }
+        connection.writeData(id, new byte[0], 0, 0, true);
+        localClosed = true;
+    }
+
+    /*
+     * Returns an output stream that writes DATA frames on this stream.
+     */
+    OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Http2ClientStream.this.write(b, off, len);
+            }
+        };
+    }
+
+    /*
+     * Waits for the next response header block (interim or final).
+     *
+     * @throws IOException If the stream fails or ends without one
+     */
+    @SuppressWarnings("unchecked")
+    List<Header> readHeaders() throws IOException {
+        while (true) {
+            Object event = take();
+            if (event instanceof List) {
+                return (List<Header>) event;
+            }
+            if (event == END_OF_STREAM) {
+                ended = true;
+                throw new EOFException("Backend ended stream " + id + " without a response");
+            }
+            // DATA before the response head is a protocol error; drop it and keep waiting
+        }
+    }
+
+    /*
+     * Reads response body bytes.
+     *
+     * @return Number of bytes read, or -1 at the end of the response
+     */
+    int read(byte[] b, int off, int len) throws IOException {
+        while (current == null || position == current.length) {
+            if (ended) {
+                return -1;
+            }
+            Object event = take();
+            if (event == END_OF_STREAM) {
+                ended = true;
+                return -1;
+            }
+            if (event instanceof byte[]) {
+                current = (byte[]) event;
+                position = 0;
+                // The bytes left the connection's hands; let the backend send more
+                connection.releaseReceiveWindow(this, current.length);
+            }
+            // Trailers are not forwarded
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    /*
+     * Aborts the stream: the backend is told to stop and blocked reads and
+     * writes on it fail.
+     */
+    void cancel() {
+        boolean wasFailed = failed;
+        fail(new IOException("Stream " + id + " was cancelled"));
+        if (!wasFailed && id != 0 && !(localClosed && remoteClosed)) {
+            try {
+                connection.writeResetStream(id, Http2Connection.CANCEL);
+            } catch (IOException e) {
+                // The connection is failing anyway
+            }
+        }
+    }
+
+    /*
+     * Frees the stream's slot. A stream the backend has not finished is
+     * reset so it stops sending.
+     */
+    void close() {
+        if (!remoteClosed || !localClosed) {
+            cancel();
+        }
+        connection.streamClosed(this);
+    }
+
+    /*
+     * Accounts for a received DATA frame against the receive window.
+     *
+     * @return false if the backend overran the window
+     */
+    boolean consumeReceiveWindow(int bytes) {
+        return receiveWindow.addAndGet(-bytes) >= 0;
+    }
+
+    // Returns consumed bytes to the receive window
+    void creditReceiveWindow(int bytes) {
+        receiveWindow.addAndGet(bytes);
+    }
+
+    /*
+     * Queues a response header block from the reader.
+     */
+    void receiveHeaders(List<Header> headers, boolean endStream) {
+        events.add(headers);
+        if (endStream) {
+            remoteClosed = true;
+            events.add(END_OF_STREAM);
+        }
+    }
+
+    /*
+     * Queues response body data from the reader.
+     */
+    void receiveData(byte[] data, boolean endStream) {
+        if (data.length > 0) {
+            events.add(data);
+        }
+        if (endStream) {
+            remoteClosed = true;
+            events.add(END_OF_STREAM);
+        }
+    }
+
+    /*
+     * Called when the backend resets the stream.
+     */
+    void reset(int errorCode) {
+        remoteClosed = true;
+        fail(new IOException("Backend reset stream " + id + " (error " + errorCode + ")"));
+    }
+
+    /*
+     * Fails the stream: pending and future reads throw the cause.
+     */
+    void fail(IOException cause) {
+        if (!failed) {
+            failed = true;
+            events.add(cause);
+            // Wake an upload blocked on the flow-control window
+            connection.wakeWriters();
+        }
+    }
+
+    private Object take() throws IOException {
+        Object event;
+        try {
+            event = events.poll(readTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for backend");
+        }
+        if (event == null) {
+            throw new SocketTimeoutException("Read timed out");
+        }
+        if (event instanceof IOException) {
+            // Leave the failure queued for any later read
+            events.add(event);
+            throw (IOException) event;
+        }
+        return event;
+    }
+}
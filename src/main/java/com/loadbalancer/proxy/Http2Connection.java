@@ -0,0 +1,727 @@
+package com.loadbalancer.proxy;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http2.hpack.HPackDecoder;
+import org.apache.hc.core5.http2.hpack.HPackEncoder;
+import org.apache.hc.core5.http2.hpack.HPackException;
+import org.apache.hc.core5.util.ByteArrayBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/*
+ * Http2Connection serves one HTTP/2 cleartext client connection (h2c with
+ * prior knowledge). ProxyHandler hands the connection over once it has read
+ * the "PRI * HTTP/2.0" line of the connection preface.
+ *
+ * The handler thread reads frames and dispatches them; every stream runs as
+ * an Http2Stream on the relay executor and is balanced independently onto a
+ * pooled HTTP/1.1 backend connection. Frames are written under a single lock
+ * so the HPACK encoder state matches the order header blocks hit the wire.
+ *
+ * Flow control: the receive side advertises a per-stream window and credits
+ * it back as a stream's worker forwards the data to its backend, so a slow
+ * backend throttles only its own stream. The send side blocks a stream's
+ * worker until both the stream and the connection window allow more data.
+ */
+class Http2Connection {
+    // Logger for HTTP/2 events
+    private static final Logger logger = LoggerFactory.getLogger(Http2Connection.class);
+
+    // Frame types (RFC 9113 section 6)
+    static final int DATA = 0x0;
+    static final int HEADERS = 0x1;
+    static final int PRIORITY = 0x2;
+    static final int RST_STREAM = 0x3;
+    static final int SETTINGS = 0x4;
+    static final int PUSH_PROMISE = 0x5;
+    static final int PING = 0x6;
+    static final int GOAWAY = 0x7;
+    static final int WINDOW_UPDATE = 0x8;
+    static final int CONTINUATION = 0x9;
+
+    // Frame flags
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    // Error codes
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+
+    // Settings identifiers
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    // Remainder of the client preface after the "PRI * HTTP/2.0" header block
+    private static final byte[] PREFACE_TAIL = "SM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    // Protocol defaults
+    static final int DEFAULT_WINDOW_SIZE = 65535;
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    // Connection-level receive window; large so one slow stream cannot stall the others
+    private static final int CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+
+    // Socket connected to the client
+    private final Socket socket;
+
+    // Client input positioned after the preface's first line
+    private final HttpInputStream in;
+
+    // Buffered client output; frames are flushed as they are written
+    private final OutputStream out;
+
+    // Settings and shared state of the listener
+    private final ProxyContext context;
+
+    // Client IP address for the IP-hash algorithm
+    private final String clientIp;
+
+    // Header block decoder (handler thread only) and encoder (guarded by writeLock)
+    private final HPackDecoder decoder = new HPackDecoder(StandardCharsets.ISO_8859_1);
+    private final HPackEncoder encoder = new HPackEncoder(StandardCharsets.ISO_8859_1);
+
+    // Lock serialising frame writes
+    private final Object writeLock = new Object();
+
+    // Open streams by id
+    private final Map<Integer, Http2Stream> streams = new ConcurrentHashMap<>();
+
+    // Scratch frame header for reads (handler thread) and writes (under writeLock)
+    private final byte[] readHeader = new byte[9];
+    private final byte[] writeHeader = new byte[9];
+
+    // Highest stream id opened by the client
+    private int lastStreamId;
+
+    // Peer settings and the connection send window (guarded by this)
+    private long connectionSendWindow = DEFAULT_WINDOW_SIZE;
+    private int peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+    private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+    // Set once the connection is shutting down (GOAWAY sent or received, or closed)
+    private volatile boolean goingAway;
+    private volatile boolean closed;
+
+    /**
+     * Constructor wraps a client connection that sent the HTTP/2 preface.
+     *
+     * @param socket  Socket connected to the client
+     * @param in      Client input positioned after "PRI * HTTP/2.0\r\n\r\n"
+     * @param context Settings and shared state of the listener
+     */
+    Http2Connection(Socket socket, HttpInputStream in, ProxyContext context) throws IOException {
+        this.socket = socket;
+        this.in = in;
+        this.out = new BufferedOutputStream(socket.getOutputStream(), DEFAULT_MAX_FRAME_SIZE + 9);
+        this.context = context;
+        this.clientIp = socket.getInetAddress().getHostAddress();
+    }
+
+    // Settings and shared state of the listener
+    ProxyContext getContext() { return context; }
+
+    // Client IP address
+    String getClientIp() { return clientIp; }
+
+    // Whether the connection is closed
+    boolean isClosed() { return closed; }
+
+    /*
+     * Serves streams until the client goes away, the connection idles out, or
+     * a connection error occurs.
+     */
+    void serve() throws IOException {
+        byte[] tail = new byte[PREFACE_TAIL.length];
+        readFully(tail, 0, tail.length);
+        if (!Arrays.equals(tail, PREFACE_TAIL)) {
+            throw new IOException("Invalid HTTP/2 connection preface");
+        }
+
+        writeInitialSettings();
+        socket.setSoTimeout(context.getKeepAliveTimeout());
+
+        try {
+            while (!closed) {
+                int length;
+                try {
+                    length = readFrameHeader();
+                } catch (SocketTimeoutException e) {
+                    if (streams.isEmpty()) {
+                        logger.debug("Closing idle HTTP/2 connection");
+                        goAway(NO_ERROR);
+                        break;
+                    }
+                    continue;
+                }
+                if (length < 0) {
+                    break;
+                }
+                readFrame(length);
+                if (goingAway && streams.isEmpty()) {
+                    break;
+                }
+            }
+        } catch (Http2Exception e) {
+            logger.debug("HTTP/2 connection error {}: {}", e.getErrorCode(), e.getMessage());
+            goAway(e.getErrorCode());
+        } finally {
+            close();
+        }
+    }
+
+    /*
+     * Reads the payload of one frame and dispatches it by type.
+     */
+    private void readFrame(int length) throws IOException {
+        int type = readHeader[3] & 0xFF;
+        int flags = readHeader[4] & 0xFF;
+        int streamId = readInt(readHeader, 5) & 0x7FFFFFFF;
+        if (length > DEFAULT_MAX_FRAME_SIZE) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Frame of " + length + " bytes exceeds SETTINGS_MAX_FRAME_SIZE");
+        }
+        byte[] payload = new byte[length];
+        readFully(payload, 0, length);
+
+        switch (type) {
+            case DATA:
+                onData(streamId, flags, payload);
+                break;
+            case HEADERS:
+                onHeaders(streamId, flags, payload);
+                break;
+            case PRIORITY:
+                break;
+            case RST_STREAM:
+                onResetStream(streamId, payload);
+                break;
+            case SETTINGS:
+                onSettings(streamId, flags, payload);
+                break;
+            case PING:
+                onPing(streamId, flags, payload);
+                break;
+            case GOAWAY:
+                logger.debug("Client sent GOAWAY");
+                goingAway = true;
+                break;
+            case WINDOW_UPDATE:
+                onWindowUpdate(streamId, payload);
+                break;
+            case PUSH_PROMISE:
+            case CONTINUATION:
+                throw new Http2Exception(PROTOCOL_ERROR, "Unexpected frame type " + type);
+            default:
+                // Unknown frame types must be ignored
+                break;
+        }
+    }
+
+    private void onData(int streamId, int flags, byte[] payload) throws IOException {
+        if (streamId == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        int start = 0;
+        int end = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            int padding = payload.length > 0 ? payload[0] & 0xFF : -1;
+            start = 1;
+            end -= padding;
+            if (padding < 0 || end < start) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Invalid padding");
+            }
+        }
+
+        Http2Stream stream = streams.get(streamId);
+        if (stream == null || !stream.isReceiving()) {
+            // Discarded data still counts against the connection window
+            writeWindowUpdate(0, payload.length);
+            if (streamId > lastStreamId) {
+                throw new Http2Exception(PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+            }
+            writeResetStream(streamId, STREAM_CLOSED);
+            return;
+        }
+        if (!stream.consumeReceiveWindow(payload.length)) {
+            writeWindowUpdate(0, payload.length);
+            resetStream(stream, FLOW_CONTROL_ERROR);
+            return;
+        }
+        // Padding is never handed to the stream, so credit it back right away
+        int padding = payload.length - (end - start);
+        if (padding > 0) {
+            writeWindowUpdate(0, padding);
+            writeWindowUpdate(streamId, padding);
+        }
+        byte[] data = start == 0 && end == payload.length
+                ? payload
+                : Arrays.copyOfRange(payload, start, end);
+        stream.receiveData(data, (flags & FLAG_END_STREAM) != 0);
+    }
+
+    private void onHeaders(int streamId, int flags, byte[] payload) throws IOException {
+        if (streamId == 0 || (streamId & 1) == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid stream id " + streamId);
+        }
+        int start = 0;
+        int end = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            int padding = payload.length > 0 ? payload[0] & 0xFF : -1;
+            start = 1;
+            end -= padding;
+            if (padding < 0) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Invalid padding");
+            }
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            start += 5;
+        }
+        if (end < start) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid HEADERS frame");
+        }
+
+        // Collect CONTINUATION frames until the header block is complete
+        ByteArrayOutputStream block = new ByteArrayOutputStream(end - start);
+        block.write(payload, start, end - start);
+        boolean endHeaders = (flags & FLAG_END_HEADERS) != 0;
+        while (!endHeaders) {
+            int length = readFrameHeader();
+            if (length < 0) {
+                throw new EOFException("Connection closed inside a header block");
+            }
+            if ((readHeader[3] & 0xFF) != CONTINUATION || (readInt(readHeader, 5) & 0x7FFFFFFF) != streamId) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Expected CONTINUATION");
+            }
+            if (length > DEFAULT_MAX_FRAME_SIZE || block.size() + length > HttpInputStream.MAX_HEADER_SIZE) {
+                throw new Http2Exception(FRAME_SIZE_ERROR, "Header block too large");
+            }
+            byte[] continuation = new byte[length];
+            readFully(continuation, 0, length);
+            block.write(continuation, 0, length);
+            endHeaders = (readHeader[4] & FLAG_END_HEADERS) != 0;
+        }
+
+        // Always decode so the dynamic table stays in sync, even for refused streams
+        List<Header> headers;
+        try {
+            headers = decoder.decodeHeaders(ByteBuffer.wrap(block.toByteArray()));
+        } catch (HPackException e) {
+            throw new Http2Exception(COMPRESSION_ERROR, e.getMessage());
+        }
+        boolean endStream = (flags & FLAG_END_STREAM) != 0;
+
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            // Trailers end the request body; their fields are not forwarded
+            if (!endStream || !stream.isReceiving()) {
+                resetStream(stream, PROTOCOL_ERROR);
+            } else {
+                stream.receiveData(null, true);
+            }
+            return;
+        }
+        if (streamId <= lastStreamId) {
+            throw new Http2Exception(STREAM_CLOSED, "HEADERS on closed stream " + streamId);
+        }
+        lastStreamId = streamId;
+
+        if (goingAway || streams.size() >= context.getHttp2MaxConcurrentStreams()) {
+            writeResetStream(streamId, REFUSED_STREAM);
+            return;
+        }
+        int sendWindow;
+        synchronized (this) {
+            sendWindow = peerInitialWindowSize;
+        }
+        stream = new Http2Stream(this, streamId, headers, endStream, sendWindow,
+                context.getHttp2InitialWindowSize());
+        streams.put(streamId, stream);
+        try {
+            context.getRelayExecutor().execute(stream);
+        } catch (RejectedExecutionException e) {
+            // No thread to serve it; the client may retry the stream later
+            streams.remove(streamId);
+            writeResetStream(streamId, REFUSED_STREAM);
+        }
+    }
+
+    private void onResetStream(int streamId, byte[] payload) throws IOException {
+        if (streamId == 0 || payload.length != 4) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid RST_STREAM");
+        }
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            stream.cancel();
+            wakeWriters();
+        }
+    }
+
+    private void onSettings(int streamId, int flags, byte[] payload) throws IOException {
+        if (streamId != 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, "SETTINGS on stream " + streamId);
+        }
+        if ((flags & FLAG_ACK) != 0) {
+            return;
+        }
+        if (payload.length % 6 != 0) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid SETTINGS length");
+        }
+        for (int i = 0; i < payload.length; i += 6) {
+            int id = ((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF);
+            int value = readInt(payload, i + 2);
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    synchronized (writeLock) {
+                        encoder.setMaxTableSize(Math.min(value & 0x7FFFFFFF, 4096));
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value < 0) {
+                        throw new Http2Exception(FLOW_CONTROL_ERROR, "Initial window size too large");
+                    }
+                    synchronized (this) {
+                        // Changing the initial window shifts every open stream's window,
+                        // and pushing one past the maximum is a connection error
+                        int delta = value - peerInitialWindowSize;
+                        peerInitialWindowSize = value;
+                        boolean overflow = false;
+                        for (Http2Stream stream : streams.values()) {
+                            stream.sendWindow += delta;
+                            overflow |= stream.sendWindow > MAX_WINDOW_SIZE;
+                        }
+                        notifyAll();
+                        if (overflow) {
+                            throw new Http2Exception(FLOW_CONTROL_ERROR, "Stream window overflow");
+                        }
+                    }
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xFFFFFF) {
+                        throw new Http2Exception(PROTOCOL_ERROR, "Invalid max frame size");
+                    }
+                    synchronized (this) {
+                        // Our output buffer is sized for the default, larger frames gain nothing
+                        peerMaxFrameSize = Math.min(value, DEFAULT_MAX_FRAME_SIZE);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        writeFrame(SETTINGS, FLAG_ACK, 0, new byte[0], 0, 0);
+    }
+
+    private void onPing(int streamId, int flags, byte[] payload) throws IOException {
+        if (streamId != 0 || payload.length != 8) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid PING");
+        }
+        if ((flags & FLAG_ACK) == 0) {
+            writeFrame(PING, FLAG_ACK, 0, payload, 0, payload.length);
+        }
+    }
+
+    private void onWindowUpdate(int streamId, byte[] payload) throws IOException {
+        if (payload.length != 4) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE");
+        }
+        int increment = readInt(payload, 0) & 0x7FFFFFFF;
+        if (streamId == 0) {
+            if (increment == 0) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Zero window increment");
+            }
+            synchronized (this) {
+                connectionSendWindow += increment;
+                if (connectionSendWindow > MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+                notifyAll();
+            }
+            return;
+        }
+        Http2Stream stream = streams.get(streamId);
+        if (stream == null) {
+            return;
+        }
+        boolean overflow;
+        synchronized (this) {
+            stream.sendWindow += increment;
+            overflow = increment == 0 || stream.sendWindow > MAX_WINDOW_SIZE;
+            notifyAll();
+        }
+        if (overflow) {
+            resetStream(stream, increment == 0 ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR);
+        }
+    }
+
+    /*
+     * Waits until the stream may send at least one byte and reserves up to
+     * the wanted amount from both the stream and the connection window.
+     *
+     * @return Number of bytes that may be sent now (at most one frame)
+     * @throws IOException If the stream is reset or the connection closes meanwhile
+     */
+    int reserveSendWindow(Http2Stream stream, int wanted) throws IOException {
+        synchronized (this) {
+            while (!closed && !stream.isCancelled() && (connectionSendWindow <= 0 || stream.sendWindow <= 0)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for flow-control window");
+                }
+            }
+            if (closed || stream.isCancelled()) {
+                throw new IOException("Stream " + stream.getId() + " was closed");
+            }
+            int n = (int) Math.min(Math.min(wanted, peerMaxFrameSize),
+                    Math.min(connectionSendWindow, stream.sendWindow));
+            connectionSendWindow -= n;
+            stream.sendWindow -= n;
+            return n;
+        }
+    }
+
+    /*
+     * Credits consumed request body bytes back to the client.
+     */
+    void releaseReceiveWindow(Http2Stream stream, int bytes) throws IOException {
+        if (bytes <= 0 || closed) {
+            return;
+        }
+        writeWindowUpdate(0, bytes);
+        if (stream.isReceiving()) {
+            stream.creditReceiveWindow(bytes);
+            writeWindowUpdate(stream.getId(), bytes);
+        }
+    }
+
+    /*
+     * Resets a stream from our side and stops its worker.
+     */
+    void resetStream(Http2Stream stream, int errorCode) throws IOException {
+        stream.cancel();
+        wakeWriters();
+        writeResetStream(stream.getId(), errorCode);
+    }
+
+    /*
+     * Called by a stream's worker when it is done with the stream.
+     */
+    void streamClosed(Http2Stream stream) {
+        streams.remove(stream.getId());
+        if (goingAway && streams.isEmpty()) {
+            // Wake the reader so a draining connection closes promptly
+            try {
+                socket.shutdownInput();
+            } catch (IOException e) {
+                // The connection is closing anyway
+            }
+        }
+    }
+
+    /*
+     * Writes a response header block, split into HEADERS and CONTINUATION
+     * frames as needed.
+     */
+    void writeHeaders(int streamId, List<Header> headers, boolean endStream) throws IOException {
+        synchronized (writeLock) {
+            ByteArrayBuffer block = new ByteArrayBuffer(256);
+            encoder.encodeHeaders(block, headers, true);
+            int maxFrame;
+            synchronized (this) {
+                maxFrame = peerMaxFrameSize;
+            }
+            int offset = 0;
+            int type = HEADERS;
+            int flags = endStream ? FLAG_END_STREAM : 0;
+            do {
+                int length = Math.min(maxFrame, block.length() - offset);
+                boolean last = offset + length == block.length();
+                writeFrameLocked(type, flags | (last ? FLAG_END_HEADERS : 0), streamId,
+                        block.array(), offset, length);
+                offset += length;
+                type = CONTINUATION;
+                flags = 0;
+            } while (offset < block.length());
+            out.flush();
+        }
+    }
+
+    /*
+     * Writes one DATA frame. The caller must have reserved the send window.
+     */
+    void writeData(int streamId, byte[] data, int offset, int length, boolean endStream) throws IOException {
+        writeFrame(DATA, endStream ? FLAG_END_STREAM : 0, streamId, data, offset, length);
+    }
+
+    void writeResetStream(int streamId, int errorCode) throws IOException {
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, errorCode);
+        writeFrame(RST_STREAM, 0, streamId, payload, 0, 4);
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = new byte[4];
+        writeInt(payload, 0, increment);
+        writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+    }
+
+    /*
+     * Sends our SETTINGS and opens the connection receive window.
+     */
+    private void writeInitialSettings() throws IOException {
+        byte[] payload = new byte[18];
+        writeSetting(payload, 0, SETTINGS_ENABLE_PUSH, 0);
+        writeSetting(payload, 6, SETTINGS_MAX_CONCURRENT_STREAMS, context.getHttp2MaxConcurrentStreams());
+        writeSetting(payload, 12, SETTINGS_INITIAL_WINDOW_SIZE, context.getHttp2InitialWindowSize());
+        writeFrame(SETTINGS, 0, 0, payload, 0, payload.length);
+        writeWindowUpdate(0, CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+    }
+
+    /*
+     * Sends GOAWAY with the last stream we processed. Best effort.
+     */
+    private void goAway(int errorCode) {
+        goingAway = true;
+        byte[] payload = new byte[8];
+        writeInt(payload, 0, lastStreamId);
+        writeInt(payload, 4, errorCode);
+        try {
+            writeFrame(GOAWAY, 0, 0, payload, 0, payload.length);
+        } catch (IOException e) {
+            logger.debug("Error sending GOAWAY: {}", e.getMessage());
+        }
+    }
+
+    /*
+     * Marks the connection closed and stops every stream still running.
+     */
+    private void close() {
+        closed = true;
+        for (Http2Stream stream : streams.values()) {
+            stream.cancel();
+        }
+        wakeWriters();
+    }
+
+    private synchronized void wakeWriters() {
+        notifyAll();
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length)
+            throws IOException {
+        synchronized (writeLock) {
+            writeFrameLocked(type, flags, streamId, payload, offset, length);
+            out.flush();
+        }
+    }
+
+    private void writeFrameLocked(int type, int flags, int streamId, byte[] payload, int offset, int length)
+            throws IOException {
+        writeHeader[0] = (byte) (length >>> 16);
+        writeHeader[1] = (byte) (length >>> 8);
+        writeHeader[2] = (byte) length;
+        writeHeader[3] = (byte) type;
+        writeHeader[4] = (byte) flags;
+        writeInt(writeHeader, 5, streamId);
+        out.write(writeHeader, 0, 9);
+        out.write(payload, offset, length);
+    }
+
+    /*
+     * Reads the next 9-byte frame header into readHeader.
+     *
+     * @return Payload length, or -1 at a clean end of stream
+     */
+    private int readFrameHeader() throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return -1;
+        }
+        readHeader[0] = (byte) first;
+        readFully(readHeader, 1, 8);
+        return ((readHeader[0] & 0xFF) << 16) | ((readHeader[1] & 0xFF) << 8) | (readHeader[2] & 0xFF);
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n;
+            try {
+                n = in.read(b, off, len);
+            } catch (SocketTimeoutException e) {
+                // Only a timeout between frames means the connection is idle
+                throw new IOException("Timed out inside a frame");
+            }
+            if (n < 0) {
+                throw new EOFException("Connection closed inside a frame");
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    static void writeSetting(byte[] b, int offset, int id, int value) {
+        b[offset] = (byte) (id >>> 8);
+        b[offset + 1] = (byte) id;
+        writeInt(b, offset + 2, value);
+    }
+
+    static int readInt(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16)
+                | ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+    }
+
+    static void writeInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    /*
+     * A connection error: the connection is closed with GOAWAY carrying the code.
+     */
+    static class Http2Exception extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int errorCode;
+
+        Http2Exception(int errorCode, String message) {
+            super(message);
+            this.errorCode = errorCode;
+        }
+
+        int getErrorCode() {
+            return errorCode;
+        }
+    }
+}
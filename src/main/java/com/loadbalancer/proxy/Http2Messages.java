@@ -0,0 +1,166 @@
+package com.loadbalancer.proxy;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.hc.core5.http.message.BasicHeader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/*
+ * Http2Messages translates message heads between HTTP/1.1 and HTTP/2 field
+ * lists. HTTP/1.1 heads are read straight from the raw header block an
+ * HttpInputStream parsed; HTTP/2 fields are HPACK-decoded headers with
+ * lower-case names and pseudo-headers first.
+ */
+final class Http2Messages {
+    // Connection-specific headers that must not cross between HTTP/1.1 and HTTP/2
+    static final Set<String> HOP_BY_HOP = Set.of(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "te");
+
+    private Http2Messages() {
+    }
+
+    /*
+     * Converts an HTTP/1.1 request head into HTTP/2 request fields. The Host
+     * header becomes :authority; the target is sent as :path unchanged.
+     */
+    static List<Header> requestHeaders(HttpHeaderInfo request) {
+        byte[] buf = request.buf;
+        int end = request.offset + request.length;
+        int lineEnd = HttpInputStream.indexOf(buf, request.offset, end, (byte) '\n');
+        int targetStart = HttpInputStream.indexOf(buf, request.offset, lineEnd, (byte) ' ') + 1;
+        int targetEnd = HttpInputStream.indexOf(buf, targetStart, lineEnd, (byte) ' ');
+        String target = new String(buf, targetStart, (targetEnd < 0 ? lineEnd : targetEnd) - targetStart,
+                StandardCharsets.ISO_8859_1).trim();
+
+        List<Header> fields = new ArrayList<>();
+        addFields(request, fields);
+        String authority = null;
+        for (int i = 0; i < fields.size(); i++) {
+            if (fields.get(i).getName().equals("host")) {
+                authority = fields.remove(i).getValue();
+                break;
+            }
+        }
+
+        List<Header> headers = new ArrayList<>(fields.size() + 4);
+        headers.add(new BasicHeader(":method", request.method));
+        headers.add(new BasicHeader(":scheme", "http"));
+        if (authority != null) {
+            headers.add(new BasicHeader(":authority", authority));
+        }
+        headers.add(new BasicHeader(":path", target.isEmpty() ? "/" : target));
+        headers.addAll(fields);
+        return headers;
+    }
+
+    /*
+     * Converts an HTTP/1.1 response head into HTTP/2 response fields.
+     */
+    static List<Header> responseHeaders(HttpHeaderInfo response) {
+        List<Header> headers = new ArrayList<>();
+        headers.add(new BasicHeader(":status", String.valueOf(response.statusCode)));
+        addFields(response, headers);
+        return headers;
+    }
+
+    /*
+     * Builds an HTTP/1.1 response head from HTTP/2 response fields.
+     *
+     * @param headers Response fields including :status
+     * @param chunked Whether to add Transfer-Encoding: chunked
+     * @param close   Whether to add Connection: close
+     */
+    static byte[] responseHead(List<Header> headers, boolean chunked, boolean close) {
+        int status = status(headers);
+        String reason = EnglishReasonPhraseCatalog.INSTANCE.getReason(status, Locale.ROOT);
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason != null ? reason : "").append("\r\n");
+        for (Header header : headers) {
+            if (!header.getName().startsWith(":") && !HOP_BY_HOP.contains(header.getName())) {
+                head.append(header.getName()).append(": ").append(header.getValue()).append("\r\n");
+            }
+        }
+        if (chunked) {
+            head.append("transfer-encoding: chunked\r\n");
+        }
+        if (close) {
+            head.append("connection: close\r\n");
+        }
+        head.append("\r\n");
+        return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /*
+     * Returns the :status of a response, or 0 if it is missing or malformed.
+     */
+    static int status(List<Header> headers) {
+        for (Header header : headers) {
+            if (header.getName().equals(":status")) {
+                try {
+                    return Integer.parseInt(header.getValue());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /*
+     * Returns whether the fields include the named header.
+     */
+    static boolean hasHeader(List<Header> headers, String name) {
+        for (Header header : headers) {
+            if (header.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Returns the fields without connection-specific headers.
+     */
+    static List<Header> withoutHopByHop(List<Header> headers) {
+        List<Header> filtered = new ArrayList<>(headers.size());
+        for (Header header : headers) {
+            if (!HOP_BY_HOP.contains(header.getName())) {
+                filtered.add(header);
+            }
+        }
+        return filtered;
+    }
+
+    /*
+     * Appends the header fields of a raw HTTP/1.1 head: names lower-cased,
+     * connection-specific fields dropped, the start line skipped.
+     */
+    private static void addFields(HttpHeaderInfo info, List<Header> headers) {
+        byte[] buf = info.buf;
+        int end = info.offset + info.length;
+        // Skip the start line
+        int lineStart = HttpInputStream.indexOf(buf, info.offset, end, (byte) '\n') + 1;
+        while (lineStart > 0 && lineStart < end) {
+            int lineEnd = HttpInputStream.indexOf(buf, lineStart, end, (byte) '\n');
+            if (lineEnd < 0) {
+                break;
+            }
+            int colon = HttpInputStream.indexOf(buf, lineStart, lineEnd, (byte) ':');
+            // Folded continuation lines and the final empty line carry no field
+            if (colon > lineStart && buf[lineStart] != ' ' && buf[lineStart] != '\t') {
+                String name = new String(buf, lineStart, colon - lineStart, StandardCharsets.ISO_8859_1)
+                        .trim().toLowerCase(Locale.ROOT);
+                String value = new String(buf, colon + 1, lineEnd - colon - 1, StandardCharsets.ISO_8859_1).trim();
+                if (!HOP_BY_HOP.contains(name)) {
+                    headers.add(new BasicHeader(name, value));
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+}
@@ -0,0 +1,600 @@
+package com.loadbalancer.proxy;
+
+import com.loadbalancer.health.CircuitBreaker;
+import com.loadbalancer.health.OutlierDetector;
+import com.loadbalancer.server.Backend;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/*
+ * Http2Stream proxies one HTTP/2 stream to a backend.
+ * The connection's reader creates it from the request HEADERS and feeds it
+ * DATA; the stream then runs on its own relay thread: it picks a backend with
+ * the load balancing algorithm, translates the request to HTTP/1.1 on a pooled
+ * backend connection and translates the response back into HEADERS and DATA
+ * frames within the client's flow-control window. Streams balanced onto an
+ * h2c backend are relayed as streams on its multiplexed connections instead.
+ * The outcome of each exchange is reported to the outlier detector and the
+ * backend's circuit breaker like ProxyHandler does: the final response
+ * status, or a failure when the backend broke off before its response head.
+ * With a ConcurrencyLimiter each stream holds a slot while it is forwarded,
+ * and streams over the limit are answered with 503 at once.
+ */
+class Http2Stream implements Runnable {
+    // Logger for HTTP/2 stream events
+    private static final Logger logger = LoggerFactory.getLogger(Http2Stream.class);
+
+    // Transfer buffer size (one default-sized DATA frame)
+    private static final int BUFFER_SIZE = 16384;
+
+    // Queue marker for the end of the request body
+    private static final byte[] END_OF_BODY = new byte[0];
+
+    // Connection this stream belongs to
+    private final Http2Connection connection;
+
+    // Stream identifier
+    private final int id;
+
+    // Decoded request header fields, including pseudo-headers
+    private final List<Header> requestHeaders;
+
+    // Whether the request had no body (END_STREAM on its HEADERS)
+    private final boolean requestComplete;
+
+    // Request body chunks from the reader, ended by END_OF_BODY
+    private final BlockingQueue<byte[]> body = new LinkedBlockingQueue<>();
+
+    // Bytes the client may still send on this stream
+    private final AtomicInteger receiveWindow;
+
+    // Bytes we may still send on this stream (guarded by the connection's monitor)
+    long sendWindow;
+
+    // Whether the stream still accepts request DATA
+    private volatile boolean receiving;
+
+    // Set when the stream is reset by either side or the connection closes
+    private volatile boolean cancelled;
+
+    // Backend connection in use, closed on cancel to abort blocked I/O
+    private volatile PooledConnection backendConnection;
+
+    // Stream on an h2c backend in use, cancelled on cancel
+    private volatile Http2ClientStream backendStream;
+
+    // Whether response HEADERS have been sent
+    private boolean responseStarted;
+
+    // Circuit breaker permit of the selected backend, when the exchange started (System.nanoTime), and
+    // whether its outcome was reported
+    private long permit;
+    private long exchangeStart;
+    private boolean outcomeReported;
+
+    // When the final response head arrived (System.nanoTime, 0 before)
+    private long responseHeadAt;
+
+    /**
+     * Constructor creates a stream from its request headers.
+     *
+     * @param connection      Connection this stream belongs to
+     * @param id              Stream identifier
+     * @param requestHeaders  Decoded request header fields
+     * @param requestComplete Whether the HEADERS frame ended the stream
+     * @param sendWindow      Initial send window (peer's initial window size)
+     * @param receiveWindow   Initial receive window (our initial window size)
+     */
+    Http2Stream(Http2Connection connection, int id, List<Header> requestHeaders, boolean requestComplete,
+            int sendWindow, int receiveWindow) {
+        this.connection = connection;
+        this.id = id;
+        this.requestHeaders = requestHeaders;
+        this.requestComplete = requestComplete;
+        this.sendWindow = sendWindow;
+        this.receiveWindow = new AtomicInteger(receiveWindow);
+        this.receiving = !requestComplete;
+    }
+
+    // Stream identifier
+    int getId() { return id; }
+
+    // Whether request DATA is still expected
+    boolean isReceiving() { return receiving && !cancelled; }
+
+    // Whether the stream was reset or its connection closed
+    boolean isCancelled() { return cancelled; }
+
+    /*
+     * Accounts for a received DATA frame against the receive window.
+     *
+     * @return false if the client overran the window
+     */
+    boolean consumeReceiveWindow(int bytes) {
+        return receiveWindow.addAndGet(-bytes) >= 0;
+    }
+
+    // Returns consumed bytes to the receive window
+    void creditReceiveWindow(int bytes) {
+        receiveWindow.addAndGet(bytes);
+    }
+
+    /*
+     * Queues request body data from the reader.
+     *
+     * @param data      Body bytes (null or empty for none)
+     * @param endStream Whether this ends the request body
+     */
+    void receiveData(byte[] data, boolean endStream) {
+        if (data != null && data.length > 0) {
+            body.add(data);
+        }
+        if (endStream) {
+            receiving = false;
+            body.add(END_OF_BODY);
+        }
+    }
+
+    /*
+     * Stops the stream: wakes the worker and aborts any backend I/O.
+     */
+    void cancel() {
+        cancelled = true;
+        receiving = false;
+        body.add(END_OF_BODY);
+        PooledConnection backend = backendConnection;
+        if (backend != null) {
+            try {
+                backend.getSocket().close();
+            } catch (IOException e) {
+                // Already closing
+            }
+        }
+        Http2ClientStream upstream = backendStream;
+        if (upstream != null) {
+            upstream.cancel();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            proxy();
+        } catch (IOException e) {
+            if (!cancelled && !connection.isClosed()) {
+                logger.debug("Stream {} failed: {}", id, e.getMessage());
+                try {
+                    if (responseStarted) {
+                        connection.resetStream(this, Http2Connection.INTERNAL_ERROR);
+                    } else {
+                        sendSimpleResponse(502, "Bad Gateway");
+                    }
+                } catch (IOException ignored) {
+                    // The client connection is gone
+                }
+            }
+        } finally {
+            connection.streamClosed(this);
+        }
+    }
+
+    /*
+     * Translates the request, selects a backend and relays the exchange.
+     */
+    private void proxy() throws IOException {
+        String method = null;
+        String path = null;
+        String authority = null;
+        boolean hasHost = false;
+        boolean hasContentLength = false;
+        List<String> cookies = new ArrayList<>();
+        StringBuilder fields = new StringBuilder(256);
+        for (Header header : requestHeaders) {
+            String name = header.getName();
+            String value = header.getValue();
+            if (name.startsWith(":")) {
+                switch (name) {
+                    case ":method": method = value; break;
+                    case ":path": path = value; break;
+                    case ":authority": authority = value; break;
+                    default: break;
+                }
+            } else if (name.equals("cookie")) {
+                // HTTP/2 may split cookies into crumbs; HTTP/1.1 needs one header
+                cookies.add(value);
+            } else if (!Http2Messages.HOP_BY_HOP.contains(name)) {
+                hasHost |= name.equals("host");
+                hasContentLength |= name.equals("content-length");
+                fields.append(name).append(": ").append(value).append("\r\n");
+            }
+        }
+        if (method == null || path == null) {
+            connection.resetStream(this, Http2Connection.PROTOCOL_ERROR);
+            return;
+        }
+        if (method.equals("CONNECT")) {
+            sendSimpleResponse(501, "Not Implemented");
+            return;
+        }
+
+        // Without Content-Length a streamed body is sent to the backend chunked
+        boolean chunked = !requestComplete && !hasContentLength;
+        StringBuilder head = new StringBuilder(fields.length() + 128);
+        head.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+        if (!hasHost && authority != null) {
+            head.append("host: ").append(authority).append("\r\n");
+        }
+        if (!cookies.isEmpty()) {
+            head.append("cookie: ").append(String.join("; ", cookies)).append("\r\n");
+        }
+        head.append(fields);
+        if (chunked) {
+            head.append("transfer-encoding: chunked\r\n");
+        }
+        head.append("\r\n");
+        byte[] requestHead = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+        // Shed the stream if the backends already have as much as they can take
+        ConcurrencyLimiter limiter = connection.getContext().getConcurrencyLimiter();
+        if (limiter != null && !limiter.tryAcquire()) {
+            sendOverloaded();
+        } else {
+            long admittedAt = System.nanoTime();
+            try {
+                forward(requestHead, chunked, "HEAD".equals(method));
+            } finally {
+                // The sample runs until the response head, like for HTTP/1.1 requests
+                if (limiter != null && responseHeadAt != 0) {
+                    limiter.release(responseHeadAt - admittedAt);
+                } else if (limiter != null) {
+                    limiter.release();
+                }
+            }
+        }
+
+        // The response is complete; tell the client to stop sending an unread body
+        if (isReceiving()) {
+            connection.resetStream(this, Http2Connection.NO_ERROR);
+        }
+    }
+
+    /*
+     * Selects a backend and relays the exchange with it.
+     */
+    private void forward(byte[] requestHead, boolean chunked, boolean head) throws IOException {
+        // Each stream is balanced on its own; a half-open circuit breaker admits only its trial requests
+        List<Backend> healthyBackends = connection.getContext().getBackends().stream()
+                .filter(Backend::isAvailable)
+                .collect(Collectors.toCollection(ArrayList::new));
+        Backend backend = null;
+        while (!healthyBackends.isEmpty()) {
+            backend = connection.getContext().getAlgorithm().selectBackend(healthyBackends, connection.getClientIp());
+            if (backend == null) {
+                break;
+            }
+            permit = backend.tryAcquirePermission();
+            if (permit != CircuitBreaker.REFUSED) {
+                break;
+            }
+            healthyBackends.remove(backend);
+            backend = null;
+        }
+        if (backend == null) {
+            logger.error("No healthy backends available");
+            sendSimpleResponse(503, "Service Unavailable");
+            return;
+        }
+
+        backend.incrementConnections();
+        exchangeStart = System.nanoTime();
+        try {
+            if (backend.getHttp2Pool() != null) {
+                exchangeHttp2(backend, head);
+            } else {
+                exchange(backend, requestHead, chunked, head);
+            }
+            logger.debug("Stream {} routed to {}", id, backend.getAddress());
+        } catch (IOException e) {
+            // Failed before the response head, and not because the client reset the stream
+            if (!responseStarted && !cancelled) {
+                recordFailure(backend);
+            }
+            throw e;
+        } finally {
+            if (!outcomeReported) {
+                backend.releasePermission(permit);
+            }
+            backend.decrementConnections();
+        }
+    }
+
+    /*
+     * Sends the request over a pooled backend connection and relays the response.
+     */
+    private void exchange(Backend backend, byte[] requestHead, boolean chunked, boolean head) throws IOException {
+        BackendConnectionPool pool = backend.getConnectionPool();
+        PooledConnection conn = pool.acquire();
+        backendConnection = conn;
+        boolean reusable = false;
+        try {
+            HttpHeaderInfo response;
+            try {
+                response = sendRequest(conn, requestHead, chunked);
+            } catch (IOException e) {
+                // A pooled connection may have gone stale while idle; resend once if nothing was consumed
+                if (!conn.isReused() || !requestComplete || cancelled) {
+                    throw e;
+                }
+                conn.close();
+                conn = pool.connect();
+                backendConnection = conn;
+                response = sendRequest(conn, requestHead, chunked);
+            }
+
+            // Interim responses are not relayed
+            HttpInputStream backendIn = conn.getInputStream();
+            while (response.isInterim()) {
+                response = readResponse(backendIn);
+            }
+            recordResponse(backend, response.statusCode);
+
+            boolean hasBody = !head && response.statusCode != 204 && response.statusCode != 304;
+            responseStarted = true;
+            connection.writeHeaders(id, Http2Messages.responseHeaders(response), !hasBody);
+            boolean closeDelimited = hasBody && forwardResponseBody(backendIn, response);
+            reusable = !closeDelimited && !response.connectionClose
+                    && (response.http11 || response.connectionKeepAlive);
+        } finally {
+            backendConnection = null;
+            pool.release(conn, reusable && !cancelled);
+        }
+    }
+
+    /*
+     * Relays the stream as a stream on a multiplexed h2c backend connection.
+     * The request fields pass through as decoded, minus connection-specific ones.
+     */
+    private void exchangeHttp2(Backend backend, boolean head) throws IOException {
+        Http2ClientStream upstream = backend.getHttp2Pool().openStream();
+        backendStream = upstream;
+        try {
+            if (cancelled) {
+                throw new IOException("Stream " + id + " was reset");
+            }
+            upstream.start(Http2Messages.withoutHopByHop(requestHeaders), requestComplete);
+            if (!requestComplete) {
+                forwardRequestBody(upstream.getOutputStream(), false);
+                upstream.end();
+            }
+
+            // Interim responses are not relayed
+            List<Header> response = upstream.readHeaders();
+            int status = Http2Messages.status(response);
+            while (status >= 100 && status < 200) {
+                response = upstream.readHeaders();
+                status = Http2Messages.status(response);
+            }
+            recordResponse(backend, status);
+
+            boolean hasBody = !head && status != 204 && status != 304;
+            responseStarted = true;
+            connection.writeHeaders(id, Http2Messages.withoutHopByHop(response), !hasBody);
+            if (hasBody) {
+                BufferPool bufferPool = BufferPool.getDefault();
+                byte[] buffer = bufferPool.acquireArray(BUFFER_SIZE);
+                try {
+                    int bytesRead;
+                    while ((bytesRead = upstream.read(buffer, 0, buffer.length)) != -1) {
+                        sendData(buffer, bytesRead);
+                    }
+                    connection.writeData(id, buffer, 0, 0, true);
+                } finally {
+                    bufferPool.release(buffer);
+                }
+            }
+        } finally {
+            backendStream = null;
+            upstream.close();
+        }
+    }
+
+    /*
+     * Reports a backend's final response status to the outlier detector and
+     * the backend's circuit breaker; 5xx responses count as failures.
+     */
+    private void recordResponse(Backend backend, int statusCode) {
+        outcomeReported = true;
+        responseHeadAt = System.nanoTime();
+        OutlierDetector detector = connection.getContext().getOutlierDetector();
+        if (detector != null) {
+            detector.recordResponse(backend, statusCode);
+        }
+        CircuitBreaker breaker = backend.getCircuitBreaker();
+        if (breaker != null) {
+            breaker.record(permit, statusCode >= 500 && statusCode < 600, responseHeadAt - exchangeStart);
+        }
+    }
+
+    /*
+     * Reports a backend exchange that failed without a response to the
+     * outlier detector and the backend's circuit breaker.
+     */
+    private void recordFailure(Backend backend) {
+        outcomeReported = true;
+        OutlierDetector detector = connection.getContext().getOutlierDetector();
+        if (detector != null) {
+            detector.recordFailure(backend);
+        }
+        CircuitBreaker breaker = backend.getCircuitBreaker();
+        if (breaker != null) {
+            breaker.record(permit, true, System.nanoTime() - exchangeStart);
+        }
+    }
+
+    /*
+     * Writes the request head and body, then reads the first response head.
+     */
+    private HttpHeaderInfo sendRequest(PooledConnection conn, byte[] requestHead, boolean chunked)
+            throws IOException {
+        OutputStream backendOut = conn.getOutputStream();
+        backendOut.write(requestHead);
+        if (!requestComplete) {
+            forwardRequestBody(backendOut, chunked);
+        }
+        backendOut.flush();
+        return readResponse(conn.getInputStream());
+    }
+
+    /*
+     * Forwards queued DATA to the backend, crediting the window as it goes.
+     */
+    private void forwardRequestBody(OutputStream backendOut, boolean chunked) throws IOException {
+        while (true) {
+            byte[] data;
+            try {
+                data = body.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for request body");
+            }
+            if (cancelled) {
+                throw new IOException("Stream " + id + " was reset");
+            }
+            if (data == END_OF_BODY) {
+                break;
+            }
+            if (chunked) {
+                backendOut.write((Integer.toHexString(data.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                backendOut.write(data);
+                backendOut.write('\r');
+                backendOut.write('\n');
+            } else {
+                backendOut.write(data);
+            }
+            connection.releaseReceiveWindow(this, data.length);
+        }
+        if (chunked) {
+            backendOut.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /*
+     * Relays the response body as DATA frames and ends the stream.
+     *
+     * @return true if the body was delimited by the backend closing the connection
+     */
+    private boolean forwardResponseBody(HttpInputStream backendIn, HttpHeaderInfo response) throws IOException {
+        BufferPool bufferPool = BufferPool.getDefault();
+        byte[] buffer = bufferPool.acquireArray(BUFFER_SIZE);
+        boolean closeDelimited = false;
+        try {
+            if (response.isChunked) {
+                // De-chunk: HTTP/2 frames the body itself; trailers are dropped
+                OutputStream discard = OutputStream.nullOutputStream();
+                while (true) {
+                    long chunkSize = backendIn.forwardChunkSizeLine(discard);
+                    if (chunkSize < 0) {
+                        throw new IOException("Missing or invalid chunk size");
+                    }
+                    if (chunkSize == 0) {
+                        while (!backendIn.forwardEmptyLine(discard)) {
+                            // Skip trailer fields
+                        }
+                        break;
+                    }
+                    sendBody(backendIn, buffer, chunkSize);
+                    backendIn.forwardEmptyLine(discard);
+                }
+            } else if (response.contentLength >= 0) {
+                sendBody(backendIn, buffer, response.contentLength);
+            } else {
+                int bytesRead;
+                while ((bytesRead = backendIn.read(buffer)) != -1) {
+                    sendData(buffer, bytesRead);
+                }
+                closeDelimited = true;
+            }
+            connection.writeData(id, buffer, 0, 0, true);
+            return closeDelimited;
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /*
+     * Relays exactly length body bytes.
+     */
+    private void sendBody(HttpInputStream input, byte[] buffer, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            int bytesRead = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (bytesRead == -1) {
+                throw new EOFException("Backend closed connection before end of body");
+            }
+            sendData(buffer, bytesRead);
+            remaining -= bytesRead;
+        }
+    }
+
+    /*
+     * Sends bytes as DATA frames, waiting for flow-control window as needed.
+     */
+    private void sendData(byte[] data, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int allowed = connection.reserveSendWindow(this, length - offset);
+            connection.writeData(id, data, offset, allowed, false);
+            offset += allowed;
+        }
+    }
+
+    /*
+     * Answers the stream directly with a small plain-text response.
+     */
+    private void sendSimpleResponse(int status, String message) throws IOException {
+        byte[] content = message.getBytes(StandardCharsets.US_ASCII);
+        List<Header> headers = new ArrayList<>(3);
+        headers.add(new BasicHeader(":status", String.valueOf(status)));
+        headers.add(new BasicHeader("content-type", "text/plain"));
+        headers.add(new BasicHeader("content-length", String.valueOf(content.length)));
+        responseStarted = true;
+        connection.writeHeaders(id, headers, false);
+        sendData(content, content.length);
+        connection.writeData(id, content, 0, 0, true);
+    }
+
+    /*
+     * Answers a stream the concurrency limit has no room for with an empty
+     * 503 asking the client to retry shortly.
+     */
+    private void sendOverloaded() throws IOException {
+        List<Header> headers = new ArrayList<>(3);
+        headers.add(new BasicHeader(":status", "503"));
+        headers.add(new BasicHeader("retry-after", "1"));
+        headers.add(new BasicHeader("content-length", "0"));
+        responseStarted = true;
+        connection.writeHeaders(id, headers, true);
+    }
+
+    private static HttpHeaderInfo readResponse(HttpInputStream backendIn) throws IOException {
+        HttpHeaderInfo response = new HttpHeaderInfo();
+        if (!backendIn.readHeaders(response)) {
+            throw new EOFException("Backend closed connection without a response");
+        }
+        return response;
+    }
+}
@@ -0,0 +1,41 @@
+package com.loadbalancer.proxy;
+
+/*
+ * Holds the HTTP header information extracted while parsing a message head.
+ * The raw header block is not copied: it is a view into the read buffer of the
+ * HttpInputStream that parsed it, and stays valid until the next read from
+ * that stream. Only the values needed for framing and connection management
+ * are extracted, and they are matched on bytes without creating Strings.
+ */
+class HttpHeaderInfo {
+    // Buffer holding the raw header block (owned by the HttpInputStream)
+    byte[] buf;
+    // Offset of the header block in buf
+    int offset;
+    // Length of the header block including the terminating empty line
+    int length;
+    // Request method (null for responses)
+    String method;
+    // Response status code (0 for requests)
+    int statusCode;
+    // Whether the message uses HTTP/1.1 (false for HTTP/1.0)
+    boolean http11;
+    // Content-Length value (-1 if not specified)
+    long contentLength = -1;
+    // Whether Transfer-Encoding: chunked is set
+    boolean isChunked = false;
+    // Whether the Connection header contains "close"
+    boolean connectionClose;
+    // Whether the Connection header contains "keep-alive"
+    boolean connectionKeepAlive;
+
+    // Whether a request body follows the headers
+    boolean hasBody() {
+        return isChunked || contentLength > 0;
+    }
+
+    // Interim responses (100 Continue etc.) are followed by the final response
+    boolean isInterim() {
+        return statusCode >= 100 && statusCode < 200 && statusCode != 101;
+    }
+}
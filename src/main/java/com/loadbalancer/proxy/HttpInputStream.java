@@ -0,0 +1,469 @@
+package com.loadbalancer.proxy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * HttpInputStream is a buffered input stream that understands HTTP framing.
+ * Header blocks and chunk-size lines are located by scanning the read buffer
+ * for line feeds, parsed in place on bytes, and forwarded with a single write
+ * straight from the buffer. Body bytes are served from the buffer first and
+ * then read from the socket.
+ *
+ * One instance is kept per connection so bytes read ahead (for example the
+ * start of the next pipelined request) are never lost. The read buffer is
+ * borrowed from the shared BufferPool and must be returned with release()
+ * when the connection is done.
+ */
+class HttpInputStream extends InputStream {
+    // Largest header block accepted before the message is rejected
+    static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    // Most Content-Length digits accepted; 18 digits always fit in a long
+    private static final int MAX_CONTENT_LENGTH_DIGITS = 18;
+
+    // Most chunk size digits accepted; 15 hex digits always fit in a long
+    private static final int MAX_CHUNK_SIZE_DIGITS = 15;
+
+    // Lower-case header names matched during parsing
+    private static final byte[] CONTENT_LENGTH = bytes("content-length");
+    private static final byte[] TRANSFER_ENCODING = bytes("transfer-encoding");
+    private static final byte[] CONNECTION = bytes("connection");
+
+    // Lower-case tokens matched inside header values
+    private static final byte[] CHUNKED = bytes("chunked");
+    private static final byte[] CLOSE = bytes("close");
+    private static final byte[] KEEP_ALIVE = bytes("keep-alive");
+    private static final byte[] HTTP_PREFIX = bytes("HTTP/");
+    private static final byte[] HTTP_1_0 = bytes("HTTP/1.0");
+
+    // Common methods, so the method String is a shared constant rather than a new object
+    private static final String[] KNOWN_METHODS = {
+            "GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH", "CONNECT", "TRACE" };
+
+    // Underlying socket stream
+    private final InputStream in;
+
+    // Pool the read buffer is borrowed from
+    private final BufferPool bufferPool;
+
+    // Read buffer (grows up to MAX_HEADER_SIZE for very large header blocks)
+    private byte[] buf;
+
+    // Next unread byte in buf
+    private int pos;
+
+    // End of valid data in buf
+    private int limit;
+
+    // Start of the line most recently forwarded by forwardLine()
+    private int lastLineStart;
+
+    /**
+     * Constructor wraps a raw input stream.
+     *
+     * @param in         Underlying stream
+     * @param bufferSize Initial buffer size
+     */
+    HttpInputStream(InputStream in, int bufferSize) {
+        this.in = in;
+        this.bufferPool = BufferPool.getDefault();
+        this.buf = bufferPool.acquireArray(bufferSize);
+    }
+
+    /*
+     * Returns the read buffer to the pool. The stream (and any header views
+     * into its buffer) must not be used afterwards. Safe to call twice.
+     */
+    void release() {
+        if (buf != null) {
+            bufferPool.release(buf);
+            buf = null;
+        }
+    }
+
+    /*
+     * Reads the next header block (start line and headers) and parses it into info.
+     * Empty lines before the start line are skipped. On return the stream is
+     * positioned at the first body byte.
+     *
+     * @return false if the stream ended cleanly before the block started
+     * @throws ProtocolException If the block frames its body ambiguously (bad Content-Length)
+     * @throws IOException If the stream ends inside the block or the block is too large
+     */
+    boolean readHeaders(HttpHeaderInfo info) throws IOException {
+        // Find the end of the block: a line that is empty apart from an optional CR
+        int scanned = 0;
+        int lineStart = 0;
+        int blockEnd;
+        while (true) {
+            int lf = indexOf(buf, pos + scanned, limit, (byte) '\n');
+            if (lf < 0) {
+                // Offsets are relative to pos, so they survive fill() compacting the buffer
+                scanned = limit - pos;
+                if (!fill()) {
+                    if (limit == pos) {
+                        return false;
+                    }
+                    throw new EOFException("Connection closed in the middle of headers");
+                }
+                continue;
+            }
+            int lineLength = lf - (pos + lineStart);
+            boolean emptyLine = lineLength == 0 || (lineLength == 1 && buf[lf - 1] == '\r');
+            if (emptyLine && lineStart == 0) {
+                // Tolerate empty lines before the start line
+                pos = lf + 1;
+                scanned = 0;
+                continue;
+            }
+            if (emptyLine) {
+                blockEnd = lf + 1;
+                break;
+            }
+            lineStart = lf + 1 - pos;
+            scanned = lineStart;
+        }
+
+        info.buf = buf;
+        info.offset = pos;
+        info.length = blockEnd - pos;
+        parseBlock(info, pos, blockEnd);
+        pos = blockEnd;
+        return true;
+    }
+
+    /*
+     * Forwards one chunk-size line and returns the chunk size it declares.
+     *
+     * @return Chunk size, or -1 if the line is missing or invalid
+     */
+    long forwardChunkSizeLine(OutputStream output) throws IOException {
+        int lf = forwardLine(output);
+        if (lf < 0) {
+            return -1;
+        }
+        long size = 0;
+        int digits = 0;
+        for (int i = lf - lineLengthOf(lf); i < lf; i++) {
+            int digit = Character.digit(buf[i], 16);
+            if (digit < 0) {
+                break; // Extensions after ';' or trailing whitespace/CR
+            }
+            if (++digits > MAX_CHUNK_SIZE_DIGITS) {
+                return -1; // Would overflow
+            }
+            size = (size << 4) | digit;
+        }
+        return digits == 0 ? -1 : size;
+    }
+
+    /*
+     * Forwards one line (including its line ending) with a single write.
+     *
+     * @return true if the line was empty
+     * @throws EOFException If the stream ends before the line does
+     */
+    boolean forwardEmptyLine(OutputStream output) throws IOException {
+        int lf = forwardLine(output);
+        if (lf < 0) {
+            throw new EOFException("Connection closed in the middle of a chunked body");
+        }
+        int length = lineLengthOf(lf);
+        return length == 0 || (length == 1 && buf[lf - 1] == '\r');
+    }
+
+    /*
+     * Locates the next line, writes it out and consumes it.
+     *
+     * @return Index of the line feed in buf, or -1 if the stream ended first
+     */
+    private int forwardLine(OutputStream output) throws IOException {
+        int scanned = 0;
+        int lf;
+        while ((lf = indexOf(buf, pos + scanned, limit, (byte) '\n')) < 0) {
+            scanned = limit - pos;
+            if (!fill()) {
+                if (limit > pos) {
+                    output.write(buf, pos, limit - pos);
+                    pos = limit;
+                }
+                return -1;
+            }
+        }
+        output.write(buf, pos, lf + 1 - pos);
+        lastLineStart = pos;
+        pos = lf + 1;
+        return lf;
+    }
+
+    /*
+     * Length of the line ending at lf, excluding the line feed.
+     */
+    private int lineLengthOf(int lf) {
+        return lf - lastLineStart;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos == limit) {
+            // Large reads bypass the buffer once it is drained
+            if (len >= buf.length) {
+                return in.read(b, off, len);
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    // Number of bytes already read from the socket but not yet consumed
+    int buffered() {
+        return limit - pos;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (limit - pos) + in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /*
+     * Reads more bytes from the underlying stream.
+     * Drained buffers are reset, partially consumed ones are compacted, and a
+     * full buffer holding a single unfinished header block is grown.
+     *
+     * @return false at end of stream
+     */
+    private boolean fill() throws IOException {
+        if (pos == limit) {
+            pos = 0;
+            limit = 0;
+        } else if (limit == buf.length) {
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                pos = 0;
+            } else if (buf.length < MAX_HEADER_SIZE) {
+                byte[] larger = bufferPool.acquireArray(Math.min(buf.length * 2, MAX_HEADER_SIZE));
+                System.arraycopy(buf, 0, larger, 0, limit);
+                bufferPool.release(buf);
+                buf = larger;
+            } else {
+                throw new IOException("Header block exceeds " + MAX_HEADER_SIZE + " bytes");
+            }
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n == -1) {
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    /*
+     * Parses the start line and the framing headers of a complete header block.
+     */
+    private void parseBlock(HttpHeaderInfo info, int start, int end) throws ProtocolException {
+        int lineEnd = indexOf(buf, start, end, (byte) '\n');
+        parseStartLine(info, start, trimEnd(start, lineEnd));
+
+        int lineStart = lineEnd + 1;
+        while (lineStart < end) {
+            lineEnd = indexOf(buf, lineStart, end, (byte) '\n');
+            int contentEnd = trimEnd(lineStart, lineEnd);
+            int colon = indexOf(buf, lineStart, contentEnd, (byte) ':');
+            if (colon > 0) {
+                int valueStart = colon + 1;
+                while (valueStart < contentEnd && (buf[valueStart] == ' ' || buf[valueStart] == '\t')) {
+                    valueStart++;
+                }
+                parseHeader(info, lineStart, colon, valueStart, contentEnd);
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    /*
+     * Parses a request line ("GET / HTTP/1.1") or status line ("HTTP/1.1 200 OK").
+     */
+    private void parseStartLine(HttpHeaderInfo info, int start, int end) {
+        int firstSpace = indexOf(buf, start, end, (byte) ' ');
+        if (startsWith(buf, start, end, HTTP_PREFIX)) {
+            // Status line: version, status code, reason
+            info.http11 = !startsWith(buf, start, end, HTTP_1_0);
+            int status = 0;
+            for (int i = firstSpace + 1; firstSpace > 0 && i < end && i < firstSpace + 4; i++) {
+                int digit = buf[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                status = status * 10 + digit;
+            }
+            info.statusCode = status;
+        } else {
+            // Request line: method, target, version
+            int methodEnd = firstSpace > 0 ? firstSpace : end;
+            info.method = methodName(start, methodEnd);
+            int lastSpace = lastIndexOf(buf, start, end, (byte) ' ');
+            info.http11 = lastSpace > firstSpace && !startsWith(buf, lastSpace + 1, end, HTTP_1_0);
+        }
+    }
+
+    /*
+     * Extracts framing information from a single header line.
+     *
+     * @throws ProtocolException If Content-Length is not a number of at most
+     *         MAX_CONTENT_LENGTH_DIGITS digits; guessing the framing would let
+     *         body bytes be read as the next message
+     */
+    private void parseHeader(HttpHeaderInfo info, int nameStart, int nameEnd, int valueStart, int valueEnd)
+            throws ProtocolException {
+        int nameLength = nameEnd - nameStart;
+        if (nameLength == CONTENT_LENGTH.length && equalsIgnoreCase(buf, nameStart, CONTENT_LENGTH)) {
+            int digits = valueEnd - valueStart;
+            if (digits == 0 || digits > MAX_CONTENT_LENGTH_DIGITS) {
+                throw new ProtocolException("Invalid Content-Length");
+            }
+            long length = 0;
+            for (int i = valueStart; i < valueEnd; i++) {
+                int digit = buf[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new ProtocolException("Invalid Content-Length");
+                }
+                length = length * 10 + digit;
+            }
+            info.contentLength = length;
+        } else if (nameLength == TRANSFER_ENCODING.length && equalsIgnoreCase(buf, nameStart, TRANSFER_ENCODING)) {
+            info.isChunked |= containsIgnoreCase(buf, valueStart, valueEnd, CHUNKED);
+        } else if (nameLength == CONNECTION.length && equalsIgnoreCase(buf, nameStart, CONNECTION)) {
+            info.connectionClose |= containsIgnoreCase(buf, valueStart, valueEnd, CLOSE);
+            info.connectionKeepAlive |= containsIgnoreCase(buf, valueStart, valueEnd, KEEP_ALIVE);
+        }
+    }
+
+    /*
+     * Returns a shared constant for well-known methods, a new String otherwise.
+     */
+    private String methodName(int start, int end) {
+        for (String known : KNOWN_METHODS) {
+            if (known.length() == end - start) {
+                boolean match = true;
+                for (int i = 0; i < known.length() && match; i++) {
+                    match = buf[start + i] == known.charAt(i);
+                }
+                if (match) {
+                    return known;
+                }
+            }
+        }
+        return new String(buf, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /*
+     * Excludes a trailing CR (and any whitespace) before the line feed.
+     */
+    private int trimEnd(int start, int lineEnd) {
+        int end = lineEnd;
+        while (end > start && buf[end - 1] <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    /*
+     * Index of the first occurrence of value in buf[from, to), or -1.
+     */
+    static int indexOf(byte[] buf, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Index of the last occurrence of value in buf[from, to), or -1.
+     */
+    static int lastIndexOf(byte[] buf, int from, int to, byte value) {
+        for (int i = to - 1; i >= from; i--) {
+            if (buf[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Compares buf[offset, offset + lower.length) against a lower-case ASCII name.
+     */
+    static boolean equalsIgnoreCase(byte[] buf, int offset, byte[] lower) {
+        for (int i = 0; i < lower.length; i++) {
+            if (toLower(buf[offset + i]) != lower[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Searches buf[from, to) for a lower-case ASCII token, ignoring case.
+     */
+    static boolean containsIgnoreCase(byte[] buf, int from, int to, byte[] lower) {
+        for (int i = from; i <= to - lower.length; i++) {
+            if (equalsIgnoreCase(buf, i, lower)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Checks whether buf[from, to) starts with the given bytes (case-sensitive).
+     */
+    private static boolean startsWith(byte[] buf, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ASCII lower-casing of a single byte
+    private static byte toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    // ASCII bytes of a constant
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,532 @@
+package com.loadbalancer.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/*
+ * HttpParser is a resumable, incremental HTTP/1.x message parser.
+ * It accepts bytes in arbitrary slices (for example whatever a non-blocking
+ * channel read returned) and reports what it finds through a Handler, so it
+ * never needs a blocking InputStream and never re-reads bytes.
+ *
+ * The parser is a state machine:
+ * 1. START_LINE     - request line or status line
+ * 2. HEADER         - header lines until the empty line
+ * 3. BODY_FIXED     - Content-Length bytes of body
+ * 4. CHUNK_SIZE     - hex size line of the next chunk
+ * 5. CHUNK_DATA     - chunk payload
+ * 6. CHUNK_DATA_END - CRLF after a chunk payload
+ * 7. TRAILER        - trailer lines after the last chunk
+ * 8. BODY_UNTIL_EOF - response body delimited by connection close
+ *
+ * After a message completes the parser returns to START_LINE, so one parser
+ * handles every message of a persistent or pipelined connection.
+ *
+ * Buffers passed to the Handler are read-only views, valid only for the
+ * duration of the callback. Body data is a view of the caller's input and is
+ * never copied; lines are views of the input too unless they were split across
+ * slices, in which case the pieces are joined in a small internal line buffer.
+ */
+public class HttpParser {
+
+    /*
+     * Receives parse events. All buffers are views valid only during the call.
+     */
+    public interface Handler {
+        // Request line ("GET / HTTP/1.1") or status line ("HTTP/1.1 200 OK"), without CRLF
+        void onStartLine(ByteBuffer line);
+
+        // One header with surrounding whitespace removed from the value
+        void onHeader(ByteBuffer name, ByteBuffer value);
+
+        // End of the header block; body events (if any) follow
+        void onHeadersComplete();
+
+        // A piece of body payload (chunk framing already removed)
+        void onBody(ByteBuffer data);
+
+        // One trailer field after the last chunk of a chunked body
+        default void onTrailer(ByteBuffer name, ByteBuffer value) {}
+
+        // End of the message, including any body and trailers
+        void onMessageComplete();
+    }
+
+    // Parser states
+    private enum State {
+        START_LINE, HEADER, BODY_FIXED, CHUNK_SIZE, CHUNK_DATA, CHUNK_DATA_END, TRAILER, BODY_UNTIL_EOF
+    }
+
+    // Default limit for a single start, header, chunk-size or trailer line
+    public static final int DEFAULT_MAX_LINE_LENGTH = 16 * 1024;
+
+    // Lower-case header names that affect framing
+    private static final byte[] CONTENT_LENGTH = ascii("content-length");
+    private static final byte[] TRANSFER_ENCODING = ascii("transfer-encoding");
+    private static final byte[] CHUNKED = ascii("chunked");
+    private static final byte[] HTTP_PREFIX = ascii("HTTP/");
+    private static final String HEAD = "HEAD";
+
+    // Whether this parser reads requests (true) or responses (false)
+    private final boolean requests;
+
+    // Receiver of parse events
+    private final Handler handler;
+
+    // Maximum length of a single line
+    private final int maxLineLength;
+
+    // Partial line carried over from a previous slice (fill mode)
+    private ByteBuffer lineBuffer;
+
+    // Current state
+    private State state;
+
+    // Framing of the current message
+    private long contentLength;
+    private boolean chunked;
+    private int statusCode;
+
+    // Bytes left in the current fixed-length body or chunk
+    private long remaining;
+
+    // Methods of the requests whose responses are still to come, oldest first (response parsers only)
+    private final Queue<String> pendingMethods = new ArrayDeque<>();
+
+    /**
+     * Constructor creates a parser with the default line limit.
+     *
+     * @param requests true to parse requests, false to parse responses
+     * @param handler  Receiver of parse events
+     */
+    public HttpParser(boolean requests, Handler handler) {
+        this(requests, handler, DEFAULT_MAX_LINE_LENGTH);
+    }
+
+    /**
+     * Constructor creates a parser with an explicit line limit.
+     *
+     * @param requests      true to parse requests, false to parse responses
+     * @param handler       Receiver of parse events
+     * @param maxLineLength Maximum length of a single line in bytes
+     */
+    public HttpParser(boolean requests, Handler handler, int maxLineLength) {
+        this.requests = requests;
+        this.handler = handler;
+        this.maxLineLength = maxLineLength;
+        this.lineBuffer = ByteBuffer.allocate(256);
+        reset();
+    }
+
+    /*
+     * Tells a response parser that a request was sent on the connection.
+     * Responses arrive in request order, so each final response answers the
+     * oldest pending request; a response to HEAD carries no body even if it
+     * has a Content-Length header. Responses without a pending request are
+     * parsed as answers to a request with a body-bearing method.
+     *
+     * @param method Method of the request, e.g. "HEAD"
+     */
+    public void expectResponse(String method) {
+        pendingMethods.add(method);
+    }
+
+    /*
+     * Consumes all bytes of the given slice, emitting events as message parts
+     * complete. Incomplete lines are kept until the next call.
+     *
+     * @param input Bytes to parse; its position is advanced to its limit
+     * @throws IOException If the bytes are not a valid HTTP/1.x message
+     */
+    public void parse(ByteBuffer input) throws IOException {
+        while (input.hasRemaining()) {
+            switch (state) {
+                case BODY_FIXED, CHUNK_DATA -> {
+                    int n = (int) Math.min(remaining, input.remaining());
+                    handler.onBody(take(input, n));
+                    remaining -= n;
+                    if (remaining == 0) {
+                        if (state == State.BODY_FIXED) {
+                            completeMessage();
+                        } else {
+                            state = State.CHUNK_DATA_END;
+                        }
+                    }
+                }
+                case BODY_UNTIL_EOF -> handler.onBody(take(input, input.remaining()));
+                default -> {
+                    ByteBuffer line = nextLine(input);
+                    if (line == null) {
+                        return; // Need more bytes to finish the line
+                    }
+                    try {
+                        onLine(line);
+                    } finally {
+                        lineBuffer.clear();
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Signals end of stream.
+     * Completes a response delimited by connection close; anything else left
+     * unfinished is an error.
+     *
+     * @throws IOException If the stream ended in the middle of a message
+     */
+    public void finish() throws IOException {
+        if (state == State.BODY_UNTIL_EOF) {
+            completeMessage();
+        } else if (state != State.START_LINE || lineBuffer.position() > 0) {
+            throw new IOException("Connection closed in the middle of a message (" + state + ")");
+        }
+    }
+
+    /*
+     * Returns true if the parser is between messages.
+     */
+    public boolean isIdle() {
+        return state == State.START_LINE && lineBuffer.position() == 0;
+    }
+
+    /*
+     * Discards any partial message and returns to the initial state.
+     */
+    public void reset() {
+        state = State.START_LINE;
+        lineBuffer.clear();
+        resetMessage();
+        pendingMethods.clear();
+    }
+
+    /*
+     * Returns the next complete line (without CR LF) or null if the slice ends first.
+     * Lines entirely inside the slice are returned as views of it; split lines
+     * are joined in the line buffer.
+     */
+    private ByteBuffer nextLine(ByteBuffer input) throws IOException {
+        int start = input.position();
+        int lf = -1;
+        for (int i = start; i < input.limit(); i++) {
+            if (input.get(i) == '\n') {
+                lf = i;
+                break;
+            }
+        }
+
+        if (lf < 0) {
+            appendToLineBuffer(input, input.remaining());
+            return null;
+        }
+
+        ByteBuffer line;
+        if (lineBuffer.position() == 0) {
+            if (lf - start > maxLineLength) {
+                throw new IOException("Line exceeds " + maxLineLength + " bytes");
+            }
+            line = take(input, lf - start);
+        } else {
+            appendToLineBuffer(input, lf - start);
+            line = lineBuffer.duplicate().flip();
+        }
+        input.position(lf + 1);
+
+        // Drop the CR of a CRLF line ending
+        if (line.hasRemaining() && line.get(line.limit() - 1) == '\r') {
+            line.limit(line.limit() - 1);
+        }
+        return line.asReadOnlyBuffer();
+    }
+
+    /*
+     * Copies a partial line into the line buffer, growing it up to the limit.
+     */
+    private void appendToLineBuffer(ByteBuffer input, int length) throws IOException {
+        if (lineBuffer.position() + length > maxLineLength) {
+            throw new IOException("Line exceeds " + maxLineLength + " bytes");
+        }
+        if (lineBuffer.remaining() < length) {
+            int capacity = Math.min(maxLineLength,
+                    Math.max(lineBuffer.capacity() * 2, lineBuffer.position() + length));
+            ByteBuffer larger = ByteBuffer.allocate(capacity);
+            lineBuffer.flip();
+            larger.put(lineBuffer);
+            lineBuffer = larger;
+        }
+        ByteBuffer part = input.duplicate();
+        part.limit(input.position() + length);
+        lineBuffer.put(part);
+        input.position(input.position() + length);
+    }
+
+    /*
+     * Dispatches a complete line according to the current state.
+     */
+    private void onLine(ByteBuffer line) throws IOException {
+        switch (state) {
+            case START_LINE -> {
+                if (!line.hasRemaining()) {
+                    return; // Tolerate empty lines between messages
+                }
+                resetMessage();
+                if (!requests) {
+                    parseStatusLine(line);
+                }
+                handler.onStartLine(line);
+                state = State.HEADER;
+            }
+            case HEADER -> {
+                if (!line.hasRemaining()) {
+                    onHeadersComplete();
+                } else {
+                    parseField(line, false);
+                }
+            }
+            case CHUNK_SIZE -> {
+                long size = parseChunkSize(line);
+                if (size == 0) {
+                    state = State.TRAILER;
+                } else {
+                    remaining = size;
+                    state = State.CHUNK_DATA;
+                }
+            }
+            case CHUNK_DATA_END -> {
+                if (line.hasRemaining()) {
+                    throw new IOException("Missing CRLF after chunk data");
+                }
+                state = State.CHUNK_SIZE;
+            }
+            case TRAILER -> {
+                if (!line.hasRemaining()) {
+                    completeMessage();
+                } else {
+                    parseField(line, true);
+                }
+            }
+            default -> throw new IllegalStateException("No line expected in state " + state);
+        }
+    }
+
+    /*
+     * Decides how the body is framed once all headers are known.
+     */
+    private void onHeadersComplete() {
+        handler.onHeadersComplete();
+
+        boolean head = false;
+        if (!requests) {
+            // Interim 1xx responses are followed by the real response, which
+            // still answers the same (possibly HEAD) request
+            boolean interim = statusCode / 100 == 1 && statusCode != 101;
+            String method = interim ? pendingMethods.peek() : pendingMethods.poll();
+            head = HEAD.equals(method);
+        }
+        boolean bodyless = !requests
+                && (head || statusCode / 100 == 1 || statusCode == 204 || statusCode == 304);
+        if (bodyless) {
+            completeMessage();
+        } else if (chunked) {
+            state = State.CHUNK_SIZE;
+        } else if (contentLength > 0) {
+            remaining = contentLength;
+            state = State.BODY_FIXED;
+        } else if (contentLength == 0 || requests) {
+            // Requests without framing headers have no body
+            completeMessage();
+        } else {
+            // Response without framing headers: body runs until the connection closes
+            state = State.BODY_UNTIL_EOF;
+        }
+    }
+
+    /*
+     * Emits the end of the message and prepares for the next one.
+     */
+    private void completeMessage() {
+        state = State.START_LINE;
+        handler.onMessageComplete();
+    }
+
+    /*
+     * Clears the framing of the previous message.
+     */
+    private void resetMessage() {
+        contentLength = -1;
+        chunked = false;
+        statusCode = 0;
+        remaining = 0;
+    }
+
+    /*
+     * Splits a "name: value" line, records framing headers and emits it.
+     */
+    private void parseField(ByteBuffer line, boolean trailer) throws IOException {
+        int start = line.position();
+        int colon = -1;
+        for (int i = start; i < line.limit(); i++) {
+            if (line.get(i) == ':') {
+                colon = i;
+                break;
+            }
+        }
+        if (colon <= start) {
+            throw new IOException("Malformed header line");
+        }
+
+        ByteBuffer name = line.duplicate();
+        name.limit(colon);
+
+        int valueStart = colon + 1;
+        int valueEnd = line.limit();
+        while (valueStart < valueEnd && isWhitespace(line.get(valueStart))) {
+            valueStart++;
+        }
+        while (valueEnd > valueStart && isWhitespace(line.get(valueEnd - 1))) {
+            valueEnd--;
+        }
+        ByteBuffer value = line.duplicate();
+        value.limit(valueEnd).position(valueStart);
+
+        if (trailer) {
+            handler.onTrailer(name, value);
+            return;
+        }
+        if (equalsIgnoreCase(name, CONTENT_LENGTH)) {
+            contentLength = parseDecimal(value);
+        } else if (equalsIgnoreCase(name, TRANSFER_ENCODING)) {
+            chunked |= containsIgnoreCase(value, CHUNKED);
+        }
+        handler.onHeader(name, value);
+    }
+
+    /*
+     * Reads the status code from "HTTP/1.1 200 OK".
+     */
+    private void parseStatusLine(ByteBuffer line) throws IOException {
+        int start = line.position();
+        if (line.remaining() < 12 || !startsWith(line, HTTP_PREFIX)) {
+            throw new IOException("Malformed status line");
+        }
+        int space = start;
+        while (space < line.limit() && line.get(space) != ' ') {
+            space++;
+        }
+        int code = 0;
+        for (int i = space + 1; i < space + 4; i++) {
+            int digit = i < line.limit() ? line.get(i) - '0' : -1;
+            if (digit < 0 || digit > 9) {
+                throw new IOException("Malformed status code");
+            }
+            code = code * 10 + digit;
+        }
+        statusCode = code;
+    }
+
+    /*
+     * Parses the hex size of a chunk, ignoring extensions after ';'.
+     */
+    private static long parseChunkSize(ByteBuffer line) throws IOException {
+        long size = 0;
+        int digits = 0;
+        for (int i = line.position(); i < line.limit(); i++) {
+            int digit = Character.digit(line.get(i), 16);
+            if (digit < 0) {
+                break;
+            }
+            if (++digits > 15) {
+                throw new IOException("Chunk size too large");
+            }
+            size = (size << 4) | digit;
+        }
+        if (digits == 0) {
+            throw new IOException("Malformed chunk size");
+        }
+        return size;
+    }
+
+    /*
+     * Parses a non-negative decimal header value.
+     */
+    private static long parseDecimal(ByteBuffer value) throws IOException {
+        if (!value.hasRemaining() || value.remaining() > 18) {
+            throw new IOException("Malformed Content-Length");
+        }
+        long result = 0;
+        for (int i = value.position(); i < value.limit(); i++) {
+            int digit = value.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IOException("Malformed Content-Length");
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    /*
+     * Returns a view of the next length bytes of input and advances past them.
+     */
+    private static ByteBuffer take(ByteBuffer input, int length) {
+        ByteBuffer view = input.duplicate();
+        view.limit(input.position() + length);
+        input.position(input.position() + length);
+        return view.asReadOnlyBuffer();
+    }
+
+    /*
+     * Compares a buffer's remaining bytes against a lower-case ASCII name.
+     */
+    static boolean equalsIgnoreCase(ByteBuffer buffer, byte[] lower) {
+        if (buffer.remaining() != lower.length) {
+            return false;
+        }
+        return regionMatches(buffer, buffer.position(), lower);
+    }
+
+    /*
+     * Searches a buffer's remaining bytes for a lower-case ASCII token, ignoring case.
+     */
+    static boolean containsIgnoreCase(ByteBuffer buffer, byte[] lower) {
+        for (int i = buffer.position(); i <= buffer.limit() - lower.length; i++) {
+            if (regionMatches(buffer, i, lower)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionMatches(ByteBuffer buffer, int offset, byte[] lower) {
+        for (int i = 0; i < lower.length; i++) {
+            byte b = buffer.get(offset + i);
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lower[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(buffer.position() + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
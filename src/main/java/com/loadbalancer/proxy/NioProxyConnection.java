@@ -0,0 +1,401 @@
+package com.loadbalancer.proxy;
+
+import com.loadbalancer.algorithm.LoadBalancingAlgorithm;
+import com.loadbalancer.server.Backend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/*
+ * NioProxyConnection relays one client connection to one backend without
+ * blocking a thread.
+ * Both sides are non-blocking SocketChannels registered with the selector of
+ * the event loop that owns this connection, so every method here is only ever
+ * called from that event loop's thread.
+ *
+ * The connection moves through a small state machine:
+ * 1. CONNECTING - backend connect is in progress, client bytes are buffered
+ * 2. RELAYING   - bytes are pumped in both directions with backpressure
+ * 3. CLOSED     - both channels are closed and the backend is released
+ *
+ * Each direction has its own buffer. A side only reads while its buffer has
+ * room and only writes while the opposite buffer holds data, so a slow peer
+ * throttles the fast one instead of growing memory.
+ */
+public class NioProxyConnection {
+    // Logger for event-loop proxy events
+    private static final Logger logger = LoggerFactory.getLogger(NioProxyConnection.class);
+
+    // Connection timeout in milliseconds (for connecting to backend)
+    private static final long CONNECTION_TIMEOUT = 3000;
+
+    // Default idle timeout in milliseconds (no bytes moved in either direction)
+    private static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+    // Buffer size for each relay direction (8KB)
+    private static final int BUFFER_SIZE = 8192;
+
+    // Pre-encoded response sent when no backend can take the connection
+    private static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "Content-Length: 19\r\n"
+            + "Connection: close\r\n"
+            + "\r\n"
+            + "Service Unavailable").getBytes(StandardCharsets.US_ASCII);
+
+    // Pre-encoded response sent when the selected backend cannot be reached
+    private static final byte[] BAD_GATEWAY = ("HTTP/1.1 502 Bad Gateway\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "Content-Length: 11\r\n"
+            + "Connection: close\r\n"
+            + "\r\n"
+            + "Bad Gateway").getBytes(StandardCharsets.US_ASCII);
+
+    // Lifecycle states of the relay
+    private enum State { CONNECTING, RELAYING, CLOSED }
+
+    // Channel connected to the client
+    private final SocketChannel client;
+
+    // Idle timeout in milliseconds (no bytes moved in either direction)
+    private final long idleTimeout;
+
+    // Whether a 502/503 response is sent when no backend can be used (false in tcp mode)
+    private final boolean httpErrors;
+
+    // Bytes read from the client, waiting to be written to the backend (pooled direct buffer)
+    private final ByteBuffer upstream;
+
+    // Bytes read from the backend, waiting to be written to the client
+    private final ByteBuffer downstream;
+
+    // Channel connected to the selected backend (null until selected)
+    private SocketChannel backendChannel;
+
+    // Backend selected for this connection
+    private Backend backend;
+
+    // Selection keys for both sides
+    private SelectionKey clientKey;
+    private SelectionKey backendKey;
+
+    // Whether each side has sent EOF
+    private boolean clientEof;
+    private boolean backendEof;
+
+    // Current state of the relay
+    private State state;
+
+    // Deadline for the backend connect to complete (System.currentTimeMillis)
+    private long connectDeadline;
+
+    // Time of last successful read or write (System.currentTimeMillis)
+    private long lastActivity;
+
+    /**
+     * Constructor wraps an accepted client channel.
+     *
+     * @param client Non-blocking channel connected to the client
+     */
+    public NioProxyConnection(SocketChannel client) {
+        this(client, DEFAULT_IDLE_TIMEOUT, true);
+    }
+
+    /**
+     * Constructor wraps an accepted client channel with a custom idle timeout.
+     *
+     * @param client      Non-blocking channel connected to the client
+     * @param idleTimeout Idle timeout in milliseconds
+     * @param httpErrors  Whether to answer with a 502/503 when no backend can be used
+     *                    (false for raw TCP, where the client protocol is unknown)
+     */
+    public NioProxyConnection(SocketChannel client, long idleTimeout, boolean httpErrors) {
+        this.client = client;
+        this.idleTimeout = idleTimeout;
+        this.httpErrors = httpErrors;
+        this.upstream = BufferPool.getDefault().acquireDirect(BUFFER_SIZE);
+        this.downstream = BufferPool.getDefault().acquireDirect(BUFFER_SIZE);
+        this.state = State.CONNECTING;
+        this.lastActivity = System.currentTimeMillis();
+    }
+
+    /*
+     * Selects a backend and starts the non-blocking connect.
+     * Registers both channels with the event loop's selector.
+     *
+     * @param selector  Selector of the owning event loop
+     * @param backends  List of all backend servers
+     * @param algorithm Load balancing algorithm to use
+     */
+    public void open(Selector selector, List<Backend> backends, LoadBalancingAlgorithm algorithm) {
+        try {
+            // Filter to get only healthy, non-ejected backends; relayed bytes report nothing to a circuit
+            // breaker, so half-open trials are left to HTTP traffic
+            List<Backend> healthyBackends = backends.stream()
+                    .filter(Backend::isAvailableWithoutTrial)
+                    .collect(Collectors.toList());
+
+            // Get client's IP address for IP-hash algorithm
+            InetSocketAddress remote = (InetSocketAddress) client.getRemoteAddress();
+            String clientIp = remote.getAddress().getHostAddress();
+
+            backend = healthyBackends.isEmpty() ? null : algorithm.selectBackend(healthyBackends, clientIp);
+            if (backend == null) {
+                logger.error("No healthy backends available");
+                rejectClient(SERVICE_UNAVAILABLE);
+                return;
+            }
+
+            // Count the connection against the backend until close() runs
+            backend.incrementConnections();
+
+            // Start connecting to the backend without blocking
+            backendChannel = SocketChannel.open();
+            backendChannel.configureBlocking(false);
+            connectDeadline = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+            boolean connected = backendChannel.connect(
+                    new InetSocketAddress(backend.getHost(), backend.getPort()));
+
+            clientKey = client.register(selector, 0, this);
+            backendKey = backendChannel.register(selector, 0, this);
+            if (connected) {
+                onConnected();
+            }
+            updateInterest();
+        } catch (IOException e) {
+            logger.error("Error opening backend connection: {}", e.getMessage());
+            rejectClient(BAD_GATEWAY);
+        }
+    }
+
+    /*
+     * Dispatches a ready selection key to the side it belongs to.
+     *
+     * @param key Selected key whose attachment is this connection
+     */
+    public void handle(SelectionKey key) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        try {
+            if (!key.isValid()) {
+                close();
+                return;
+            }
+            if (key == backendKey) {
+                if (key.isConnectable()) {
+                    boolean connected;
+                    try {
+                        connected = backendChannel.finishConnect();
+                    } catch (IOException e) {
+                        // Nothing was relayed yet, so the client can still be told
+                        logger.error("Cannot connect to {}: {}", backend.getAddress(), e.getMessage());
+                        rejectClient(BAD_GATEWAY);
+                        return;
+                    }
+                    // Still pending: stay CONNECTING, so OP_CONNECT and the connect timeout keep applying
+                    if (connected) {
+                        onConnected();
+                    }
+                }
+                if (key.isReadable()) {
+                    backendEof = readInto(backendChannel, downstream) || backendEof;
+                }
+                if (key.isValid() && key.isWritable()) {
+                    writeFrom(upstream, backendChannel);
+                }
+            } else {
+                if (key.isReadable()) {
+                    clientEof = readInto(client, upstream) || clientEof;
+                }
+                if (key.isValid() && key.isWritable()) {
+                    writeFrom(downstream, client);
+                }
+            }
+            propagateEof();
+            updateInterest();
+        } catch (IOException e) {
+            logger.debug("Relay to {} failed: {}",
+                    backend != null ? backend.getAddress() : "client", e.getMessage());
+            close();
+        }
+    }
+
+    /*
+     * Closes the connection if the backend connect or the relay has timed out.
+     * Called periodically by the owning event loop.
+     *
+     * @param now Current time in milliseconds
+     */
+    public void checkTimeout(long now) {
+        if (state == State.CONNECTING && now > connectDeadline) {
+            logger.warn("Connect timeout to {}", backend != null ? backend.getAddress() : "backend");
+            rejectClient(BAD_GATEWAY);
+        } else if (state == State.RELAYING && now - lastActivity > idleTimeout) {
+            logger.debug("Closing idle connection to {}", backend.getAddress());
+            close();
+        }
+    }
+
+    /*
+     * Returns true if the key is this connection's client key. Each
+     * connection has two keys; the event loop uses this to visit it once.
+     */
+    public boolean isClientKey(SelectionKey key) {
+        return key == clientKey;
+    }
+
+    /*
+     * Returns true once both channels have been closed.
+     */
+    public boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    /*
+     * Closes both channels, returns the relay buffers to the pool and
+     * releases the backend connection count.
+     * Safe to call more than once.
+     */
+    public void close() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        state = State.CLOSED;
+        closeQuietly(client);
+        closeQuietly(backendChannel);
+        BufferPool.getDefault().release(upstream);
+        BufferPool.getDefault().release(downstream);
+        if (backend != null) {
+            backend.decrementConnections();
+        }
+    }
+
+    /*
+     * Marks the backend side as connected and starts relaying.
+     */
+    private void onConnected() {
+        state = State.RELAYING;
+        lastActivity = System.currentTimeMillis();
+        logger.debug("Connection routed to {}", backend.getAddress());
+    }
+
+    /*
+     * Reads from a channel into a buffer kept in fill mode.
+     *
+     * @return true if the channel reached end of stream
+     */
+    private boolean readInto(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        int bytesRead = channel.read(buffer);
+        if (bytesRead > 0) {
+            lastActivity = System.currentTimeMillis();
+        }
+        return bytesRead == -1;
+    }
+
+    /*
+     * Writes as much buffered data as the channel accepts, then compacts the
+     * buffer back into fill mode.
+     */
+    private void writeFrom(ByteBuffer buffer, SocketChannel channel) throws IOException {
+        buffer.flip();
+        int written = channel.write(buffer);
+        buffer.compact();
+        if (written > 0) {
+            lastActivity = System.currentTimeMillis();
+        }
+    }
+
+    /*
+     * Forwards a client half-close to the backend once all buffered request
+     * bytes are written, and closes the connection once the backend has
+     * finished and its bytes have reached the client.
+     */
+    private void propagateEof() throws IOException {
+        if (state != State.RELAYING) {
+            return;
+        }
+        if (backendEof && downstream.position() == 0) {
+            // The backend finished its response; nothing more can reach the client
+            close();
+            return;
+        }
+        if (clientEof && upstream.position() == 0 && !backendChannel.socket().isOutputShutdown()) {
+            backendChannel.shutdownOutput();
+        }
+    }
+
+    /*
+     * Recomputes which events each side is interested in.
+     * A side reads only while its buffer has room and writes only while the
+     * opposite buffer has pending data.
+     */
+    private void updateInterest() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        int clientOps = 0;
+        if (!clientEof && upstream.hasRemaining()) {
+            clientOps |= SelectionKey.OP_READ;
+        }
+        if (downstream.position() > 0) {
+            clientOps |= SelectionKey.OP_WRITE;
+        }
+        clientKey.interestOps(clientOps);
+
+        int backendOps;
+        if (state == State.CONNECTING) {
+            backendOps = SelectionKey.OP_CONNECT;
+        } else {
+            backendOps = 0;
+            if (!backendEof && downstream.hasRemaining()) {
+                backendOps |= SelectionKey.OP_READ;
+            }
+            if (upstream.position() > 0) {
+                backendOps |= SelectionKey.OP_WRITE;
+            }
+        }
+        backendKey.interestOps(backendOps);
+    }
+
+    /*
+     * Sends a pre-encoded error response and closes the client.
+     * The response is far smaller than a socket send buffer, so a single
+     * non-blocking write is enough.
+     *
+     * @param response SERVICE_UNAVAILABLE or BAD_GATEWAY
+     */
+    private void rejectClient(byte[] response) {
+        if (httpErrors) {
+            try {
+                client.write(ByteBuffer.wrap(response));
+            } catch (IOException e) {
+                logger.debug("Error sending error response", e);
+            }
+        }
+        close();
+    }
+
+    /*
+     * Closes a channel, ignoring errors.
+     */
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Error closing channel", e);
+        }
+    }
+}
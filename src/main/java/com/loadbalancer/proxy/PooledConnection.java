@@ -0,0 +1,88 @@
+package com.loadbalancer.proxy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/*
+ * PooledConnection wraps a socket to a backend together with its buffered
+ * streams and the bookkeeping the pool needs to decide whether it can be reused.
+ * A connection is only ever used by one handler thread at a time: it is either
+ * idle in its pool or checked out.
+ */
+public class PooledConnection {
+    // Socket connected to the backend
+    private final Socket socket;
+
+    // Buffered input kept for the lifetime of the connection so read-ahead bytes are not lost
+    private final HttpInputStream input;
+
+    // Raw output stream of the socket
+    private final OutputStream output;
+
+    // Time the connection was opened (System.currentTimeMillis)
+    private final long createdAt;
+
+    // Time the connection was last returned to the pool
+    private long lastUsedAt;
+
+    // Number of requests sent over this connection so far
+    private int requestCount;
+
+    /**
+     * Constructor wraps a connected socket.
+     *
+     * @param socket     Connected backend socket
+     * @param bufferSize Size of the input buffer
+     */
+    public PooledConnection(Socket socket, int bufferSize) throws IOException {
+        this.socket = socket;
+        this.input = new HttpInputStream(socket.getInputStream(), bufferSize);
+        this.output = socket.getOutputStream();
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsedAt = createdAt;
+    }
+
+    // Getter methods for the connection streams
+    public Socket getSocket() { return socket; }
+    HttpInputStream getInputStream() { return input; }
+    public OutputStream getOutputStream() { return output; }
+
+    // Time the connection was opened
+    public long getCreatedAt() { return createdAt; }
+
+    // Time the connection was last returned to the pool
+    public long getLastUsedAt() { return lastUsedAt; }
+
+    // Number of requests sent over this connection
+    public int getRequestCount() { return requestCount; }
+
+    // True if this connection already carried a request (so it may have gone stale)
+    public boolean isReused() { return requestCount > 1; }
+
+    /*
+     * Records that a request is about to be sent over this connection.
+     */
+    void markUsed() {
+        requestCount++;
+    }
+
+    /*
+     * Records that the connection was returned to the pool.
+     */
+    void markIdle(long now) {
+        lastUsedAt = now;
+    }
+
+    /*
+     * Closes the socket, ignoring errors, and returns the read buffer to the pool.
+     */
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing useful to do; the connection is being discarded
+        }
+        input.release();
+    }
+}
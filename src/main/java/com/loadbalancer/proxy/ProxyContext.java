@@ -0,0 +1,232 @@
+package com.loadbalancer.proxy;
+
+import com.loadbalancer.algorithm.LoadBalancingAlgorithm;
+import com.loadbalancer.cache.RequestCoalescer;
+import com.loadbalancer.compression.ResponseCompressor;
+import com.loadbalancer.cache.ResponseCache;
+import com.loadbalancer.health.OutlierDetector;
+import com.loadbalancer.server.Backend;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/*
+ * ProxyContext holds the settings and shared state used by every handler of
+ * one listener. The listener builds it once from the configuration and passes
+ * it to each ProxyHandler, so adding a setting does not change every
+ * constructor along the way.
+ */
+public class ProxyContext {
+    // Default idle timeout in milliseconds for persistent client connections
+    private static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 5000;
+
+    // Default idle timeout in milliseconds for tunnels
+    private static final int DEFAULT_TUNNEL_IDLE_TIMEOUT = 300000;
+
+    // Default HTTP/2 limits (streams per connection and initial stream window)
+    private static final int DEFAULT_HTTP2_MAX_CONCURRENT_STREAMS = 256;
+    private static final int DEFAULT_HTTP2_INITIAL_WINDOW_SIZE = 65535;
+
+    // List of all backend servers (shared with health checker)
+    private final List<Backend> backends;
+
+    // Algorithm for selecting which backend to use
+    private final LoadBalancingAlgorithm algorithm;
+
+    // Idle timeout in milliseconds between requests on a persistent client connection
+    private int keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+
+    // Whether large bodies may be relayed through ChannelRelay
+    private boolean zeroCopy = true;
+
+    // Idle timeout in milliseconds for upgraded and CONNECT tunnels
+    private int tunnelIdleTimeout = DEFAULT_TUNNEL_IDLE_TIMEOUT;
+
+    // Whether clients may speak HTTP/2 with prior knowledge (h2c)
+    private boolean http2Enabled = true;
+
+    // Maximum concurrent streams per HTTP/2 client connection
+    private int http2MaxConcurrentStreams = DEFAULT_HTTP2_MAX_CONCURRENT_STREAMS;
+
+    // Initial flow-control window advertised for each HTTP/2 stream
+    private int http2InitialWindowSize = DEFAULT_HTTP2_INITIAL_WINDOW_SIZE;
+
+    // Shared response cache, or null if caching is disabled
+    private ResponseCache responseCache;
+
+    // Coalescer for identical concurrent GETs, or null if disabled
+    private RequestCoalescer requestCoalescer;
+
+    // Response compressor, or null if compression is disabled
+    private ResponseCompressor responseCompressor;
+
+    // Retry policy for failed backend requests, or null if retries are disabled
+    private RetryPolicy retryPolicy;
+
+    // Hedging policy for slow idempotent requests, or null if hedging is disabled
+    private HedgingPolicy hedgingPolicy;
+
+    // Limit on requests forwarded at once, or null if unlimited
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    // Passive health checking fed with request outcomes, or null if disabled
+    private OutlierDetector outlierDetector;
+
+    // Runs request body uploads, tunnels, HTTP/2 streams and hedged attempts
+    private ExecutorService relayExecutor = ProxyHandler.RELAY_EXECUTOR;
+
+    /**
+     * Constructor creates a context with default settings.
+     *
+     * @param backends  List of all backend servers
+     * @param algorithm Load balancing algorithm to use
+     */
+    public ProxyContext(List<Backend> backends, LoadBalancingAlgorithm algorithm) {
+        this.backends = backends;
+        this.algorithm = algorithm;
+    }
+
+    // Getter methods for the shared state
+    public List<Backend> getBackends() { return backends; }
+    public LoadBalancingAlgorithm getAlgorithm() { return algorithm; }
+
+    // Getter for keep-alive timeout
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    // Setter for keep-alive timeout
+    public void setKeepAliveTimeout(int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    // Getter for zero-copy body relay flag
+    public boolean isZeroCopy() {
+        return zeroCopy;
+    }
+
+    // Setter for zero-copy body relay flag
+    public void setZeroCopy(boolean zeroCopy) {
+        this.zeroCopy = zeroCopy;
+    }
+
+    // Getter for tunnel idle timeout
+    public int getTunnelIdleTimeout() {
+        return tunnelIdleTimeout;
+    }
+
+    // Setter for tunnel idle timeout
+    public void setTunnelIdleTimeout(int tunnelIdleTimeout) {
+        this.tunnelIdleTimeout = tunnelIdleTimeout;
+    }
+
+    // Getter for HTTP/2 enabled flag
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    // Setter for HTTP/2 enabled flag
+    public void setHttp2Enabled(boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+    }
+
+    // Getter for HTTP/2 max concurrent streams
+    public int getHttp2MaxConcurrentStreams() {
+        return http2MaxConcurrentStreams;
+    }
+
+    // Setter for HTTP/2 max concurrent streams
+    public void setHttp2MaxConcurrentStreams(int http2MaxConcurrentStreams) {
+        this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+    }
+
+    // Getter for HTTP/2 initial stream window size
+    public int getHttp2InitialWindowSize() {
+        return http2InitialWindowSize;
+    }
+
+    // Setter for HTTP/2 initial stream window size
+    public void setHttp2InitialWindowSize(int http2InitialWindowSize) {
+        this.http2InitialWindowSize = http2InitialWindowSize;
+    }
+
+    // Getter for the response cache
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    // Setter for the response cache
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    // Getter for the request coalescer
+    public RequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    // Setter for the request coalescer
+    public void setRequestCoalescer(RequestCoalescer requestCoalescer) {
+        this.requestCoalescer = requestCoalescer;
+    }
+
+    // Getter for the response compressor
+    public ResponseCompressor getResponseCompressor() {
+        return responseCompressor;
+    }
+
+    // Setter for the response compressor
+    public void setResponseCompressor(ResponseCompressor responseCompressor) {
+        this.responseCompressor = responseCompressor;
+    }
+
+    // Getter for the retry policy
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    // Setter for the retry policy
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    // Getter for the hedging policy
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    // Setter for the hedging policy
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    // Getter for the concurrency limiter
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    // Setter for the concurrency limiter
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    // Getter for the outlier detector
+    public OutlierDetector getOutlierDetector() {
+        return outlierDetector;
+    }
+
+    // Setter for the outlier detector
+    public void setOutlierDetector(OutlierDetector outlierDetector) {
+        this.outlierDetector = outlierDetector;
+    }
+
+    // Getter for the relay executor
+    public ExecutorService getRelayExecutor() {
+        return relayExecutor;
+    }
+
+    // Setter for the relay executor
+    public void setRelayExecutor(ExecutorService relayExecutor) {
+        this.relayExecutor = relayExecutor;
+    }
+}
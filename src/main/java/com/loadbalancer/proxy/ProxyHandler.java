@@ -1,27 +1,96 @@
 package com.loadbalancer.proxy;
 
 import com.loadbalancer.algorithm.LoadBalancingAlgorithm;
+import com.loadbalancer.cache.CachePolicy;
+import com.loadbalancer.cache.CachedResponse;
+import com.loadbalancer.cache.DiskCache;
+import com.loadbalancer.cache.RequestCoalescer;
+import com.loadbalancer.cache.ResponseCache;
+import com.loadbalancer.compression.CompressingOutputStream;
+import com.loadbalancer.compression.ResponseCompressor;
+import com.loadbalancer.health.CircuitBreaker;
+import com.loadbalancer.health.OutlierDetector;
 import com.loadbalancer.server.Backend;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.message.BasicHeader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.SSLSocket;
 import java.io.*;
+import java.net.ProtocolException;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
-import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /*
  * ProxyHandler forwards HTTP requests from clients to backend servers.
  * Each instance handles a single client connection in a separate thread.
  * Implements Runnable so it can be executed by the thread pool.
- * 
+ *
  * This handler:
  * 1. Receives an HTTP request from a client
  * 2. Uses the load balancing algorithm to select a healthy backend
  * 3. Forwards the request to the backend and returns the response
  * 4. Properly handles Content-Length and chunked transfer encoding
+ * 5. Keeps the client connection open for further requests (HTTP/1.1
+ *    keep-alive) until either side asks to close or it sits idle too long
+ *
+ * Large fixed-length and read-to-EOF bodies are relayed channel-to-channel
+ * (see ChannelRelay) when both sockets were opened from channels.
+ *
+ * Request bodies are streamed to the backend on a separate upload thread
+ * while this thread reads the response, so a backend that answers early
+ * (a rejected upload, 100 Continue, a streaming response) is not held up
+ * by the rest of the upload.
+ *
+ * After a 101 Switching Protocols response (WebSocket) or a 2xx response to
+ * CONNECT the connection becomes a Tunnel until either side closes. The
+ * backend stays counted in its active connections for the tunnel's lifetime.
+ *
+ * A connection that opens with the HTTP/2 preface is handed to an
+ * Http2Connection, which multiplexes its streams onto the backends.
+ *
+ * Requests to h2c backends become streams on the backend's Http2BackendPool
+ * instead of using a pooled HTTP/1.1 connection each.
+ *
+ * With a ResponseCache, fresh stored responses to GET and HEAD are written
+ * straight back without choosing a backend. Cacheable responses from
+ * HTTP/1.1 backends with a Content-Length are read whole, sent, and offered
+ * to the cache; unsafe methods drop the stored response for their target.
+ * Bodies large enough for the cache's DiskCache tier are streamed to the
+ * client and into a mapped segment at the same time, and disk hits are
+ * written from the mapping to the client's channel.
+ *
+ * With a RequestCoalescer, a GET identical to one already being forwarded
+ * waits for it and is sent the same response as it streams in, so a burst
+ * of requests for a resource whose cached copy just expired reaches the
+ * backends once.
+ *
+ * With a ResponseCompressor, compressible responses are gzip- or
+ * deflate-encoded for clients that accept it and sent as chunks while they
+ * stream in. Responses kept in the memory cache are compressed whole and the
+ * compressed body is kept with the entry.
+ *
+ * With a ConcurrencyLimiter, requests that would be forwarded while the
+ * limit is in flight are answered at once with a pre-encoded 503 and the
+ * connection is closed; cache hits and coalesced requests are not counted.
  */
 public class ProxyHandler implements Runnable {
     // Logger for proxy events
@@ -36,8 +105,29 @@ public class ProxyHandler implements Runnable {
     // Algorithm for selecting which backend to use
     private final LoadBalancingAlgorithm algorithm;
 
-    // Connection timeout in milliseconds (for connecting to backend)
-    private static final int CONNECTION_TIMEOUT = 3000;
+    // Idle timeout in milliseconds between requests on a persistent client connection
+    private final int keepAliveTimeout;
+
+    // Whether large bodies may be relayed through ChannelRelay
+    private final boolean zeroCopy;
+
+    // Idle timeout in milliseconds for upgraded and CONNECT tunnels
+    private final int tunnelIdleTimeout;
+
+    // Settings and shared state of the listener
+    private final ProxyContext context;
+
+    // Whether the current request holds a concurrency limiter slot, when it was admitted, and when its
+    // response head arrived (System.nanoTime, 0 before)
+    private boolean holdsLimit;
+    private long admittedAt;
+    private long responseHeadAt;
+
+    // Whether the body upload of the current request failed on the client side
+    private volatile boolean clientUploadFailed;
+
+    // Backend whose circuit breaker permit has no outcome recorded yet, or null
+    private Backend unreportedPermit;
 
     // Read timeout in milliseconds (for reading from backend)
     private static final int READ_TIMEOUT = 30000;
@@ -45,28 +135,120 @@ public class ProxyHandler implements Runnable {
     // Buffer size for data transfer (8KB)
     private static final int BUFFER_SIZE = 8192;
 
+    // Smallest body worth a channel relay; below this the selector setup costs more than the copies
+    private static final long ZERO_COPY_THRESHOLD = 64 * 1024;
+
+    // Answer to shed requests, encoded once; the connection is closed so its unread request does not matter
+    private static final byte[] OVERLOADED_RESPONSE = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Content-Length: 0\r\nRetry-After: 1\r\nConnection: close\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    // Pool that transfer buffers are borrowed from
+    private final BufferPool bufferPool = BufferPool.getDefault();
+
+    // Most relay threads alive at once; beyond this, work that needs one fails instead of adding threads
+    private static final int MAX_RELAY_THREADS = 1024;
+
+    // Threads that stream request bodies (and the upstream side of tunnels) to backends, unless the
+    // listener runs them on virtual threads; idle threads exit after a minute
+    static final ExecutorService RELAY_EXECUTOR = new ThreadPoolExecutor(0, MAX_RELAY_THREADS, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), new ThreadFactory());
+
     /**
      * Constructor initializes the proxy handler for a client connection.
-     * 
+     *
      * @param clientSocket Socket connected to the client
      * @param backends     List of all backend servers
      * @param algorithm    Load balancing algorithm to use
      */
     public ProxyHandler(Socket clientSocket, List<Backend> backends, LoadBalancingAlgorithm algorithm) {
+        this(clientSocket, new ProxyContext(backends, algorithm));
+    }
+
+    /**
+     * Constructor initializes the proxy handler with a keep-alive idle timeout.
+     *
+     * @param clientSocket     Socket connected to the client
+     * @param backends         List of all backend servers
+     * @param algorithm        Load balancing algorithm to use
+     * @param keepAliveTimeout Idle timeout in milliseconds between requests
+     */
+    public ProxyHandler(Socket clientSocket, List<Backend> backends, LoadBalancingAlgorithm algorithm,
+            int keepAliveTimeout) {
+        this(clientSocket, withKeepAliveTimeout(new ProxyContext(backends, algorithm), keepAliveTimeout));
+    }
+
+    /**
+     * Constructor initializes the proxy handler with the listener's settings.
+     *
+     * @param clientSocket Socket connected to the client
+     * @param context      Settings and shared state of the listener
+     */
+    public ProxyHandler(Socket clientSocket, ProxyContext context) {
         this.clientSocket = clientSocket;
-        this.backends = backends;
-        this.algorithm = algorithm;
+        this.context = context;
+        this.backends = context.getBackends();
+        this.algorithm = context.getAlgorithm();
+        this.keepAliveTimeout = context.getKeepAliveTimeout();
+        this.zeroCopy = context.isZeroCopy();
+        this.tunnelIdleTimeout = context.getTunnelIdleTimeout();
+    }
+
+    private static ProxyContext withKeepAliveTimeout(ProxyContext context, int keepAliveTimeout) {
+        context.setKeepAliveTimeout(keepAliveTimeout);
+        return context;
     }
 
     /*
      * Main execution method called by the thread pool.
-     * Handles the request and ensures cleanup happens.
+     * Serves requests on the client connection until it should be closed,
+     * and ensures cleanup happens.
      */
     @Override
     public void run() {
+        HttpInputStream clientIn = null;
         try {
-            // Process the client request
-            handleRequest();
+            // One buffered stream for the whole connection so bytes of the
+            // next request read ahead of time are not lost between requests
+            clientIn = new HttpInputStream(clientSocket.getInputStream(), BUFFER_SIZE);
+            OutputStream clientOut = clientSocket.getOutputStream();
+
+            boolean keepAlive = true;
+            boolean firstRequest = true;
+            while (keepAlive) {
+                // Wait for the next request; idle persistent connections use the shorter timeout
+                clientSocket.setSoTimeout(firstRequest ? READ_TIMEOUT : keepAliveTimeout);
+                HttpHeaderInfo request;
+                try {
+                    request = readHeaders(clientIn);
+                } catch (SocketTimeoutException e) {
+                    if (firstRequest) {
+                        throw e;
+                    }
+                    logger.debug("Closing idle client connection");
+                    break;
+                } catch (ProtocolException e) {
+                    // The body cannot be framed, so the connection cannot be reused either
+                    logger.debug("Rejecting malformed request: {}", e.getMessage());
+                    sendErrorResponse(clientSocket, 400, "Bad Request");
+                    break;
+                }
+                if (request == null) {
+                    // Client closed the connection between requests
+                    break;
+                }
+                clientSocket.setSoTimeout(READ_TIMEOUT);
+
+                if (firstRequest && "PRI".equals(request.method) && context.isHttp2Enabled()) {
+                    // HTTP/2 connection preface (prior knowledge): the rest of the connection is frames
+                    new Http2Connection(clientSocket, clientIn, context).serve();
+                    break;
+                }
+
+                // Process the client request
+                keepAlive = handleRequest(request, clientIn, clientOut);
+                firstRequest = false;
+            }
         } catch (SocketTimeoutException e) {
             logger.warn("Request timeout: {}", e.getMessage());
         } catch (Exception e) {
@@ -78,181 +260,1219 @@ public class ProxyHandler implements Runnable {
             } catch (IOException e) {
                 logger.error("Error closing client socket", e);
             }
+            // Return the connection's read buffer to the pool
+            if (clientIn != null) {
+                clientIn.release();
+            }
         }
     }
 
     /*
      * Handles a single client request by selecting a backend and forwarding.
-     * 
+     *
+     * @param request   Parsed request headers
+     * @param clientIn  Buffered client input positioned at the request body
+     * @param clientOut Client output stream
+     * @return true if the client connection can carry another request
      * @throws IOException If there's an error communicating with client or backend
      */
-    private void handleRequest() throws IOException {
-        // Filter to get only healthy backends
-        List<Backend> healthyBackends = backends.stream()
-                .filter(Backend::isHealthy)
-                .collect(Collectors.toList());
+    private boolean handleRequest(HttpHeaderInfo request, HttpInputStream clientIn, OutputStream clientOut)
+            throws IOException {
+        // Answer from the cache when a fresh response is stored
+        ResponseCache cache = context.getResponseCache();
+        RequestCoalescer coalescer = context.getRequestCoalescer();
+        List<Header> requestFields = null;
+        String cacheKey = null;
+        if (cache != null || coalescer != null || context.getResponseCompressor() != null
+                || context.getHedgingPolicy() != null) {
+            requestFields = Http2Messages.requestHeaders(request);
+        }
+        if (cache != null) {
+            if (CachePolicy.isUnsafe(request.method)) {
+                cache.invalidate(CachePolicy.key(requestFields));
+            } else if (!request.hasBody() && CachePolicy.isCacheableRequest(request.method, requestFields)) {
+                cacheKey = CachePolicy.key(requestFields);
+                boolean acceptsStored = CachePolicy.acceptsStored(requestFields);
+                CachedResponse cached = acceptsStored ? cache.get(cacheKey, requestFields) : null;
+                if (cached != null) {
+                    return sendCachedResponse(cached, cacheKey, request, requestFields, clientOut);
+                }
+                // Large bodies live in the disk tier; the entry pins its segment until written
+                DiskCache disk = cache.getDiskTier();
+                if (disk != null && acceptsStored) {
+                    try (DiskCache.Entry entry = disk.get(cacheKey, requestFields)) {
+                        if (entry != null) {
+                            return sendStoredResponse(entry.getHeaders(), entry.getAge(System.currentTimeMillis()),
+                                    entry.getBody(), request, requestFields, clientOut);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Wait for an identical request already in flight instead of sending another
+        RequestCoalescer.Flight flight = null;
+        if (coalescer != null && !request.hasBody() && coalescer.appliesTo(request.method, requestFields)) {
+            flight = coalescer.join(CachePolicy.key(requestFields), requestFields);
+            if (!flight.isLeader()) {
+                List<Header> shared = awaitFlight(flight, requestFields);
+                if (shared != null) {
+                    return sendCoalescedResponse(flight, shared, request, requestFields, clientOut);
+                }
+                // No shareable response; forward this request on its own
+                flight = null;
+            }
+        }
+        // Shed the request if the backends already have as much as they can take
+        ConcurrencyLimiter limiter = context.getConcurrencyLimiter();
+        if (limiter != null && !limiter.tryAcquire()) {
+            if (flight != null) {
+                flight.close();
+            }
+            clientOut.write(OVERLOADED_RESPONSE);
+            clientOut.flush();
+            return false;
+        }
+        holdsLimit = limiter != null;
+        admittedAt = System.nanoTime();
+        responseHeadAt = 0;
+        try {
+            return selectAndForward(request, clientIn, clientOut, cacheKey, requestFields, flight);
+        } finally {
+            releaseLimit(responseHeadAt != 0);
+            if (flight != null) {
+                flight.close();
+            }
+        }
+    }
 
-        // Check if any healthy backends are available
-        if (healthyBackends.isEmpty()) {
-            logger.error("No healthy backends available");
-            sendErrorResponse(clientSocket, 503, "Service Unavailable");
+    /*
+     * Gives back the concurrency limiter slot of the current request, if it
+     * still holds one. The round-trip time sampled runs from admission to the
+     * response head, so the time spent relaying the body to a slow client
+     * does not count as backend latency.
+     *
+     * @param sample Whether to record the round-trip time
+     */
+    private void releaseLimit(boolean sample) {
+        if (!holdsLimit) {
             return;
         }
+        holdsLimit = false;
+        ConcurrencyLimiter limiter = context.getConcurrencyLimiter();
+        if (sample) {
+            limiter.release(responseHeadAt - admittedAt);
+        } else {
+            limiter.release();
+        }
+    }
 
-        // Get client's IP address for IP-hash algorithm
-        String clientIp = clientSocket.getInetAddress().getHostAddress();
+    /*
+     * Answers a connection the listener has no room for with the
+     * pre-encoded 503 and closes it. Writing the few bytes to a fresh socket
+     * does not block, so the accept loop can call this.
+     */
+    public static void rejectOverloaded(Socket socket) {
+        try (socket) {
+            socket.getOutputStream().write(OVERLOADED_RESPONSE);
+        } catch (IOException e) {
+            logger.debug("Error rejecting connection: {}", e.getMessage());
+        }
+    }
 
-        // Use algorithm to select which backend to use
-        Backend backend = algorithm.selectBackend(healthyBackends, clientIp);
+    /*
+     * Chooses a healthy backend and forwards the request to it. If the
+     * backend fails before any of its response reached the client, the
+     * request is retried on another backend as the retry policy allows, and
+     * otherwise answered with 502 Bad Gateway.
+     *
+     * @param flight Flight this request leads, or null
+     * @return true if the client connection can carry another request
+     */
+    private boolean selectAndForward(HttpHeaderInfo request, HttpInputStream clientIn, OutputStream clientOut,
+            String cacheKey, List<Header> requestFields, RequestCoalescer.Flight flight) throws IOException {
+        RetryPolicy retryPolicy = context.getRetryPolicy();
+        if (retryPolicy != null) {
+            retryPolicy.recordRequest();
+        }
+        // Backends that already failed this request, and backends whose circuit breaker refused it
+        Set<Backend> failed = new HashSet<>();
+        Set<Backend> refused = new HashSet<>();
+        // Retries made so far; a failed hedge excludes its backend but is not a retry
+        int retries = 0;
+        while (true) {
+            // Filter to get only available backends that have not failed or refused this request
+            List<Backend> healthyBackends = backends.stream()
+                    .filter(b -> b.isAvailable() && !failed.contains(b) && !refused.contains(b))
+                    .collect(Collectors.toList());
 
-        // Check if backend selection succeeded
-        if (backend == null) {
-            logger.error("Failed to select backend");
-            sendErrorResponse(clientSocket, 503, "Service Unavailable");
-            return;
+            // Check if any healthy backends are available
+            if (healthyBackends.isEmpty()) {
+                logger.error("No healthy backends available");
+                sendErrorResponse(clientSocket, failed.isEmpty() ? 503 : 502,
+                        failed.isEmpty() ? "Service Unavailable" : "Bad Gateway");
+                return false;
+            }
+
+            // Get client's IP address for IP-hash algorithm
+            String clientIp = clientSocket.getInetAddress().getHostAddress();
+
+            // Use algorithm to select which backend to use
+            Backend backend = algorithm.selectBackend(healthyBackends, clientIp);
+
+            // Check if backend selection succeeded
+            if (backend == null) {
+                logger.error("Failed to select backend");
+                sendErrorResponse(clientSocket, 503, "Service Unavailable");
+                return false;
+            }
+
+            // A half-open circuit breaker admits only a few trial requests; try another backend
+            long permit = backend.tryAcquirePermission();
+            if (permit == CircuitBreaker.REFUSED) {
+                refused.add(backend);
+                continue;
+            }
+
+            // Slow answers to idempotent requests on hedged routes are raced against a second backend
+            HedgingPolicy hedging = context.getHedgingPolicy();
+            boolean hedged = hedging != null && backend.getHttp2Pool() == null
+                    && hedging.appliesTo(request.method, CachePolicy.value(requestFields, ":path"), request.hasBody());
+
+            // Increment connection counter for this backend
+            backend.incrementConnections();
+            long start = System.nanoTime();
+            unreportedPermit = backend;
+            try {
+                // Forward the request to the selected backend
+                boolean keepAlive = backend.getHttp2Pool() != null
+                        ? forwardRequestHttp2(backend, permit, request, clientIn, clientOut)
+                        : hedged
+                        ? forwardHedged(backend, permit, healthyBackends, clientIp, failed, request, clientIn,
+                                clientOut, cacheKey, requestFields, flight)
+                        : forwardRequest(backend, permit, null, request, clientIn, clientOut, cacheKey, requestFields,
+                                flight);
+                logger.debug("Request routed to {}", backend.getAddress());
+                return keepAlive;
+            } catch (BackendFailureException e) {
+                // Nothing reached the client yet: try another backend, or answer for the failed one
+                failed.add(backend);
+                recordFailure(backend, permit, System.nanoTime() - start);
+                if (retryPolicy != null && !e.isBodyConsumed()
+                        && retryPolicy.tryRetry(request.method, e.isRequestSent(), retries)) {
+                    retries++;
+                    logger.warn("Retrying {} request on another backend: {}", request.method, e.getMessage());
+                    continue;
+                }
+                logger.error("Backend request failed: {}", e.getMessage());
+                sendErrorResponse(clientSocket, 502, "Bad Gateway");
+                return false;
+            } finally {
+                // A trial permit whose request ended without an outcome (client gone, hedge answered) goes back
+                if (unreportedPermit != null) {
+                    unreportedPermit.releasePermission(permit);
+                    unreportedPermit = null;
+                }
+                // Always decrement connection counter when done
+                backend.decrementConnections();
+            }
         }
+    }
 
-        // Increment connection counter for this backend
-        backend.incrementConnections();
+    /*
+     * Forwards a hedgeable request: the request is sent to the selected
+     * backend on a relay thread, and if it has not answered within the
+     * hedging delay, a copy is sent to a second backend chosen by the
+     * algorithm. The first response head wins and is relayed; the other
+     * attempt is cancelled. While the policy has too few latency samples
+     * the request is never hedged.
+     *
+     * @param backend         Backend selected for the request
+     * @param permit          Circuit breaker permit of the selected backend
+     * @param healthyBackends Backends the hedge may be sent to
+     * @param clientIp        Client address for the algorithm
+     * @param failed          Backends that failed this request; a failed hedge backend is added
+     * @return true if the client connection can carry another request
+     * @throws IOException If there's an error during forwarding
+     */
+    private boolean forwardHedged(Backend backend, long permit, List<Backend> healthyBackends, String clientIp,
+            Set<Backend> failed, HttpHeaderInfo request, HttpInputStream clientIn, OutputStream clientOut,
+            String cacheKey, List<Header> requestFields, RequestCoalescer.Flight flight) throws IOException {
+        HedgingPolicy hedging = context.getHedgingPolicy();
+        long delay = hedging.startRequest();
+        Object race = new Object();
+        BackendAttempt primary = new BackendAttempt(backend, race);
         try {
-            // Forward the request to the selected backend
-            forwardRequest(backend);
-            logger.debug("Request routed to {}", backend.getAddress());
+            primary.start(context.getRelayExecutor(), () -> sendRequest(primary, request));
+        } catch (RejectedExecutionException e) {
+            // No relay thread to race on: send the request without a hedge
+            return forwardRequest(backend, permit, null, request, clientIn, clientOut, cacheKey, requestFields,
+                    flight);
+        }
+        BackendAttempt hedge = null;
+        BackendAttempt winner = null;
+        try {
+            boolean answered;
+            synchronized (race) {
+                long deadline = System.nanoTime() + delay;
+                long remaining = delay;
+                while (!primary.isDone() && remaining > 0) {
+                    race.wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+                    remaining = deadline - System.nanoTime();
+                }
+                answered = primary.isDone() || delay < 0;
+            }
+            if (!answered) {
+                // Hedges never spend the trial requests of a half-open circuit breaker
+                List<Backend> candidates = healthyBackends.stream()
+                        .filter(b -> b != backend && b.getHttp2Pool() == null && !failed.contains(b)
+                                && (b.getCircuitBreaker() == null
+                                        || b.getCircuitBreaker().getState() == CircuitBreaker.State.CLOSED))
+                        .collect(Collectors.toList());
+                Backend second = candidates.isEmpty() ? null : algorithm.selectBackend(candidates, clientIp);
+                if (second != null && hedging.tryHedge()) {
+                    logger.debug("Hedging {} request to {} after {} ms", request.method, second.getAddress(),
+                            delay / 1_000_000);
+                    second.incrementConnections();
+                    BackendAttempt attempt = new BackendAttempt(second, race);
+                    try {
+                        attempt.start(context.getRelayExecutor(), () -> sendRequest(attempt, request));
+                        hedge = attempt;
+                    } catch (RejectedExecutionException e) {
+                        logger.debug("No relay thread for the hedge, waiting for the first attempt");
+                        second.decrementConnections();
+                    }
+                }
+            }
+
+            // The first attempt with a response wins; fail only once every attempt failed
+            synchronized (race) {
+                while (true) {
+                    if (primary.isDone() && primary.getFailure() == null) {
+                        winner = primary;
+                        break;
+                    }
+                    if (hedge != null && hedge.isDone() && hedge.getFailure() == null) {
+                        winner = hedge;
+                        break;
+                    }
+                    if (primary.isDone() && (hedge == null || hedge.isDone())) {
+                        break;
+                    }
+                    race.wait();
+                }
+            }
+            if (winner == null) {
+                if (hedge != null) {
+                    failed.add(hedge.getBackend());
+                    recordFailure(hedge.getBackend(), CircuitBreaker.NOT_TRIAL, hedge.getElapsedNanos());
+                }
+                throw primary.getFailure();
+            }
+            // Measured from the primary's start: when the hedge wins, the primary is cancelled at that
+            // point and would have taken at least as long, so the slow tail stays in the percentile
+            hedging.recordResponse(winner.getCompletedAt() - primary.getStartedAt(), winner == hedge);
+            if (hedge != null) {
+                // A loser that failed on its own (not by being cancelled) still counts against its backend
+                BackendAttempt loser = winner == primary ? hedge : primary;
+                if (loser.getFailure() != null) {
+                    recordFailure(loser.getBackend(), loser == primary ? permit : CircuitBreaker.NOT_TRIAL,
+                            loser.getElapsedNanos());
+                }
+                loser.cancel();
+            }
+            // Hedges only go to closed breakers, so only the primary can hold a trial permit
+            return forwardRequest(winner.getBackend(), winner == primary ? permit : CircuitBreaker.NOT_TRIAL, winner,
+                    request, clientIn, clientOut, cacheKey, requestFields, flight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a backend response");
         } finally {
-            // Always decrement connection counter when done
-            backend.decrementConnections();
+            if (winner == null) {
+                primary.cancel();
+                if (hedge != null) {
+                    hedge.cancel();
+                }
+            }
+            if (hedge != null) {
+                hedge.getBackend().decrementConnections();
+            }
         }
     }
 
     /*
      * Forwards the HTTP request from client to backend and returns the response.
      * Properly parses HTTP headers to handle Content-Length and chunked encoding.
-     * 
-     * @param backend The backend server to forward to
+     * The backend connection is borrowed from the backend's pool and returned
+     * afterwards if the exchange left it reusable.
+     *
+     * @param backend   The backend server to forward to
+     * @param permit    Circuit breaker permit the request was admitted with
+     * @param started   Attempt that already exchanged the heads (hedged requests), or null
+     * @param request   Parsed request headers
+     * @param clientIn  Buffered client input positioned at the request body
+     * @param clientOut Client output stream
+     * @param cacheKey  Cache key if the response may be stored, otherwise null
+     * @param requestFields Request fields (when cacheKey or flight is set)
+     * @param flight    Flight this request leads, or null
+     * @return true if the client connection can carry another request
      * @throws IOException If there's an error during forwarding
      */
-    private void forwardRequest(Backend backend) throws IOException {
-        // Create backend socket with connection timeout
-        Socket backendSocket = new Socket();
+    private boolean forwardRequest(Backend backend, long permit, BackendAttempt started, HttpHeaderInfo request,
+            HttpInputStream clientIn, OutputStream clientOut, String cacheKey, List<Header> requestFields,
+            RequestCoalescer.Flight flight) throws IOException {
+        BackendConnectionPool pool = backend.getConnectionPool();
+        long start = started != null ? started.getStartedAt() : System.nanoTime();
+        PooledConnection connection;
+        HttpHeaderInfo response = null;
+        if (started != null) {
+            connection = started.getConnection();
+            response = started.getResponse();
+        } else if (!request.hasBody()) {
+            BackendAttempt attempt = new BackendAttempt(backend);
+            response = sendRequest(attempt, request);
+            connection = attempt.getConnection();
+        } else {
+            try {
+                connection = pool.acquire();
+            } catch (IOException e) {
+                throw new BackendFailureException("Cannot connect to " + backend.getAddress(), e, false);
+            }
+        }
+        Future<?> upload = null;
+        boolean reusable = false;
         try {
-            // Connect with timeout to prevent hanging on unresponsive backends
-            backendSocket.connect(
-                    new InetSocketAddress(backend.getHost(), backend.getPort()),
-                    CONNECTION_TIMEOUT);
-            // Set read timeout for backend responses
-            backendSocket.setSoTimeout(READ_TIMEOUT);
-
-            // Get streams for all sockets
-            InputStream clientIn = clientSocket.getInputStream();
-            OutputStream clientOut = clientSocket.getOutputStream();
-            InputStream backendIn = backendSocket.getInputStream();
-            OutputStream backendOut = backendSocket.getOutputStream();
+            if (response == null) {
+                // Send the head, then stream the body while waiting for the response
+                try {
+                    writeHead(connection, request);
+                } catch (IOException e) {
+                    // No body bytes were taken from the client yet, so the request can still be resent
+                    throw new BackendFailureException("Cannot send request to " + backend.getAddress(), e, true);
+                }
+                upload = startUpload(request, clientIn, connection);
+                response = awaitResponse(backend, connection, upload);
+            }
 
-            // Forward request from client to backend
-            forwardHttpMessage(clientIn, backendOut, true);
+            // Forward response from backend to client, passing interim 1xx responses through
+            HttpInputStream backendIn = connection.getInputStream();
+            while (response.isInterim()) {
+                clientOut.write(response.buf, response.offset, response.length);
+                response = awaitResponse(backend, connection, upload);
+            }
+            responseHeadAt = System.nanoTime();
+            recordResponse(backend, permit, response.statusCode, responseHeadAt - start);
 
-            // Forward response from backend to client
-            forwardHttpMessage(backendIn, clientOut, false);
+            // Capture the head now: the raw block is only valid until the body is read
+            long now = System.currentTimeMillis();
+            ResponseCache cache = context.getResponseCache();
+            DiskCache disk = cache != null ? cache.getDiskTier() : null;
+            long maxCachedBody = cache == null ? -1
+                    : disk == null ? cache.getMaxEntrySize() : Math.max(cache.getMaxEntrySize(), disk.getMaxEntrySize());
+            List<Header> responseFields = null;
+            long lifetime = 0;
+            if (cacheKey != null && "GET".equals(request.method) && !response.isChunked
+                    && response.contentLength >= 0 && response.contentLength <= maxCachedBody) {
+                responseFields = Http2Messages.responseHeaders(response);
+                lifetime = CachePolicy.freshnessLifetime(response.statusCode, responseFields, now);
+            }
+            // Share the response with waiting identical requests only if a shared cache could store it
+            RequestCoalescer.Flight sharing = null;
+            if (flight != null && !response.isChunked && response.contentLength >= 0
+                    && response.contentLength <= context.getRequestCoalescer().getMaxBodySize()
+                    && !isTunnel(request, response)) {
+                if (responseFields == null) {
+                    responseFields = Http2Messages.responseHeaders(response);
+                }
+                if (CachePolicy.isExplicitlyShareable(response.statusCode, responseFields, now)) {
+                    sharing = flight;
+                    sharing.publish(responseFields);
+                }
+            }
+            // Compress for this client if it accepts a coding and the response allows it
+            ResponseCompressor compressor = context.getResponseCompressor();
+            String encoding = compressor != null && request.http11 ? compressor.negotiate(requestFields) : null;
+            if (encoding != null) {
+                if (responseFields == null) {
+                    responseFields = Http2Messages.responseHeaders(response);
+                }
+                if (isTunnel(request, response) || !compressor.isCompressible(request.method, responseFields)) {
+                    encoding = null;
+                }
+            }
+            boolean persistent = isPersistent(request, response);
+
+            DiskCache.Writer diskWriter = lifetime > 0 && disk != null
+                    && response.contentLength >= disk.getMinEntrySize()
+                    ? disk.startWrite(cacheKey, responseFields, requestFields, response.contentLength, now, lifetime)
+                    : null;
+            boolean storeInMemory = diskWriter == null && lifetime > 0
+                    && response.contentLength <= cache.getMaxEntrySize();
+            // A body held whole is compressed at once and sent with its length; others are compressed as they stream
+            if (encoding == null) {
+                clientOut.write(response.buf, response.offset, response.length);
+            } else if (!storeInMemory) {
+                clientOut.write(Http2Messages.responseHead(
+                        compressor.encodedHeaders(responseFields, encoding, -1), true, !persistent));
+            }
+
+            if (storeInMemory) {
+                // Small enough to hold: read the whole body, send it, then offer it to the cache
+                byte[] body = readFixedLengthBody(backendIn, (int) response.contentLength);
+                CachedResponse stored = new CachedResponse(responseFields, requestFields, body, now, lifetime);
+                if (encoding != null) {
+                    // Keep the compressed body with the entry so later hits need not compress again
+                    byte[] encoded = compressor.compress(body, encoding);
+                    clientOut.write(Http2Messages.responseHead(
+                            compressor.encodedHeaders(responseFields, encoding, encoded.length), false, !persistent));
+                    clientOut.write(encoded);
+                    stored = stored.withEncodedBody(encoding, encoded);
+                } else {
+                    clientOut.write(body);
+                }
+                clientOut.flush();
+                cache.put(cacheKey, stored);
+                if (sharing != null) {
+                    sharing.append(body, 0, body.length);
+                    sharing.complete();
+                }
+                reusable = persistent;
+                return reusable;
+            }
+            if (diskWriter != null || sharing != null) {
+                // Stream the body to the client and into the mapped segment and waiting requests together
+                try (diskWriter; CompressingOutputStream compressed = encoding != null
+                        ? compressor.open(clientOut, encoding, backendIn) : null) {
+                    copyBody(backendIn, compressed != null ? compressed : clientOut, diskWriter, sharing,
+                            response.contentLength);
+                    if (compressed != null) {
+                        compressed.finish();
+                    }
+                    clientOut.flush();
+                    if (diskWriter != null) {
+                        diskWriter.commit();
+                    }
+                }
+                if (sharing != null) {
+                    sharing.complete();
+                }
+                reusable = persistent;
+                return reusable;
+            }
+
+            if (isTunnel(request, response) && (upload == null || upload.isDone())) {
+                // The connection now carries another protocol; splice until either side closes. A tunnel
+                // may stay open for hours, so it gives up its limiter slot without a sample
+                releaseLimit(false);
+                clientOut.flush();
+                new Tunnel(clientSocket, clientIn, connection.getSocket(), backendIn, tunnelIdleTimeout)
+                        .run(context.getRelayExecutor());
+                return false;
+            }
+
+            // Responses to HEAD and 204/304 responses never carry a body
+            boolean hasBody = !"HEAD".equals(request.method)
+                    && response.statusCode != 204 && response.statusCode != 304;
+            // The backend channel can only switch to a channel relay once the upload stopped using it
+            boolean uploading = upload != null && !upload.isDone();
+            boolean closeDelimited;
+            if (encoding != null) {
+                // Compressed bodies go through the heap and are re-framed as chunks
+                try (CompressingOutputStream compressed = compressor.open(clientOut, encoding, backendIn)) {
+                    closeDelimited = decodeBody(backendIn, compressed, response);
+                    compressed.finish();
+                }
+            } else {
+                closeDelimited = hasBody && forwardBody(backendIn, clientOut, response, false,
+                        uploading ? null : connection.getSocket().getChannel(), clientSocket.getChannel());
+            }
+            clientOut.flush();
+
+            // A response that finished before the upload leaves unread request bytes
+            // on both connections, so neither can carry another request
+            boolean uploaded = upload == null || awaitUpload(upload, connection.getSocket());
+
+            // A body that ends by connection close leaves no way to frame another
+            // response; the same rules decide reuse of the backend connection
+            reusable = uploaded && !closeDelimited && persistent;
+            return reusable;
 
         } finally {
-            // Close backend socket
+            // Never hand back the client buffer or backend connection while the upload still uses them
+            if (upload != null) {
+                awaitUpload(upload, connection.getSocket());
+            }
+            // Return the backend connection to the pool, or close it
+            pool.release(connection, reusable);
+        }
+    }
+
+    /*
+     * Forwards the request as one stream on a multiplexed HTTP/2 backend
+     * connection and writes the response back as HTTP/1.1. The body is
+     * re-framed both ways: HTTP/2 frames bodies itself, so chunked request
+     * bodies are de-chunked and responses without Content-Length are sent
+     * to the client chunked (or close-delimited for HTTP/1.0 clients).
+     *
+     * @param backend   Selected backend, reached over its multiplexed connections
+     * @param permit    Circuit breaker permit the request was admitted with
+     * @param request   Parsed request headers
+     * @param clientIn  Buffered client input positioned at the request body
+     * @param clientOut Client output stream
+     * @return true if the client connection can carry another request
+     * @throws IOException If there's an error during forwarding
+     */
+    private boolean forwardRequestHttp2(Backend backend, long permit, HttpHeaderInfo request,
+            HttpInputStream clientIn, OutputStream clientOut) throws IOException {
+        Http2BackendPool pool = backend.getHttp2Pool();
+        long start = System.nanoTime();
+        if ("CONNECT".equals(request.method)) {
+            // Tunnels cannot cross the protocol change
+            sendErrorResponse(clientSocket, 501, "Not Implemented");
+            return false;
+        }
+        Http2ClientStream stream;
+        try {
+            stream = pool.openStream();
+        } catch (IOException e) {
+            throw new BackendFailureException("Cannot open stream to " + pool.getAddress(), e, false);
+        }
+        Future<?> upload = null;
+        try {
             try {
-                backendSocket.close();
+                stream.start(Http2Messages.requestHeaders(request), !request.hasBody());
             } catch (IOException e) {
-                logger.debug("Error closing backend socket", e);
+                throw new BackendFailureException("Cannot send request to " + pool.getAddress(), e, true);
+            }
+            if (request.hasBody()) {
+                clientUploadFailed = false;
+                upload = submitRelay(() -> {
+                    try {
+                        writeBody(clientIn, stream, request);
+                        stream.end();
+                        return null;
+                    } catch (IOException e) {
+                        clientUploadFailed = !(e instanceof BackendFailureException);
+                        // Fail the response read on the handler thread too
+                        stream.cancel();
+                        throw e;
+                    }
+                });
+            }
+
+            // Interim responses are passed through; HTTP/2 has no 101
+            List<Header> response = awaitResponse(pool, stream, upload);
+            int status = Http2Messages.status(response);
+            while (status >= 100 && status < 200) {
+                clientOut.write(Http2Messages.responseHead(response, false, false));
+                clientOut.flush();
+                response = awaitResponse(pool, stream, upload);
+                status = Http2Messages.status(response);
+            }
+            responseHeadAt = System.nanoTime();
+            recordResponse(backend, permit, status, responseHeadAt - start);
+
+            boolean hasBody = !"HEAD".equals(request.method) && status != 204 && status != 304;
+            boolean framed = !hasBody || Http2Messages.hasHeader(response, "content-length");
+            // HTTP/1.0 clients cannot read chunked bodies, so an unframed body ends with the connection
+            boolean persistent = request.http11 && !request.connectionClose;
+            boolean chunked = !framed && persistent;
+            clientOut.write(Http2Messages.responseHead(response, chunked, !persistent));
+            if (hasBody) {
+                copyResponseBody(stream, clientOut, chunked);
+            }
+            clientOut.flush();
+
+            boolean uploaded = upload == null || awaitUpload(upload, stream::cancel);
+            return uploaded && persistent;
+        } finally {
+            if (upload != null) {
+                awaitUpload(upload, stream::cancel);
             }
+            stream.close();
         }
     }
 
     /*
-     * Forwards a complete HTTP message (request or response) from input to output.
-     * Parses headers to properly handle Content-Length and chunked transfer
-     * encoding.
-     * 
-     * @param input     Source input stream
-     * @param output    Destination output stream
-     * @param isRequest true if forwarding a request, false for response
-     * @throws IOException If there's an error during transfer
+     * Writes a request body to an HTTP/2 stream, removing chunked framing.
+     */
+    private void writeBody(HttpInputStream input, Http2ClientStream stream, HttpHeaderInfo info) throws IOException {
+        OutputStream output = new BackendOutputStream(stream.getOutputStream());
+        if (!info.isChunked) {
+            forwardFixedLengthBody(input, output, info.contentLength);
+            return;
+        }
+        forwardDechunked(input, output);
+    }
+
+    /*
+     * Forwards the data of a chunked body without its chunked framing.
+     * Trailers are dropped.
      */
-    private void forwardHttpMessage(InputStream input, OutputStream output, boolean isRequest)
+    private void forwardDechunked(HttpInputStream input, OutputStream output) throws IOException {
+        OutputStream discard = OutputStream.nullOutputStream();
+        while (true) {
+            long chunkSize = input.forwardChunkSizeLine(discard);
+            if (chunkSize < 0) {
+                throw new IOException("Missing or invalid chunk size");
+            }
+            if (chunkSize == 0) {
+                // Trailers are not forwarded
+                while (!input.forwardEmptyLine(discard)) {
+                    // Skip trailer fields
+                }
+                return;
+            }
+            forwardFixedLengthBody(input, output, chunkSize);
+            input.forwardEmptyLine(discard);
+        }
+    }
+
+    /*
+     * Forwards a response body's data without its framing, for re-encoding
+     * (see CompressingOutputStream).
+     *
+     * @return true if the body was delimited by the backend closing the connection
+     */
+    private boolean decodeBody(HttpInputStream input, OutputStream output, HttpHeaderInfo info) throws IOException {
+        if (info.isChunked) {
+            forwardDechunked(input, output);
+            return false;
+        }
+        if (info.contentLength >= 0) {
+            forwardFixedLengthBody(input, output, info.contentLength);
+            return false;
+        }
+        forwardUntilEof(input, output);
+        return true;
+    }
+
+    /*
+     * Copies a response body from an HTTP/2 stream to the client, adding
+     * chunked framing if requested.
+     */
+    private void copyResponseBody(Http2ClientStream stream, OutputStream clientOut, boolean chunked)
             throws IOException {
-        BufferedInputStream bufferedInput = new BufferedInputStream(input, BUFFER_SIZE);
+        byte[] buffer = bufferPool.acquireArray(BUFFER_SIZE);
+        try {
+            int bytesRead;
+            while ((bytesRead = stream.read(buffer, 0, buffer.length)) != -1) {
+                if (chunked) {
+                    clientOut.write((Integer.toHexString(bytesRead) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                    clientOut.write(buffer, 0, bytesRead);
+                    clientOut.write('\r');
+                    clientOut.write('\n');
+                } else {
+                    clientOut.write(buffer, 0, bytesRead);
+                }
+            }
+            if (chunked) {
+                clientOut.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /*
+     * Closes the backend socket without releasing the connection's buffer.
+     */
+    private static void closeSocket(PooledConnection connection) {
+        try {
+            connection.getSocket().close();
+        } catch (IOException e) {
+            // Nothing useful to do; the connection is being discarded
+        }
+    }
 
-        // Read and forward headers, getting content info
-        HttpHeaderInfo headerInfo = readAndForwardHeaders(bufferedInput, output);
+    /*
+     * Starts streaming the request body to the backend on an upload thread.
+     * If the upload fails, the backend socket is closed so the response read
+     * on this thread fails too instead of waiting for the read timeout.
+     * Write failures on the backend side end the upload with a
+     * BackendFailureException, so they can be told from client failures.
+     */
+    private Future<?> startUpload(HttpHeaderInfo request, HttpInputStream clientIn, PooledConnection connection)
+            throws IOException {
+        clientUploadFailed = false;
+        return submitRelay(() -> {
+            try {
+                // Stream copy only: the response is read from the same backend channel meanwhile
+                OutputStream backendOut = new BackendOutputStream(connection.getOutputStream());
+                forwardBody(clientIn, backendOut, request, true, null, null);
+                backendOut.flush();
+                return null;
+            } catch (IOException e) {
+                // Set before the socket closes, which wakes the response read
+                clientUploadFailed = !(e instanceof BackendFailureException);
+                // Only the socket: the response side still owns the connection's read buffer
+                closeSocket(connection);
+                throw e;
+            }
+        });
+    }
 
-        // Forward body based on transfer encoding
-        if (headerInfo.isChunked) {
-            // Chunked transfer encoding - read chunks until terminator
-            forwardChunkedBody(bufferedInput, output);
-        } else if (headerInfo.contentLength > 0) {
-            // Content-Length specified - read exact number of bytes
-            forwardFixedLengthBody(bufferedInput, output, headerInfo.contentLength);
-        } else if (headerInfo.contentLength == -1 && !isRequest) {
-            // Response with no Content-Length (connection: close) - read until EOF
-            forwardUntilEof(bufferedInput, output);
+    /*
+     * Runs a task on a relay thread of this listener.
+     *
+     * @throws IOException If no relay thread is available
+     */
+    private Future<?> submitRelay(Callable<?> task) throws IOException {
+        try {
+            return context.getRelayExecutor().submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("No relay thread available", e);
         }
-        // If contentLength == 0 or request with no body, nothing more to do
+    }
 
-        output.flush();
+    /*
+     * Waits for the upload to finish. If it is still running (the response
+     * completed first), it is aborted by shutting down the client input and
+     * closing the backend side it writes to.
+     *
+     * @param backend Backend socket or stream the upload writes to
+     * @return true if the whole request body was forwarded
+     */
+    private boolean awaitUpload(Future<?> upload, Closeable backend) {
+        boolean aborted = false;
+        if (!upload.isDone()) {
+            logger.debug("Response completed before the request body, aborting upload");
+            aborted = true;
+            try {
+                clientSocket.shutdownInput();
+            } catch (IOException e) {
+                // The client may already be gone; closing the backend still stops the upload
+            }
+            try {
+                backend.close();
+            } catch (IOException e) {
+                // Nothing useful to do; the backend side is being discarded
+            }
+        }
+        try {
+            upload.get();
+            return !aborted;
+        } catch (ExecutionException e) {
+            if (!aborted) {
+                logger.debug("Request body upload failed: {}", e.getCause().getMessage());
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
     /*
-     * Reads HTTP headers line by line and forwards them to output.
-     * Extracts Content-Length and Transfer-Encoding values.
-     * 
-     * @param input  Buffered input stream
-     * @param output Output stream
-     * @return HttpHeaderInfo containing content length and chunk encoding status
-     * @throws IOException If there's an error reading/writing
+     * Sends a request without a body and reads the first response head. A
+     * pooled connection that turns out to be stale is replaced once.
+     *
+     * @param attempt Attempt that holds the connection
+     * @param request Parsed request headers
+     * @return Headers of the first (possibly interim) response
+     * @throws BackendFailureException If the backend fails before responding; the connection is closed
      */
-    private HttpHeaderInfo readAndForwardHeaders(BufferedInputStream input, OutputStream output)
+    private HttpHeaderInfo sendRequest(BackendAttempt attempt, HttpHeaderInfo request)
+            throws BackendFailureException {
+        Backend backend = attempt.getBackend();
+        BackendConnectionPool pool = backend.getConnectionPool();
+        PooledConnection connection;
+        try {
+            connection = pool.acquire();
+        } catch (IOException e) {
+            throw new BackendFailureException("Cannot connect to " + backend.getAddress(), e, false);
+        }
+        try {
+            try {
+                attach(attempt, connection);
+                writeHead(connection, request);
+                return readResponse(connection);
+            } catch (IOException e) {
+                // A pooled connection may have been closed by the backend while idle.
+                // Without a body nothing was consumed from the client, so resend once.
+                if (!connection.isReused()) {
+                    throw e;
+                }
+                logger.debug("Stale pooled connection to {}, retrying: {}",
+                        backend.getAddress(), e.getMessage());
+                connection.close();
+                connection = pool.connect();
+                attach(attempt, connection);
+                writeHead(connection, request);
+                return readResponse(connection);
+            }
+        } catch (IOException e) {
+            connection.close();
+            throw new BackendFailureException("No response from " + backend.getAddress(), e, true);
+        }
+    }
+
+    /*
+     * Hands a connection to its attempt, failing if the attempt lost its race.
+     */
+    private static void attach(BackendAttempt attempt, PooledConnection connection) throws IOException {
+        if (!attempt.attach(connection)) {
+            throw new IOException("Hedged request cancelled");
+        }
+    }
+
+    /*
+     * Writes the request header block to the backend in one write.
+     */
+    private void writeHead(PooledConnection connection, HttpHeaderInfo request) throws IOException {
+        OutputStream backendOut = connection.getOutputStream();
+        backendOut.write(request.buf, request.offset, request.length);
+        backendOut.flush();
+    }
+
+    /*
+     * Reads the next response head of a request whose head was sent. The
+     * backend is blamed for a failure unless the body upload failed on the
+     * client side first (which also closes the backend socket).
+     *
+     * @param upload Upload of the request body, or null
+     * @return Headers of the next (possibly interim) response
+     * @throws BackendFailureException If the backend failed, timed out or closed before responding
+     */
+    private HttpHeaderInfo awaitResponse(Backend backend, PooledConnection connection, Future<?> upload)
             throws IOException {
-        HttpHeaderInfo info = new HttpHeaderInfo();
-        StringBuilder lineBuilder = new StringBuilder();
-        boolean headersComplete = false;
+        try {
+            return readResponse(connection);
+        } catch (IOException e) {
+            if (upload != null && clientUploadFailed) {
+                throw e;
+            }
+            throw new BackendFailureException("No response from " + backend.getAddress(), e, true, upload != null);
+        }
+    }
 
-        // Read headers line by line until empty line (end of headers)
-        while (!headersComplete) {
-            int b = input.read();
-            if (b == -1) {
-                break; // End of stream
+    /*
+     * Reads the next response head from a stream on an h2c backend, like
+     * the HTTP/1.1 variant above.
+     *
+     * @param upload Upload of the request body, or null
+     * @return Fields of the next (possibly interim) response
+     * @throws BackendFailureException If the backend failed, timed out or reset the stream before responding
+     */
+    private List<Header> awaitResponse(Http2BackendPool pool, Http2ClientStream stream, Future<?> upload)
+            throws IOException {
+        try {
+            return stream.readHeaders();
+        } catch (IOException e) {
+            if (upload != null && clientUploadFailed) {
+                throw e;
             }
+            throw new BackendFailureException("No response from " + pool.getAddress(), e, true, upload != null);
+        }
+    }
+
+    /*
+     * Reads the first response header block from the backend.
+     *
+     * @return Headers of the first (possibly interim) response
+     * @throws IOException If the backend fails or closes before responding
+     */
+    private HttpHeaderInfo readResponse(PooledConnection connection) throws IOException {
+        HttpHeaderInfo response = readHeaders(connection.getInputStream());
+        if (response == null) {
+            throw new EOFException("Backend closed connection without a response");
+        }
+        return response;
+    }
 
-            output.write(b);
+    /*
+     * Writes a response from the memory cache. A client accepting a content
+     * coding gets the compressed body, which is compressed on the first such
+     * hit and then kept with the entry.
+     *
+     * @return true if the client connection can carry another request
+     */
+    private boolean sendCachedResponse(CachedResponse cached, String cacheKey, HttpHeaderInfo request,
+            List<Header> requestFields, OutputStream clientOut) throws IOException {
+        long age = cached.getAge(System.currentTimeMillis());
+        String encoding = responseEncoding(request, requestFields, cached.getHeaders());
+        if (encoding == null || isNotModified(cached.getHeaders(), CachePolicy.value(requestFields, "if-none-match"))) {
+            return sendStoredResponse(cached.getHeaders(), age, ByteBuffer.wrap(cached.getBody()), null, request,
+                    requestFields, clientOut);
+        }
+        ResponseCompressor compressor = context.getResponseCompressor();
+        byte[] encoded = cached.getEncodedBody(encoding);
+        if (encoded == null) {
+            encoded = compressor.compress(cached.getBody(), encoding);
+            context.getResponseCache().replace(cacheKey, cached, cached.withEncodedBody(encoding, encoded));
+        }
+        return sendStoredResponse(compressor.encodedHeaders(cached.getHeaders(), encoding, encoded.length), age,
+                ByteBuffer.wrap(encoded), null, request, requestFields, clientOut);
+    }
 
-            if (b == '\n') {
-                String line = lineBuilder.toString().trim();
+    /*
+     * Writes a response from the disk cache, compressing it on the fly for
+     * clients that accept a content coding.
+     *
+     * @return true if the client connection can carry another request
+     */
+    private boolean sendStoredResponse(List<Header> stored, long age, ByteBuffer body, HttpHeaderInfo request,
+            List<Header> requestFields, OutputStream clientOut) throws IOException {
+        return sendStoredResponse(stored, age, body, responseEncoding(request, requestFields, stored), request,
+                requestFields, clientOut);
+    }
 
-                if (line.isEmpty()) {
-                    // Empty line = end of headers
-                    headersComplete = true;
-                } else {
-                    // Parse header for content info
-                    String lowerLine = line.toLowerCase();
-                    if (lowerLine.startsWith("content-length:")) {
-                        try {
-                            info.contentLength = Long.parseLong(line.substring(15).trim());
-                        } catch (NumberFormatException e) {
-                            logger.debug("Invalid Content-Length header: {}", line);
-                        }
-                    } else if (lowerLine.startsWith("transfer-encoding:")
-                            && lowerLine.contains("chunked")) {
-                        info.isChunked = true;
-                    }
-                }
-                lineBuilder = new StringBuilder();
-            } else if (b != '\r') {
-                lineBuilder.append((char) b);
+    /*
+     * Writes a stored response to the client, with its current Age. A
+     * matching If-None-Match gets 304 Not Modified instead of the body.
+     *
+     * @param stored   Stored response fields including :status
+     * @param age      Current age in seconds
+     * @param body     Stored body: a heap buffer from memory or a mapped slice from disk
+     * @param encoding Content coding to compress the body with as it is sent, or null
+     * @return true if the client connection can carry another request
+     */
+    private boolean sendStoredResponse(List<Header> stored, long age, ByteBuffer body, String encoding,
+            HttpHeaderInfo request, List<Header> requestFields, OutputStream clientOut) throws IOException {
+        boolean keepAlive = request.http11 && !request.connectionClose;
+        boolean notModified = isNotModified(stored, CachePolicy.value(requestFields, "if-none-match"));
+        ResponseCompressor compressor = context.getResponseCompressor();
+        if (encoding != null && !notModified) {
+            stored = compressor.encodedHeaders(stored, encoding, -1);
+        } else {
+            encoding = null;
+        }
+
+        List<Header> headers = new ArrayList<>(stored.size() + 1);
+        for (Header header : stored) {
+            if (!notModified) {
+                headers.add(header);
+            } else if (header.getName().equals(":status")) {
+                headers.add(new BasicHeader(":status", "304"));
+            } else if (!header.getName().startsWith("content-")) {
+                headers.add(header);
+            }
+        }
+        headers.add(new BasicHeader("age", String.valueOf(age)));
+        clientOut.write(Http2Messages.responseHead(headers, encoding != null, !keepAlive));
+        if (encoding != null) {
+            try (CompressingOutputStream compressed = compressor.open(clientOut, encoding, null)) {
+                writeBuffer(body, compressed);
+                compressed.finish();
+            }
+        } else if (!notModified && !"HEAD".equals(request.method)) {
+            if (body.hasArray()) {
+                clientOut.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+            } else {
+                writeMapped(body, clientOut);
+            }
+        }
+        clientOut.flush();
+        return keepAlive;
+    }
+
+    /*
+     * Writes a body held in a mapped segment. On a plain connection the
+     * mapping goes to the socket channel directly, without a copy on the
+     * heap; through TLS it is copied in chunks to the encrypting stream.
+     */
+    private void writeMapped(ByteBuffer body, OutputStream clientOut) throws IOException {
+        ByteBuffer remaining = body.duplicate();
+        SocketChannel channel = clientSocket.getChannel();
+        if (channel != null && !(clientSocket instanceof SSLSocket)) {
+            // The head is still in the stream's buffer
+            clientOut.flush();
+            while (remaining.hasRemaining()) {
+                channel.write(remaining);
+            }
+            return;
+        }
+        writeBuffer(remaining, clientOut);
+    }
+
+    /*
+     * Writes a buffer's remaining bytes to a stream, through a pooled array
+     * unless the buffer is backed by one.
+     */
+    private void writeBuffer(ByteBuffer body, OutputStream output) throws IOException {
+        if (body.hasArray()) {
+            output.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+            return;
+        }
+        ByteBuffer remaining = body.duplicate();
+        byte[] buffer = bufferPool.acquireArray(BUFFER_SIZE);
+        try {
+            while (remaining.hasRemaining()) {
+                int chunk = Math.min(buffer.length, remaining.remaining());
+                remaining.get(buffer, 0, chunk);
+                output.write(buffer, 0, chunk);
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /*
+     * Chooses the content coding for sending a stored or shared response to
+     * this client.
+     *
+     * @return The coding, or null to send the body as it is
+     */
+    private String responseEncoding(HttpHeaderInfo request, List<Header> requestFields, List<Header> responseFields) {
+        ResponseCompressor compressor = context.getResponseCompressor();
+        if (compressor == null || !request.http11) {
+            return null;
+        }
+        String encoding = compressor.negotiate(requestFields);
+        return encoding != null && compressor.isCompressible(request.method, responseFields) ? encoding : null;
+    }
+
+    /*
+     * Waits for the response of the flight this request joined.
+     *
+     * @return The shared response fields, or null if the request must be forwarded itself
+     */
+    private static List<Header> awaitFlight(RequestCoalescer.Flight flight, List<Header> requestFields)
+            throws IOException {
+        try {
+            return flight.awaitHead(requestFields);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for coalesced response");
+        }
+    }
+
+    /*
+     * Writes the response of another client's identical request, streaming
+     * the body as the flight's leader relays it.
+     *
+     * @param headers Shared response fields including :status
+     * @return true if the client connection can carry another request
+     */
+    private boolean sendCoalescedResponse(RequestCoalescer.Flight flight, List<Header> headers,
+            HttpHeaderInfo request, List<Header> requestFields, OutputStream clientOut) throws IOException {
+        boolean keepAlive = request.http11 && !request.connectionClose;
+        String encoding = responseEncoding(request, requestFields, headers);
+        if (encoding == null) {
+            clientOut.write(Http2Messages.responseHead(headers, false, !keepAlive));
+            byte[] chunk;
+            for (int index = 0; (chunk = flight.awaitChunk(index)) != null; index++) {
+                clientOut.write(chunk);
+            }
+            clientOut.flush();
+            return keepAlive;
+        }
+        ResponseCompressor compressor = context.getResponseCompressor();
+        clientOut.write(Http2Messages.responseHead(compressor.encodedHeaders(headers, encoding, -1), true, !keepAlive));
+        try (CompressingOutputStream compressed = compressor.open(clientOut, encoding, null)) {
+            byte[] chunk;
+            for (int index = 0; (chunk = flight.awaitChunk(index)) != null; index++) {
+                // Send each part the leader relayed as soon as it arrives
+                compressed.write(chunk);
+                compressed.flush();
+            }
+            compressed.finish();
+        }
+        clientOut.flush();
+        return keepAlive;
+    }
+
+    /*
+     * Returns whether an If-None-Match value lists the stored ETag (weak comparison).
+     */
+    private static boolean isNotModified(List<Header> headers, String ifNoneMatch) {
+        String etag = CachePolicy.value(headers, "etag");
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        String stored = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(stored)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * A 101 response switches protocols and a 2xx response to CONNECT opens a
+     * tunnel; either way the rest of the connection is opaque bytes.
+     */
+    private boolean isTunnel(HttpHeaderInfo request, HttpHeaderInfo response) {
+        return response.statusCode == 101
+                || ("CONNECT".equals(request.method) && response.statusCode >= 200 && response.statusCode < 300);
+    }
+
+    /*
+     * Decides whether the client connection stays open after this exchange.
+     * HTTP/1.1 is persistent unless either side sends "Connection: close";
+     * HTTP/1.0 is persistent only when both sides send "Connection: keep-alive".
+     * A 101 response hands the connection to another protocol, so it is not reused.
+     */
+    private boolean isPersistent(HttpHeaderInfo request, HttpHeaderInfo response) {
+        if (response.statusCode == 101 || request.connectionClose || response.connectionClose) {
+            return false;
+        }
+        if (!request.http11) {
+            return request.connectionKeepAlive && response.connectionKeepAlive;
+        }
+        return response.http11 || response.connectionKeepAlive;
+    }
+
+    /*
+     * Forwards a message body based on its framing headers.
+     *
+     * @param input     Source input stream
+     * @param output    Destination output stream
+     * @param info      Parsed headers of the message
+     * @param isRequest true if forwarding a request, false for response
+     * @param source    Channel behind input (null if the socket has none)
+     * @param target    Channel behind output (null if the socket has none)
+     * @return true if the body was delimited by the source closing the connection
+     * @throws IOException If there's an error during transfer
+     */
+    private boolean forwardBody(HttpInputStream input, OutputStream output, HttpHeaderInfo info, boolean isRequest,
+            SocketChannel source, SocketChannel target) throws IOException {
+        boolean relay = zeroCopy && source != null && target != null;
+        if (info.isChunked) {
+            // Chunked transfer encoding - read chunks until terminator
+            forwardChunkedBody(input, output);
+        } else if (info.contentLength > 0) {
+            // Content-Length specified - read exact number of bytes
+            if (relay && info.contentLength - input.buffered() >= ZERO_COPY_THRESHOLD) {
+                relayBody(input, output, info.contentLength, source, target);
+            } else {
+                forwardFixedLengthBody(input, output, info.contentLength);
+            }
+        } else if (info.contentLength == -1 && !isRequest) {
+            // Response with no Content-Length (connection: close) - read until EOF
+            if (relay) {
+                relayBody(input, output, -1, source, target);
+            } else {
+                forwardUntilEof(input, output);
             }
+            return true;
         }
+        // If contentLength == 0 or request with no body, nothing more to do
+        return false;
+    }
 
-        return info;
+    /*
+     * Reads and parses the next HTTP header block (start line and headers).
+     * The raw block stays in the stream's buffer so it can be forwarded with
+     * a single write.
+     *
+     * @param input Connection input stream
+     * @return HttpHeaderInfo for the message, or null if the stream ended before any byte
+     * @throws IOException If there's an error reading
+     */
+    private HttpHeaderInfo readHeaders(HttpInputStream input) throws IOException {
+        HttpHeaderInfo info = new HttpHeaderInfo();
+        return input.readHeaders(info) ? info : null;
     }
 
     /*
      * Forwards a fixed-length body based on Content-Length header.
-     * 
+     *
      * @param input         Source input stream
      * @param output        Destination output stream
      * @param contentLength Number of bytes to read
@@ -260,114 +1480,215 @@ public class ProxyHandler implements Runnable {
      */
     private void forwardFixedLengthBody(InputStream input, OutputStream output, long contentLength)
             throws IOException {
-        byte[] buffer = new byte[BUFFER_SIZE];
-        long remaining = contentLength;
+        byte[] buffer = bufferPool.acquireArray(BUFFER_SIZE);
+        try {
+            long remaining = contentLength;
 
-        while (remaining > 0) {
-            int toRead = (int) Math.min(buffer.length, remaining);
-            int bytesRead = input.read(buffer, 0, toRead);
+            while (remaining > 0) {
+                int toRead = (int) Math.min(buffer.length, remaining);
+                int bytesRead = input.read(buffer, 0, toRead);
+                if (bytesRead == -1) {
+                    throw new EOFException("Connection closed before end of body");
+                }
+                output.write(buffer, 0, bytesRead);
+                remaining -= bytesRead;
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /*
+     * Relays a fixed-length body to the client while writing it into a disk
+     * cache record and handing it to waiting coalesced requests (either may
+     * be null).
+     */
+    private void copyBody(InputStream input, OutputStream output, DiskCache.Writer writer,
+            RequestCoalescer.Flight flight, long contentLength) throws IOException {
+        byte[] buffer = bufferPool.acquireArray(BUFFER_SIZE);
+        try {
+            long remaining = contentLength;
+            while (remaining > 0) {
+                int bytesRead = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (bytesRead == -1) {
+                    throw new EOFException("Connection closed before end of body");
+                }
+                if (writer != null) {
+                    writer.write(buffer, 0, bytesRead);
+                }
+                if (flight != null) {
+                    flight.append(buffer, 0, bytesRead);
+                }
+                output.write(buffer, 0, bytesRead);
+                remaining -= bytesRead;
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /*
+     * Reads a whole fixed-length body into memory (for bodies that are cached).
+     */
+    private static byte[] readFixedLengthBody(InputStream input, int contentLength) throws IOException {
+        byte[] body = new byte[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            int bytesRead = input.read(body, read, contentLength - read);
             if (bytesRead == -1) {
-                break; // Unexpected end of stream
+                throw new EOFException("Connection closed before end of body");
             }
-            output.write(buffer, 0, bytesRead);
-            remaining -= bytesRead;
+            read += bytesRead;
         }
+        return body;
+    }
+
+    /*
+     * Relays a fixed-length or read-to-EOF body channel-to-channel.
+     * Body bytes already buffered by the input stream are written first
+     * through the stream, the rest moves through ChannelRelay.
+     *
+     * @param input         Source input stream (possibly holding the start of the body)
+     * @param output        Destination output stream
+     * @param contentLength Number of body bytes, or -1 to relay until end of stream
+     * @param source        Channel behind input
+     * @param target        Channel behind output
+     * @throws IOException If there's an error during transfer
+     */
+    private void relayBody(HttpInputStream input, OutputStream output, long contentLength,
+            SocketChannel source, SocketChannel target) throws IOException {
+        long buffered = input.buffered();
+        if (contentLength >= 0) {
+            buffered = Math.min(buffered, contentLength);
+        }
+        forwardFixedLengthBody(input, output, buffered);
+        output.flush();
+
+        long remaining = contentLength < 0 ? -1 : contentLength - buffered;
+        ChannelRelay.transfer(source, target, remaining, source.socket().getSoTimeout());
     }
 
     /*
      * Forwards chunked transfer encoded body.
      * Reads chunk size, chunk data, and forwards until final 0-size chunk.
-     * 
+     * Size lines and trailers are forwarded a whole line per write.
+     *
      * @param input  Source input stream
      * @param output Destination output stream
      * @throws IOException If there's an error during transfer
      */
-    private void forwardChunkedBody(InputStream input, OutputStream output) throws IOException {
-        byte[] buffer = new byte[BUFFER_SIZE];
+    private void forwardChunkedBody(HttpInputStream input, OutputStream output) throws IOException {
+        byte[] buffer = bufferPool.acquireArray(BUFFER_SIZE);
+        try {
+            forwardChunks(input, output, buffer);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
 
+    /*
+     * Forwards chunks using the given transfer buffer (see forwardChunkedBody).
+     */
+    private void forwardChunks(HttpInputStream input, OutputStream output, byte[] buffer) throws IOException {
         while (true) {
-            // Read chunk size line
-            String sizeLine = readLine(input, output);
-            if (sizeLine == null || sizeLine.isEmpty()) {
-                break;
-            }
-
-            // Parse chunk size (hex)
-            int chunkSize;
-            try {
-                // Handle extensions after semicolon
-                int semiIndex = sizeLine.indexOf(';');
-                String sizeStr = semiIndex >= 0 ? sizeLine.substring(0, semiIndex) : sizeLine;
-                chunkSize = Integer.parseInt(sizeStr.trim(), 16);
-            } catch (NumberFormatException e) {
-                logger.debug("Invalid chunk size: {}", sizeLine);
+            // Read and forward chunk size line (hex, extensions after ';' ignored)
+            long chunkSize = input.forwardChunkSizeLine(output);
+            if (chunkSize < 0) {
+                logger.debug("Missing or invalid chunk size");
                 break;
             }
 
             if (chunkSize == 0) {
-                // Final chunk - read trailing headers/CRLF
-                readLine(input, output);
+                // Final chunk - forward trailer headers up to the terminating empty line
+                boolean trailersDone;
+                do {
+                    trailersDone = input.forwardEmptyLine(output);
+                } while (!trailersDone);
                 break;
             }
 
             // Read and forward chunk data
-            int remaining = chunkSize;
+            long remaining = chunkSize;
             while (remaining > 0) {
-                int toRead = Math.min(buffer.length, remaining);
+                int toRead = (int) Math.min(buffer.length, remaining);
                 int bytesRead = input.read(buffer, 0, toRead);
                 if (bytesRead == -1) {
-                    break;
+                    throw new EOFException("Connection closed in the middle of a chunk");
                 }
                 output.write(buffer, 0, bytesRead);
                 remaining -= bytesRead;
             }
 
             // Read trailing CRLF after chunk data
-            readLine(input, output);
+            input.forwardEmptyLine(output);
         }
     }
 
     /*
      * Forwards data until end of stream (for responses without Content-Length).
-     * 
+     *
      * @param input  Source input stream
      * @param output Destination output stream
      * @throws IOException If there's an error during transfer
      */
     private void forwardUntilEof(InputStream input, OutputStream output) throws IOException {
-        byte[] buffer = new byte[BUFFER_SIZE];
-        int bytesRead;
-        while ((bytesRead = input.read(buffer)) != -1) {
-            output.write(buffer, 0, bytesRead);
+        byte[] buffer = bufferPool.acquireArray(BUFFER_SIZE);
+        try {
+            int bytesRead;
+            while ((bytesRead = input.read(buffer)) != -1) {
+                output.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            bufferPool.release(buffer);
         }
     }
 
     /*
-     * Reads a line from input and writes it to output.
-     * 
-     * @param input  Source input stream
-     * @param output Destination output stream
-     * @return The line read (without CRLF)
-     * @throws IOException If there's an error during read/write
-     */
-    private String readLine(InputStream input, OutputStream output) throws IOException {
-        StringBuilder line = new StringBuilder();
-        int b;
-        while ((b = input.read()) != -1) {
-            output.write(b);
-            if (b == '\n') {
-                break;
-            } else if (b != '\r') {
-                line.append((char) b);
-            }
+     * Reports a backend's final response status to the outlier detector and
+     * the backend's circuit breaker; 5xx responses count as failures.
+     *
+     * @param permit       Circuit breaker permit the request was admitted with
+     * @param elapsedNanos Time from sending the request to the response head
+     */
+    private void recordResponse(Backend backend, long permit, int statusCode, long elapsedNanos) {
+        if (backend == unreportedPermit) {
+            unreportedPermit = null;
+        }
+        OutlierDetector detector = context.getOutlierDetector();
+        if (detector != null) {
+            detector.recordResponse(backend, statusCode);
+        }
+        CircuitBreaker breaker = backend.getCircuitBreaker();
+        if (breaker != null) {
+            breaker.record(permit, statusCode >= 500 && statusCode < 600, elapsedNanos);
+        }
+    }
+
+    /*
+     * Reports a backend request that failed without a response to the
+     * outlier detector and the backend's circuit breaker.
+     *
+     * @param permit       Circuit breaker permit the request was admitted with
+     * @param elapsedNanos Time from sending the request to the failure
+     */
+    private void recordFailure(Backend backend, long permit, long elapsedNanos) {
+        if (backend == unreportedPermit) {
+            unreportedPermit = null;
+        }
+        OutlierDetector detector = context.getOutlierDetector();
+        if (detector != null) {
+            detector.recordFailure(backend);
+        }
+        CircuitBreaker breaker = backend.getCircuitBreaker();
+        if (breaker != null) {
+            breaker.record(permit, true, elapsedNanos);
         }
-        return line.toString();
     }
 
     /*
      * Sends an HTTP error response to the client.
      * Used when no backends are available or an error occurs.
-     * 
+     *
      * @param socket     Client socket to send response to
      * @param statusCode HTTP status code (e.g., 503)
      * @param message    Error message to include in response
@@ -393,12 +1714,53 @@ public class ProxyHandler implements Runnable {
     }
 
     /*
-     * Helper class to hold HTTP header information extracted during parsing.
+     * Backend output of a body upload; write failures become
+     * BackendFailureExceptions so the handler knows the backend broke off.
+     */
+    private static final class BackendOutputStream extends FilterOutputStream {
+        BackendOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                throw new BackendFailureException("Cannot send request body", e, true, true);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                throw new BackendFailureException("Cannot send request body", e, true, true);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new BackendFailureException("Cannot send request body", e, true, true);
+            }
+        }
+    }
+
+    /*
+     * Creates daemon relay threads with readable names.
      */
-    private static class HttpHeaderInfo {
-        // Content-Length value (-1 if not specified)
-        long contentLength = -1;
-        // Whether Transfer-Encoding: chunked is set
-        boolean isChunked = false;
+    private static final class ThreadFactory implements java.util.concurrent.ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "relay-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
@@ -0,0 +1,68 @@
+package com.loadbalancer.proxy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * RequestBudget limits extra backend requests (retries, hedges) to a share
+ * of the traffic. Every request deposits a fraction of a token and every
+ * extra request withdraws a whole one, so over time at most the configured
+ * ratio of requests is sent twice. The budget holds a few tokens at most,
+ * which allows a short burst at low traffic but never a sustained surge.
+ */
+final class RequestBudget {
+    // Units per token; deposits are fractions of a token
+    private static final long UNITS_PER_TOKEN = 1000;
+
+    // Units each request deposits, and most units the budget holds
+    private final long deposit;
+    private final long capacity;
+
+    // Units currently in the budget
+    private final AtomicLong balance;
+
+    /**
+     * Constructor creates a full budget.
+     *
+     * @param ratio Extra requests allowed per request on average (e.g. 0.1 for 10%)
+     * @param burst Tokens the budget holds at most
+     */
+    RequestBudget(double ratio, int burst) {
+        this.deposit = Math.round(ratio * UNITS_PER_TOKEN);
+        this.capacity = (long) burst * UNITS_PER_TOKEN;
+        this.balance = new AtomicLong(capacity);
+    }
+
+    /*
+     * Adds a request's share to the budget.
+     */
+    void deposit() {
+        long current;
+        do {
+            current = balance.get();
+            if (current >= capacity) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(capacity, current + deposit)));
+    }
+
+    /*
+     * Takes a token for an extra request.
+     *
+     * @return false if the budget is empty
+     */
+    boolean tryWithdraw() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < UNITS_PER_TOKEN) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - UNITS_PER_TOKEN));
+        return true;
+    }
+
+    // Tokens currently available
+    double getAvailable() {
+        return (double) balance.get() / UNITS_PER_TOKEN;
+    }
+}
@@ -0,0 +1,81 @@
+package com.loadbalancer.proxy;
+
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * RetryPolicy decides whether a request whose backend failed before any
+ * response reached the client is sent again to another backend.
+ *
+ * A request is retried only if resending it cannot repeat a side effect:
+ * either it never reached the backend (the connection could not be opened),
+ * or its method is idempotent. Each request is retried at most a fixed
+ * number of times, and all retries draw from a shared budget: every request
+ * deposits a fraction of a retry and every retry withdraws a whole one, so
+ * retries stay a bounded share of the traffic. When many backends fail at
+ * once the budget runs dry and the failures are answered instead of being
+ * multiplied into a retry storm.
+ */
+public class RetryPolicy {
+    // Methods that may be resent after the backend may have seen them
+    private static final Set<String> IDEMPOTENT_METHODS = Set.of(
+            "GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE");
+
+    // Retries per request at most
+    private final int maxRetries;
+
+    // Budget shared by all retries
+    private final RequestBudget budget;
+
+    // Retries sent, and retries refused because the budget was empty
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    /**
+     * Constructor creates a policy with a full budget.
+     *
+     * @param maxRetries  Retries per request at most
+     * @param budgetRatio Retries allowed per request on average (e.g. 0.1 for 10%)
+     * @param burst       Retries the budget holds at most, available in a burst
+     */
+    public RetryPolicy(int maxRetries, double budgetRatio, int burst) {
+        this.maxRetries = maxRetries;
+        this.budget = new RequestBudget(budgetRatio, burst);
+    }
+
+    /*
+     * Adds a request's share to the budget; called once per forwarded request.
+     */
+    public void recordRequest() {
+        budget.deposit();
+    }
+
+    /*
+     * Returns whether a failed attempt is retried, and if so takes the
+     * retry from the budget.
+     *
+     * @param method      Request method
+     * @param requestSent Whether the request may have reached the backend
+     * @param attempt     Retries already made for this request
+     */
+    public boolean tryRetry(String method, boolean requestSent, int attempt) {
+        if (attempt >= maxRetries || (requestSent && !IDEMPOTENT_METHODS.contains(method))) {
+            return false;
+        }
+        if (!budget.tryWithdraw()) {
+            exhausted.increment();
+            return false;
+        }
+        retries.increment();
+        return true;
+    }
+
+    // Retries sent to another backend
+    public long getRetries() { return retries.sum(); }
+
+    // Retries refused because the budget was empty
+    public long getExhausted() { return exhausted.sum(); }
+
+    // Retries currently available in the budget
+    public double getAvailable() { return budget.getAvailable(); }
+}
@@ -0,0 +1,273 @@
+package com.loadbalancer.proxy;
+
+import com.loadbalancer.server.Backend;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * SniRouter picks the backend pool for a TLS connection from the server name
+ * (SNI) in its ClientHello, without decrypting anything. Used by listeners in
+ * "tls-passthrough" mode, where the backends terminate TLS themselves.
+ *
+ * Each backend lists the names it serves (server_names); "*.example.com"
+ * matches any single label in front of example.com. Backends without names
+ * form the default pool, used when the client sends no SNI or a name nobody
+ * serves.
+ *
+ * The per-connection path allocates nothing: findServerName() walks the
+ * ClientHello in the buffer it was read into and returns where the name is,
+ * and route() hashes and compares those bytes in place against an
+ * open-addressing table built once at startup.
+ */
+public class SniRouter {
+    // findServerName() result when the buffer does not yet hold the whole ClientHello
+    public static final long NEED_MORE = -1;
+
+    // findServerName() result when the bytes are not a ClientHello with a host name
+    public static final long NO_SERVER_NAME = 0;
+
+    // Largest TLS record (16KB plaintext plus header and expansion allowance)
+    public static final int MAX_RECORD_SIZE = 5 + 16384 + 2048;
+
+    // TLS record and handshake constants
+    private static final int CONTENT_TYPE_HANDSHAKE = 22;
+    private static final int HANDSHAKE_CLIENT_HELLO = 1;
+    private static final int EXTENSION_SERVER_NAME = 0;
+    private static final int NAME_TYPE_HOST_NAME = 0;
+
+    // Routing table slots: lowercase names (wildcards stored as ".example.com") and their pools
+    private final byte[][] names;
+    private final List<Backend>[] pools;
+
+    // Table size minus one (size is a power of two)
+    private final int mask;
+
+    // Backends without server names
+    private final List<Backend> defaultPool;
+
+    // Connections routed by name, to the default pool, and with nowhere to go
+    private final LongAdder routed = new LongAdder();
+    private final LongAdder defaulted = new LongAdder();
+    private final LongAdder unrouted = new LongAdder();
+
+    /**
+     * Constructor builds the routing table from the backends' server names.
+     *
+     * @param backends All backend servers
+     */
+    @SuppressWarnings("unchecked")
+    public SniRouter(List<Backend> backends) {
+        Map<String, List<Backend>> byName = new LinkedHashMap<>();
+        List<Backend> unnamed = new ArrayList<>();
+        for (Backend backend : backends) {
+            if (backend.getServerNames().isEmpty()) {
+                unnamed.add(backend);
+            }
+            for (String name : backend.getServerNames()) {
+                String key = name.toLowerCase(Locale.ROOT);
+                // "*.example.com" is looked up by the suffix after the first label
+                if (key.startsWith("*.")) {
+                    key = key.substring(1);
+                }
+                byName.computeIfAbsent(key, k -> new ArrayList<>()).add(backend);
+            }
+        }
+        this.defaultPool = List.copyOf(unnamed);
+
+        // Keep the table at most half full so probe sequences stay short
+        int size = Integer.highestOneBit(Math.max(byName.size(), 1) * 4 - 1);
+        this.names = new byte[size][];
+        this.pools = (List<Backend>[]) new List<?>[size];
+        this.mask = size - 1;
+        for (Map.Entry<String, List<Backend>> entry : byName.entrySet()) {
+            byte[] name = entry.getKey().getBytes(StandardCharsets.US_ASCII);
+            int slot = hash(name, 0, name.length) & mask;
+            while (names[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            names[slot] = name;
+            pools[slot] = List.copyOf(entry.getValue());
+        }
+    }
+
+    /*
+     * Returns the pool for a server name found by findServerName(), falling
+     * back to the default pool.
+     *
+     * @param buffer Buffer holding the ClientHello
+     * @param found  Result of findServerName() on that buffer
+     * @return Backends for the name, or an empty list if nothing serves it
+     */
+    public List<Backend> route(byte[] buffer, long found) {
+        if (found > 0) {
+            int offset = (int) (found >>> 32);
+            int length = (int) found;
+            List<Backend> pool = lookup(buffer, offset, length);
+            if (pool == null) {
+                // Try the wildcard for everything after the first label
+                for (int i = offset; i < offset + length; i++) {
+                    if (buffer[i] == '.') {
+                        pool = lookup(buffer, i, offset + length - i);
+                        break;
+                    }
+                }
+            }
+            if (pool != null) {
+                routed.increment();
+                return pool;
+            }
+        }
+        if (defaultPool.isEmpty()) {
+            unrouted.increment();
+        } else {
+            defaulted.increment();
+        }
+        return defaultPool;
+    }
+
+    /*
+     * Locates the host name in a ClientHello held in the first bytes of a
+     * buffer. Only a ClientHello carried in a single record is parsed, which
+     * covers every client seen in practice; anything else reads as no name.
+     *
+     * @param buffer Bytes read from the client so far
+     * @param length Number of valid bytes in the buffer
+     * @return NEED_MORE, NO_SERVER_NAME, or the name's offset in the upper
+     *         32 bits and its length in the lower 32 bits
+     */
+    public static long findServerName(byte[] buffer, int length) {
+        if (length < 5) {
+            return NEED_MORE;
+        }
+        if (buffer[0] != CONTENT_TYPE_HANDSHAKE || buffer[1] != 3) {
+            return NO_SERVER_NAME;
+        }
+        int recordEnd = 5 + readShort(buffer, 3);
+        if (recordEnd > MAX_RECORD_SIZE) {
+            return NO_SERVER_NAME;
+        }
+        if (length < recordEnd) {
+            return NEED_MORE;
+        }
+        if (recordEnd < 9 || buffer[5] != HANDSHAKE_CLIENT_HELLO) {
+            return NO_SERVER_NAME;
+        }
+        int end = Math.min(recordEnd, 9 + readMedium(buffer, 6));
+
+        // Skip version and random, then session id, cipher suites and compression methods
+        int position = 9 + 2 + 32;
+        if (position + 1 > end) {
+            return NO_SERVER_NAME;
+        }
+        position += 1 + (buffer[position] & 0xFF);
+        if (position + 2 > end) {
+            return NO_SERVER_NAME;
+        }
+        position += 2 + readShort(buffer, position);
+        if (position + 1 > end) {
+            return NO_SERVER_NAME;
+        }
+        position += 1 + (buffer[position] & 0xFF);
+        if (position + 2 > end) {
+            return NO_SERVER_NAME;
+        }
+        int extensionsEnd = Math.min(end, position + 2 + readShort(buffer, position));
+        position += 2;
+
+        while (position + 4 <= extensionsEnd) {
+            int type = readShort(buffer, position);
+            int extensionEnd = position + 4 + readShort(buffer, position + 2);
+            position += 4;
+            if (extensionEnd > extensionsEnd) {
+                return NO_SERVER_NAME;
+            }
+            if (type == EXTENSION_SERVER_NAME) {
+                // server_name_list: entries of name type, length and name
+                position += 2;
+                while (position + 3 <= extensionEnd) {
+                    int nameType = buffer[position] & 0xFF;
+                    int nameLength = readShort(buffer, position + 1);
+                    position += 3;
+                    if (position + nameLength > extensionEnd) {
+                        return NO_SERVER_NAME;
+                    }
+                    if (nameType == NAME_TYPE_HOST_NAME && nameLength > 0) {
+                        return ((long) position << 32) | nameLength;
+                    }
+                    position += nameLength;
+                }
+                return NO_SERVER_NAME;
+            }
+            position = extensionEnd;
+        }
+        return NO_SERVER_NAME;
+    }
+
+    // Backends without server names
+    public List<Backend> getDefaultPool() { return defaultPool; }
+
+    // Connections routed by server name
+    public long getRouted() { return routed.sum(); }
+
+    // Connections sent to the default pool
+    public long getDefaulted() { return defaulted.sum(); }
+
+    // Connections closed because no backend serves the name
+    public long getUnrouted() { return unrouted.sum(); }
+
+    /*
+     * Finds the pool for a name in the table, ignoring ASCII case.
+     */
+    private List<Backend> lookup(byte[] buffer, int offset, int length) {
+        int slot = hash(buffer, offset, length) & mask;
+        byte[] name;
+        while ((name = names[slot]) != null) {
+            if (matches(name, buffer, offset, length)) {
+                return pools[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /*
+     * FNV-1a over the lowercased bytes.
+     */
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ toLower(bytes[i])) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(byte[] name, byte[] bytes, int offset, int length) {
+        if (name.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name[i] != toLower(bytes[offset + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static int readShort(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 8) | (buffer[offset + 1] & 0xFF);
+    }
+
+    private static int readMedium(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 16) | ((buffer[offset + 1] & 0xFF) << 8) | (buffer[offset + 2] & 0xFF);
+    }
+}
@@ -0,0 +1,243 @@
+package com.loadbalancer.proxy;
+
+import com.loadbalancer.algorithm.LoadBalancingAlgorithm;
+import com.loadbalancer.server.Backend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+/*
+ * TcpProxyHandler relays one client connection to one backend at layer 4.
+ * Used by listeners in "tcp" mode for protocols other than HTTP (Redis,
+ * Postgres, gRPC over TLS...): a backend is picked once per connection with
+ * the configured algorithm and bytes are spliced both ways without looking at
+ * them. The connection counts against the backend until it closes.
+ *
+ * Unlike ProxyHandler nothing is written to the client when no backend is
+ * available, since the client's protocol is unknown; the socket is just closed.
+ *
+ * With an SniRouter ("tls-passthrough" mode) the handler first reads the
+ * client's TLS ClientHello, picks the candidate backends by its server name,
+ * and replays the bytes it read to the chosen backend before relaying the
+ * rest of the still-encrypted stream.
+ *
+ * With a ConcurrencyLimiter a connection holds a slot while its backend
+ * connection is set up, and the connect time is the round-trip sample; the
+ * relay that follows may last for hours and says nothing about the backends'
+ * load. Connections over the limit are closed at once.
+ */
+public class TcpProxyHandler implements Runnable {
+    // Logger for proxy events
+    private static final Logger logger = LoggerFactory.getLogger(TcpProxyHandler.class);
+
+    // Connection timeout in milliseconds (for connecting to backend)
+    private static final int CONNECTION_TIMEOUT = 3000;
+
+    // Time in milliseconds for a tls-passthrough client to send its ClientHello
+    private static final int CLIENT_HELLO_TIMEOUT = 10000;
+
+    // Socket connected to the client
+    private final Socket clientSocket;
+
+    // List of all backend servers
+    private final List<Backend> backends;
+
+    // Algorithm for selecting which backend to use
+    private final LoadBalancingAlgorithm algorithm;
+
+    // Idle timeout in milliseconds with no bytes moving in either direction
+    private final int idleTimeout;
+
+    // Routes connections by TLS server name, or null to use every backend
+    private final SniRouter sniRouter;
+
+    // Runs the client-to-backend direction of the relay
+    private final ExecutorService relayExecutor;
+
+    // Limits the backend connections set up at once, or null
+    private final ConcurrencyLimiter concurrencyLimiter;
+
+    /**
+     * Constructor initializes the handler for a client connection.
+     *
+     * @param clientSocket Socket connected to the client
+     * @param backends     List of all backend servers
+     * @param algorithm    Load balancing algorithm to use
+     * @param idleTimeout  Idle timeout in milliseconds
+     */
+    public TcpProxyHandler(Socket clientSocket, List<Backend> backends, LoadBalancingAlgorithm algorithm,
+            int idleTimeout) {
+        this(clientSocket, backends, algorithm, idleTimeout, null, ProxyHandler.RELAY_EXECUTOR);
+    }
+
+    /**
+     * Constructor initializes the handler for a tls-passthrough connection.
+     *
+     * @param clientSocket Socket connected to the client
+     * @param backends     List of all backend servers
+     * @param algorithm    Load balancing algorithm to use
+     * @param idleTimeout  Idle timeout in milliseconds
+     * @param sniRouter    Router choosing candidate backends by server name (null for all)
+     */
+    public TcpProxyHandler(Socket clientSocket, List<Backend> backends, LoadBalancingAlgorithm algorithm,
+            int idleTimeout, SniRouter sniRouter) {
+        this(clientSocket, backends, algorithm, idleTimeout, sniRouter, ProxyHandler.RELAY_EXECUTOR);
+    }
+
+    /**
+     * Constructor initializes the handler with the listener's relay executor.
+     *
+     * @param clientSocket  Socket connected to the client
+     * @param backends      List of all backend servers
+     * @param algorithm     Load balancing algorithm to use
+     * @param idleTimeout   Idle timeout in milliseconds
+     * @param sniRouter     Router choosing candidate backends by server name (null for all)
+     * @param relayExecutor Executor running the client-to-backend direction
+     */
+    public TcpProxyHandler(Socket clientSocket, List<Backend> backends, LoadBalancingAlgorithm algorithm,
+            int idleTimeout, SniRouter sniRouter, ExecutorService relayExecutor) {
+        this(clientSocket, backends, algorithm, idleTimeout, sniRouter, relayExecutor, null);
+    }
+
+    /**
+     * Constructor initializes the handler with the listener's relay executor
+     * and concurrency limiter.
+     *
+     * @param clientSocket       Socket connected to the client
+     * @param backends           List of all backend servers
+     * @param algorithm          Load balancing algorithm to use
+     * @param idleTimeout        Idle timeout in milliseconds
+     * @param sniRouter          Router choosing candidate backends by server name (null for all)
+     * @param relayExecutor      Executor running the client-to-backend direction
+     * @param concurrencyLimiter Limiter for backend connections set up at once (null for none)
+     */
+    public TcpProxyHandler(Socket clientSocket, List<Backend> backends, LoadBalancingAlgorithm algorithm,
+            int idleTimeout, SniRouter sniRouter, ExecutorService relayExecutor,
+            ConcurrencyLimiter concurrencyLimiter) {
+        this.clientSocket = clientSocket;
+        this.backends = backends;
+        this.algorithm = algorithm;
+        this.idleTimeout = idleTimeout;
+        this.sniRouter = sniRouter;
+        this.relayExecutor = relayExecutor;
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /*
+     * Selects a backend, connects and relays until either side is done.
+     */
+    @Override
+    public void run() {
+        byte[] clientHello = null;
+        int clientHelloLength = 0;
+        boolean holdsLimit = false;
+        try {
+            List<Backend> candidates = backends;
+            if (sniRouter != null) {
+                clientHello = BufferPool.getDefault().acquireArray(SniRouter.MAX_RECORD_SIZE);
+                clientHelloLength = readClientHello(clientHello);
+                candidates = sniRouter.route(clientHello,
+                        SniRouter.findServerName(clientHello, clientHelloLength));
+            }
+
+            // Filter to get only healthy, non-ejected backends; relayed bytes report nothing to a circuit
+            // breaker, so half-open trials are left to HTTP traffic
+            List<Backend> healthyBackends = candidates.stream()
+                    .filter(Backend::isAvailableWithoutTrial)
+                    .collect(Collectors.toList());
+
+            // Get client's IP address for IP-hash algorithm
+            String clientIp = clientSocket.getInetAddress().getHostAddress();
+            Backend backend = healthyBackends.isEmpty() ? null : algorithm.selectBackend(healthyBackends, clientIp);
+            if (candidates.isEmpty()) {
+                logger.debug("No backend serves the requested server name");
+                return;
+            }
+            if (backend == null) {
+                logger.error("No healthy backends available");
+                return;
+            }
+
+            // Shed the connection if the backends already have as much as they can take
+            if (concurrencyLimiter != null && !concurrencyLimiter.tryAcquire()) {
+                logger.debug("Connection over the concurrency limit closed");
+                return;
+            }
+            holdsLimit = concurrencyLimiter != null;
+            long admittedAt = System.nanoTime();
+
+            backend.incrementConnections();
+            try (Socket backendSocket = SocketChannel.open().socket()) {
+                backendSocket.connect(new InetSocketAddress(backend.getHost(), backend.getPort()), CONNECTION_TIMEOUT);
+                backendSocket.setTcpNoDelay(true);
+                clientSocket.setTcpNoDelay(true);
+                logger.debug("Connection routed to {}", backend.getAddress());
+
+                // Replay what was read to find the server name
+                if (clientHelloLength > 0) {
+                    backendSocket.getOutputStream().write(clientHello, 0, clientHelloLength);
+                    backendSocket.getOutputStream().flush();
+                }
+                if (clientHello != null) {
+                    BufferPool.getDefault().release(clientHello);
+                    clientHello = null;
+                }
+                if (holdsLimit) {
+                    holdsLimit = false;
+                    concurrencyLimiter.release(System.nanoTime() - admittedAt);
+                }
+
+                new Tunnel(clientSocket, clientSocket.getInputStream(), backendSocket, backendSocket.getInputStream(),
+                        idleTimeout).run(relayExecutor);
+            } finally {
+                backend.decrementConnections();
+            }
+        } catch (IOException e) {
+            logger.debug("TCP relay ended: {}", e.getMessage());
+        } finally {
+            if (holdsLimit) {
+                concurrencyLimiter.release();
+            }
+            if (clientHello != null) {
+                BufferPool.getDefault().release(clientHello);
+            }
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                logger.error("Error closing client socket", e);
+            }
+        }
+    }
+
+    /*
+     * Reads from the client until the buffer holds its whole first TLS
+     * record, or what arrived cannot be a ClientHello.
+     *
+     * @param buffer Buffer of at least SniRouter.MAX_RECORD_SIZE bytes
+     * @return Number of bytes read
+     * @throws IOException If the client closes or stalls before sending a ClientHello
+     */
+    private int readClientHello(byte[] buffer) throws IOException {
+        clientSocket.setSoTimeout(CLIENT_HELLO_TIMEOUT);
+        InputStream in = clientSocket.getInputStream();
+        int length = 0;
+        do {
+            int n = in.read(buffer, length, SniRouter.MAX_RECORD_SIZE - length);
+            if (n == -1) {
+                throw new EOFException("Client closed before sending a ClientHello");
+            }
+            length += n;
+        } while (SniRouter.findServerName(buffer, length) == SniRouter.NEED_MORE
+                && length < SniRouter.MAX_RECORD_SIZE);
+        return length;
+    }
+}
@@ -0,0 +1,168 @@
+package com.loadbalancer.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/*
+ * Tunnel splices raw bytes in both directions between a client and a backend
+ * socket until both sides have closed, or nothing moved in either direction
+ * for the idle timeout. Used after a 101 Switching Protocols response
+ * (WebSocket and other upgrades) and after a successful CONNECT.
+ *
+ * The backend-to-client direction runs on the calling thread, the other
+ * direction on a relay thread. When one side ends its stream the other side's
+ * output is shut down (half close), so the far end sees the end of stream too.
+ * Any error closes both sockets, which ends the other direction as well.
+ */
+class Tunnel {
+    // Logger for tunnel events
+    private static final Logger logger = LoggerFactory.getLogger(Tunnel.class);
+
+    // Buffer size for data transfer (8KB)
+    private static final int BUFFER_SIZE = 8192;
+
+    // Client socket and its stream (which may hold bytes read ahead)
+    private final Socket clientSocket;
+    private final InputStream clientIn;
+
+    // Backend socket and its stream (which may hold bytes read ahead)
+    private final Socket backendSocket;
+    private final InputStream backendIn;
+
+    // Time in milliseconds without traffic in either direction before the tunnel is closed
+    private final int idleTimeout;
+
+    // Time of the last transfer in either direction (System.currentTimeMillis)
+    private volatile long lastActivity;
+
+    /**
+     * Constructor prepares a tunnel between two connected sockets.
+     *
+     * @param clientSocket  Socket connected to the client
+     * @param clientIn      Client input stream (possibly buffered)
+     * @param backendSocket Socket connected to the backend
+     * @param backendIn     Backend input stream (possibly buffered)
+     * @param idleTimeout   Idle timeout in milliseconds
+     */
+    Tunnel(Socket clientSocket, InputStream clientIn, Socket backendSocket, InputStream backendIn,
+            int idleTimeout) {
+        this.clientSocket = clientSocket;
+        this.clientIn = clientIn;
+        this.backendSocket = backendSocket;
+        this.backendIn = backendIn;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /*
+     * Runs the tunnel until both directions are done.
+     *
+     * @param executor Executor running the client-to-backend direction
+     * @throws IOException If either direction fails
+     */
+    void run(ExecutorService executor) throws IOException {
+        lastActivity = System.currentTimeMillis();
+        // Both directions wake up at the idle timeout to check the other side's activity
+        clientSocket.setSoTimeout(idleTimeout);
+        backendSocket.setSoTimeout(idleTimeout);
+
+        Future<?> upstream;
+        try {
+            upstream = executor.submit(() -> {
+                pump(clientIn, backendSocket.getOutputStream(), backendSocket);
+                return null;
+            });
+        } catch (RejectedExecutionException e) {
+            throw new IOException("No relay thread available for the tunnel", e);
+        }
+        try {
+            pump(backendIn, clientSocket.getOutputStream(), clientSocket);
+        } catch (SocketTimeoutException e) {
+            // Idle tunnel; both sockets are already closed
+        } finally {
+            awaitUpstream(upstream);
+        }
+    }
+
+    /*
+     * Waits for the client-to-backend direction to finish.
+     */
+    private void awaitUpstream(Future<?> upstream) throws IOException {
+        try {
+            upstream.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SocketTimeoutException) {
+                return;
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Tunnel relay failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closeBoth();
+            throw new InterruptedIOException("Interrupted while closing tunnel");
+        }
+    }
+
+    /*
+     * Copies one direction until end of stream, then half-closes the target.
+     * A read timeout only ends the tunnel if the other direction was idle too.
+     */
+    private void pump(InputStream input, OutputStream output, Socket target) throws IOException {
+        BufferPool bufferPool = BufferPool.getDefault();
+        byte[] buffer = bufferPool.acquireArray(BUFFER_SIZE);
+        try {
+            while (true) {
+                int bytesRead;
+                try {
+                    bytesRead = input.read(buffer);
+                } catch (SocketTimeoutException e) {
+                    if (System.currentTimeMillis() - lastActivity < idleTimeout) {
+                        continue;
+                    }
+                    logger.debug("Closing idle tunnel");
+                    throw e;
+                }
+                if (bytesRead == -1) {
+                    break;
+                }
+                output.write(buffer, 0, bytesRead);
+                output.flush();
+                lastActivity = System.currentTimeMillis();
+            }
+            if (!target.isClosed() && !target.isOutputShutdown()) {
+                target.shutdownOutput();
+            }
+        } catch (IOException e) {
+            // Closing both sockets unblocks the other direction
+            closeBoth();
+            throw e;
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private void closeBoth() {
+        closeQuietly(clientSocket);
+        closeQuietly(backendSocket);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing useful to do; the tunnel is being torn down
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package com.loadbalancer.server;
 
+import com.loadbalancer.health.CircuitBreaker;
+import com.loadbalancer.proxy.BackendConnectionPool;
+import com.loadbalancer.proxy.Http2BackendPool;
+
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -26,14 +31,43 @@ public class Backend {
     // AtomicInteger allows thread-safe increment/decrement
     private final AtomicInteger activeConnections;
     
+    // Time until which outlier detection keeps the backend out of rotation
+    // (System.currentTimeMillis, 0 if it was never ejected)
+    private volatile long ejectedUntil;
+
+    // Circuit breaker fed with request outcomes, or null if circuit breaking is disabled
+    private volatile CircuitBreaker circuitBreaker;
+
     // Counter for consecutive health check failures
     private final AtomicInteger consecutiveFailures;
     
     // Counter for consecutive health check successes
     private final AtomicInteger consecutiveSuccesses;
 
+    // Pool of idle persistent connections to this backend
+    private final BackendConnectionPool connectionPool;
+
+    // Multiplexed HTTP/2 connections, or null if the backend speaks HTTP/1.1
+    private final Http2BackendPool http2Pool;
+
+    // TLS server names this backend serves in tls-passthrough mode (empty for the default pool)
+    private final List<String> serverNames;
 
     public Backend(String host, int port, int weight) {
+        this(host, port, weight, new BackendConnectionPool(host, port));
+    }
+
+    public Backend(String host, int port, int weight, BackendConnectionPool connectionPool) {
+        this(host, port, weight, connectionPool, null);
+    }
+
+    public Backend(String host, int port, int weight, BackendConnectionPool connectionPool,
+            Http2BackendPool http2Pool) {
+        this(host, port, weight, connectionPool, http2Pool, List.of());
+    }
+
+    public Backend(String host, int port, int weight, BackendConnectionPool connectionPool,
+            Http2BackendPool http2Pool, List<String> serverNames) {
         this.host = host;
         this.port = port;
         this.weight = weight;
@@ -45,6 +79,9 @@ public class Backend {
         this.consecutiveFailures = new AtomicInteger(0);
         // Start with zero successes
         this.consecutiveSuccesses = new AtomicInteger(0);
+        this.connectionPool = connectionPool;
+        this.http2Pool = http2Pool;
+        this.serverNames = List.copyOf(serverNames);
     }
 
     // Getter methods for backend properties
@@ -52,16 +89,69 @@ public class Backend {
     public int getPort() { return port; }
     public int getWeight() { return weight; }
     
+    // Get the pool of persistent connections to this backend
+    public BackendConnectionPool getConnectionPool() { return connectionPool; }
+
+    // Get the multiplexed HTTP/2 connections (null for HTTP/1.1 backends)
+    public Http2BackendPool getHttp2Pool() { return http2Pool; }
+
+    // Getter for the TLS server names routed to this backend
+    public List<String> getServerNames() { return serverNames; }
+    
     // Get current health status (thread-safe)
     public boolean isHealthy() { return healthy.get(); }
     
     // Set health status (thread-safe)
     public void setHealthy(boolean healthy) { this.healthy.set(healthy); }
     
+    // Whether outlier detection currently keeps the backend out of rotation
+    public boolean isEjected() {
+        long until = ejectedUntil;
+        return until != 0 && until > System.currentTimeMillis();
+    }
+
+    // Take the backend out of rotation until the given time (System.currentTimeMillis)
+    public void eject(long until) { this.ejectedUntil = until; }
+
+    // Whether the backend may receive requests: healthy, not ejected, and its circuit not open
+    public boolean isAvailable() {
+        CircuitBreaker breaker = circuitBreaker;
+        return healthy.get() && !isEjected() && (breaker == null || breaker.allowsSelection());
+    }
+
+    // Get the circuit breaker (null if circuit breaking is disabled)
+    public CircuitBreaker getCircuitBreaker() { return circuitBreaker; }
+
+    // Set the circuit breaker before the backend receives traffic
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) { this.circuitBreaker = circuitBreaker; }
+
+    // Take the circuit breaker's permission to send a request (always granted without a breaker);
+    // returns CircuitBreaker.REFUSED or the permit to report the outcome with
+    public long tryAcquirePermission() {
+        CircuitBreaker breaker = circuitBreaker;
+        return breaker == null ? CircuitBreaker.NOT_TRIAL : breaker.tryAcquirePermission();
+    }
+
+    // Give back a permit whose request ended without an outcome for the circuit breaker
+    public void releasePermission(long permit) {
+        CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null) {
+            breaker.releasePermission(permit);
+        }
+    }
+
+    // Whether the backend may receive traffic that never reports back to its circuit breaker (layer-4
+    // relays): available, and its circuit closed rather than admitting a few half-open trial requests
+    public boolean isAvailableWithoutTrial() {
+        CircuitBreaker breaker = circuitBreaker;
+        return isAvailable() && (breaker == null || breaker.getState() == CircuitBreaker.State.CLOSED);
+    }
+    
     // Get number of active connections (thread-safe)
     public int getActiveConnections() { return activeConnections.get(); }
     
-    // Increment active connections when a new request arrives (thread-safe)
+    // Increment active connections when a new request arrives (thread-safe).
+    // For HTTP/2 backends a request is one stream, so this counts active streams.
     public void incrementConnections() { activeConnections.incrementAndGet(); }
     
     // Decrement active connections when a request completes (thread-safe)
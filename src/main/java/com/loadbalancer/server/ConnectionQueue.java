@@ -0,0 +1,44 @@
+package com.loadbalancer.server;
+
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Queue of accepted connections waiting for a thread of the fixed pool.
+ * Connections are served oldest first, except while the QueueDelayController
+ * finds the queue overloaded: then the newest is taken first, since its
+ * client is the most likely to still be waiting, and the old ones are left
+ * to be shed.
+ */
+final class ConnectionQueue extends LinkedBlockingDeque<Runnable> {
+    private static final long serialVersionUID = 1L;
+
+    // Decides the order connections are taken in
+    private final transient QueueDelayController controller;
+
+    /**
+     * Constructor creates an empty queue.
+     *
+     * @param capacity   Most connections queued at once
+     * @param controller Controller whose overload state decides the order
+     */
+    ConnectionQueue(int capacity, QueueDelayController controller) {
+        super(capacity);
+        this.controller = controller;
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        return controller.servesNewestFirst() ? takeLast() : takeFirst();
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return controller.servesNewestFirst() ? pollLast(timeout, unit) : pollFirst(timeout, unit);
+    }
+
+    @Override
+    public Runnable poll() {
+        return controller.servesNewestFirst() ? pollLast() : pollFirst();
+    }
+}
@@ -0,0 +1,189 @@
+package com.loadbalancer.server;
+
+import com.loadbalancer.algorithm.LoadBalancingAlgorithm;
+import com.loadbalancer.proxy.NioProxyConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * EventLoop owns one Selector and drives every connection registered with it
+ * on a single thread.
+ * The Listener accepts connections and hands them to its event loops in
+ * round-robin order; all further I/O for a connection happens here.
+ *
+ * This class:
+ * 1. Receives newly accepted channels through a lock-free queue
+ * 2. Creates a NioProxyConnection for each and registers it with the selector
+ * 3. Dispatches ready keys to their connections
+ * 4. Periodically closes connections that timed out
+ */
+public class EventLoop implements Runnable {
+    // Logger for event loop events
+    private static final Logger logger = LoggerFactory.getLogger(EventLoop.class);
+
+    // Maximum time to block in select() so timeouts are checked regularly
+    private static final long SELECT_TIMEOUT_MS = 1000;
+
+    // Selector multiplexing all channels owned by this loop
+    private final Selector selector;
+
+    // Channels accepted by the Listener but not yet registered
+    private final Queue<SocketChannel> pendingChannels;
+
+    // List of backend servers (shared with health checker)
+    private final List<Backend> backends;
+
+    // Load balancing algorithm to use for selecting backends
+    private final LoadBalancingAlgorithm algorithm;
+
+    // Whether connections are raw TCP (no HTTP error responses, tunnel idle timeout)
+    private final boolean tcpMode;
+
+    // Idle timeout in milliseconds for raw TCP connections
+    private final long tcpIdleTimeout;
+
+    // Thread running this loop
+    private final Thread thread;
+
+    // Flag to control the loop (volatile for thread visibility)
+    private volatile boolean running;
+
+    /*
+     * Constructor opens the selector and prepares the loop thread.
+     *
+     * @param name Thread name for this loop
+     */
+    public EventLoop(String name, List<Backend> backends, LoadBalancingAlgorithm algorithm)
+            throws IOException {
+        this(name, backends, algorithm, false, 0);
+    }
+
+    /*
+     * Constructor opens the selector for an HTTP or raw TCP listener.
+     *
+     * @param name           Thread name for this loop
+     * @param tcpMode        Whether connections are raw TCP
+     * @param tcpIdleTimeout Idle timeout in milliseconds for raw TCP connections
+     */
+    public EventLoop(String name, List<Backend> backends, LoadBalancingAlgorithm algorithm,
+            boolean tcpMode, long tcpIdleTimeout) throws IOException {
+        this.selector = Selector.open();
+        this.pendingChannels = new ConcurrentLinkedQueue<>();
+        this.backends = backends;
+        this.algorithm = algorithm;
+        this.tcpMode = tcpMode;
+        this.tcpIdleTimeout = tcpIdleTimeout;
+        this.thread = new Thread(this, name);
+        this.running = false;
+    }
+
+    /*
+     * Starts the loop thread.
+     */
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /*
+     * Hands an accepted channel to this loop.
+     * Safe to call from any thread; the loop registers it on its own thread.
+     */
+    public void register(SocketChannel channel) {
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /*
+     * Main loop: registers new channels, dispatches ready keys and checks
+     * timeouts until stop() is called.
+     */
+    @Override
+    public void run() {
+        long lastTimeoutCheck = System.currentTimeMillis();
+
+        while (running) {
+            try {
+                selector.select(SELECT_TIMEOUT_MS);
+
+                // Dispatch ready keys to their connections
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    ((NioProxyConnection) key.attachment()).handle(key);
+                }
+
+                // Register connections accepted since the last iteration
+                SocketChannel channel;
+                while ((channel = pendingChannels.poll()) != null) {
+                    NioProxyConnection connection = tcpMode
+                            ? new NioProxyConnection(channel, tcpIdleTimeout, false)
+                            : new NioProxyConnection(channel);
+                    connection.open(selector, backends, algorithm);
+                }
+
+                // Sweep for timed-out connections about once per second
+                long now = System.currentTimeMillis();
+                if (now - lastTimeoutCheck >= SELECT_TIMEOUT_MS) {
+                    lastTimeoutCheck = now;
+                    for (SelectionKey key : selector.keys()) {
+                        // Both keys of a connection share the attachment; check it through its client key only
+                        NioProxyConnection connection = (NioProxyConnection) key.attachment();
+                        if (connection.isClientKey(key)) {
+                            connection.checkTimeout(now);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                // Never let one bad connection kill the whole loop
+                if (running) {
+                    logger.error("Error in event loop", e);
+                }
+            }
+        }
+
+        closeAll();
+    }
+
+    /*
+     * Stops the loop and waits up to the given time for it to exit.
+     * Any connections still open are closed by the loop thread.
+     */
+    public void stop(long timeoutMs) throws InterruptedException {
+        running = false;
+        selector.wakeup();
+        thread.join(timeoutMs);
+    }
+
+    /*
+     * Closes every connection and the selector itself.
+     */
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            ((NioProxyConnection) key.attachment()).close();
+        }
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Error closing pending channel", e);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.debug("Error closing selector", e);
+        }
+    }
+}
@@ -1,25 +1,45 @@
 package com.loadbalancer.server;
 
 import com.loadbalancer.algorithm.LoadBalancingAlgorithm;
+import com.loadbalancer.cache.DiskCache;
+import com.loadbalancer.cache.RequestCoalescer;
+import com.loadbalancer.cache.ResponseCache;
+import com.loadbalancer.compression.ResponseCompressor;
+import com.loadbalancer.config.Config;
+import com.loadbalancer.health.OutlierDetector;
+import com.loadbalancer.proxy.ConcurrencyLimiter;
+import com.loadbalancer.proxy.HedgingPolicy;
+import com.loadbalancer.proxy.ProxyContext;
 import com.loadbalancer.proxy.ProxyHandler;
+import com.loadbalancer.proxy.RetryPolicy;
+import com.loadbalancer.proxy.SniRouter;
+import com.loadbalancer.proxy.TcpProxyHandler;
+import com.loadbalancer.util.Durations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.SSLSocket;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /*
  * Listener accepts incoming HTTP connections and delegates them to
  * ProxyHandler.
- * Runs a ServerSocket that listens for client connections on the configured
- * port.
+ * Runs a ServerSocketChannel that listens for client connections on the
+ * configured port.
  * Uses a configurable thread pool to handle multiple concurrent connections.
  * 
  * This class:
@@ -27,6 +47,35 @@ import java.util.concurrent.TimeUnit;
  * 2. Accepts incoming client connections in a loop
  * 3. Submits each connection to a thread pool for processing
  * 4. Gracefully shuts down when stop() is called
+ *
+ * With executor "virtual" each connection runs on its own virtual thread
+ * instead of a fixed pool, so slow backends no longer exhaust the pool.
+ *
+ * With io_model "nio" the thread pool is replaced by a set of event loops:
+ * accepted channels are handed to the loops round-robin and relayed without
+ * pinning a thread per connection.
+ *
+ * With mode "tcp" connections are relayed at layer 4 without any HTTP
+ * parsing: by TcpProxyHandler in blocking mode, or by the event loops in nio
+ * mode (which never parse HTTP).
+ *
+ * Mode "tls-passthrough" (blocking) also relays at layer 4, but first reads
+ * the TLS ClientHello and picks the backend pool by its server name through
+ * an SniRouter; TLS stays end to end between client and backend.
+ *
+ * With a concurrency limit (blocking http mode) the fixed thread pool queues
+ * at most max_queued_connections accepted connections; connections beyond
+ * that are answered with 503 from the accept loop instead of waiting
+ * without bound, and the ProxyHandlers shed requests over the limit.
+ *
+ * With the fixed thread pool every accepted connection is timestamped and
+ * its wait in the pool queue measured by a QueueDelayController, which with
+ * queue_delay enabled also sheds connections that waited too long (CoDel)
+ * before any handshake or backend work.
+ *
+ * With tls enabled (blocking mode) accepted sockets are wrapped by a
+ * TlsTerminator and the handshake runs on the handler's thread before the
+ * connection is served, in either mode.
  */
 public class Listener {
     // Logger for listener events
@@ -44,17 +93,47 @@ public class Listener {
     // Port number to listen on
     private final int port;
 
+    // Listener mode ("http", "tcp" or "tls-passthrough")
+    private final String mode;
+
+    // I/O model ("blocking" or "nio")
+    private final String ioModel;
+
+    // Number of event loops to run in nio mode
+    private final int eventLoopCount;
+
+    // Idle timeout in milliseconds for tunnels and tcp mode connections
+    private final int tunnelIdleTimeout;
+
+    // Settings shared by every ProxyHandler (blocking http mode)
+    private final ProxyContext proxyContext;
+
+    // TLS termination for accepted connections, or null for plaintext
+    private final TlsTerminator tlsTerminator;
+
+    // Routing by TLS server name (tls-passthrough mode), or null
+    private final SniRouter sniRouter;
+
     // List of backend servers (shared with health checker)
     private final List<Backend> backends;
 
     // Load balancing algorithm to use for selecting backends
     private final LoadBalancingAlgorithm algorithm;
 
-    // Thread pool for handling client connections concurrently
+    // Thread pool for handling client connections concurrently (blocking mode only)
     private final ExecutorService executorService;
 
-    // Server socket that accepts incoming connections
-    private ServerSocket serverSocket;
+    // Queue delay measurement and shedding (fixed thread pool only), or null
+    private final QueueDelayController queueDelay;
+
+    // Server channel that accepts incoming connections
+    private ServerSocketChannel serverChannel;
+
+    // Event loops that drive accepted connections (nio mode)
+    private EventLoop[] eventLoops;
+
+    // Connections refused because the thread pool queue was full
+    private final LongAdder rejectedConnections = new LongAdder();
 
     // Flag to control the listener loop (volatile for thread visibility)
     private volatile boolean running;
@@ -73,19 +152,201 @@ public class Listener {
      */
     public Listener(String host, int port, List<Backend> backends,
             LoadBalancingAlgorithm algorithm, int threadPoolSize) {
-        this.host = host;
-        this.port = port;
+        this(defaultServerConfig(host, port, threadPoolSize), backends, algorithm);
+    }
+
+    /*
+     * Constructor initializes the listener from the server configuration
+     * (executor, I/O model, event loops and keep-alive timeout).
+     * An event loop count of 0 means one loop per available processor.
+     */
+    public Listener(Config.ServerConfig serverConfig, List<Backend> backends,
+            LoadBalancingAlgorithm algorithm) {
+        this.host = serverConfig.getHost();
+        this.port = serverConfig.getPort();
         this.backends = backends;
         this.algorithm = algorithm;
+        this.mode = serverConfig.getMode();
+        this.ioModel = serverConfig.getIoModel();
+        this.eventLoopCount = serverConfig.getEventLoops() > 0
+                ? serverConfig.getEventLoops()
+                : Runtime.getRuntime().availableProcessors();
+        this.tunnelIdleTimeout = (int) Durations.parseMillis(serverConfig.getTunnelIdleTimeout());
+        this.proxyContext = createProxyContext(serverConfig, backends, algorithm);
+        this.tlsTerminator = createTlsTerminator(serverConfig);
+        this.sniRouter = "tls-passthrough".equals(mode) ? new SniRouter(backends) : null;
 
-        // Create thread pool with configured size to handle concurrent connections
-        this.executorService = Executors.newFixedThreadPool(threadPoolSize);
-        logger.debug("Created thread pool with {} threads", threadPoolSize);
+        String executor = serverConfig.getExecutor();
+        int threadPoolSize = serverConfig.getThreadPoolSize();
+        Config.ConcurrencyLimitConfig concurrencyLimit = serverConfig.getConcurrencyLimit();
+        if ("nio".equals(ioModel)) {
+            // Event loops replace the thread pool in nio mode
+            this.executorService = null;
+            this.queueDelay = null;
+        } else if ("virtual".equals(executor)) {
+            // One virtual thread per connection; falls back to the pool on older JVMs
+            ExecutorService virtualThreads = createVirtualThreadExecutor();
+            this.queueDelay = null;
+            if (virtualThreads != null) {
+                this.executorService = virtualThreads;
+                // Uploads, tunnels, HTTP/2 streams and hedges get virtual threads too
+                proxyContext.setRelayExecutor(virtualThreads);
+            } else {
+                logger.warn("Virtual threads require Java 21+, falling back to {} platform threads",
+                        threadPoolSize);
+                this.executorService = Executors.newFixedThreadPool(threadPoolSize);
+            }
+        } else {
+            // Create thread pool with configured size to handle concurrent connections
+            this.queueDelay = createQueueDelayController(serverConfig.getQueueDelay());
+            // With a concurrency limit the connections waiting for a thread are bounded; submit() rejects the rest
+            int queueCapacity = concurrencyLimit != null && concurrencyLimit.isEnabled()
+                    ? concurrencyLimit.getMaxQueuedConnections()
+                    : Integer.MAX_VALUE;
+            this.executorService = new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 0, TimeUnit.MILLISECONDS,
+                    new ConnectionQueue(queueCapacity, queueDelay));
+            logger.debug("Created thread pool with {} threads", threadPoolSize);
+        }
 
         // Start in stopped state
         this.running = false;
     }
 
+    /*
+     * Builds a server configuration with defaults for everything except the
+     * address and thread pool size.
+     */
+    private static Config.ServerConfig defaultServerConfig(String host, int port, int threadPoolSize) {
+        Config.ServerConfig serverConfig = new Config.ServerConfig();
+        serverConfig.setHost(host);
+        serverConfig.setPort(port);
+        serverConfig.setThreadPoolSize(threadPoolSize);
+        return serverConfig;
+    }
+
+    /*
+     * Builds the settings shared by every ProxyHandler of this listener.
+     */
+    private static ProxyContext createProxyContext(Config.ServerConfig serverConfig, List<Backend> backends,
+            LoadBalancingAlgorithm algorithm) {
+        ProxyContext context = new ProxyContext(backends, algorithm);
+        context.setKeepAliveTimeout((int) Durations.parseMillis(serverConfig.getKeepAliveTimeout()));
+        context.setZeroCopy(serverConfig.isZeroCopy());
+        context.setTunnelIdleTimeout((int) Durations.parseMillis(serverConfig.getTunnelIdleTimeout()));
+        Config.Http2Config http2 = serverConfig.getHttp2();
+        context.setHttp2Enabled(http2.isEnabled());
+        context.setHttp2MaxConcurrentStreams(http2.getMaxConcurrentStreams());
+        context.setHttp2InitialWindowSize(http2.getInitialWindowSize());
+        Config.CacheConfig cache = serverConfig.getCache();
+        if (cache != null && cache.isEnabled()) {
+            context.setResponseCache(new ResponseCache((long) cache.getMaxSizeMb() * 1024 * 1024,
+                    cache.getMaxEntrySizeKb() * 1024, cache.getSegments(), createDiskCache(cache.getDisk())));
+        }
+        Config.CoalescingConfig coalescing = serverConfig.getCoalescing();
+        if (coalescing != null && coalescing.isEnabled()) {
+            context.setRequestCoalescer(new RequestCoalescer(coalescing.getPathPrefixes(),
+                    coalescing.getMaxBodyKb() * 1024, Durations.parseMillis(coalescing.getMaxWait())));
+        }
+        Config.CompressionConfig compression = serverConfig.getCompression();
+        if (compression != null && compression.isEnabled()) {
+            context.setResponseCompressor(new ResponseCompressor(compression.getContentTypes(),
+                    compression.getMinSize(), compression.getLevel(), compression.getDeflaterPoolSize()));
+        }
+        Config.RetryConfig retry = serverConfig.getRetry();
+        if (retry != null && retry.isEnabled()) {
+            context.setRetryPolicy(new RetryPolicy(retry.getMaxRetries(), retry.getBudgetRatio(),
+                    retry.getBudgetBurst()));
+        }
+        Config.HedgingConfig hedging = serverConfig.getHedging();
+        if (hedging != null && hedging.isEnabled()) {
+            context.setHedgingPolicy(new HedgingPolicy(hedging.getPathPrefixes(), hedging.getPercentile(),
+                    Durations.parseMillis(hedging.getMinDelay()), hedging.getBudgetRatio(),
+                    hedging.getBudgetBurst()));
+        }
+        Config.ConcurrencyLimitConfig concurrencyLimit = serverConfig.getConcurrencyLimit();
+        if (concurrencyLimit != null && concurrencyLimit.isEnabled()) {
+            context.setConcurrencyLimiter(new ConcurrencyLimiter(concurrencyLimit.getInitialLimit(),
+                    concurrencyLimit.getMinLimit(), concurrencyLimit.getMaxLimit(), concurrencyLimit.getTolerance(),
+                    concurrencyLimit.getSmoothing()));
+        }
+        return context;
+    }
+
+    /*
+     * Builds the queue delay controller of the fixed thread pool. Queue
+     * delays are measured even when shedding is disabled.
+     */
+    private static QueueDelayController createQueueDelayController(Config.QueueDelayConfig queueDelay) {
+        if (queueDelay == null) {
+            queueDelay = new Config.QueueDelayConfig();
+        }
+        return new QueueDelayController(Durations.parseMillis(queueDelay.getTarget()),
+                Durations.parseMillis(queueDelay.getInterval()), queueDelay.isEnabled());
+    }
+
+    /*
+     * Opens the disk tier of the response cache, reusing the entries left by
+     * an earlier run.
+     *
+     * @return The disk tier, or null if it is disabled
+     * @throws IllegalArgumentException If the cache directory cannot be used
+     */
+    private static DiskCache createDiskCache(Config.DiskCacheConfig disk) {
+        if (disk == null || !disk.isEnabled()) {
+            return null;
+        }
+        try {
+            return new DiskCache(Path.of(disk.getDirectory()), (long) disk.getMaxSizeMb() * 1024 * 1024,
+                    disk.getSegmentSizeMb() * 1024 * 1024, disk.getMinEntrySizeKb() * 1024);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot open cache directory " + disk.getDirectory() + ": "
+                    + e.getMessage(), e);
+        }
+    }
+
+    /*
+     * Loads the keystore if the listener terminates TLS. ALPN offers HTTP/2
+     * only where ProxyHandler can serve it.
+     *
+     * @return The terminator, or null if TLS is disabled
+     * @throws IllegalArgumentException If the keystore cannot be loaded
+     */
+    private static TlsTerminator createTlsTerminator(Config.ServerConfig serverConfig) {
+        Config.TlsConfig tls = serverConfig.getTls();
+        if (tls == null || !tls.isEnabled()) {
+            return null;
+        }
+        List<String> alpn = List.of();
+        if ("http".equals(serverConfig.getMode())) {
+            alpn = serverConfig.getHttp2().isEnabled() ? List.of("h2", "http/1.1") : List.of("http/1.1");
+        }
+        try {
+            return new TlsTerminator(tls, alpn);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalArgumentException("Cannot load TLS keystore " + tls.getKeystore() + ": "
+                    + e.getMessage(), e);
+        }
+    }
+
+    /*
+     * Creates a virtual-thread-per-task executor.
+     * Looked up reflectively so the project still compiles for Java 17; build
+     * with the java21 profile and run on Java 21+ to use virtual threads.
+     *
+     * @return The executor, or null if virtual threads are unavailable
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            logger.debug("Created virtual thread executor");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
     /*
      * Starts the listener and begins accepting client connections.
      * This method blocks until stop() is called.
@@ -93,28 +354,61 @@ public class Listener {
      * @throws IOException If unable to bind to the port
      */
     public void start() throws IOException {
-        // Create server socket and bind to specific host:port
-        serverSocket = new ServerSocket();
+        if ("nio".equals(ioModel)) {
+            startEventLoops();
+            return;
+        }
+
+        // Create server channel and bind to specific host:port. Accepted sockets
+        // stay in blocking mode but keep their channel for ChannelRelay
+        serverChannel = ServerSocketChannel.open();
 
         // Resolve host address (0.0.0.0 = all interfaces)
         InetAddress bindAddress = InetAddress.getByName(host);
 
         // Bind to the socket address with specified backlog
-        serverSocket.bind(new InetSocketAddress(bindAddress, port), CONNECTION_BACKLOG);
+        serverChannel.bind(new InetSocketAddress(bindAddress, port), CONNECTION_BACKLOG);
 
         // Mark as running
         running = true;
-        logger.info("Listening on {}:{}", host, port);
+        logger.info("Listening on {}:{} ({} mode{})", host, port, mode, tlsTerminator != null ? ", tls" : "");
 
         // Main accept loop - runs until stop() is called
         while (running) {
             try {
                 // Wait for and accept a client connection (blocking call)
-                Socket clientSocket = serverSocket.accept();
+                Socket clientSocket = serverChannel.accept().socket();
+                // Heads and bodies are written separately; Nagle would hold the body for the client's delayed ACK
+                clientSocket.setTcpNoDelay(true);
+                if (tlsTerminator != null) {
+                    clientSocket = tlsTerminator.wrap(clientSocket);
+                }
 
                 // Submit the connection to thread pool for handling
                 // ProxyHandler will forward the request to a backend
-                executorService.submit(new ProxyHandler(clientSocket, backends, algorithm));
+                Runnable handler;
+                if ("tcp".equals(mode) || sniRouter != null) {
+                    handler = new TcpProxyHandler(clientSocket, backends, algorithm, tunnelIdleTimeout, sniRouter,
+                            proxyContext.getRelayExecutor(), proxyContext.getConcurrencyLimiter());
+                } else {
+                    handler = new ProxyHandler(clientSocket, proxyContext);
+                }
+                if (tlsTerminator != null) {
+                    // The handshake runs on the handler's thread, not the accept loop
+                    handler = tlsTerminator.handshakeThen((SSLSocket) clientSocket, handler);
+                }
+                if (queueDelay != null) {
+                    // Timestamp the connection so its wait in the queue can be measured
+                    handler = queued(clientSocket, handler, System.nanoTime());
+                }
+                try {
+                    executorService.submit(handler);
+                } catch (RejectedExecutionException e) {
+                    rejectedConnections.increment();
+                    logger.debug("Thread pool queue full, refusing connection from {}",
+                            clientSocket.getInetAddress());
+                    refuse(clientSocket);
+                }
             } catch (IOException e) {
                 // Only log error if we're still supposed to be running
                 // (closing the socket throws IOException, which is expected during shutdown)
@@ -125,6 +419,174 @@ public class Listener {
         }
     }
 
+    /*
+     * Wraps a connection's handler so it first passes the queue delay
+     * controller; a connection that waited too long is refused instead.
+     *
+     * @param acceptedAt Time the connection was accepted (System.nanoTime)
+     */
+    private Runnable queued(Socket clientSocket, Runnable handler, long acceptedAt) {
+        return () -> {
+            if (queueDelay.admit(acceptedAt)) {
+                handler.run();
+            } else {
+                logger.debug("Shedding connection from {} after {} ms in the queue", clientSocket.getInetAddress(),
+                        (System.nanoTime() - acceptedAt) / 1_000_000);
+                refuse(clientSocket);
+            }
+        };
+    }
+
+    /*
+     * Refuses a connection without serving it. Plaintext HTTP clients get
+     * the pre-encoded 503; TLS and layer 4 connections are just closed,
+     * since answering them would mean a handshake or a protocol the
+     * listener does not speak.
+     */
+    private void refuse(Socket clientSocket) {
+        if (tlsTerminator == null && "http".equals(mode)) {
+            ProxyHandler.rejectOverloaded(clientSocket);
+            return;
+        }
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            logger.debug("Error closing refused connection: {}", e.getMessage());
+        }
+    }
+
+    /*
+     * Starts the event loops and accepts connections for them.
+     * Accepting stays on this thread in blocking mode; every accepted channel
+     * is switched to non-blocking and handed to the next loop in turn.
+     * This method blocks until stop() is called.
+     *
+     * @throws IOException If unable to bind to the port
+     */
+    private void startEventLoops() throws IOException {
+        // Create server channel and bind to specific host:port
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getByName(host), port), CONNECTION_BACKLOG);
+
+        // Start one selector thread per configured loop
+        eventLoops = new EventLoop[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; i++) {
+            eventLoops[i] = new EventLoop("event-loop-" + i, backends, algorithm,
+                    "tcp".equals(mode), tunnelIdleTimeout);
+            eventLoops[i].start();
+        }
+
+        // Mark as running
+        running = true;
+        logger.info("Listening on {}:{} ({} mode, {} event loops)", host, port, mode, eventLoopCount);
+
+        int next = 0;
+        while (running) {
+            try {
+                // Wait for and accept a client connection (blocking call)
+                SocketChannel clientChannel = serverChannel.accept();
+                clientChannel.configureBlocking(false);
+                clientChannel.socket().setTcpNoDelay(true);
+
+                // Hand the connection to the next event loop
+                eventLoops[next].register(clientChannel);
+                next = (next + 1) % eventLoops.length;
+            } catch (IOException e) {
+                // Closing the channel during shutdown is expected
+                if (running) {
+                    logger.error("Error accepting connection", e);
+                }
+            }
+        }
+    }
+
+    /*
+     * Returns the response cache, or null if caching is disabled.
+     */
+    public ResponseCache getResponseCache() {
+        return proxyContext.getResponseCache();
+    }
+
+    /*
+     * Returns the coalescer for identical concurrent GETs, or null if disabled.
+     */
+    public RequestCoalescer getRequestCoalescer() {
+        return proxyContext.getRequestCoalescer();
+    }
+
+    /*
+     * Returns the response compressor, or null if compression is disabled.
+     */
+    public ResponseCompressor getResponseCompressor() {
+        return proxyContext.getResponseCompressor();
+    }
+
+    /*
+     * Returns the retry policy, or null if retries are disabled.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return proxyContext.getRetryPolicy();
+    }
+
+    /*
+     * Returns the hedging policy, or null if hedging is disabled.
+     */
+    public HedgingPolicy getHedgingPolicy() {
+        return proxyContext.getHedgingPolicy();
+    }
+
+    /*
+     * Returns the concurrency limiter, or null if requests are not limited.
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return proxyContext.getConcurrencyLimiter();
+    }
+
+    /*
+     * Returns the queue delay controller, or null unless connections are
+     * served by the fixed thread pool.
+     */
+    public QueueDelayController getQueueDelay() {
+        return queueDelay;
+    }
+
+    /*
+     * Returns the number of connections refused because the thread pool
+     * queue was full.
+     */
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    /*
+     * Feeds the outcomes of proxied requests to an outlier detector, which
+     * ejects failing backends. Must be called before start().
+     */
+    public void setOutlierDetector(OutlierDetector outlierDetector) {
+        proxyContext.setOutlierDetector(outlierDetector);
+    }
+
+    /*
+     * Returns the outlier detector, or null if outlier detection is disabled.
+     */
+    public OutlierDetector getOutlierDetector() {
+        return proxyContext.getOutlierDetector();
+    }
+
+    /*
+     * Returns the SNI router, or null unless the listener is in tls-passthrough mode.
+     */
+    public SniRouter getSniRouter() {
+        return sniRouter;
+    }
+
+    /*
+     * Returns the TLS terminator, or null if the listener serves plaintext.
+     */
+    public TlsTerminator getTlsTerminator() {
+        return tlsTerminator;
+    }
+
     /*
      * Stops the listener and cleans up resources.
      * Closes the server socket and shuts down the thread pool.
@@ -134,18 +596,29 @@ public class Listener {
         running = false;
 
         try {
-            // Close server socket to stop accepting new connections
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+            // Close server channel to stop accepting new connections
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
             }
 
-            // Initiate graceful shutdown of thread pool
-            executorService.shutdown();
+            if (executorService != null) {
+                // Initiate graceful shutdown of thread pool
+                executorService.shutdown();
 
-            // Wait up to 10 seconds for active connections to complete
-            if (!executorService.awaitTermination(10, TimeUnit.SECONDS)) {
-                // Force shutdown if tasks don't complete in time
-                executorService.shutdownNow();
+                // Wait up to 10 seconds for active connections to complete
+                if (!executorService.awaitTermination(10, TimeUnit.SECONDS)) {
+                    // Force shutdown if tasks don't complete in time
+                    executorService.shutdownNow();
+                }
+            }
+
+            if (eventLoops != null) {
+                // Stop each loop; open connections are closed by the loop itself
+                for (EventLoop eventLoop : eventLoops) {
+                    if (eventLoop != null) {
+                        eventLoop.stop(TimeUnit.SECONDS.toMillis(10));
+                    }
+                }
             }
 
             logger.info("Listener stopped");
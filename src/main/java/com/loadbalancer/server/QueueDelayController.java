@@ -0,0 +1,139 @@
+package com.loadbalancer.server;
+
+import com.loadbalancer.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Measures how long accepted connections wait in the thread pool queue
+ * (their sojourn time) and, if shedding is on, drops stale ones with
+ * controlled delay (CoDel).
+ *
+ * A queue is judged by the smallest sojourn seen in an interval: a burst
+ * that drains quickly lets some connection through below the target, but a
+ * standing queue keeps every sojourn above it. Once the minimum stayed above
+ * the target for a whole interval the queue is overloaded until an interval
+ * ends with the minimum back under the target. While overloaded, the queue
+ * hands out the newest connection first (whose client is still waiting for
+ * it), and connections that waited more than twice the target are refused
+ * with 503 before any backend work. Serving the newest first keeps the
+ * minimum low, so the queue soon counts as recovered; the connections left
+ * behind in the meantime are refused when they waited longer than a whole
+ * interval, which bounds the wait in either state. This is the fail-fast
+ * variant of CoDel used for server request queues, which sheds by a
+ * timeout instead of an increasing drop rate.
+ */
+public class QueueDelayController {
+    // Logger for overload changes (debug only: serving the newest first makes the state flip often)
+    private static final Logger logger = LoggerFactory.getLogger(QueueDelayController.class);
+
+    // Length of a histogram window in milliseconds
+    private static final long WINDOW_MILLIS = 60_000;
+
+    // Sojourn the queue should stay under, and the interval it is judged over, in nanoseconds
+    private final long targetNanos;
+    private final long intervalNanos;
+
+    // Whether stale connections are shed (otherwise sojourns are only measured)
+    private final boolean shedding;
+
+    // Recent sojourn times
+    private final LatencyHistogram sojourns = new LatencyHistogram(WINDOW_MILLIS);
+
+    // End of the current interval (System.nanoTime) and the smallest sojourn in it; guarded by this
+    private long intervalEnd;
+    private long minSojourn = Long.MAX_VALUE;
+
+    // Whether the minimum sojourn stayed above the target for the last interval
+    private volatile boolean overloaded;
+
+    // Connections dequeued, connections shed, and times the queue became overloaded
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder overloads = new LongAdder();
+
+    /**
+     * Constructor creates a controller with an empty queue history.
+     *
+     * @param targetMillis   Sojourn the queue should stay under, in milliseconds
+     * @param intervalMillis Interval the minimum sojourn is judged over, in milliseconds
+     * @param shedding       Whether stale connections are shed
+     */
+    public QueueDelayController(long targetMillis, long intervalMillis, boolean shedding) {
+        this.targetNanos = targetMillis * 1_000_000;
+        this.intervalNanos = intervalMillis * 1_000_000;
+        this.shedding = shedding;
+        this.intervalEnd = System.nanoTime() + intervalNanos;
+    }
+
+    /*
+     * Records the sojourn of a connection taken from the queue and decides
+     * whether it is served.
+     *
+     * @param acceptedAt Time the connection was accepted (System.nanoTime)
+     * @return false if the connection should be refused
+     */
+    public boolean admit(long acceptedAt) {
+        long now = System.nanoTime();
+        long sojourn = now - acceptedAt;
+        connections.increment();
+        sojourns.record(sojourn);
+        // Judged even when only measuring, so isOverloaded reports a standing queue either way
+        boolean standing = judge(sojourn, now);
+        boolean stale = shedding && sojourn > (standing ? 2 * targetNanos : intervalNanos);
+        if (stale) {
+            shed.increment();
+        }
+        return !stale;
+    }
+
+    // Whether the queue should hand out its newest connection first
+    boolean servesNewestFirst() { return shedding && overloaded; }
+
+    // Whether the minimum sojourn stayed above the target for the last interval
+    public boolean isOverloaded() { return overloaded; }
+
+    // Whether stale connections are shed
+    public boolean isShedding() { return shedding; }
+
+    // Connections taken from the queue
+    public long getConnections() { return connections.sum(); }
+
+    // Connections refused because they waited too long
+    public long getShed() { return shed.sum(); }
+
+    // Times the queue became overloaded
+    public long getOverloads() { return overloads.sum(); }
+
+    // Recent sojourn times, for percentiles and bucket counts
+    public LatencyHistogram getSojourns() { return sojourns; }
+
+    /*
+     * Tracks the minimum sojourn of the interval and, when an interval
+     * ends, whether the queue is overloaded.
+     *
+     * @return Whether the queue is overloaded
+     */
+    private synchronized boolean judge(long sojourn, long now) {
+        if (now - intervalEnd >= 0) {
+            boolean standing = minSojourn > targetNanos;
+            if (standing != overloaded) {
+                overloaded = standing;
+                if (standing) {
+                    overloads.increment();
+                    logger.debug("Connection queue overloaded: no connection waited less than {} ms for {} ms",
+                            targetNanos / 1_000_000, intervalNanos / 1_000_000);
+                } else {
+                    logger.debug("Connection queue recovered");
+                }
+            }
+            intervalEnd = now + intervalNanos;
+            minSojourn = sojourn;
+        } else if (sojourn < minSojourn) {
+            minSojourn = sojourn;
+        }
+        return overloaded;
+    }
+}
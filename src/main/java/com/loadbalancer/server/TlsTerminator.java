@@ -0,0 +1,181 @@
+package com.loadbalancer.server;
+
+import com.loadbalancer.config.Config;
+import com.loadbalancer.util.Durations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * TlsTerminator terminates client TLS on a blocking listener. Each accepted
+ * socket is layered with an SSLSocket in server mode, and the handshake runs
+ * on the connection's handler thread before the proxy handler starts, with
+ * its own timeout so a client that stalls mid-handshake cannot hold the
+ * thread for the full read timeout. Handlers then read and write plaintext
+ * through the SSLSocket as usual; body relays fall back to stream copies
+ * since there is no channel behind it.
+ *
+ * Resumed handshakes skip the certificate and the full key exchange:
+ * - Session IDs are kept in the SSLContext's server session cache, bounded
+ *   by session_cache_size and expiring after session_timeout.
+ * - Session tickets (TLS 1.3 PSK and the TLS 1.2 ticket extension) are
+ *   issued by the JDK, which rotates the ticket keys itself. Ticket
+ *   resumption is stateless, so with tickets on (the JDK default) the cache
+ *   only fills for clients that do not support them.
+ *
+ * ALPN offers "h2" and "http/1.1" when HTTP/2 is enabled on an http
+ * listener. A client that picks "h2" starts with the HTTP/2 preface, which
+ * ProxyHandler recognises exactly as it does for h2c.
+ */
+public class TlsTerminator {
+    // Logger for TLS events
+    private static final Logger logger = LoggerFactory.getLogger(TlsTerminator.class);
+
+    // Context holding the server certificate and the session cache
+    private final SSLContext sslContext;
+
+    // Enabled protocol versions
+    private final String[] protocols;
+
+    // Protocols offered through ALPN (empty to skip ALPN)
+    private final String[] applicationProtocols;
+
+    // Maximum time in milliseconds for a client to complete the handshake
+    private final int handshakeTimeout;
+
+    // Completed handshakes, those that resumed a session, and failed handshakes
+    private final LongAdder handshakes = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Constructor loads the keystore and sets up the session cache.
+     *
+     * @param config TLS configuration
+     * @param alpn   Protocols to offer through ALPN, most preferred first (empty for none)
+     * @throws IOException              If the keystore cannot be read
+     * @throws GeneralSecurityException If the keystore or key cannot be loaded
+     */
+    public TlsTerminator(Config.TlsConfig config, List<String> alpn) throws IOException, GeneralSecurityException {
+        char[] storePassword = config.getKeystorePassword() != null
+                ? config.getKeystorePassword().toCharArray() : null;
+        char[] keyPassword = config.getKeyPassword() != null
+                ? config.getKeyPassword().toCharArray() : storePassword;
+
+        KeyStore keyStore = KeyStore.getInstance(config.getKeystoreType());
+        try (InputStream in = Files.newInputStream(Path.of(config.getKeystore()))) {
+            keyStore.load(in, storePassword);
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, keyPassword);
+
+        this.sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers.getKeyManagers(), null, null);
+
+        // Bound the session-ID cache by size and age
+        SSLSessionContext sessions = sslContext.getServerSessionContext();
+        sessions.setSessionCacheSize(config.getSessionCacheSize());
+        sessions.setSessionTimeout((int) (Durations.parseMillis(config.getSessionTimeout()) / 1000));
+
+        List<String> supported = Arrays.asList(sslContext.getSupportedSSLParameters().getProtocols());
+        for (String protocol : config.getProtocols()) {
+            if (!supported.contains(protocol)) {
+                throw new IllegalArgumentException("Unsupported TLS protocol: " + protocol);
+            }
+        }
+        this.protocols = config.getProtocols().toArray(new String[0]);
+        this.applicationProtocols = alpn.toArray(new String[0]);
+        this.handshakeTimeout = (int) Durations.parseMillis(config.getHandshakeTimeout());
+    }
+
+    /*
+     * Layers TLS over an accepted socket. No I/O happens here; the handshake
+     * is run by the task returned from handshakeThen().
+     *
+     * @param socket Accepted plaintext socket
+     * @return Server-mode SSLSocket that closes the plaintext socket with it
+     * @throws IOException If the socket cannot be wrapped (the plaintext socket is closed)
+     */
+    public SSLSocket wrap(Socket socket) throws IOException {
+        try {
+            // Handshake flights are several small records; don't let Nagle hold them back
+            socket.setTcpNoDelay(true);
+            SSLSocket sslSocket = (SSLSocket) sslContext.getSocketFactory().createSocket(socket, null, true);
+            sslSocket.setUseClientMode(false);
+            SSLParameters parameters = sslSocket.getSSLParameters();
+            parameters.setProtocols(protocols);
+            parameters.setUseCipherSuitesOrder(true);
+            if (applicationProtocols.length > 0) {
+                parameters.setApplicationProtocols(applicationProtocols);
+            }
+            sslSocket.setSSLParameters(parameters);
+            return sslSocket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /*
+     * Returns a task that completes the handshake and then runs the handler.
+     * If the handshake fails or times out the connection is closed and the
+     * handler never runs.
+     *
+     * @param socket  Socket returned by wrap()
+     * @param handler Handler serving the connection afterwards
+     */
+    public Runnable handshakeThen(SSLSocket socket, Runnable handler) {
+        return () -> {
+            long start = System.currentTimeMillis();
+            try {
+                socket.setSoTimeout(handshakeTimeout);
+                socket.startHandshake();
+            } catch (IOException e) {
+                failures.increment();
+                logger.debug("TLS handshake with {} failed: {}", socket.getInetAddress(), e.getMessage());
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // The connection is being discarded
+                }
+                return;
+            }
+            handshakes.increment();
+            // A resumed handshake reuses a session created by an earlier one
+            if (socket.getSession().getCreationTime() < start) {
+                resumed.increment();
+            }
+            handler.run();
+        };
+    }
+
+    // Handshakes completed
+    public long getHandshakes() { return handshakes.sum(); }
+
+    // Handshakes that resumed an earlier session
+    public long getResumedHandshakes() { return resumed.sum(); }
+
+    // Handshakes that failed or timed out
+    public long getFailedHandshakes() { return failures.sum(); }
+
+    // Sessions currently held in the session-ID cache (ticket sessions are not cached)
+    public int getCachedSessions() {
+        return Collections.list(sslContext.getServerSessionContext().getIds()).size();
+    }
+}
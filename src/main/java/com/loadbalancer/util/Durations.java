@@ -0,0 +1,36 @@
+package com.loadbalancer.util;
+
+/**
+ * Utility for parsing duration strings from the configuration file.
+ * Accepts values like "500ms", "5s", "2m" or "1h"; a bare number is read as seconds,
+ * matching how health check intervals are written.
+ */
+public class Durations {
+
+    /**
+     * Parses a duration string into milliseconds.
+     *
+     * @param duration Duration such as "250ms", "10s", "1m" or "1h"
+     * @return Duration in milliseconds
+     * @throws NumberFormatException If the value is not a valid duration
+     */
+    public static long parseMillis(String duration) {
+        String value = duration.trim();
+        if (value.endsWith("ms")) {
+            return Long.parseLong(value.substring(0, value.length() - 2).trim());
+        }
+        if (value.endsWith("s")) {
+            return Long.parseLong(value.substring(0, value.length() - 1).trim()) * 1000;
+        }
+        if (value.endsWith("m")) {
+            return Long.parseLong(value.substring(0, value.length() - 1).trim()) * 60_000;
+        }
+        if (value.endsWith("h")) {
+            return Long.parseLong(value.substring(0, value.length() - 1).trim()) * 3_600_000;
+        }
+        return Long.parseLong(value) * 1000;
+    }
+
+    // Private constructor to prevent instantiation of this utility class
+    private Durations() {}
+}
@@ -0,0 +1,159 @@
+package com.loadbalancer.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Lock-free histogram of recent latencies for percentile estimates.
+ *
+ * Latencies are counted in microseconds in log-linear buckets: each power
+ * of two is split into eight buckets, so a percentile is accurate to within
+ * about 12% from a microsecond up to hours, in a few kilobytes. Only recent
+ * samples count: the histogram keeps the current and the previous window
+ * and drops the older one each time a window has passed, so percentiles
+ * follow a change in backend latency within two windows.
+ */
+public class LatencyHistogram {
+    // Buckets per power of two (as a bit count and a count)
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    // Largest latency counted, in microseconds (about 19 hours); longer ones count as this
+    private static final long MAX_VALUE = (1L << 36) - 1;
+
+    // Number of buckets needed to cover 0 to MAX_VALUE
+    private static final int BUCKETS = bucket(MAX_VALUE) + 1;
+
+    // Length of a window in milliseconds
+    private final long windowMillis;
+
+    // Counts of the current and the previous window
+    private volatile AtomicLongArray current = new AtomicLongArray(BUCKETS);
+    private volatile AtomicLongArray previous = new AtomicLongArray(BUCKETS);
+
+    // Time the current window started (System.currentTimeMillis)
+    private volatile long windowStart = System.currentTimeMillis();
+
+    /**
+     * Constructor creates an empty histogram.
+     *
+     * @param windowMillis Length of a window in milliseconds
+     */
+    public LatencyHistogram(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /*
+     * Counts one latency.
+     *
+     * @param nanos Latency in nanoseconds
+     */
+    public void record(long nanos) {
+        rotateIfDue(System.currentTimeMillis());
+        current.incrementAndGet(bucket(Math.min(MAX_VALUE, Math.max(0, nanos / 1000))));
+    }
+
+    /*
+     * Estimates a percentile of the recent latencies.
+     *
+     * @param percentile Percentile between 0 and 100
+     * @param minSamples Fewest samples that give a meaningful estimate
+     * @return Upper bound of the percentile in nanoseconds, or -1 if there are fewer samples
+     */
+    public long percentileNanos(double percentile, long minSamples) {
+        rotateIfDue(System.currentTimeMillis());
+        AtomicLongArray a = current;
+        AtomicLongArray b = previous;
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = a.get(i) + b.get(i);
+            total += counts[i];
+        }
+        if (total == 0 || total < minSamples) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i) * 1000;
+            }
+        }
+        return MAX_VALUE * 1000;
+    }
+
+    /*
+     * Returns the number of samples in the current and previous window.
+     */
+    public long getCount() {
+        AtomicLongArray a = current;
+        AtomicLongArray b = previous;
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += a.get(i) + b.get(i);
+        }
+        return total;
+    }
+
+    /*
+     * Returns the number of recent samples at or below a latency, to the
+     * resolution of the buckets (a sample counts if its bucket starts at or
+     * below the bound).
+     *
+     * @param nanos Latency bound in nanoseconds
+     */
+    public long countAtOrBelow(long nanos) {
+        rotateIfDue(System.currentTimeMillis());
+        AtomicLongArray a = current;
+        AtomicLongArray b = previous;
+        int last = bucket(Math.min(MAX_VALUE, Math.max(0, nanos / 1000)));
+        long total = 0;
+        for (int i = 0; i <= last; i++) {
+            total += a.get(i) + b.get(i);
+        }
+        return total;
+    }
+
+    /*
+     * Starts a new window once the current one has passed, dropping the
+     * previous one. Windows without any samples in between are skipped.
+     */
+    private void rotateIfDue(long now) {
+        if (now - windowStart < windowMillis) {
+            return;
+        }
+        synchronized (this) {
+            if (now - windowStart < windowMillis) {
+                return;
+            }
+            previous = now - windowStart < 2 * windowMillis ? current : new AtomicLongArray(BUCKETS);
+            current = new AtomicLongArray(BUCKETS);
+            windowStart = now;
+        }
+    }
+
+    /*
+     * Maps a value to its bucket: values below SUB_COUNT have a bucket each,
+     * larger values share SUB_COUNT buckets per power of two.
+     */
+    private static int bucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+    }
+
+    /*
+     * Returns the largest value that maps to a bucket.
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long lower = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
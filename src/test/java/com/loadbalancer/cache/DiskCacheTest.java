@@ -0,0 +1,193 @@
+package com.loadbalancer.cache;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Tests for DiskCache: storing and reading entries, the warm start from the
+ * index, compaction while a segment is still read, and eviction once the
+ * segments are full.
+ */
+class DiskCacheTest {
+    private static final List<Header> NO_FIELDS = List.of();
+    private static final List<Header> RESPONSE = List.of(new BasicHeader(":status", "200"));
+
+    // Segment size; three 1000-byte bodies fit a segment, a fourth does not
+    private static final int SEGMENT = 4096;
+    private static final int BODY = 1000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void storedEntriesReadBackWithTheirFieldsAndBody() throws IOException {
+        DiskCache cache = new DiskCache(directory, 4 * SEGMENT, SEGMENT, 1);
+        List<Header> response = List.of(new BasicHeader(":status", "200"),
+                new BasicHeader("content-type", "text/plain"), new BasicHeader("age", "5"),
+                new BasicHeader("vary", "accept-encoding"));
+        List<Header> gzip = List.of(new BasicHeader("accept-encoding", "gzip"));
+        long now = System.currentTimeMillis();
+        DiskCache.Writer writer = cache.startWrite("key", response, gzip, BODY, now, 60_000);
+        writer.write(body("key", BODY), 0, BODY);
+        writer.commit();
+
+        try (DiskCache.Entry entry = cache.get("key", gzip)) {
+            assertNotNull(entry);
+            assertBody("key", entry);
+            assertEquals("text/plain", CachePolicy.value(entry.getHeaders(), "content-type"));
+            // Age is not stored but added up when served
+            assertNull(CachePolicy.value(entry.getHeaders(), "age"));
+            assertEquals(7, entry.getAge(now + 2_000));
+        }
+        // Another value of a Vary field, and an unknown key
+        assertNull(cache.get("key", List.of(new BasicHeader("accept-encoding", "br"))));
+        assertNull(cache.get("other", NO_FIELDS));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void unfinishedAndExpiredEntriesAreMisses() throws IOException {
+        DiskCache cache = new DiskCache(directory, 4 * SEGMENT, SEGMENT, 1);
+        DiskCache.Writer writer = cache.startWrite("short", RESPONSE, NO_FIELDS, BODY, System.currentTimeMillis(),
+                60_000);
+        writer.write(body("short", BODY), 0, BODY - 1);
+        writer.commit();
+        assertNull(cache.get("short", NO_FIELDS));
+
+        writer = cache.startWrite("stale", RESPONSE, NO_FIELDS, BODY, System.currentTimeMillis() - 10_000, 1_000);
+        writer.write(body("stale", BODY), 0, BODY);
+        writer.commit();
+        assertNull(cache.get("stale", NO_FIELDS));
+        assertEquals(0, cache.getEntryCount());
+
+        // Larger than a segment
+        assertNull(cache.startWrite("huge", RESPONSE, NO_FIELDS, SEGMENT, System.currentTimeMillis(), 60_000));
+        assertEquals(1, cache.getRejections());
+    }
+
+    @Test
+    void restartRecoversEntriesFromTheIndex() throws IOException {
+        DiskCache cache = new DiskCache(directory, 4 * SEGMENT, SEGMENT, 1);
+        for (int i = 0; i < 5; i++) {
+            store(cache, "key" + i);
+        }
+        long liveBytes = cache.getLiveBytes();
+        cache.close();
+
+        DiskCache restarted = new DiskCache(directory, 4 * SEGMENT, SEGMENT, 1);
+        assertEquals(5, restarted.getEntryCount());
+        assertEquals(liveBytes, restarted.getLiveBytes());
+        for (int i = 0; i < 5; i++) {
+            try (DiskCache.Entry entry = restarted.get("key" + i, NO_FIELDS)) {
+                assertNotNull(entry, "key" + i);
+                assertBody("key" + i, entry);
+            }
+        }
+        // New entries go after the restored ones instead of over them
+        store(restarted, "key5");
+        assertBody("key4", restarted.get("key4", NO_FIELDS));
+        restarted.close();
+
+        // Another geometry starts cold
+        DiskCache resized = new DiskCache(directory, 8 * SEGMENT, SEGMENT, 1);
+        assertEquals(0, resized.getEntryCount());
+        assertNull(resized.get("key0", NO_FIELDS));
+    }
+
+    @Test
+    void compactionKeepsPinnedSegmentsReadable() throws IOException {
+        DiskCache cache = new DiskCache(directory, 2 * SEGMENT, SEGMENT, 1);
+        store(cache, "a");
+        store(cache, "b", System.currentTimeMillis() - 120_000);
+        store(cache, "c", System.currentTimeMillis() - 120_000);
+        // Looking up the expired entries drops them, which leaves a alone in the first segment
+        assertNull(cache.get("b", NO_FIELDS));
+        assertNull(cache.get("c", NO_FIELDS));
+        DiskCache.Entry pinned = cache.get("a", NO_FIELDS);
+        assertNotNull(pinned);
+
+        // Rolling over to the second segment compacts the first one
+        store(cache, "d");
+        assertEquals(1, cache.getCompactions());
+        assertEquals(0, cache.getEvictions());
+        assertEquals(2, cache.getEntryCount());
+
+        // The reader still sees its bytes, and new lookups find the copy
+        assertBody("a", pinned);
+        try (DiskCache.Entry moved = cache.get("a", NO_FIELDS)) {
+            assertNotNull(moved);
+            assertBody("a", moved);
+        }
+
+        // The compacted segment cannot be reused while it is read
+        store(cache, "e");
+        assertNull(cache.startWrite("f", RESPONSE, NO_FIELDS, BODY, System.currentTimeMillis(), 60_000));
+        assertEquals(1, cache.getRejections());
+        pinned.close();
+        store(cache, "f");
+        assertBody("f", cache.get("f", NO_FIELDS));
+    }
+
+    @Test
+    void oldestSegmentIsEvictedUnderTheSizeCap() throws IOException {
+        DiskCache cache = new DiskCache(directory, 3 * SEGMENT, SEGMENT, 1);
+        for (int i = 0; i < 20; i++) {
+            store(cache, "key" + i);
+            assertTrue(cache.getLiveBytes() <= cache.getCapacity());
+        }
+
+        // Every entry is either still indexed or was evicted with its segment
+        assertTrue(cache.getEvictions() > 0);
+        assertEquals(0, cache.getCompactions());
+        assertEquals(20, cache.getEntryCount() + cache.getEvictions());
+        assertNull(cache.get("key0", NO_FIELDS));
+        try (DiskCache.Entry newest = cache.get("key19", NO_FIELDS)) {
+            assertNotNull(newest);
+            assertBody("key19", newest);
+        }
+    }
+
+    private static void store(DiskCache cache, String key) {
+        store(cache, key, System.currentTimeMillis());
+    }
+
+    /*
+     * Stores a body for the key that stays fresh for a minute after the
+     * given time.
+     */
+    private static void store(DiskCache cache, String key, long now) {
+        DiskCache.Writer writer = cache.startWrite(key, RESPONSE, NO_FIELDS, BODY, now, 60_000);
+        assertNotNull(writer, key);
+        writer.write(body(key, BODY), 0, BODY);
+        writer.commit();
+    }
+
+    private static byte[] body(String key, int length) {
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) {
+            body[i] = (byte) (key.hashCode() + i);
+        }
+        return body;
+    }
+
+    private static void assertBody(String key, DiskCache.Entry entry) {
+        ByteBuffer body = entry.getBody().duplicate();
+        byte[] actual = new byte[body.remaining()];
+        body.get(actual);
+        assertArrayEquals(body(key, BODY), actual, key);
+    }
+}
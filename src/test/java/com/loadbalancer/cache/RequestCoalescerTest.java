@@ -0,0 +1,71 @@
+package com.loadbalancer.cache;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Tests for which requests RequestCoalescer collapses and which responses
+ * their waiters may be sent.
+ */
+class RequestCoalescerTest {
+    private final RequestCoalescer coalescer = new RequestCoalescer(List.of("/api/"), 1024, 1000);
+
+    @Test
+    void coalescesPlainGetsUnderThePrefixes() {
+        assertTrue(coalescer.appliesTo("GET", request("/api/items")));
+        assertFalse(coalescer.appliesTo("GET", request("/static/app.js")));
+        assertFalse(coalescer.appliesTo("POST", request("/api/items")));
+    }
+
+    @Test
+    void neverCoalescesRequestsCarryingUserState() {
+        assertFalse(coalescer.appliesTo("GET", request("/api/items", "cookie", "session=alice")));
+        assertFalse(coalescer.appliesTo("GET", request("/api/items", "authorization", "Bearer token")));
+        assertFalse(coalescer.appliesTo("GET", request("/api/items", "if-none-match", "\"v1\"")));
+        assertFalse(coalescer.appliesTo("GET", request("/api/items", "range", "bytes=0-10")));
+    }
+
+    @Test
+    void sharesOnlyResponsesASharedCacheCouldStore() {
+        long now = System.currentTimeMillis();
+        assertTrue(CachePolicy.isExplicitlyShareable(200, response("cache-control", "max-age=60"), now));
+        assertTrue(CachePolicy.isExplicitlyShareable(200, response("cache-control", "s-maxage=10"), now));
+        assertTrue(CachePolicy.isExplicitlyShareable(200, response("cache-control", "public"), now));
+
+        // Silence about caching does not make a response safe to hand to another client
+        assertFalse(CachePolicy.isExplicitlyShareable(200, response(), now));
+        assertFalse(CachePolicy.isExplicitlyShareable(200, response("cache-control", "max-age=0"), now));
+        assertFalse(CachePolicy.isExplicitlyShareable(200, response("cache-control", "public, no-cache"), now));
+        assertFalse(CachePolicy.isExplicitlyShareable(200, response("cache-control", "private, max-age=60"), now));
+        assertFalse(CachePolicy.isExplicitlyShareable(200,
+                response("cache-control", "max-age=60", "set-cookie", "session=bob"), now));
+        assertFalse(CachePolicy.isExplicitlyShareable(500, response("cache-control", "public"), now));
+    }
+
+    private static List<Header> request(String path, String... fields) {
+        List<Header> headers = new ArrayList<>(List.of(
+                new BasicHeader(":method", "GET"),
+                new BasicHeader(":scheme", "http"),
+                new BasicHeader(":authority", "example"),
+                new BasicHeader(":path", path)));
+        for (int i = 0; i < fields.length; i += 2) {
+            headers.add(new BasicHeader(fields[i], fields[i + 1]));
+        }
+        return headers;
+    }
+
+    private static List<Header> response(String... fields) {
+        List<Header> headers = new ArrayList<>(List.of(new BasicHeader(":status", "200")));
+        for (int i = 0; i < fields.length; i += 2) {
+            headers.add(new BasicHeader(fields[i], fields[i + 1]));
+        }
+        return headers;
+    }
+}
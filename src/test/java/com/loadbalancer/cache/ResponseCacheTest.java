@@ -0,0 +1,81 @@
+package com.loadbalancer.cache;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/*
+ * Tests for the admission and eviction of ResponseCache.
+ */
+class ResponseCacheTest {
+    private static final List<Header> NO_FIELDS = List.of();
+
+    @Test
+    void refusedResponseLeavesTheSegmentUnchanged() {
+        // One segment with room for the two stored responses but not for a third large one
+        ResponseCache cache = new ResponseCache(2600, 4096, 1);
+        cache.put("cold", response(1000));
+        cache.put("hot", response(1000));
+        lookUp(cache, "hot", 5);
+        long bytes = cache.getBytesUsed();
+
+        // Requested more often than "cold" but less than "hot": it would need both evicted
+        lookUp(cache, "new", 2);
+        cache.put("new", response(2000));
+
+        assertEquals(1, cache.getRejections());
+        assertEquals(0, cache.getEvictions());
+        assertEquals(bytes, cache.getBytesUsed());
+        assertNotNull(cache.get("cold", NO_FIELDS));
+        assertNotNull(cache.get("hot", NO_FIELDS));
+    }
+
+    @Test
+    void admittedResponseEvictsLeastRecentlyUsedFirst() {
+        ResponseCache cache = new ResponseCache(2600, 4096, 1);
+        cache.put("old", response(1000));
+        cache.put("recent", response(1000));
+        lookUp(cache, "popular", 10);
+        cache.put("popular", response(1000));
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getEntryCount());
+        assertNull(cache.get("old", NO_FIELDS));
+        assertNotNull(cache.get("recent", NO_FIELDS));
+        assertNotNull(cache.get("popular", NO_FIELDS));
+    }
+
+    @Test
+    void replacingAKeyCountsItsOwnBytesAsFree() {
+        // Exactly full once the larger response for "key" replaces the smaller one
+        ResponseCache cache = new ResponseCache(2400, 4096, 1);
+        cache.put("other", response(1000));
+        cache.put("key", response(1000));
+        lookUp(cache, "other", 5);
+
+        // Fits once the old response for the same key is gone; "other" must stay
+        cache.put("key", response(1060));
+
+        assertEquals(0, cache.getRejections());
+        assertEquals(0, cache.getEvictions());
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(1060, cache.get("key", NO_FIELDS).getBody().length);
+    }
+
+    private static void lookUp(ResponseCache cache, String key, int times) {
+        for (int i = 0; i < times; i++) {
+            cache.get(key, NO_FIELDS);
+        }
+    }
+
+    private static CachedResponse response(int bodySize) {
+        return new CachedResponse(List.of(new BasicHeader(":status", "200")), NO_FIELDS, new byte[bodySize],
+                System.currentTimeMillis(), 60_000);
+    }
+}
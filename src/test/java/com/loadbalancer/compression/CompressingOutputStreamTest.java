@@ -0,0 +1,170 @@
+package com.loadbalancer.compression;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Tests for CompressingOutputStream: the chunked output decodes to the
+ * original body in both formats, carries a correct gzip trailer, and is
+ * flushed whenever the source has nothing ready.
+ */
+class CompressingOutputStreamTest {
+    private final ResponseCompressor compressor = new ResponseCompressor(List.of("text/plain"), 0, 6, 2);
+
+    @Test
+    void gzipChunksDecompressWithTheTrailer() throws IOException {
+        // Larger than one chunk buffer even when compressed
+        byte[] body = text(400_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CompressingOutputStream stream = compressor.open(out, ResponseCompressor.GZIP, null)) {
+            for (int offset = 0; offset < body.length; offset += 7_000) {
+                stream.write(body, offset, Math.min(7_000, body.length - offset));
+            }
+            stream.finish();
+        }
+
+        List<byte[]> chunks = dechunk(out.toByteArray());
+        assertTrue(chunks.size() > 1, "chunks " + chunks.size());
+        byte[] gzip = concat(chunks);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            assertArrayEquals(body, in.readAllBytes());
+        }
+
+        // Trailer: CRC-32 and length of the uncompressed body, little-endian
+        ByteBuffer trailer = ByteBuffer.wrap(gzip, gzip.length - 8, 8).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        assertEquals((int) crc.getValue(), trailer.getInt());
+        assertEquals(body.length, trailer.getInt());
+
+        assertEquals(1, compressor.getResponses());
+        assertEquals(body.length, compressor.getBytesIn());
+        assertEquals(gzip.length, compressor.getBytesOut());
+    }
+
+    @Test
+    void deflateChunksInflate() throws IOException, DataFormatException {
+        byte[] body = text(100_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CompressingOutputStream stream = compressor.open(out, ResponseCompressor.DEFLATE, null)) {
+            stream.write(body, 0, body.length);
+            stream.finish();
+        }
+        assertArrayEquals(body, inflate(concat(dechunk(out.toByteArray())), false));
+    }
+
+    @Test
+    void flushesWhenTheSourceHasNothingReady() throws IOException, DataFormatException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream drained = new ByteArrayInputStream(new byte[0]);
+        try (CompressingOutputStream stream = compressor.open(out, ResponseCompressor.DEFLATE, drained)) {
+            byte[] part = "first part of a slow response".getBytes(StandardCharsets.US_ASCII);
+            stream.write(part, 0, part.length);
+
+            // Without finishing, what was sent already decodes to everything written
+            assertArrayEquals(part, inflate(concat(dechunk(out.toByteArray())), true));
+            stream.finish();
+        }
+        // An unfinished stream is not counted
+        ByteArrayOutputStream abandoned = new ByteArrayOutputStream();
+        compressor.open(abandoned, ResponseCompressor.GZIP, null).close();
+        assertEquals(1, compressor.getResponses());
+    }
+
+    /*
+     * Returns compressible text of the given length.
+     */
+    static byte[] text(int length) {
+        String[] words = {"proxy ", "backend ", "stream ", "request ", "header ", "body ", "cache ", "\n"};
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(words[random.nextInt(words.length)]);
+        }
+        return text.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /*
+     * Inflates zlib-format data; a partial stream inflates as far as it goes.
+     */
+    static byte[] inflate(byte[] data, boolean partial) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    assertTrue(partial, "truncated deflate data");
+                    break;
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /*
+     * Splits an HTTP/1.1 chunked body into its chunks, checking the framing
+     * (and the last chunk, if present).
+     */
+    private static List<byte[]> dechunk(byte[] chunked) {
+        List<byte[]> chunks = new ArrayList<>();
+        int position = 0;
+        while (position < chunked.length) {
+            int lineEnd = indexOf(chunked, position);
+            int size = Integer.parseInt(new String(chunked, position, lineEnd - position, StandardCharsets.US_ASCII),
+                    16);
+            position = lineEnd + 2;
+            if (size == 0) {
+                assertEquals(position + 2, chunked.length, "bytes after the last chunk");
+                break;
+            }
+            chunks.add(Arrays.copyOfRange(chunked, position, position + size));
+            position += size;
+            assertEquals('\r', chunked[position]);
+            assertEquals('\n', chunked[position + 1]);
+            position += 2;
+        }
+        return chunks;
+    }
+
+    private static int indexOf(byte[] data, int from) {
+        for (int i = from; i < data.length - 1; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n') {
+                return i;
+            }
+        }
+        throw new AssertionError("chunk size line not terminated");
+    }
+
+    private static byte[] concat(List<byte[]> chunks) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] chunk : chunks) {
+            out.writeBytes(chunk);
+        }
+        return out.toByteArray();
+    }
+}
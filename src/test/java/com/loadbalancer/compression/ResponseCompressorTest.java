@@ -0,0 +1,166 @@
+package com.loadbalancer.compression;
+
+import com.loadbalancer.cache.CachePolicy;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Tests for ResponseCompressor: choosing a coding from Accept-Encoding,
+ * deciding which responses are compressed, rewriting their fields, and
+ * compressing whole bodies.
+ */
+class ResponseCompressorTest {
+    private final ResponseCompressor compressor = new ResponseCompressor(List.of("text/html", "Application/JSON "),
+            1000, 6, 2);
+
+    @Test
+    void negotiatesByQuality() {
+        assertNull(negotiate(null));
+        assertEquals("gzip", negotiate("gzip"));
+        assertEquals("gzip", negotiate("GZIP"));
+        assertEquals("deflate", negotiate("deflate"));
+        assertEquals("gzip", negotiate("deflate, gzip"));
+        assertEquals("deflate", negotiate("gzip;q=0.5, deflate"));
+        // Equal qualities prefer gzip
+        assertEquals("gzip", negotiate("deflate;q=0.5, gzip; q=0.5"));
+        assertNull(negotiate("br, identity"));
+    }
+
+    @Test
+    void treatsXGzipAsGzip() {
+        assertEquals("gzip", negotiate("x-gzip"));
+        assertEquals("deflate", negotiate("x-gzip;q=0.2, deflate;q=0.8"));
+    }
+
+    @Test
+    void qualityZeroRefusesACoding() {
+        assertNull(negotiate("gzip;q=0"));
+        assertEquals("deflate", negotiate("gzip;q=0, deflate"));
+        // An unreadable quality counts as a refusal
+        assertNull(negotiate("gzip;q=high"));
+    }
+
+    @Test
+    void wildcardCoversCodingsNotListed() {
+        assertEquals("gzip", negotiate("*"));
+        assertEquals("deflate", negotiate("gzip;q=0, *"));
+        assertEquals("gzip", negotiate("deflate;q=0.1, *;q=0.5"));
+        assertNull(negotiate("*;q=0"));
+        assertEquals("deflate", negotiate("*;q=0, deflate;q=0.3"));
+    }
+
+    @Test
+    void compressesOnlyEligibleResponses() {
+        assertTrue(compressor.isCompressible("GET", response("200", "text/html; charset=utf-8", "2000")));
+        assertTrue(compressor.isCompressible("GET", response("200", "application/json", "1000")));
+        // Length unknown (chunked)
+        assertTrue(compressor.isCompressible("POST", response("404", "text/html", null)));
+
+        assertFalse(compressor.isCompressible("HEAD", response("200", "text/html", "2000")));
+        assertFalse(compressor.isCompressible("GET", response("204", "text/html", "2000")));
+        assertFalse(compressor.isCompressible("GET", response("206", "text/html", "2000")));
+        assertFalse(compressor.isCompressible("GET", response("304", "text/html", "2000")));
+        assertFalse(compressor.isCompressible("GET", response("103", "text/html", "2000")));
+        assertFalse(compressor.isCompressible("GET", response("200", "text/html", "999")));
+        assertFalse(compressor.isCompressible("GET", response("200", "text/html", "many")));
+        assertFalse(compressor.isCompressible("GET", response("200", "image/png", "2000")));
+        assertFalse(compressor.isCompressible("GET", response("200", null, "2000")));
+
+        assertFalse(compressor.isCompressible("GET", with(response("200", "text/html", "2000"),
+                "content-encoding", "br")));
+        assertFalse(compressor.isCompressible("GET", with(response("200", "text/html", "2000"),
+                "content-range", "bytes 0-1999/5000")));
+        assertFalse(compressor.isCompressible("GET", with(response("200", "text/html", "2000"),
+                "cache-control", "public, No-Transform")));
+    }
+
+    @Test
+    void encodedResponsesCarryAWeakETagAndVary() {
+        List<Header> headers = compressor.encodedHeaders(with(response("200", "text/html", "2000"),
+                "etag", "\"v1\""), "gzip", 700);
+        assertEquals("W/\"v1\"", CachePolicy.value(headers, "etag"));
+        assertEquals("gzip", CachePolicy.value(headers, "content-encoding"));
+        assertEquals("accept-encoding", CachePolicy.value(headers, "vary"));
+        assertEquals(List.of("700"), values(headers, "content-length"));
+
+        // Chunked: no length; an existing weak ETag and Vary: Accept-Encoding are kept as they are
+        headers = compressor.encodedHeaders(with(with(response("200", "text/html", "2000"),
+                "etag", "W/\"v2\""), "vary", "Origin, Accept-Encoding"), "deflate", -1);
+        assertEquals("W/\"v2\"", CachePolicy.value(headers, "etag"));
+        assertEquals(List.of("Origin, Accept-Encoding"), values(headers, "vary"));
+        assertEquals(List.of(), values(headers, "content-length"));
+
+        // Vary on another field gets Accept-Encoding added
+        headers = compressor.encodedHeaders(with(response("200", "text/html", "2000"), "vary", "origin"),
+                "gzip", -1);
+        assertEquals(List.of("origin", "accept-encoding"), values(headers, "vary"));
+    }
+
+    @Test
+    void compressesWholeBodies() throws IOException, DataFormatException {
+        byte[] body = CompressingOutputStreamTest.text(50_000);
+
+        byte[] gzip = compressor.compress(body, ResponseCompressor.GZIP);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            assertArrayEquals(body, in.readAllBytes());
+        }
+
+        byte[] deflate = compressor.compress(body, ResponseCompressor.DEFLATE);
+        assertArrayEquals(body, CompressingOutputStreamTest.inflate(deflate, false));
+
+        assertEquals(2, compressor.getResponses());
+        assertEquals(2L * body.length, compressor.getBytesIn());
+        assertEquals(gzip.length + deflate.length, compressor.getBytesOut());
+        assertTrue(compressor.getSavedRatio() > 0.5);
+    }
+
+    private String negotiate(String acceptEncoding) {
+        List<Header> request = new ArrayList<>();
+        request.add(new BasicHeader(":method", "GET"));
+        if (acceptEncoding != null) {
+            request.add(new BasicHeader("accept-encoding", acceptEncoding));
+        }
+        return compressor.negotiate(request);
+    }
+
+    private static List<Header> response(String status, String contentType, String contentLength) {
+        List<Header> headers = new ArrayList<>();
+        headers.add(new BasicHeader(":status", status));
+        if (contentType != null) {
+            headers.add(new BasicHeader("content-type", contentType));
+        }
+        if (contentLength != null) {
+            headers.add(new BasicHeader("content-length", contentLength));
+        }
+        return headers;
+    }
+
+    private static List<Header> with(List<Header> headers, String name, String value) {
+        headers.add(new BasicHeader(name, value));
+        return headers;
+    }
+
+    private static List<String> values(List<Header> headers, String name) {
+        List<String> values = new ArrayList<>();
+        for (Header header : headers) {
+            if (header.getName().equals(name)) {
+                values.add(header.getValue());
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,129 @@
+package com.loadbalancer.health;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/*
+ * Tests for which outcomes decide a half-open CircuitBreaker, and for how
+ * trials start under concurrent requests.
+ */
+class CircuitBreakerTest {
+
+    @Test
+    void lateRequestsAdmittedWhileClosedAreNotTrials() {
+        // Opens after four failures and turns half-open at once, with two trial calls
+        CircuitBreaker breaker = new CircuitBreaker("backend", 4, 4, 50, 100, 10_000, 0, 2);
+        long late = breaker.tryAcquirePermission();
+        assertEquals(CircuitBreaker.NOT_TRIAL, late);
+        open(breaker);
+
+        long first = breaker.tryAcquirePermission();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertNotEquals(CircuitBreaker.REFUSED, first);
+
+        // Completes during the trial but was sent before the breaker opened
+        breaker.record(late, false, 1_000_000);
+        breaker.record(first, false, 1_000_000);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.record(breaker.tryAcquirePermission(), false, 1_000_000);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void lateFailuresDoNotReopenTheBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker("backend", 4, 4, 50, 100, 10_000, 0, 2);
+        long late = breaker.tryAcquirePermission();
+        open(breaker);
+
+        long first = breaker.tryAcquirePermission();
+        long second = breaker.tryAcquirePermission();
+        breaker.record(late, true, 1_000_000);
+        breaker.record(late, true, 1_000_000);
+        breaker.record(first, false, 1_000_000);
+        breaker.record(second, false, 1_000_000);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getOpened());
+    }
+
+    @Test
+    void releasedPermitsAreHandedOutAgain() throws InterruptedException {
+        // A trial out of permits only goes stale after the open duration
+        CircuitBreaker breaker = new CircuitBreaker("backend", 4, 4, 50, 100, 10_000, 200, 2);
+        open(breaker);
+        Thread.sleep(210);
+
+        long first = breaker.tryAcquirePermission();
+        long second = breaker.tryAcquirePermission();
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquirePermission());
+
+        // The client went away before the backend answered
+        breaker.releasePermission(first);
+        long third = breaker.tryAcquirePermission();
+        assertEquals(second, third);
+        // Permits taken while closed have nothing to give back
+        breaker.releasePermission(CircuitBreaker.NOT_TRIAL);
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquirePermission());
+
+        breaker.record(second, false, 1_000_000);
+        breaker.record(third, false, 1_000_000);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void concurrentRequestsStartExactlyOneTrial() throws InterruptedException {
+        int threads = 16;
+        CircuitBreaker breaker = new CircuitBreaker("backend", 4, 4, 50, 100, 10_000, 100, 3);
+        for (int round = 0; round < 20; round++) {
+            open(breaker);
+            Thread.sleep(110);
+
+            // Every thread asks at the same moment the open period is over
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(threads);
+            Set<Long> trials = ConcurrentHashMap.newKeySet();
+            AtomicInteger granted = new AtomicInteger();
+            for (int i = 0; i < threads; i++) {
+                new Thread(() -> {
+                    try {
+                        start.await();
+                        long permit = breaker.tryAcquirePermission();
+                        if (permit != CircuitBreaker.REFUSED) {
+                            granted.incrementAndGet();
+                            trials.add(permit);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }).start();
+            }
+            start.countDown();
+            done.await();
+
+            assertEquals(3, granted.get(), "round " + round);
+            assertEquals(1, trials.size(), "round " + round);
+            long trial = trials.iterator().next();
+            assertNotEquals(CircuitBreaker.NOT_TRIAL, trial);
+            for (int i = 0; i < 3; i++) {
+                breaker.record(trial, false, 1_000_000);
+            }
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(), "round " + round);
+        }
+    }
+
+    private static void open(CircuitBreaker breaker) {
+        for (int i = 0; i < 4; i++) {
+            breaker.record(breaker.tryAcquirePermission(), true, 1_000_000);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
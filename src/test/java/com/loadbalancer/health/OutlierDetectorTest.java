@@ -0,0 +1,116 @@
+package com.loadbalancer.health;
+
+import com.loadbalancer.server.Backend;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Tests for the ejection triggers, ejection times and ejection limit of
+ * OutlierDetector.
+ */
+class OutlierDetectorTest {
+
+    @Test
+    void ejectsAfterConsecutiveFailures() {
+        List<Backend> backends = backends(4);
+        Backend backend = backends.get(0);
+        OutlierDetector detector = new OutlierDetector(backends, 3, 0.9, 100, 10_000, 30_000, 300_000, 50);
+
+        detector.recordFailure(backend);
+        detector.recordResponse(backend, 503);
+        // A success breaks the run
+        detector.recordResponse(backend, 200);
+        detector.recordFailure(backend);
+        detector.recordFailure(backend);
+        assertFalse(backend.isEjected());
+
+        detector.recordResponse(backend, 502);
+        assertTrue(backend.isEjected());
+        assertEquals(1, detector.getEjections());
+        assertEquals(1, detector.getEjectedCount());
+    }
+
+    @Test
+    void ejectsOnTheErrorRateOnceEnoughRequestsWereSeen() {
+        List<Backend> backends = backends(4);
+        Backend backend = backends.get(0);
+        OutlierDetector detector = new OutlierDetector(backends, 100, 0.5, 10, 10_000, 30_000, 300_000, 50);
+
+        // Half of the requests fail, but never twice in a row
+        for (int i = 0; i < 4; i++) {
+            detector.recordResponse(backend, 200);
+            detector.recordFailure(backend);
+        }
+        detector.recordResponse(backend, 404);
+        assertFalse(backend.isEjected(), "only 9 requests seen");
+
+        detector.recordResponse(backend, 500);
+        assertTrue(backend.isEjected());
+    }
+
+    @Test
+    void ejectionTimeGrowsLinearlyUpToTheMaximum() {
+        ErrorTracker tracker = new ErrorTracker(10_000);
+        long now = 1_000_000;
+        assertEquals(1_000, tracker.eject(now, 1_000, 2_500));
+        assertEquals(2_000, tracker.eject(now += 1_000, 1_000, 2_500));
+        assertEquals(2_500, tracker.eject(now += 2_000, 1_000, 2_500));
+        assertEquals(2_500, tracker.eject(now += 2_500, 1_000, 2_500));
+
+        // In rotation for the longest ejection time since the last one: back to the base time
+        assertEquals(1_000, tracker.eject(now + 2_500 + 2_500, 1_000, 2_500));
+    }
+
+    @Test
+    void ejectionClearsTheRecord() {
+        ErrorTracker tracker = new ErrorTracker(10_000);
+        long now = 1_000_000;
+        tracker.record(true, now);
+        tracker.record(true, now);
+        assertTrue(tracker.exceedsErrorRate(now, 2, 0.5));
+        tracker.eject(now, 1_000, 10_000);
+        assertFalse(tracker.exceedsErrorRate(now, 1, 0.5));
+        assertEquals(1, tracker.record(true, now));
+    }
+
+    @Test
+    void ejectsAtMostTheAllowedShareAndNeverEveryBackend() {
+        // 50% of 4 backends: two at most
+        assertEquals(2, ejectAll(4, 50));
+        // 50% of 2 backends would be one, and one always stays in rotation
+        assertEquals(1, ejectAll(2, 100));
+        // A lone backend is never ejected
+        assertEquals(0, ejectAll(1, 100));
+        // A small share still allows one ejection
+        assertEquals(1, ejectAll(10, 5));
+    }
+
+    /*
+     * Fails every backend once with an ejection on the first failure and
+     * returns how many ended up ejected.
+     */
+    private static int ejectAll(int count, int maxEjectionPercent) {
+        List<Backend> backends = backends(count);
+        OutlierDetector detector = new OutlierDetector(backends, 1, 1.0, 100, 10_000, 30_000, 300_000,
+                maxEjectionPercent);
+        for (Backend backend : backends) {
+            detector.recordFailure(backend);
+        }
+        assertEquals(count - detector.getEjectedCount(), detector.getSkipped());
+        return detector.getEjectedCount();
+    }
+
+    private static List<Backend> backends(int count) {
+        List<Backend> backends = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            backends.add(new Backend("127.0.0.1", 9000 + i, 1));
+        }
+        return backends;
+    }
+}
@@ -0,0 +1,106 @@
+package com.loadbalancer.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Tests for BufferPool: reuse, refusal of double releases and leak reports.
+ */
+class BufferPoolTest {
+
+    @Test
+    void reusesReleasedBuffers() {
+        BufferPool pool = new BufferPool(16, true);
+        byte[] array = pool.acquireArray(4000);
+        assertEquals(4096, array.length);
+        pool.release(array);
+        assertSame(array, pool.acquireArray(4096));
+
+        ByteBuffer buffer = pool.acquireDirect(10_000);
+        assertEquals(16 * 1024, buffer.capacity());
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        ByteBuffer again = pool.acquireDirect(16 * 1024);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+    }
+
+    @Test
+    void refusesSecondRelease() {
+        for (boolean leakDetection : new boolean[] {false, true}) {
+            BufferPool pool = new BufferPool(16, leakDetection);
+            byte[] array = pool.acquireArray(4096);
+            pool.release(array);
+            pool.release(array);
+            // Pooled once, so two acquisitions must not share it
+            assertNotSame(pool.acquireArray(4096), pool.acquireArray(4096));
+
+            ByteBuffer buffer = pool.acquireDirect(4096);
+            pool.release(buffer);
+            pool.release(buffer);
+            assertNotSame(pool.acquireDirect(4096), pool.acquireDirect(4096));
+        }
+    }
+
+    @Test
+    void refusesBuffersItDidNotHandOut() {
+        BufferPool pool = new BufferPool(16, false);
+        byte[] foreign = new byte[4096];
+        pool.release(foreign);
+        assertNotSame(foreign, pool.acquireArray(4096));
+        assertEquals(0, pool.getPooledCount());
+    }
+
+    @Test
+    void doesNotPoolOversizedBuffers() {
+        BufferPool pool = new BufferPool(16, true);
+        byte[] large = pool.acquireArray(100_000);
+        assertEquals(100_000, large.length);
+        pool.release(large);
+        assertEquals(0, pool.reportLeaks());
+        assertEquals(0, pool.getPooledCount());
+    }
+
+    @Test
+    void reportsBuffersNeverReleased() {
+        BufferPool pool = new BufferPool(16, true);
+        byte[] kept = pool.acquireArray(4096);
+        pool.release(pool.acquireArray(8192));
+        ByteBuffer keptDirect = pool.acquireDirect(4096);
+        assertEquals(2, pool.reportLeaks());
+        assertEquals(2, pool.getInUseCount());
+
+        pool.release(kept);
+        pool.release(keptDirect);
+        assertEquals(0, pool.reportLeaks());
+        assertEquals(0, pool.getInUseCount());
+    }
+
+    @Test
+    void httpInputStreamReturnsEveryBuffer() throws IOException {
+        BufferPool pool = BufferPool.getDefault();
+        assertTrue(Boolean.getBoolean("loadbalancer.bufferpool.leakDetection"),
+                "surefire should enable leak detection");
+        int before = pool.reportLeaks();
+
+        // Headers larger than the initial buffer make the stream trade up to bigger ones
+        String request = "GET / HTTP/1.1\r\nX-Large: " + "a".repeat(20_000) + "\r\nHost: x\r\n\r\n";
+        HttpInputStream in = new HttpInputStream(
+                new ByteArrayInputStream(request.getBytes(StandardCharsets.US_ASCII)), 4096);
+        HttpHeaderInfo info = new HttpHeaderInfo();
+        assertTrue(in.readHeaders(info));
+        assertEquals(before + 1, pool.reportLeaks());
+        in.release();
+        in.release();
+        assertEquals(before, pool.reportLeaks());
+    }
+}
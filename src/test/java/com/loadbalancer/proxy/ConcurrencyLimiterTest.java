@@ -0,0 +1,122 @@
+package com.loadbalancer.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Tests for how ConcurrencyLimiter moves its limit: growth while the RTT
+ * stays near the no-load RTT, shrinking once it rises, the periodic probe,
+ * and releases without a sample.
+ */
+class ConcurrencyLimiterTest {
+    // Length of the limiter's sample window
+    private static final long WINDOW_NANOS = 100_000_000;
+
+    private static final long MILLIS = 1_000_000;
+
+    @Test
+    void growsWhileTheRttStaysNearTheNoLoadRtt() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(16, 1, 100, 1.5, 1.0);
+        long now = System.nanoTime();
+        window(limiter, now += WINDOW_NANOS, MILLIS);
+        // 16 + sqrt(16)
+        assertEquals(20, limiter.getLimit());
+        assertEquals(1.0, limiter.getMinRttMillis(), 1e-9);
+
+        // Within the tolerance the limit keeps growing, up to the largest limit
+        for (int i = 0; i < 20; i++) {
+            window(limiter, now += WINDOW_NANOS, 14 * MILLIS / 10);
+        }
+        assertEquals(100, limiter.getLimit());
+    }
+
+    @Test
+    void shrinksWhenTheRttRises() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(64, 8, 100, 1.5, 1.0);
+        long now = System.nanoTime();
+        window(limiter, now += WINDOW_NANOS, MILLIS);
+        assertEquals(72, limiter.getLimit());
+
+        // Twice the no-load RTT: gradient 1.5 / 2, so 72 * 0.75 + sqrt(72)
+        window(limiter, now += WINDOW_NANOS, 2 * MILLIS);
+        assertEquals(62, limiter.getLimit());
+
+        // However slow, one window at most halves the limit, and the smallest limit holds
+        window(limiter, now += WINDOW_NANOS, 1000 * MILLIS);
+        assertEquals(39, limiter.getLimit());
+        for (int i = 0; i < 20; i++) {
+            window(limiter, now += WINDOW_NANOS, 1000 * MILLIS);
+        }
+        assertEquals(8, limiter.getLimit());
+        assertEquals(1.0, limiter.getMinRttMillis(), 1e-9);
+    }
+
+    @Test
+    void idleWindowsLeaveTheLimitAlone() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(16, 1, 100, 1.5, 1.0);
+        long now = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            // A single request in flight, far below half the limit
+            assertTrue(limiter.tryAcquire());
+            limiter.release(MILLIS, now += WINDOW_NANOS);
+        }
+        assertEquals(16, limiter.getLimit());
+    }
+
+    @Test
+    void halvesTheLimitToMeasureTheNoLoadRttAgain() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(16, 1, 100, 1.5, 1.0);
+        long now = System.nanoTime();
+        for (int i = 0; i < 299; i++) {
+            window(limiter, now += WINDOW_NANOS, MILLIS);
+        }
+        assertEquals(100, limiter.getLimit());
+
+        // The 300th window probes: half the limit, and the no-load RTT is forgotten
+        window(limiter, now += WINDOW_NANOS, MILLIS);
+        assertEquals(50, limiter.getLimit());
+        assertEquals(0.0, limiter.getMinRttMillis(), 1e-9);
+
+        // The backends became slower for good: the no-load RTT follows them
+        window(limiter, now += WINDOW_NANOS, 5 * MILLIS);
+        assertEquals(5.0, limiter.getMinRttMillis(), 1e-9);
+        assertTrue(limiter.getLimit() > 50);
+    }
+
+    @Test
+    void releaseWithoutASampleOnlyFreesTheSlot() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 100, 1.5, 1.0);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(1, limiter.getRejected());
+
+        limiter.release();
+        assertEquals(1, limiter.getInFlight());
+        assertTrue(limiter.tryAcquire());
+        limiter.release();
+        limiter.release();
+
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(3, limiter.getAdmitted());
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0.0, limiter.getMinRttMillis(), 1e-9);
+    }
+
+    /*
+     * Fills the limit, then closes a sample window with one request of the
+     * given RTT and releases the others without a sample.
+     */
+    private static void window(ConcurrencyLimiter limiter, long now, long rttNanos) {
+        while (limiter.tryAcquire()) {
+            // Demand above the limit
+        }
+        limiter.release(rttNanos, now);
+        while (limiter.getInFlight() > 0) {
+            limiter.release();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.loadbalancer.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Compares the header parsing of HttpInputStream with the reader it
+ * replaced, which read a header block one byte at a time through a
+ * BufferedInputStream, wrote each byte to the output on its own, and built
+ * a String per line to find Content-Length and Transfer-Encoding.
+ *
+ * Both parse and forward the same stream of pipelined browser-like request
+ * heads. Reports the time, the heap bytes allocated and the output writes
+ * (each one a syscall on a socket) per request head.
+ *
+ * Not a unit test (surefire skips it); run it after test-compile with
+ *
+ *   java -cp target/classes:target/test-classes:<dependencies> \
+ *       com.loadbalancer.proxy.HeaderParsingBenchmark [requests] [rounds]
+ */
+public class HeaderParsingBenchmark {
+    // A request head as a browser sends it, about 700 bytes
+    private static final String REQUEST = "GET /assets/app.3f2a9c.js?v=42 HTTP/1.1\r\n"
+            + "Host: shop.example.com\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 "
+            + "Safari/537.36\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n"
+            + "Accept-Language: en-US,en;q=0.9,de;q=0.8\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Referer: https://shop.example.com/catalog/shoes?page=3\r\n"
+            + "Cookie: session=8f14e45fceea167a5a36dedd4bea2543; cart=3; theme=dark; consent=all\r\n"
+            + "Cache-Control: no-cache\r\n"
+            + "Pragma: no-cache\r\n"
+            + "Sec-Fetch-Dest: script\r\n"
+            + "Sec-Fetch-Mode: no-cors\r\n"
+            + "Sec-Fetch-Site: same-origin\r\n"
+            + "X-Request-Id: 7c9e6679-7425-40de-944b-e07fc1f90ae7\r\n"
+            + "Content-Length: 0\r\n"
+            + "Connection: keep-alive\r\n"
+            + "\r\n";
+
+    public static void main(String[] args) throws IOException {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        byte[] single = REQUEST.getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream pipelined = new ByteArrayOutputStream(single.length * requests);
+        for (int i = 0; i < requests; i++) {
+            pipelined.writeBytes(single);
+        }
+        byte[] input = pipelined.toByteArray();
+
+        System.out.printf("%d request heads of %d bytes, %d rounds (first %d are warm-up), Java %s%n", requests,
+                single.length, rounds, rounds / 2, Runtime.version().feature());
+        for (String parser : new String[] {"byte-at-a-time", "HttpInputStream"}) {
+            long[] best = null;
+            for (int round = 0; round < rounds; round++) {
+                long[] result = run(parser, input, requests);
+                if (round >= rounds / 2 && (best == null || result[0] < best[0])) {
+                    best = result;
+                }
+            }
+            System.out.printf("%-16s %7.1f ns/request  %6d bytes allocated/request  %5.1f writes/request%n", parser,
+                    (double) best[0] / requests, best[1] / requests, (double) best[2] / requests);
+        }
+    }
+
+    /*
+     * Parses and forwards every request head once and returns the time in
+     * nanoseconds, the bytes allocated and the number of writes.
+     */
+    private static long[] run(String parser, byte[] input, int requests) throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        long bodies = 0;
+        if (parser.equals("HttpInputStream")) {
+            HttpInputStream in = new HttpInputStream(new ByteArrayInputStream(input), 8192);
+            HttpHeaderInfo info = new HttpHeaderInfo();
+            for (int i = 0; i < requests; i++) {
+                info.contentLength = -1;
+                info.isChunked = false;
+                in.readHeaders(info);
+                out.write(info.buf, info.offset, info.length);
+                bodies += info.contentLength;
+            }
+            in.release();
+        } else {
+            BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(input), 8192);
+            for (int i = 0; i < requests; i++) {
+                bodies += readAndForwardHeaders(in, out).contentLength;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (bodies != 0) {
+            throw new IllegalStateException("Content-Length misparsed");
+        }
+        return new long[] {elapsed, allocatedBytes() - allocated, out.writes};
+    }
+
+    /*
+     * The header reader HttpInputStream replaced, kept as it was apart from
+     * its logging.
+     */
+    private static HttpHeaderInfo readAndForwardHeaders(BufferedInputStream input, OutputStream output)
+            throws IOException {
+        HttpHeaderInfo info = new HttpHeaderInfo();
+        StringBuilder lineBuilder = new StringBuilder();
+        boolean headersComplete = false;
+
+        while (!headersComplete) {
+            int b = input.read();
+            if (b == -1) {
+                break;
+            }
+
+            output.write(b);
+
+            if (b == '\n') {
+                String line = lineBuilder.toString().trim();
+
+                if (line.isEmpty()) {
+                    headersComplete = true;
+                } else {
+                    String lowerLine = line.toLowerCase();
+                    if (lowerLine.startsWith("content-length:")) {
+                        try {
+                            info.contentLength = Long.parseLong(line.substring(15).trim());
+                        } catch (NumberFormatException e) {
+                            // Ignored, as before
+                        }
+                    } else if (lowerLine.startsWith("transfer-encoding:")
+                            && lowerLine.contains("chunked")) {
+                        info.isChunked = true;
+                    }
+                }
+                lineBuilder = new StringBuilder();
+            } else if (b != '\r') {
+                lineBuilder.append((char) b);
+            }
+        }
+
+        return info;
+    }
+
+    // Heap bytes allocated by the current thread so far, or 0 where the JVM cannot tell
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /*
+     * Discards its output, counting the write calls a socket stream would
+     * turn into syscalls.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        long writes;
+
+        @Override
+        public void write(int b) {
+            writes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes++;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.loadbalancer.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Tests for HedgingPolicy: which requests are hedged, the delay taken from
+ * the latency percentile, and the budget that caps the hedge rate.
+ */
+class HedgingPolicyTest {
+    private static final long MILLIS = 1_000_000;
+
+    @Test
+    void hedgesOnlyIdempotentRequestsWithoutABodyUnderThePrefixes() {
+        HedgingPolicy policy = new HedgingPolicy(List.of("/api/", "/search"), 95, 1, 0.1, 10);
+        assertTrue(policy.appliesTo("GET", "/api/items", false));
+        assertTrue(policy.appliesTo("HEAD", "/search?q=x", false));
+        assertTrue(policy.appliesTo("OPTIONS", "/api/", false));
+        assertFalse(policy.appliesTo("POST", "/api/items", false));
+        assertFalse(policy.appliesTo("PUT", "/api/items", false));
+        assertFalse(policy.appliesTo("GET", "/api/items", true));
+        assertFalse(policy.appliesTo("GET", "/static/app.js", false));
+        assertFalse(policy.appliesTo("GET", null, false));
+    }
+
+    @Test
+    void neverHedgesBeforeEnoughSamples() {
+        HedgingPolicy policy = policy(95, 1, 99, 2 * MILLIS);
+        assertEquals(-1, policy.startRequest());
+        assertEquals(-1, policy.getDelayMillis(), 1e-9);
+
+        assertTrue(policy(95, 1, 100, 2 * MILLIS).startRequest() > 0);
+    }
+
+    @Test
+    void delayFollowsThePercentile() {
+        // 90 fast answers and a slow tail of 10
+        HedgingPolicy median = policy(50, 1, 90, 2 * MILLIS);
+        HedgingPolicy tail = policy(95, 1, 90, 2 * MILLIS);
+        for (int i = 0; i < 10; i++) {
+            median.recordResponse(40 * MILLIS, false);
+            tail.recordResponse(40 * MILLIS, false);
+        }
+
+        // Buckets are accurate to about 12%, and the delay is their upper bound
+        assertBetween(2 * MILLIS, median.startRequest());
+        assertBetween(40 * MILLIS, tail.startRequest());
+    }
+
+    @Test
+    void delayIsNeverShorterThanTheMinimum() {
+        HedgingPolicy policy = policy(95, 10, 100, MILLIS);
+        assertEquals(10 * MILLIS, policy.startRequest());
+        assertEquals(10.0, policy.getDelayMillis(), 1e-9);
+    }
+
+    @Test
+    void budgetCapsTheHedgeRate() {
+        // One hedge per ten requests, and a single hedge saved up
+        HedgingPolicy policy = new HedgingPolicy(List.of("/"), 95, 1, 0.1, 1);
+        for (int i = 0; i < 1000; i++) {
+            policy.startRequest();
+            policy.tryHedge();
+        }
+        assertEquals(1000, policy.getRequests());
+        assertEquals(100, policy.getHedges());
+        assertEquals(900, policy.getExhausted());
+        assertEquals(0.1, policy.getHedgeRate(), 1e-9);
+
+        // A hedge that answered first counts as a win
+        policy.recordResponse(MILLIS, true);
+        assertEquals(0.01, policy.getWinRate(), 1e-9);
+    }
+
+    /*
+     * Creates a policy on every path that has seen the given number of
+     * equal latencies.
+     */
+    private static HedgingPolicy policy(double percentile, long minDelayMillis, int samples, long nanos) {
+        HedgingPolicy policy = new HedgingPolicy(List.of("/"), percentile, minDelayMillis, 0.1, 10);
+        for (int i = 0; i < samples; i++) {
+            policy.recordResponse(nanos, false);
+        }
+        return policy;
+    }
+
+    private static void assertBetween(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected * 113 / 100, "expected about " + expected + " but was "
+                + actual);
+    }
+}
@@ -0,0 +1,292 @@
+package com.loadbalancer.proxy;
+
+import com.loadbalancer.algorithm.RoundRobinAlgorithm;
+import com.loadbalancer.config.Config;
+import com.loadbalancer.health.OutlierDetector;
+import com.loadbalancer.server.Backend;
+import com.loadbalancer.server.Listener;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Tests for the HTTP/2 side of a listener, driven over h2c with prior
+ * knowledge against a local HTTP/1.1 backend.
+ */
+class Http2ConnectionTest {
+    // Concurrent streams of the load test, and the client connections they share
+    private static final int STREAMS = 1000;
+    private static final int CONNECTIONS = 4;
+
+    // Frame types and flags used by the raw client
+    private static final int HEADERS = 0x1;
+    private static final int SETTINGS = 0x4;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int END_STREAM_AND_HEADERS = 0x5;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+
+    private HttpServer backend;
+    private Backend server;
+    private Listener listener;
+    private int port;
+
+    // Requests to /all complete only once this many are in flight at the backend
+    private final CountDownLatch allArrived = new CountDownLatch(STREAMS);
+    private final AtomicInteger peak = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @BeforeEach
+    void start() throws Exception {
+        backend = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 2048);
+        backend.setExecutor(Executors.newCachedThreadPool());
+        backend.createContext("/all", exchange -> {
+            peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            allArrived.countDown();
+            boolean together = false;
+            try {
+                together = allArrived.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            respond(exchange, together ? 200 : 504);
+        });
+        backend.createContext("/ok", exchange -> respond(exchange, 200));
+        backend.createContext("/fail", exchange -> respond(exchange, 503));
+        backend.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200);
+        });
+        backend.start();
+
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Config.ServerConfig serverConfig = new Config.ServerConfig();
+        serverConfig.setHost("127.0.0.1");
+        serverConfig.setPort(port);
+        server = new Backend("127.0.0.1", backend.getAddress().getPort(), 1);
+        listener = new Listener(serverConfig, List.of(server), new RoundRobinAlgorithm());
+        Thread acceptor = new Thread(() -> {
+            try {
+                listener.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        awaitListening(port);
+    }
+
+    @AfterEach
+    void stop() {
+        listener.stop();
+        server.getConnectionPool().closeAll();
+        backend.stop(0);
+    }
+
+    @Test
+    void servesManyConcurrentStreamsOverFewConnections() throws Exception {
+        Http2BackendPool client = new Http2BackendPool("127.0.0.1", port, CONNECTIONS);
+        ExecutorService senders = Executors.newFixedThreadPool(STREAMS);
+        try {
+            List<Future<Integer>> statuses = new ArrayList<>();
+            for (int i = 0; i < STREAMS; i++) {
+                statuses.add(senders.submit(() -> client.get("/all")));
+            }
+            int ok = 0;
+            for (Future<Integer> status : statuses) {
+                if (status.get(60, TimeUnit.SECONDS) == 200) {
+                    ok++;
+                }
+            }
+            assertEquals(STREAMS, ok);
+            assertEquals(STREAMS, peak.get());
+            assertTrue(client.getConnectionsOpened() <= CONNECTIONS, "connections " + client.getConnectionsOpened());
+        } finally {
+            senders.shutdownNow();
+            client.closeAll();
+        }
+    }
+
+    @Test
+    void streamOutcomesReachTheOutlierDetector() throws Exception {
+        // A second backend outside the listener lets the detector eject the first one
+        OutlierDetector detector = new OutlierDetector(List.of(server, new Backend("127.0.0.1", 1, 1)), 2, 1.0,
+                100, 10_000, 30_000, 300_000, 50);
+        listener.setOutlierDetector(detector);
+        Http2BackendPool client = new Http2BackendPool("127.0.0.1", port, 1);
+        try {
+            assertEquals(503, client.get("/fail"));
+            // A success in between breaks the run of failures
+            assertEquals(200, client.get("/ok"));
+            assertEquals(503, client.get("/fail"));
+            assertFalse(server.isEjected());
+            assertEquals(503, client.get("/fail"));
+            assertTrue(server.isEjected());
+        } finally {
+            client.closeAll();
+        }
+    }
+
+    @Test
+    void streamsOverTheConcurrencyLimitAreShed() throws Exception {
+        // A listener that forwards a single stream at a time
+        Config.ConcurrencyLimitConfig concurrencyLimit = new Config.ConcurrencyLimitConfig();
+        concurrencyLimit.setEnabled(true);
+        concurrencyLimit.setInitialLimit(1);
+        concurrencyLimit.setMinLimit(1);
+        concurrencyLimit.setMaxLimit(1);
+        Config.ServerConfig serverConfig = new Config.ServerConfig();
+        serverConfig.setHost("127.0.0.1");
+        int limitedPort;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            limitedPort = probe.getLocalPort();
+        }
+        serverConfig.setPort(limitedPort);
+        serverConfig.setConcurrencyLimit(concurrencyLimit);
+        Listener limited = new Listener(serverConfig, List.of(server), new RoundRobinAlgorithm());
+        Thread acceptor = new Thread(() -> {
+            try {
+                limited.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        awaitListening(limitedPort);
+
+        Http2BackendPool client = new Http2BackendPool("127.0.0.1", limitedPort, 1);
+        ExecutorService senders = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> slow = senders.submit(() -> client.get("/slow"));
+            while (limited.getConcurrencyLimiter().getInFlight() == 0) {
+                Thread.sleep(10);
+            }
+            assertEquals(503, client.get("/ok"));
+            assertEquals(200, slow.get(10, TimeUnit.SECONDS));
+
+            // The slot was given back once the response was relayed
+            assertEquals(200, client.get("/ok"));
+            assertEquals(1, limited.getConcurrencyLimiter().getRejected());
+        } finally {
+            senders.shutdownNow();
+            client.closeAll();
+            limited.stop();
+        }
+    }
+
+    @Test
+    void initialWindowChangePastTheMaximumIsAFlowControlError() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(10_000);
+            OutputStream out = socket.getOutputStream();
+            out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            writeFrame(out, SETTINGS, 0, 0, new byte[0]);
+
+            // Open a stream the backend holds, then raise its window to the maximum
+            writeFrame(out, HEADERS, END_STREAM_AND_HEADERS, 1, headerBlock(
+                    ":method", "GET", ":scheme", "http", ":authority", "test", ":path", "/slow"));
+            writeFrame(out, WINDOW_UPDATE, 0, 1, int32(Integer.MAX_VALUE - 65535));
+
+            // One more byte of initial window pushes the open stream past 2^31-1
+            writeFrame(out, SETTINGS, 0, 0, new byte[] {0, 4, 0, 1, 0, 0});
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            while (true) {
+                int length = (in.readUnsignedShort() << 8) | in.readUnsignedByte();
+                int type = in.readUnsignedByte();
+                in.readUnsignedByte();
+                in.readInt();
+                byte[] payload = in.readNBytes(length);
+                if (type == GOAWAY) {
+                    int errorCode = ((payload[4] & 0xFF) << 24) | ((payload[5] & 0xFF) << 16)
+                            | ((payload[6] & 0xFF) << 8) | (payload[7] & 0xFF);
+                    assertEquals(FLOW_CONTROL_ERROR, errorCode);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void awaitListening(int port) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Listener did not start");
+    }
+
+    private static void respond(HttpExchange exchange, int status) throws IOException {
+        byte[] body = "ok".getBytes(StandardCharsets.US_ASCII);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void writeFrame(OutputStream out, int type, int flags, int streamId, byte[] payload)
+            throws IOException {
+        out.write(new byte[] {(byte) (payload.length >>> 16), (byte) (payload.length >>> 8), (byte) payload.length,
+                (byte) type, (byte) flags});
+        out.write(int32(streamId));
+        out.write(payload);
+    }
+
+    /*
+     * Encodes fields as HPACK literals without indexing or Huffman coding.
+     */
+    private static byte[] headerBlock(String... fields) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        for (int i = 0; i < fields.length; i += 2) {
+            block.write(0);
+            writeString(block, fields[i]);
+            writeString(block, fields[i + 1]);
+        }
+        return block.toByteArray();
+    }
+
+    private static void writeString(ByteArrayOutputStream block, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        block.write(bytes.length);
+        block.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] int32(int value) {
+        return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+}
@@ -0,0 +1,285 @@
+package com.loadbalancer.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Tests for HttpParser. Every message is parsed whole, split in two at every
+ * byte offset, and one byte at a time; all three must produce the same
+ * events, since the parser must not depend on how reads slice the stream.
+ */
+class HttpParserTest {
+
+    // Pipelined requests: a GET, a fixed-length POST and a chunked POST with a trailer
+    private static final String REQUESTS = "GET /a HTTP/1.1\r\nHost: example\r\n\r\n"
+            + "POST /b HTTP/1.1\r\nHost: example\r\nContent-Length: 5\r\n\r\nhello"
+            + "POST /c HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "4;ext=1\r\nwiki\r\n5\r\npedia\r\n0\r\nChecksum: abc\r\n\r\n";
+
+    private static final List<String> REQUEST_EVENTS = List.of(
+            "start GET /a HTTP/1.1", "header Host=example", "headers", "complete",
+            "start POST /b HTTP/1.1", "header Host=example", "header Content-Length=5", "headers",
+            "body hello", "complete",
+            "start POST /c HTTP/1.1", "header Transfer-Encoding=chunked", "headers", "body wikipedia",
+            "trailer Checksum=abc", "complete");
+
+    @Test
+    void parsesPipelinedRequestsAtEverySplit() throws IOException {
+        assertEquals(REQUEST_EVENTS, parseWhole(true, REQUESTS));
+        assertSameAtEverySplit(true, REQUESTS);
+    }
+
+    @Test
+    void toleratesBareLineFeedsAndBlankLinesBetweenMessages() throws IOException {
+        String message = "GET / HTTP/1.1\nHost:  spaced  \n\n\r\nGET /next HTTP/1.1\r\n\r\n";
+        assertEquals(List.of("start GET / HTTP/1.1", "header Host=spaced", "headers", "complete",
+                "start GET /next HTTP/1.1", "headers", "complete"), parseWhole(true, message));
+        assertSameAtEverySplit(true, message);
+    }
+
+    @Test
+    void skipsBodiesOfPipelinedHeadResponses() throws IOException {
+        String responses = "HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n"
+                + "HTTP/1.1 200 OK\r\nContent-Length: 20\r\n\r\n"
+                + "HTTP/1.1 200 OK\r\nContent-Length: 3\r\n\r\nabc";
+        List<String> methods = List.of("HEAD", "HEAD", "GET");
+        assertEquals(List.of(
+                "start HTTP/1.1 200 OK", "header Content-Length=10", "headers", "complete",
+                "start HTTP/1.1 200 OK", "header Content-Length=20", "headers", "complete",
+                "start HTTP/1.1 200 OK", "header Content-Length=3", "headers", "body abc", "complete"),
+                parseWhole(false, responses, methods));
+        assertSameAtEverySplit(false, responses, methods);
+    }
+
+    @Test
+    void interimResponseKeepsTheHeadRequestPending() throws IOException {
+        String responses = "HTTP/1.1 100 Continue\r\n\r\n"
+                + "HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n"
+                + "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok";
+        assertEquals(List.of(
+                "start HTTP/1.1 100 Continue", "headers", "complete",
+                "start HTTP/1.1 200 OK", "header Content-Length=10", "headers", "complete",
+                "start HTTP/1.1 200 OK", "header Content-Length=2", "headers", "body ok", "complete"),
+                parseWhole(false, responses, List.of("HEAD", "GET")));
+        assertSameAtEverySplit(false, responses, List.of("HEAD", "GET"));
+    }
+
+    @Test
+    void noContentAndNotModifiedHaveNoBody() throws IOException {
+        String responses = "HTTP/1.1 204 No Content\r\nContent-Length: 7\r\n\r\n"
+                + "HTTP/1.1 304 Not Modified\r\n\r\n"
+                + "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n2\r\nhi\r\n0\r\n\r\n";
+        assertEquals(List.of(
+                "start HTTP/1.1 204 No Content", "header Content-Length=7", "headers", "complete",
+                "start HTTP/1.1 304 Not Modified", "headers", "complete",
+                "start HTTP/1.1 200 OK", "header Transfer-Encoding=chunked", "headers", "body hi", "complete"),
+                parseWhole(false, responses));
+        assertSameAtEverySplit(false, responses, List.of());
+    }
+
+    @Test
+    void readsUnframedResponseUntilEndOfStream() throws IOException {
+        String response = "HTTP/1.0 200 OK\r\nServer: old\r\n\r\nuntil the end";
+        assertEquals(List.of("start HTTP/1.0 200 OK", "header Server=old", "headers", "body until the end",
+                "complete"), parseWhole(false, response));
+        assertSameAtEverySplit(false, response, List.of());
+    }
+
+    @Test
+    void reportsIdleOnlyBetweenMessages() throws IOException {
+        Recorder recorder = new Recorder();
+        HttpParser parser = new HttpParser(true, recorder);
+        assertTrue(parser.isIdle());
+        parser.parse(ascii("GET / HTTP/1.1\r\nHo"));
+        assertFalse(parser.isIdle());
+        parser.parse(ascii("st: x\r\n\r\n"));
+        assertTrue(parser.isIdle());
+    }
+
+    @Test
+    void rejectsMalformedMessagesAtEverySplit() {
+        assertMalformed(false, "HTTP/1.1 2x0 OK\r\n\r\n");
+        assertMalformed(false, "HTTP/1.1\r\n\r\n");
+        assertMalformed(false, "SIP/2.0 200 OK\r\n\r\n");
+        assertMalformed(true, "GET / HTTP/1.1\r\nNo colon here\r\n\r\n");
+        assertMalformed(true, "GET / HTTP/1.1\r\n: empty name\r\n\r\n");
+        assertMalformed(true, "POST / HTTP/1.1\r\nContent-Length: 12a\r\n\r\n");
+        assertMalformed(true, "POST / HTTP/1.1\r\nContent-Length: \r\n\r\n");
+        assertMalformed(true, "POST / HTTP/1.1\r\nContent-Length: 9999999999999999999\r\n\r\n");
+        assertMalformed(true, "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n");
+        assertMalformed(true, "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n;ext\r\n");
+        assertMalformed(true, "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n1000000000000000\r\n");
+        assertMalformed(true, "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n2\r\nabc\r\n");
+    }
+
+    @Test
+    void rejectsTruncatedMessagesAtEndOfStream() {
+        String[] truncated = {
+            "GET / HTTP/1.1\r\nHost: x\r\n",
+            "POST / HTTP/1.1\r\nContent-Length: 5\r\n\r\nhel",
+            "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n",
+            "GET / HTTP/1.1",
+        };
+        for (String message : truncated) {
+            HttpParser parser = new HttpParser(true, new Recorder());
+            assertThrows(IOException.class, () -> {
+                parser.parse(ascii(message));
+                parser.finish();
+            }, message);
+        }
+    }
+
+    @Test
+    void rejectsLinesOverTheLimit() {
+        assertMalformed(true, "GET / HTTP/1.1\r\nX-Long: " + "a".repeat(200) + "\r\n\r\n", 64);
+        assertMalformed(true, "GET /" + "a".repeat(100) + " HTTP/1.1\r\n\r\n", 64);
+    }
+
+    @Test
+    void randomSlicingMatchesWholeParse() throws IOException {
+        Random random = new Random(42);
+        byte[] bytes = REQUESTS.getBytes(StandardCharsets.US_ASCII);
+        for (int round = 0; round < 500; round++) {
+            Recorder recorder = new Recorder();
+            HttpParser parser = new HttpParser(true, recorder);
+            int pos = 0;
+            while (pos < bytes.length) {
+                int length = Math.min(bytes.length - pos, 1 + random.nextInt(16));
+                parser.parse(ByteBuffer.wrap(bytes, pos, length));
+                pos += length;
+            }
+            parser.finish();
+            assertEquals(REQUEST_EVENTS, recorder.events());
+        }
+    }
+
+    /*
+     * Parses the message in one slice and returns the events.
+     */
+    private static List<String> parseWhole(boolean requests, String message) throws IOException {
+        return parseWhole(requests, message, List.of());
+    }
+
+    private static List<String> parseWhole(boolean requests, String message, List<String> methods)
+            throws IOException {
+        Recorder recorder = new Recorder();
+        HttpParser parser = newParser(requests, recorder, methods);
+        parser.parse(ascii(message));
+        parser.finish();
+        return recorder.events();
+    }
+
+    private static void assertSameAtEverySplit(boolean requests, String message) throws IOException {
+        assertSameAtEverySplit(requests, message, List.of());
+    }
+
+    /*
+     * Checks that splitting the message at any offset, or feeding it a byte
+     * at a time, gives the same events as parsing it whole.
+     */
+    private static void assertSameAtEverySplit(boolean requests, String message, List<String> methods)
+            throws IOException {
+        List<String> expected = parseWhole(requests, message, methods);
+        byte[] bytes = message.getBytes(StandardCharsets.US_ASCII);
+        for (int split = 0; split <= bytes.length; split++) {
+            Recorder recorder = new Recorder();
+            HttpParser parser = newParser(requests, recorder, methods);
+            parser.parse(ByteBuffer.wrap(bytes, 0, split));
+            parser.parse(ByteBuffer.wrap(bytes, split, bytes.length - split));
+            parser.finish();
+            assertEquals(expected, recorder.events(), "split at " + split);
+        }
+
+        Recorder recorder = new Recorder();
+        HttpParser parser = newParser(requests, recorder, methods);
+        for (int i = 0; i < bytes.length; i++) {
+            parser.parse(ByteBuffer.wrap(bytes, i, 1));
+        }
+        parser.finish();
+        assertEquals(expected, recorder.events(), "byte at a time");
+    }
+
+    /*
+     * Checks that the message is rejected however it is split.
+     */
+    private static void assertMalformed(boolean requests, String message) {
+        assertMalformed(requests, message, HttpParser.DEFAULT_MAX_LINE_LENGTH);
+    }
+
+    private static void assertMalformed(boolean requests, String message, int maxLineLength) {
+        byte[] bytes = message.getBytes(StandardCharsets.US_ASCII);
+        for (int split = 0; split <= bytes.length; split++) {
+            HttpParser parser = new HttpParser(requests, new Recorder(), maxLineLength);
+            int at = split;
+            assertThrows(IOException.class, () -> {
+                parser.parse(ByteBuffer.wrap(bytes, 0, at));
+                parser.parse(ByteBuffer.wrap(bytes, at, bytes.length - at));
+            }, message + " split at " + split);
+        }
+    }
+
+    private static HttpParser newParser(boolean requests, Recorder recorder, List<String> methods) {
+        HttpParser parser = new HttpParser(requests, recorder);
+        methods.forEach(parser::expectResponse);
+        return parser;
+    }
+
+    private static ByteBuffer ascii(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /*
+     * Handler that records events as strings, joining consecutive body pieces.
+     */
+    private static final class Recorder implements HttpParser.Handler {
+        private final List<String> events = new ArrayList<>();
+        private final StringBuilder body = new StringBuilder();
+
+        @Override
+        public void onStartLine(ByteBuffer line) { add("start " + string(line)); }
+
+        @Override
+        public void onHeader(ByteBuffer name, ByteBuffer value) { add("header " + string(name) + "=" + string(value)); }
+
+        @Override
+        public void onHeadersComplete() { add("headers"); }
+
+        @Override
+        public void onBody(ByteBuffer data) { body.append(string(data)); }
+
+        @Override
+        public void onTrailer(ByteBuffer name, ByteBuffer value) { add("trailer " + string(name) + "=" + string(value)); }
+
+        @Override
+        public void onMessageComplete() { add("complete"); }
+
+        private void add(String event) {
+            if (body.length() > 0) {
+                events.add("body " + body);
+                body.setLength(0);
+            }
+            events.add(event);
+        }
+
+        List<String> events() {
+            return events;
+        }
+    }
+}
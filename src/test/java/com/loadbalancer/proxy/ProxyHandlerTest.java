@@ -0,0 +1,217 @@
+package com.loadbalancer.proxy;
+
+import com.loadbalancer.health.OutlierDetector;
+import com.loadbalancer.server.Backend;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/*
+ * Tests for how ProxyHandler treats backends that fail after the request
+ * reached them: the failure is recorded against the backend and either
+ * retried on another one or answered with 502. A failed hedge is not a
+ * retry.
+ */
+class ProxyHandlerTest {
+    private ServerSocket broken;
+    private HttpServer healthy;
+    private ServerSocket front;
+    private Backend brokenBackend;
+    private Backend healthyBackend;
+    private RetryPolicy retryPolicy;
+    private OutlierDetector detector;
+
+    // Requests the healthy backend answered
+    private final AtomicInteger served = new AtomicInteger();
+
+    @BeforeEach
+    void start() throws IOException {
+        healthy = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 16);
+        healthy.createContext("/", exchange -> {
+            served.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = "ok".getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        healthy.start();
+        broken = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+
+        brokenBackend = new Backend("127.0.0.1", broken.getLocalPort(), 1);
+        healthyBackend = new Backend("127.0.0.1", healthy.getAddress().getPort(), 1);
+        List<Backend> backends = List.of(brokenBackend, healthyBackend);
+        // Always the first backend still in the running, so the broken one is tried first
+        ProxyContext context = new ProxyContext(backends, (candidates, clientIp) -> candidates.get(0));
+        retryPolicy = new RetryPolicy(2, 0.2, 10);
+        context.setRetryPolicy(retryPolicy);
+        detector = new OutlierDetector(backends, 1, 0.5, 100, 10_000, 30_000, 300_000, 50);
+        context.setOutlierDetector(detector);
+        startFront(context);
+    }
+
+    /*
+     * Starts the proxy's listening socket, handling every connection with
+     * a ProxyHandler on the given context.
+     */
+    private void startFront(ProxyContext context) throws IOException {
+        ServerSocket listening = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+        front = listening;
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket client = listening.accept();
+                    Thread handler = new Thread(new ProxyHandler(client, context));
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        front.close();
+        broken.close();
+        healthy.stop(0);
+        brokenBackend.getConnectionPool().closeAll();
+        healthyBackend.getConnectionPool().closeAll();
+    }
+
+    @Test
+    void backendClosingAfterAnInterimResponseIsRetriedAndRecorded() throws IOException {
+        // Sends early hints, then dies before the final response head
+        serveBroken("HTTP/1.1 103 Early Hints\r\nLink: </app.css>; rel=preload\r\n\r\n", 0);
+
+        String response = exchange("GET / HTTP/1.1\r\nHost: test\r\nConnection: close\r\n\r\n");
+
+        assertTrue(response.startsWith("HTTP/1.1 103"), response);
+        assertTrue(response.contains("HTTP/1.1 200"), response);
+        assertEquals(1, served.get());
+        assertEquals(1, retryPolicy.getRetries());
+        assertTrue(brokenBackend.isEjected());
+        assertEquals(1, detector.getEjections());
+    }
+
+    @Test
+    void backendClosingAfterTheBodyGetsA502AndIsNotResent() throws IOException {
+        // Takes the whole request body, then closes without answering
+        serveBroken("", 5);
+
+        String response = exchange("PUT /item HTTP/1.1\r\nHost: test\r\nContent-Length: 5\r\n"
+                + "Connection: close\r\n\r\nhello");
+
+        // The body is gone, so even an idempotent request cannot go to the healthy backend
+        assertTrue(response.startsWith("HTTP/1.1 502"), response);
+        assertEquals(0, served.get());
+        assertEquals(0, retryPolicy.getRetries());
+        assertTrue(brokenBackend.isEjected());
+    }
+
+    @Test
+    void failedHedgeDoesNotUseUpTheRetry() throws Exception {
+        // The first backend closes only after the hedge delay, the hedge goes to the broken one
+        try (ServerSocket slow = new ServerSocket(0, 16, InetAddress.getLoopbackAddress())) {
+            Backend slowBackend = new Backend("127.0.0.1", slow.getLocalPort(), 1);
+            ProxyContext context = new ProxyContext(List.of(slowBackend, brokenBackend, healthyBackend),
+                    (candidates, clientIp) -> candidates.get(0));
+            retryPolicy = new RetryPolicy(1, 0.2, 10);
+            context.setRetryPolicy(retryPolicy);
+            HedgingPolicy hedging = new HedgingPolicy(List.of("/"), 50, 50, 1.0, 10);
+            for (int i = 0; i < 100; i++) {
+                hedging.recordResponse(1_000_000, false);
+            }
+            context.setHedgingPolicy(hedging);
+            front.close();
+            startFront(context);
+            serve(slow, "", 0, 500);
+            serveBroken("", 0);
+
+            String response = exchange("GET / HTTP/1.1\r\nHost: test\r\nConnection: close\r\n\r\n");
+
+            // Both attempts failed, and the single retry still went to the healthy backend
+            assertTrue(response.startsWith("HTTP/1.1 200"), response);
+            assertEquals(1, hedging.getHedges());
+            assertEquals(1, retryPolicy.getRetries());
+            assertEquals(1, served.get());
+            slowBackend.getConnectionPool().closeAll();
+        }
+    }
+
+    /*
+     * Answers one connection of the broken backend: reads the request head
+     * and body, writes the given bytes and closes.
+     */
+    private void serveBroken(String answer, int bodyLength) {
+        serve(broken, answer, bodyLength, 0);
+    }
+
+    /*
+     * Answers one connection of a failing backend: reads the request head
+     * and body, waits, writes the given bytes and closes.
+     */
+    private static void serve(ServerSocket server, String answer, int bodyLength, long delayMillis) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                InputStream in = socket.getInputStream();
+                int matched = 0;
+                while (matched < 4) {
+                    int b = in.read();
+                    if (b < 0) {
+                        return;
+                    }
+                    matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : b == '\r' ? 1 : 0;
+                }
+                in.readNBytes(bodyLength);
+                Thread.sleep(delayMillis);
+                socket.getOutputStream().write(answer.getBytes(StandardCharsets.US_ASCII));
+                socket.getOutputStream().flush();
+            } catch (IOException | InterruptedException e) {
+                // The test fails on the client side
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private String exchange(String request) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", front.getLocalPort())) {
+            socket.setSoTimeout(10_000);
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            try {
+                while ((n = in.read(buffer)) > 0) {
+                    response.write(buffer, 0, n);
+                }
+            } catch (IOException e) {
+                fail("Connection reset after: " + response);
+            }
+            return response.toString(StandardCharsets.US_ASCII);
+        }
+    }
+}
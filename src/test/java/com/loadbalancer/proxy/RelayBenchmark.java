@@ -0,0 +1,144 @@
+package com.loadbalancer.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Compares the two body relay paths over loopback: the stream copy through
+ * a heap byte[] that small bodies take, and ChannelRelay's pooled direct
+ * buffer between the socket channels that large bodies take. A producer
+ * sends a fixed-length body into one connection, the relay moves it to a
+ * second connection, and a consumer drains it. Reports the throughput and
+ * the relay thread's CPU time per gigabyte.
+ *
+ * Not a unit test (surefire skips it); run it after test-compile with
+ *
+ *   java -cp target/classes:target/test-classes:<dependencies> \
+ *       com.loadbalancer.proxy.RelayBenchmark [sizesMb] [minTotalMb]
+ *
+ * sizesMb is a comma-separated list (default 1,100,1024); small bodies are
+ * relayed repeatedly until minTotalMb (default 1024) have moved.
+ */
+public class RelayBenchmark {
+    // Buffer size of the stream path, as in ProxyHandler
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
+    private static final long MB = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        String sizes = args.length > 0 ? args[0] : "1,100,1024";
+        long minTotal = (args.length > 1 ? Long.parseLong(args[1]) : 1024) * MB;
+
+        ExecutorService peers = Executors.newCachedThreadPool();
+        System.out.printf("Loopback relay, Java %s%n", Runtime.version().feature());
+        for (String size : sizes.split(",")) {
+            long length = Long.parseLong(size.trim()) * MB;
+            int repeats = (int) Math.max(1, minTotal / length);
+            for (String path : new String[] {"stream", "channel"}) {
+                // Warm-up pass, then the measured one
+                run(peers, path, Math.min(length, 64 * MB), 1);
+                long[] result = run(peers, path, length, repeats);
+                double gigabytes = (double) length * repeats / (1024 * MB);
+                System.out.printf("%5d MB x %-4d %-8s %8.0f MB/s  %7.0f ms CPU per GB%n", length / MB, repeats, path,
+                        length * repeats / MB / (result[0] / 1e9), result[1] / 1e6 / gigabytes);
+            }
+        }
+        peers.shutdownNow();
+    }
+
+    /*
+     * Relays a body of the given length the given number of times and
+     * returns the wall time and the relay thread's CPU time in nanoseconds.
+     */
+    private static long[] run(ExecutorService peers, String path, long length, int repeats) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long wall = 0;
+        long cpu = 0;
+        try (ServerSocketChannel sourceServer = ServerSocketChannel.open();
+                ServerSocketChannel targetServer = ServerSocketChannel.open()) {
+            sourceServer.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            targetServer.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            for (int i = 0; i < repeats; i++) {
+                Future<?> producer = peers.submit(() -> produce(sourceServer, length));
+                Future<Long> consumer = peers.submit(() -> consume(targetServer));
+                try (SocketChannel source = sourceServer.accept();
+                        SocketChannel target = SocketChannel.open(targetServer.getLocalAddress())) {
+                    source.socket().setTcpNoDelay(true);
+                    target.socket().setTcpNoDelay(true);
+                    long start = System.nanoTime();
+                    long cpuStart = threads.getCurrentThreadCpuTime();
+                    if (path.equals("channel")) {
+                        ChannelRelay.transfer(source, target, length, 30_000);
+                    } else {
+                        copy(source.socket().getInputStream(), target.socket().getOutputStream(), length);
+                    }
+                    target.shutdownOutput();
+                    cpu += threads.getCurrentThreadCpuTime() - cpuStart;
+                    if (consumer.get() != length) {
+                        throw new IllegalStateException("Consumer received " + consumer.get() + " bytes");
+                    }
+                    wall += System.nanoTime() - start;
+                }
+                producer.get();
+            }
+        }
+        return new long[] {wall, cpu};
+    }
+
+    /*
+     * The stream path: copies through a heap buffer, like the fixed-length
+     * body relay of ProxyHandler.
+     */
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        long remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                throw new IOException("Producer closed early");
+            }
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+        out.flush();
+    }
+
+    // Connects to the source side and sends the body
+    private static Void produce(ServerSocketChannel server, long length) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(server.getLocalAddress())) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                remaining -= channel.write(buffer);
+            }
+        }
+        return null;
+    }
+
+    // Accepts the relay's connection and drains it to the end
+    private static long consume(ServerSocketChannel server) throws IOException {
+        try (SocketChannel channel = server.accept()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+            long received = 0;
+            int n;
+            while ((n = channel.read(buffer)) >= 0) {
+                received += n;
+                buffer.clear();
+            }
+            return received;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.loadbalancer.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Tests for RetryPolicy: the shared budget and which failed requests may
+ * be sent again.
+ */
+class RetryPolicyTest {
+
+    @Test
+    void budgetRunsDryAndRefillsFromRequests() {
+        // Two retries in the budget; every request adds half a retry
+        RetryPolicy policy = new RetryPolicy(3, 0.5, 2);
+        assertTrue(policy.tryRetry("GET", true, 0));
+        assertTrue(policy.tryRetry("GET", true, 0));
+        assertFalse(policy.tryRetry("GET", true, 0));
+        assertEquals(2, policy.getRetries());
+        assertEquals(1, policy.getExhausted());
+
+        policy.recordRequest();
+        assertFalse(policy.tryRetry("GET", true, 0));
+        policy.recordRequest();
+        assertTrue(policy.tryRetry("GET", true, 0));
+        assertEquals(2, policy.getExhausted());
+    }
+
+    @Test
+    void budgetHoldsNoMoreThanTheBurst() {
+        RetryPolicy policy = new RetryPolicy(3, 1.0, 1);
+        for (int i = 0; i < 10; i++) {
+            policy.recordRequest();
+        }
+        assertEquals(1.0, policy.getAvailable(), 1e-9);
+        assertTrue(policy.tryRetry("GET", false, 0));
+        assertFalse(policy.tryRetry("GET", false, 0));
+    }
+
+    @Test
+    void neverResendsANonIdempotentRequestTheBackendMayHaveSeen() {
+        RetryPolicy policy = new RetryPolicy(3, 0.1, 10);
+        assertFalse(policy.tryRetry("POST", true, 0));
+        assertFalse(policy.tryRetry("PATCH", true, 0));
+        // Refusals for safety do not spend the budget
+        assertEquals(0, policy.getExhausted());
+        assertEquals(10.0, policy.getAvailable(), 1e-9);
+
+        // Never reached the backend (connect failed), or idempotent
+        assertTrue(policy.tryRetry("POST", false, 0));
+        assertTrue(policy.tryRetry("PUT", true, 0));
+        assertTrue(policy.tryRetry("DELETE", true, 0));
+    }
+
+    @Test
+    void stopsAfterTheRetriesPerRequest() {
+        RetryPolicy policy = new RetryPolicy(2, 0.1, 10);
+        assertTrue(policy.tryRetry("GET", true, 1));
+        assertFalse(policy.tryRetry("GET", true, 2));
+        assertEquals(1, policy.getRetries());
+    }
+}
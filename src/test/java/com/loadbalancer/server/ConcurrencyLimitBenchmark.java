@@ -0,0 +1,145 @@
+package com.loadbalancer.server;
+
+import com.loadbalancer.algorithm.RoundRobinAlgorithm;
+import com.loadbalancer.config.Config;
+import com.loadbalancer.proxy.ConcurrencyLimiter;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Compares a listener without and with the adaptive concurrency limit
+ * (server.concurrencyLimit) under overload: more clients than the backend
+ * has workers send requests back to back, so without a limit every request
+ * waits in the backend's queue. Reports the successful requests per second,
+ * their p50/p99 latency, the requests shed with 503 or timed out, and the
+ * limit the listener settled on.
+ *
+ * Not a unit test (surefire skips it); run it after test-compile with
+ *
+ *   java -cp target/classes:target/test-classes:<dependencies> \
+ *       com.loadbalancer.server.ConcurrencyLimitBenchmark [clients] [workers] [delayMs] [seconds]
+ */
+public class ConcurrencyLimitBenchmark {
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int delayMillis = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        // Backend with a fixed number of workers; requests beyond them queue
+        HttpServer backend = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        backend.setExecutor(Executors.newFixedThreadPool(workers));
+        backend.createContext("/", exchange -> {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "ok".getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        backend.start();
+
+        System.out.printf("%d clients, %d backend workers, backend delay %d ms, %d s per run%n", clients, workers,
+                delayMillis, seconds);
+        for (boolean limited : new boolean[] {false, true}) {
+            run(limited, backend.getAddress().getPort(), clients, seconds);
+        }
+        backend.stop(0);
+        System.exit(0);
+    }
+
+    /*
+     * Starts a listener with or without the limit, keeps every client
+     * sending for the given time and prints the results.
+     */
+    private static void run(boolean limited, int backendPort, int clients, int seconds) throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Config.ServerConfig serverConfig = new Config.ServerConfig();
+        serverConfig.setHost("127.0.0.1");
+        serverConfig.setPort(port);
+        serverConfig.setThreadPoolSize(clients);
+        if (limited) {
+            Config.ConcurrencyLimitConfig concurrencyLimit = new Config.ConcurrencyLimitConfig();
+            concurrencyLimit.setEnabled(true);
+            serverConfig.setConcurrencyLimit(concurrencyLimit);
+        }
+        List<Backend> backends = List.of(new Backend("127.0.0.1", backendPort, 1));
+        Listener listener = new Listener(serverConfig, backends, new RoundRobinAlgorithm());
+        Thread acceptor = new Thread(() -> {
+            try {
+                listener.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        acceptor.start();
+        Thread.sleep(500);
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger shed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService senders = Executors.newFixedThreadPool(clients);
+        for (int i = 0; i < clients; i++) {
+            senders.execute(() -> {
+                while (System.nanoTime() < end) {
+                    long start = System.nanoTime();
+                    try (Socket socket = new Socket("127.0.0.1", port)) {
+                        socket.setSoTimeout(5_000);
+                        socket.getOutputStream().write(("GET / HTTP/1.1\r\nHost: bench\r\nConnection: close\r\n\r\n")
+                                .getBytes(StandardCharsets.US_ASCII));
+                        InputStream in = socket.getInputStream();
+                        String status = new String(in.readNBytes(12), StandardCharsets.US_ASCII);
+                        in.transferTo(OutputStream.nullOutputStream());
+                        if (status.endsWith("200")) {
+                            latencies.add((System.nanoTime() - start) / 1_000_000);
+                        } else if (status.endsWith("503")) {
+                            shed.incrementAndGet();
+                            // Honour Retry-After loosely, as a well-behaved client would back off
+                            Thread.sleep(100);
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+        }
+        senders.shutdown();
+        senders.awaitTermination(seconds + 30, TimeUnit.SECONDS);
+        ConcurrencyLimiter limiter = listener.getConcurrencyLimiter();
+        listener.stop();
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        long p50 = sorted.isEmpty() ? -1 : sorted.get(sorted.size() / 2);
+        long p99 = sorted.isEmpty() ? -1 : sorted.get(Math.min(sorted.size() - 1, sorted.size() * 99 / 100));
+        System.out.printf("%-9s ok/s=%6d  p50=%5d ms  p99=%5d ms  shed=%d  failed=%d  limit=%s%n",
+                limited ? "limited" : "unlimited", sorted.size() / seconds, p50, p99, shed.get(), failed.get(),
+                limiter != null ? String.valueOf(limiter.getLimit()) : "-");
+    }
+}
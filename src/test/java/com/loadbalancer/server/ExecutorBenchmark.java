@@ -0,0 +1,141 @@
+package com.loadbalancer.server;
+
+import com.loadbalancer.algorithm.RoundRobinAlgorithm;
+import com.loadbalancer.config.Config;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Compares the fixed thread pool with virtual threads (server.executor)
+ * under slow-backend load: a burst of clients far larger than the pool hits
+ * a backend that takes a fixed time per request. Reports the p50/p99 client
+ * latency and the most requests the backend saw at once, which is the
+ * number of connections the listener could serve concurrently.
+ *
+ * Not a unit test (surefire skips it); run it after test-compile with
+ *
+ *   java -cp target/classes:target/test-classes:<dependencies> \
+ *       com.loadbalancer.server.ExecutorBenchmark [clients] [delayMs] [poolSize]
+ *
+ * Virtual threads need a build with the java21 profile and a Java 21 runtime;
+ * on older runtimes the virtual executor falls back to the fixed pool and
+ * both rows match.
+ */
+public class ExecutorBenchmark {
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int delayMillis = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int poolSize = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        // Slow backend that tracks how many requests it serves at once
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        HttpServer backend = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        backend.setExecutor(Executors.newCachedThreadPool());
+        backend.createContext("/", exchange -> {
+            peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            byte[] body = "ok".getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        backend.start();
+
+        System.out.printf("%d clients, backend delay %d ms, pool size %d, Java %s%n", clients, delayMillis,
+                poolSize, Runtime.version().feature());
+        for (String executor : List.of("fixed", "virtual")) {
+            peak.set(0);
+            long[] result = run(executor, backend.getAddress().getPort(), clients, poolSize);
+            System.out.printf("%-8s p50=%5d ms  p99=%5d ms  failed=%d  peak concurrent=%d%n", executor,
+                    result[0], result[1], result[2], peak.get());
+        }
+        backend.stop(0);
+        System.exit(0);
+    }
+
+    /*
+     * Starts a listener with the given executor, sends the burst through it
+     * and returns p50 and p99 in milliseconds and the number of failures.
+     */
+    private static long[] run(String executor, int backendPort, int clients, int poolSize) throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Config.ServerConfig serverConfig = new Config.ServerConfig();
+        serverConfig.setHost("127.0.0.1");
+        serverConfig.setPort(port);
+        serverConfig.setThreadPoolSize(poolSize);
+        serverConfig.setExecutor(executor);
+        List<Backend> backends = List.of(new Backend("127.0.0.1", backendPort, 1));
+        Listener listener = new Listener(serverConfig, backends, new RoundRobinAlgorithm());
+        Thread acceptor = new Thread(() -> {
+            try {
+                listener.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        acceptor.start();
+        Thread.sleep(500);
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(clients);
+        ExecutorService senders = Executors.newFixedThreadPool(clients);
+        for (int i = 0; i < clients; i++) {
+            senders.execute(() -> {
+                long start = System.nanoTime();
+                try (Socket socket = new Socket("127.0.0.1", port)) {
+                    socket.setSoTimeout(60_000);
+                    socket.getOutputStream().write(("GET / HTTP/1.1\r\nHost: bench\r\nConnection: close\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    InputStream in = socket.getInputStream();
+                    byte[] head = in.readNBytes(12);
+                    in.transferTo(OutputStream.nullOutputStream());
+                    if (new String(head, StandardCharsets.US_ASCII).endsWith("200")) {
+                        latencies.add((System.nanoTime() - start) / 1_000_000);
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        senders.shutdown();
+        listener.stop();
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        if (sorted.isEmpty()) {
+            return new long[] {-1, -1, failed.get()};
+        }
+        return new long[] {sorted.get(sorted.size() / 2), sorted.get(Math.min(sorted.size() - 1,
+                sorted.size() * 99 / 100)), failed.get()};
+    }
+}
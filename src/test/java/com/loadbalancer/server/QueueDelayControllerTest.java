@@ -0,0 +1,47 @@
+package com.loadbalancer.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Tests for the overload judgement of QueueDelayController.
+ */
+class QueueDelayControllerTest {
+    private static final long WAITED_NANOS = 50_000_000;
+
+    @Test
+    void measuringOnlyStillDetectsAStandingQueue() throws InterruptedException {
+        QueueDelayController controller = new QueueDelayController(1, 1, false);
+        admitAfterIntervals(controller);
+
+        assertTrue(controller.isOverloaded());
+        assertEquals(1, controller.getOverloads());
+        assertFalse(controller.servesNewestFirst());
+        assertEquals(0, controller.getShed());
+    }
+
+    @Test
+    void sheddingRefusesStaleConnectionsOfAStandingQueue() throws InterruptedException {
+        QueueDelayController controller = new QueueDelayController(1, 1, true);
+        admitAfterIntervals(controller);
+
+        assertTrue(controller.isOverloaded());
+        assertTrue(controller.servesNewestFirst());
+        assertFalse(controller.admit(System.nanoTime() - WAITED_NANOS));
+        assertTrue(controller.admit(System.nanoTime()));
+    }
+
+    /*
+     * Admits connections that all waited far beyond the target, each one
+     * after the interval has passed.
+     */
+    private static void admitAfterIntervals(QueueDelayController controller) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(5);
+            controller.admit(System.nanoTime() - WAITED_NANOS);
+        }
+    }
+}
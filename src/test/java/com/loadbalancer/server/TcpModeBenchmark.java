@@ -0,0 +1,228 @@
+package com.loadbalancer.server;
+
+import com.loadbalancer.algorithm.RoundRobinAlgorithm;
+import com.loadbalancer.config.Config;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Compares the layer 4 relay (mode "tcp") with the HTTP mode on the same
+ * backend. Keep-alive clients send small requests back to back, which gives
+ * requests per second and the p50/p99 latency; one client then downloads a
+ * large body, which gives the throughput. The backend alone is the
+ * baseline. The backend answers each small request with a single write, so
+ * Nagle's algorithm and delayed ACKs do not hide the proxy's own latency.
+ *
+ * Not a unit test (surefire skips it); run it after test-compile with
+ *
+ *   java -cp target/classes:target/test-classes:<dependencies> \
+ *       com.loadbalancer.server.TcpModeBenchmark [clients] [requests] [downloadMb] [ioModel]
+ */
+public class TcpModeBenchmark {
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int downloadMb = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+        String ioModel = args.length > 3 ? args[3] : "blocking";
+
+        ServerSocket backend = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        Thread serving = new Thread(() -> serve(backend, (long) downloadMb * 1024 * 1024));
+        serving.setDaemon(true);
+        serving.start();
+        int backendPort = backend.getLocalPort();
+
+        System.out.printf("%d clients x %d requests of 128 bytes, %d MB download, %s I/O, Java %s%n", clients,
+                requests, downloadMb, ioModel, Runtime.version().feature());
+        run("backend", backendPort, clients, requests, false);
+        for (String mode : new String[] {"http", "tcp"}) {
+            int port;
+            try (ServerSocket probe = new ServerSocket(0)) {
+                port = probe.getLocalPort();
+            }
+            Listener listener = start(mode, ioModel, port, backendPort, clients);
+            // Warm-up pass, then the measured one
+            run(mode, port, clients, requests / 10, true);
+            run(mode, port, clients, requests, false);
+            listener.stop();
+        }
+        backend.close();
+        System.exit(0);
+    }
+
+    // Starts a listener in the given mode in front of the backend
+    private static Listener start(String mode, String ioModel, int port, int backendPort, int clients)
+            throws Exception {
+        Config.ServerConfig serverConfig = new Config.ServerConfig();
+        serverConfig.setHost("127.0.0.1");
+        serverConfig.setPort(port);
+        serverConfig.setThreadPoolSize(clients * 2 + 4);
+        serverConfig.setMode(mode);
+        serverConfig.setIoModel(ioModel);
+        List<Backend> backends = List.of(new Backend("127.0.0.1", backendPort, 1));
+        Listener listener = new Listener(serverConfig, backends, new RoundRobinAlgorithm());
+        Thread acceptor = new Thread(() -> {
+            try {
+                listener.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        acceptor.start();
+        Thread.sleep(500);
+        return listener;
+    }
+
+    /*
+     * Runs the small requests on every client and then the download, and
+     * prints the results unless this is a warm-up.
+     */
+    private static void run(String label, int port, int clients, int requests, boolean warmUp) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<long[]>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            futures.add(pool.submit(() -> smallRequests(port, requests)));
+        }
+        long[] latencies = new long[clients * requests];
+        int filled = 0;
+        for (Future<long[]> future : futures) {
+            long[] result = future.get();
+            System.arraycopy(result, 0, latencies, filled, result.length);
+            filled += result.length;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        long downloadStart = System.nanoTime();
+        long downloaded;
+        try (Socket socket = connect(port)) {
+            downloaded = exchange(socket, new BufferedInputStream(socket.getInputStream(), 64 * 1024), "/large");
+        }
+        double downloadSeconds = (System.nanoTime() - downloadStart) / 1e9;
+
+        if (!warmUp) {
+            Arrays.sort(latencies);
+            System.out.printf("%-8s %8.0f req/s  p50=%5d us  p99=%5d us   download %7.0f MB/s%n", label,
+                    clients * requests / seconds, latencies[latencies.length / 2] / 1_000,
+                    latencies[latencies.length * 99 / 100] / 1_000, downloaded / 1048576.0 / downloadSeconds);
+        }
+    }
+
+    // Sends the requests over one keep-alive connection and returns each latency in nanoseconds
+    private static long[] smallRequests(int port, int requests) throws IOException {
+        long[] latencies = new long[requests];
+        try (Socket socket = connect(port)) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            for (int i = 0; i < requests; i++) {
+                long start = System.nanoTime();
+                exchange(socket, in, "/small");
+                latencies[i] = System.nanoTime() - start;
+            }
+        }
+        return latencies;
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(30_000);
+        return socket;
+    }
+
+    /*
+     * Backend: keep-alive connections answering /large with the download
+     * and anything else with a 128-byte body.
+     */
+    private static void serve(ServerSocket server, long downloadLength) {
+        byte[] small = ("HTTP/1.1 200 OK\r\nContent-Length: 128\r\n\r\n" + "x".repeat(128))
+                .getBytes(StandardCharsets.US_ASCII);
+        byte[] chunk = new byte[64 * 1024];
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread connection = new Thread(() -> {
+                    try (socket) {
+                        socket.setTcpNoDelay(true);
+                        InputStream in = new BufferedInputStream(socket.getInputStream());
+                        OutputStream out = socket.getOutputStream();
+                        String requestLine;
+                        while ((requestLine = readHead(in)) != null) {
+                            if (!requestLine.startsWith("GET /large ")) {
+                                out.write(small);
+                                continue;
+                            }
+                            out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + downloadLength + "\r\n\r\n")
+                                    .getBytes(StandardCharsets.US_ASCII));
+                            for (long sent = 0; sent < downloadLength; sent += chunk.length) {
+                                out.write(chunk, 0, (int) Math.min(chunk.length, downloadLength - sent));
+                            }
+                        }
+                    } catch (IOException e) {
+                        // Client gone
+                    }
+                });
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    // Reads a request head and returns its first line, or null at the end of the stream
+    private static String readHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0) {
+            head.append((char) b);
+            if (head.length() >= 4 && head.lastIndexOf("\r\n\r\n") == head.length() - 4) {
+                return head.substring(0, head.indexOf("\r\n"));
+            }
+        }
+        return null;
+    }
+
+    // Sends a GET, reads the response head and discards the body; returns the body length
+    private static long exchange(Socket socket, InputStream in, String path) throws IOException {
+        socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: bench\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        long contentLength = -1;
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Connection closed in the response head");
+            }
+            if (b != '\n') {
+                line.append((char) b);
+                continue;
+            }
+            String header = line.toString().trim();
+            line.setLength(0);
+            if (header.isEmpty()) {
+                break;
+            }
+            if (header.regionMatches(true, 0, "content-length:", 0, 15)) {
+                contentLength = Long.parseLong(header.substring(15).trim());
+            }
+        }
+        if (contentLength < 0) {
+            throw new IOException("Response without Content-Length");
+        }
+        in.skipNBytes(contentLength);
+        return contentLength;
+    }
+}
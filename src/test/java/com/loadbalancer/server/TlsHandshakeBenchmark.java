@@ -0,0 +1,218 @@
+package com.loadbalancer.server;
+
+import com.loadbalancer.algorithm.RoundRobinAlgorithm;
+import com.loadbalancer.config.Config;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Compares full and resumed TLS handshakes on a terminating listener. The
+ * certificate is self-signed and generated with keytool into a temporary
+ * directory. Each connection handshakes, sends one request and reads the
+ * response (which also delivers the TLS 1.3 session ticket). For full
+ * handshakes the client invalidates each session after use, so it has none
+ * to offer on the next connection; for resumed ones it keeps them. The JDK
+ * client caches one session per server, so with TLS 1.3, whose tickets are
+ * used once, concurrent clients sometimes find none and handshake in full.
+ * Reports the connections per second, the p50/p99 handshake time and the
+ * listener's own count of handshakes and resumed handshakes.
+ *
+ * Not a unit test (surefire skips it); run it after test-compile with
+ *
+ *   java -cp target/classes:target/test-classes:<dependencies> \
+ *       com.loadbalancer.server.TlsHandshakeBenchmark [clients] [connections] [protocol] [keyAlg]
+ */
+public class TlsHandshakeBenchmark {
+    private static final String PASSWORD = "benchmark";
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        String protocol = args.length > 2 ? args[2] : "TLSv1.3";
+        String keyAlg = args.length > 3 ? args[3] : "RSA";
+
+        Path directory = Files.createTempDirectory("tls-benchmark");
+        Path keystore = directory.resolve("server.p12");
+        generateKeystore(keystore, keyAlg);
+
+        ServerSocket backend = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        Thread serving = new Thread(() -> serve(backend));
+        serving.setDaemon(true);
+        serving.start();
+
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Config.TlsConfig tls = new Config.TlsConfig();
+        tls.setEnabled(true);
+        tls.setKeystore(keystore.toString());
+        tls.setKeystorePassword(PASSWORD);
+        Config.ServerConfig serverConfig = new Config.ServerConfig();
+        serverConfig.setHost("127.0.0.1");
+        serverConfig.setPort(port);
+        serverConfig.setThreadPoolSize(clients * 2);
+        serverConfig.setTls(tls);
+        List<Backend> backends = List.of(new Backend("127.0.0.1", backend.getLocalPort(), 1));
+        Listener listener = new Listener(serverConfig, backends, new RoundRobinAlgorithm());
+        Thread acceptor = new Thread(() -> {
+            try {
+                listener.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        acceptor.start();
+        Thread.sleep(500);
+
+        KeyStore trusted = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keystore)) {
+            trusted.load(in, PASSWORD.toCharArray());
+        }
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(trusted);
+
+        System.out.printf("%d clients x %d connections, %s, %s key, Java %s%n", clients, connections, protocol,
+                keyAlg, Runtime.version().feature());
+        TlsTerminator terminator = listener.getTlsTerminator();
+        for (boolean resume : new boolean[] {false, true, false, true}) {
+            long handshakes = terminator.getHandshakes();
+            long resumed = terminator.getResumedHandshakes();
+            long[] result = run(port, trust, protocol, resume, clients, connections);
+            double seconds = result[result.length - 1] / 1e9;
+            long[] latencies = Arrays.copyOf(result, result.length - 1);
+            Arrays.sort(latencies);
+            System.out.printf("%-7s %7.0f conn/s  handshake p50=%6d us  p99=%6d us   listener: %d handshakes, "
+                    + "%d resumed, %d sessions cached%n", resume ? "resumed" : "full",
+                    latencies.length / seconds, latencies[latencies.length / 2] / 1_000,
+                    latencies[latencies.length * 99 / 100] / 1_000, terminator.getHandshakes() - handshakes,
+                    terminator.getResumedHandshakes() - resumed, terminator.getCachedSessions());
+        }
+
+        listener.stop();
+        backend.close();
+        Files.delete(keystore);
+        Files.delete(directory);
+        System.exit(0);
+    }
+
+    /*
+     * Opens the connections on every client and returns each handshake time
+     * followed by the total wall time, in nanoseconds.
+     */
+    private static long[] run(int port, TrustManagerFactory trust, String protocol, boolean resume, int clients,
+            int connections) throws Exception {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trust.getTrustManagers(), null);
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<long[]>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            futures.add(pool.submit(() -> {
+                long[] latencies = new long[connections];
+                for (int j = 0; j < connections; j++) {
+                    latencies[j] = connect(context, port, protocol, resume);
+                }
+                return latencies;
+            }));
+        }
+        long[] result = new long[clients * connections + 1];
+        int filled = 0;
+        for (Future<long[]> future : futures) {
+            long[] latencies = future.get();
+            System.arraycopy(latencies, 0, result, filled, latencies.length);
+            filled += latencies.length;
+        }
+        result[filled] = System.nanoTime() - start;
+        pool.shutdown();
+        return result;
+    }
+
+    /*
+     * Handshakes, sends a request, reads the response and returns the
+     * handshake time in nanoseconds. Unless resuming, the session is
+     * invalidated so that the next connection cannot offer it.
+     */
+    private static long connect(SSLContext context, int port, String protocol, boolean resume) throws IOException {
+        try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("127.0.0.1", port)) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(10_000);
+            socket.setEnabledProtocols(new String[] {protocol});
+            long start = System.nanoTime();
+            socket.startHandshake();
+            long handshake = System.nanoTime() - start;
+            socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: bench\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            socket.getInputStream().transferTo(OutputStream.nullOutputStream());
+            if (!resume) {
+                socket.getSession().invalidate();
+            }
+            return handshake;
+        }
+    }
+
+    // Backend: answers every request with a short response in a single write and closes
+    private static void serve(ServerSocket server) {
+        byte[] response = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok"
+                .getBytes(StandardCharsets.US_ASCII);
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread connection = new Thread(() -> {
+                    try (socket) {
+                        InputStream in = socket.getInputStream();
+                        int matched = 0;
+                        // Read up to the end of the request head
+                        while (matched < 4) {
+                            int b = in.read();
+                            if (b < 0) {
+                                return;
+                            }
+                            matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+                        }
+                        socket.getOutputStream().write(response);
+                    } catch (IOException e) {
+                        // Client gone
+                    }
+                });
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    // Generates a self-signed key pair for localhost with the JDK's keytool
+    private static void generateKeystore(Path keystore, String keyAlg) throws IOException, InterruptedException {
+        String keytool = Path.of(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "server", "-keyalg", keyAlg,
+                "-keysize", "RSA".equals(keyAlg) ? "2048" : "256", "-dname", "CN=localhost",
+                "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "2", "-storetype", "PKCS12",
+                "-keystore", keystore.toString(), "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        if (process.waitFor() != 0) {
+            throw new IOException("keytool failed: " + output);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.loadbalancer.server;
+
+import com.loadbalancer.algorithm.RoundRobinAlgorithm;
+import com.loadbalancer.config.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Measures messages per second through an upgraded (WebSocket-style)
+ * tunnel. An echo backend answers the upgrade with 101 and then echoes every
+ * byte; each client upgrades through the listener, then sends messages one at
+ * a time and waits for each echo (round trip), and finally streams messages
+ * without waiting. The same clients connecting to the backend directly give
+ * the baseline. Also reports the backend's active connections while the
+ * tunnels are open, which least-connections balances on.
+ *
+ * Not a unit test (surefire skips it); run it after test-compile with
+ *
+ *   java -cp target/classes:target/test-classes:<dependencies> \
+ *       com.loadbalancer.server.TunnelBenchmark [clients] [messages] [messageBytes]
+ */
+public class TunnelBenchmark {
+    private static final byte[] UPGRADE = ("GET /socket HTTP/1.1\r\nHost: bench\r\nUpgrade: websocket\r\n"
+            + "Connection: Upgrade\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] SWITCHING = ("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\n"
+            + "Connection: Upgrade\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int messageBytes = args.length > 2 ? Integer.parseInt(args[2]) : 128;
+
+        ServerSocket backendServer = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        Thread echo = new Thread(() -> echo(backendServer));
+        echo.setDaemon(true);
+        echo.start();
+
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Config.ServerConfig serverConfig = new Config.ServerConfig();
+        serverConfig.setHost("127.0.0.1");
+        serverConfig.setPort(port);
+        serverConfig.setThreadPoolSize(clients * 2);
+        Backend backend = new Backend("127.0.0.1", backendServer.getLocalPort(), 1);
+        Listener listener = new Listener(serverConfig, List.of(backend), new RoundRobinAlgorithm());
+        Thread acceptor = new Thread(() -> {
+            try {
+                listener.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        acceptor.start();
+        Thread.sleep(500);
+
+        System.out.printf("%d clients, %d messages of %d bytes each, Java %s%n", clients, messages, messageBytes,
+                Runtime.version().feature());
+        // A short warm-up through the tunnel, then the measured runs
+        run("warm-up", port, null, clients, Math.max(1, messages / 10), messageBytes, false);
+        run("direct", backendServer.getLocalPort(), null, clients, messages, messageBytes, true);
+        run("tunnel", port, backend, clients, messages, messageBytes, true);
+
+        listener.stop();
+        backendServer.close();
+        System.exit(0);
+    }
+
+    /*
+     * Opens one upgraded connection per client, runs the round trips and
+     * then the stream on all of them at once, and prints the results.
+     */
+    private static void run(String label, int port, Backend backend, int clients, int messages, int messageBytes,
+            boolean print) throws Exception {
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            sockets.add(upgrade(port));
+        }
+        String active = backend != null ? String.valueOf(backend.getActiveConnections()) : "-";
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients * 2);
+        List<Future<long[]>> roundTrips = new ArrayList<>();
+        long start = System.nanoTime();
+        for (Socket socket : sockets) {
+            roundTrips.add(pool.submit(() -> roundTrips(socket, messages, messageBytes)));
+        }
+        long[] latencies = new long[clients * messages];
+        int filled = 0;
+        for (Future<long[]> future : roundTrips) {
+            long[] result = future.get();
+            System.arraycopy(result, 0, latencies, filled, result.length);
+            filled += result.length;
+        }
+        double roundTripSeconds = (System.nanoTime() - start) / 1e9;
+
+        List<Future<?>> streams = new ArrayList<>();
+        start = System.nanoTime();
+        for (Socket socket : sockets) {
+            streams.add(pool.submit(() -> send(socket, messages, messageBytes)));
+            streams.add(pool.submit(() -> receive(socket, (long) messages * messageBytes)));
+        }
+        for (Future<?> future : streams) {
+            future.get();
+        }
+        double streamSeconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+
+        if (print) {
+            Arrays.sort(latencies);
+            System.out.printf("%-7s round trip %8.0f msg/s  p50=%5d us  p99=%5d us   stream %9.0f msg/s"
+                    + "   active=%s%n", label, clients * messages / roundTripSeconds,
+                    latencies[latencies.length / 2] / 1_000, latencies[latencies.length * 99 / 100] / 1_000,
+                    clients * messages / streamSeconds, active);
+        }
+    }
+
+    // Connects, sends the upgrade request and reads the 101 response head
+    private static Socket upgrade(int port) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(10_000);
+        socket.getOutputStream().write(UPGRADE);
+        String head = readHead(socket.getInputStream());
+        if (!head.startsWith("HTTP/1.1 101")) {
+            throw new IOException("Upgrade refused: " + head);
+        }
+        return socket;
+    }
+
+    // Sends messages one at a time and returns each echo's round trip in nanoseconds
+    private static long[] roundTrips(Socket socket, int messages, int messageBytes) throws IOException {
+        byte[] message = new byte[messageBytes];
+        byte[] reply = new byte[messageBytes];
+        long[] latencies = new long[messages];
+        OutputStream out = socket.getOutputStream();
+        InputStream in = socket.getInputStream();
+        for (int i = 0; i < messages; i++) {
+            long start = System.nanoTime();
+            out.write(message);
+            if (in.readNBytes(reply, 0, messageBytes) != messageBytes) {
+                throw new IOException("Tunnel closed early");
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private static Void send(Socket socket, int messages, int messageBytes) throws IOException {
+        byte[] message = new byte[messageBytes];
+        OutputStream out = socket.getOutputStream();
+        for (int i = 0; i < messages; i++) {
+            out.write(message);
+        }
+        return null;
+    }
+
+    private static Void receive(Socket socket, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        InputStream in = socket.getInputStream();
+        long remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                throw new IOException("Tunnel closed early");
+            }
+            remaining -= n;
+        }
+        return null;
+    }
+
+    // Backend: answers each upgrade with 101 and echoes everything after it
+    private static void echo(ServerSocket server) {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread connection = new Thread(() -> {
+                    try (socket) {
+                        socket.setTcpNoDelay(true);
+                        InputStream in = socket.getInputStream();
+                        OutputStream out = socket.getOutputStream();
+                        readHead(in);
+                        out.write(SWITCHING);
+                        byte[] buffer = new byte[8192];
+                        int n;
+                        while ((n = in.read(buffer)) >= 0) {
+                            out.write(buffer, 0, n);
+                        }
+                    } catch (IOException e) {
+                        // Client gone
+                    }
+                });
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    // Reads a header block up to the empty line, byte by byte so nothing after it is consumed
+    private static String readHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Connection closed in the header block");
+            }
+            head.append((char) b);
+        }
+        return head.toString();
+    }
+}